@@ -0,0 +1,154 @@
+package org.ggp.base.apps.benchmark;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.ggp.base.server.request.RequestBuilder;
+import org.ggp.base.util.game.TestGameRepository;
+import org.ggp.base.util.gdl.grammar.Gdl;
+import org.ggp.base.util.gdl.scrambler.NoOpGdlScrambler;
+import org.ggp.base.util.http.HttpServerConnection;
+import org.ggp.base.util.statemachine.Role;
+import org.ggp.base.util.symbol.factory.SymbolFactory;
+
+/**
+ * HttpReaderThroughputBenchmark sends large start requests, carrying the
+ * rules of every test game at once, over a kept-alive connection, and
+ * reports how fast HttpServerConnection reads them, and reads and parses
+ * them, compared to reading them a line and a character at a time as
+ * HttpReader used to.
+ *
+ * The number of requests may be given as an argument; it defaults to 100.
+ */
+public class HttpReaderThroughputBenchmark {
+    public static void main(String[] args) throws Exception {
+        int requests = (args.length > 0) ? Integer.parseInt(args[0]) : 100;
+        String request = getLargeStartRequest();
+        double bytes = requests * (double) request.length();
+
+        ServerSocket listener = new ServerSocket(0);
+        Socket client = new Socket("127.0.0.1", listener.getLocalPort());
+        Socket server = listener.accept();
+        ExecutorService writer = Executors.newSingleThreadExecutor();
+        try {
+            // Each way runs twice, the first time to warm up.
+            double oldReading = 0, newReading = 0, oldParsing = 0, newParsing = 0;
+            for (int round = 0; round < 2; round++) {
+                oldReading = bytes / readTheOldWay(client, server, writer, request, requests, false);
+                newReading = bytes / readTheNewWay(client, server, writer, request, requests, false);
+                oldParsing = bytes / readTheOldWay(client, server, writer, request, requests, true);
+                newParsing = bytes / readTheNewWay(client, server, writer, request, requests, true);
+            }
+            System.out.println(String.format("Reading %d start requests of %d bytes: %.1f MB/s before, %.1f MB/s now (%.2fx)",
+                    requests, request.length(), oldReading / 1e6, newReading / 1e6, newReading / oldReading));
+            System.out.println(String.format("Reading and parsing them: %.1f MB/s before, %.1f MB/s now (%.2fx)",
+                    oldParsing / 1e6, newParsing / 1e6, newParsing / oldParsing));
+        } finally {
+            writer.shutdownNow();
+            client.close();
+            server.close();
+            listener.close();
+        }
+    }
+
+    /** Returns the seconds taken to read the requests as HttpReader used to. */
+    private static double readTheOldWay(Socket client, Socket server, ExecutorService writer, String request, int requests, boolean parse) throws Exception {
+        Future<Void> written = writeInBackground(client, writer, request, requests);
+        long start = System.nanoTime();
+        BufferedReader br = new BufferedReader(new InputStreamReader(server.getInputStream()));
+        for (int i = 0; i < requests; i++) {
+            String content = readContentFromPOST(br);
+            if (parse) {
+                SymbolFactory.create(content);
+            }
+        }
+        double seconds = (System.nanoTime() - start) / 1e9;
+        written.get();
+        return seconds;
+    }
+
+    private static double readTheNewWay(Socket client, Socket server, ExecutorService writer, String request, int requests, boolean parse) throws Exception {
+        Future<Void> written = writeInBackground(client, writer, request, requests);
+        long start = System.nanoTime();
+        HttpServerConnection connection = new HttpServerConnection(server);
+        for (int i = 0; i < requests; i++) {
+            CharSequence content = connection.readRequestContent();
+            if (parse) {
+                SymbolFactory.create(content);
+            }
+        }
+        double seconds = (System.nanoTime() - start) / 1e9;
+        written.get();
+        return seconds;
+    }
+
+    /** The way HttpReader read the content of requests before it read them into a buffer. */
+    private static String readContentFromPOST(BufferedReader br) throws IOException {
+        br.readLine();
+        String line;
+        int theContentLength = -1;
+        StringBuilder theContent = new StringBuilder();
+        while ((line = br.readLine()) != null) {
+            if (line.toLowerCase().startsWith("content-length:")) {
+                theContentLength = Integer.parseInt(line.toLowerCase().replace("content-length:", "").trim());
+            } else if (line.length() == 0) {
+                for (int i = 0; i < theContentLength; i++) {
+                    theContent.append((char)br.read());
+                }
+                return theContent.toString().trim();
+            }
+        }
+        throw new IOException("Could not find content in POST request.");
+    }
+
+    /** Writes the request the given number of times, as kept-alive requests. */
+    private static Future<Void> writeInBackground(final Socket client, ExecutorService writer, final String content, final int times) {
+        return writer.submit(new Callable<Void>() {
+            @Override
+            public Void call() throws Exception {
+                StringBuilder sb = new StringBuilder();
+                sb.append("POST / HTTP/1.0\r\n");
+                sb.append("Accept: text/delim\r\n");
+                sb.append("Host: 127.0.0.1\r\n");
+                sb.append("Sender: GAMESERVER\r\n");
+                sb.append("Receiver: Player\r\n");
+                sb.append("Content-Type: text/acl\r\n");
+                sb.append("Connection: keep-alive\r\n");
+                sb.append("Content-Length: ").append(content.length()).append("\r\n");
+                sb.append("\r\n");
+                sb.append(content);
+                byte[] request = sb.toString().getBytes();
+                OutputStream out = client.getOutputStream();
+                for (int i = 0; i < times; i++) {
+                    out.write(request);
+                }
+                out.flush();
+                return null;
+            }
+        });
+    }
+
+    /** A start request carrying the rules of every test game at once. */
+    private static String getLargeStartRequest() {
+        TestGameRepository repository = new TestGameRepository();
+        List<Gdl> rules = new ArrayList<Gdl>();
+        for (File file : new File("games/test").listFiles()) {
+            if (file.getName().endsWith(".kif")) {
+                rules.addAll(repository.getGame(file.getName().replace(".kif", "")).getRules());
+            }
+        }
+        Role role = Role.computeRoles(repository.getGame("ticTacToe").getRules()).get(0);
+        return RequestBuilder.getStartRequest("match1", role, rules, 60, 15, new NoOpGdlScrambler());
+    }
+}
@@ -0,0 +1,94 @@
+package org.ggp.base.apps.benchmark;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.ggp.base.util.game.TestGameRepository;
+import org.ggp.base.util.statemachine.MachineState;
+import org.ggp.base.util.statemachine.Move;
+import org.ggp.base.util.statemachine.Role;
+import org.ggp.base.util.statemachine.StateMachine;
+import org.ggp.base.util.statemachine.implementation.prover.ProverStateMachine;
+
+/**
+ * ProverThroughputBenchmark runs random playouts on one ProverStateMachine
+ * from more and more threads at once, and reports how many playouts per
+ * second each number of threads manages. Threads share the machine without
+ * locking, so throughput shouldn't drop as they're added, even past the
+ * number of processors.
+ *
+ * The game key (from the test repository) may be given as an argument; it
+ * defaults to connectFour.
+ */
+public class ProverThroughputBenchmark {
+    private static final int PLAYOUTS = 24;
+    private static final int[] THREAD_COUNTS = {1, 2, 4, 8};
+
+    public static void main(String[] args) throws Exception {
+        String gameKey = (args.length > 0) ? args[0] : "connectFour";
+        System.out.println(Runtime.getRuntime().availableProcessors() + " processors");
+        run(gameKey, "untabled", new ProverStateMachine());
+        run(gameKey, "tabled", new ProverStateMachine(true));
+    }
+
+    private static void run(String gameKey, String name, final StateMachine sm) throws Exception {
+        sm.initialize(new TestGameRepository().getGame(gameKey).getRules());
+
+        // Warms up the machine's caches, so that every run is comparable.
+        for (int i = 0; i < PLAYOUTS; i++) {
+            playout(sm, i);
+        }
+
+        double singleThreaded = 0;
+        for (int threads : THREAD_COUNTS) {
+            ExecutorService executor = Executors.newFixedThreadPool(threads);
+            try {
+                List<Future<MachineState>> results = new ArrayList<Future<MachineState>>();
+                long start = System.nanoTime();
+                for (int i = 0; i < PLAYOUTS; i++) {
+                    final int seed = i;
+                    results.add(executor.submit(new Callable<MachineState>() {
+                        @Override
+                        public MachineState call() throws Exception {
+                            return playout(sm, seed);
+                        }
+                    }));
+                }
+                for (Future<MachineState> result : results) {
+                    result.get();
+                }
+                double throughput = PLAYOUTS * 1e9 / (System.nanoTime() - start);
+                if (threads == 1) {
+                    singleThreaded = throughput;
+                }
+                System.out.println(String.format("%s, %s prover, %d thread(s): %.1f playouts/s (%.2fx)",
+                        gameKey, name, threads, throughput, throughput / singleThreaded));
+            } finally {
+                executor.shutdownNow();
+            }
+        }
+    }
+
+    /** Plays random moves from the initial state, chosen by a generator with the given seed. */
+    private static MachineState playout(StateMachine sm, long seed) throws Exception {
+        Random random = new Random(seed);
+        MachineState state = sm.getInitialState();
+        while (!sm.isTerminal(state)) {
+            List<Move> moves = new ArrayList<Move>();
+            for (Role role : sm.getRoles()) {
+                List<Move> legalMoves = sm.getLegalMoves(state, role);
+                moves.add(legalMoves.get(random.nextInt(legalMoves.size())));
+            }
+            state = sm.getNextState(state, moves);
+        }
+        for (Role role : sm.getRoles()) {
+            sm.getGoal(state, role);
+        }
+        return state;
+    }
+}
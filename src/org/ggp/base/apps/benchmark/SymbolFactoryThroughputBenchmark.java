@@ -0,0 +1,85 @@
+package org.ggp.base.apps.benchmark;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedList;
+import java.util.List;
+
+import org.ggp.base.util.files.FileUtils;
+import org.ggp.base.util.game.Game;
+import org.ggp.base.util.symbol.factory.SymbolFactory;
+import org.ggp.base.util.symbol.grammar.Symbol;
+import org.ggp.base.util.symbol.grammar.SymbolPool;
+
+/**
+ * SymbolFactoryThroughputBenchmark parses every test rulesheet at once, as a
+ * single list, and reports how fast SymbolFactory does so compared to the
+ * way it used to, by splitting the whole string into tokens first.
+ *
+ * The number of rounds may be given as an argument; it defaults to 200.
+ */
+public class SymbolFactoryThroughputBenchmark {
+    public static void main(String[] args) throws Exception {
+        int rounds = (args.length > 0) ? Integer.parseInt(args[0]) : 200;
+        StringBuilder sb = new StringBuilder("(");
+        for (File file : findRulesheets(new File("games/test"))) {
+            sb.append(Game.preprocessRulesheet(FileUtils.readFileAsString(file)));
+        }
+        String rulesheets = sb.append(")").toString();
+
+        // Each way runs twice, the first time to warm up.
+        double oldSeconds = 0, newSeconds = 0;
+        for (int warmup = 0; warmup < 2; warmup++) {
+            long start = System.nanoTime();
+            for (int i = 0; i < rounds; i++) {
+                createTheOldWay(rulesheets);
+            }
+            oldSeconds = (System.nanoTime() - start) / 1e9;
+            start = System.nanoTime();
+            for (int i = 0; i < rounds; i++) {
+                SymbolFactory.create(rulesheets);
+            }
+            newSeconds = (System.nanoTime() - start) / 1e9;
+        }
+        double bytes = rounds * (double) rulesheets.length();
+        System.out.println(String.format("Parsing %d characters of rulesheets: %.1f MB/s before, %.1f MB/s now (%.2fx)",
+                rulesheets.length(), bytes / oldSeconds / 1e6, bytes / newSeconds / 1e6, oldSeconds / newSeconds));
+    }
+
+    private static List<File> findRulesheets(File directory) {
+        List<File> rulesheets = new ArrayList<File>();
+        File[] files = directory.listFiles();
+        Arrays.sort(files);
+        for (File file : files) {
+            if (file.isDirectory()) {
+                rulesheets.addAll(findRulesheets(file));
+            } else if (file.getName().endsWith(".kif")) {
+                rulesheets.add(file);
+            }
+        }
+        return rulesheets;
+    }
+
+    /** The way SymbolFactory parsed strings before it did so in one pass. */
+    private static Symbol createTheOldWay(String string) {
+        String preprocessed = string.replaceAll("\\(", " ( ");
+        preprocessed = preprocessed.replaceAll("\\)", " ) ");
+        preprocessed = preprocessed.replaceAll("\\s+", " ");
+        preprocessed = preprocessed.trim();
+        return convert(new LinkedList<String>(Arrays.asList(preprocessed.split(" "))));
+    }
+
+    private static Symbol convert(LinkedList<String> tokens) {
+        if (!tokens.getFirst().equals("(")) {
+            return SymbolPool.getAtom(tokens.removeFirst());
+        }
+        List<Symbol> contents = new ArrayList<Symbol>();
+        tokens.removeFirst();
+        while (!tokens.getFirst().equals(")")) {
+            contents.add(convert(tokens));
+        }
+        tokens.removeFirst();
+        return SymbolPool.getList(contents);
+    }
+}
@@ -7,6 +7,7 @@ import java.util.List;
 
 import org.ggp.base.player.GamePlayer;
 import org.ggp.base.player.gamer.Gamer;
+import org.ggp.base.player.gamer.GamerFactory;
 import org.ggp.base.util.reflection.ProjectSearcher;
 
 /**
@@ -18,13 +19,14 @@ public final class PlayerRunner
 {
 	public static void main(String[] args) throws IOException, InstantiationException, IllegalAccessException
 	{
-		if (args.length != 2 || args[0].equals("${arg0}")) {
-			System.out.println("PlayerRunner [port] [name]");
+		if (args.length < 2 || args.length > 3 || args[0].equals("${arg0}")) {
+			System.out.println("PlayerRunner [port] [name] [max matches, default 1]");
 			System.out.println("example: ant PlayerRunner -Darg0=9147 -Darg1=TurboTurtle");
 			return;
 		}
     	int port = Integer.parseInt(args[0]);
     	String name = args[1];
+    	int maxMatches = (args.length > 2) ? Integer.parseInt(args[2]) : 1;
     	System.out.println("Starting up preconfigured player on port " + port + " using player class named " + name);
     	Class<?> chosenGamerClass = null;
     	List<String> availableGamers = new ArrayList<String>();
@@ -38,7 +40,21 @@ public final class PlayerRunner
     		System.out.println("Could not find player class with that name. Available choices are: " + Arrays.toString(availableGamers.toArray()));
     		return;
     	}
-    	Gamer gamer = (Gamer) chosenGamerClass.newInstance();
-		new GamePlayer(port, gamer).start();
+    	if (maxMatches == 1) {
+    		Gamer gamer = (Gamer) chosenGamerClass.newInstance();
+    		new GamePlayer(port, gamer).start();
+    		return;
+    	}
+    	final Class<?> gamerClass = chosenGamerClass;
+    	new GamePlayer(port, new GamerFactory() {
+			@Override
+			public Gamer createGamer() {
+				try {
+					return (Gamer) gamerClass.newInstance();
+				} catch (Exception e) {
+					throw new RuntimeException(e);
+				}
+			}
+		}, maxMatches).start();
 	}
 }
\ No newline at end of file
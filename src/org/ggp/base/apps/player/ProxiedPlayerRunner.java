@@ -11,7 +11,9 @@ public final class ProxiedPlayerRunner
     public static void main(String[] args) throws IOException
     {
         Class<? extends Gamer> toLaunch = RandomGamer.class;
-        ProxyGamePlayer player = new ProxyGamePlayer(9147, toLaunch);
+        // Optionally, the number of worker processes to run the gamer in.
+        int numWorkers = (args.length > 0) ? Integer.parseInt(args[0]) : 1;
+        ProxyGamePlayer player = new ProxyGamePlayer(9147, toLaunch, numWorkers);
         player.start();
     }
 }
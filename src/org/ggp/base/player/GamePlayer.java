@@ -2,35 +2,88 @@ package org.ggp.base.player;
 
 import java.io.IOException;
 import java.net.ServerSocket;
-import java.net.Socket;
-import java.util.ArrayList;
+import java.net.SocketTimeoutException;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
 
 import org.ggp.base.player.event.PlayerDroppedPacketEvent;
 import org.ggp.base.player.event.PlayerReceivedMessageEvent;
 import org.ggp.base.player.event.PlayerSentMessageEvent;
 import org.ggp.base.player.gamer.Gamer;
+import org.ggp.base.player.gamer.GamerFactory;
+import org.ggp.base.player.gamer.event.GamerUnrecognizedMatchEvent;
 import org.ggp.base.player.gamer.statemachine.random.RandomGamer;
 import org.ggp.base.player.request.factory.RequestFactory;
-import org.ggp.base.player.request.grammar.Request;
-import org.ggp.base.util.http.HttpReader;
-import org.ggp.base.util.http.HttpWriter;
+import org.ggp.base.player.request.factory.exceptions.RequestFormatException;
+import org.ggp.base.util.concurrency.KeyedExecutor;
+import org.ggp.base.util.gdl.grammar.GdlPool;
+import org.ggp.base.util.http.HttpServerConnection;
 import org.ggp.base.util.logging.GamerLogger;
 import org.ggp.base.util.observer.Event;
 import org.ggp.base.util.observer.Observer;
 import org.ggp.base.util.observer.Subject;
+import org.ggp.base.util.symbol.grammar.SymbolList;
 
-
+/**
+ * GamePlayer listens for the match host's requests and has its gamers respond
+ * to them. It can play several matches at once, each with a gamer of its own
+ * from a {@link GamerFactory}. Requests are processed on a pool of threads,
+ * one at a time for each match, so that a slow request in one match doesn't
+ * hold up the others. Info requests are answered straight away.
+ */
 public final class GamePlayer extends Thread implements Subject
 {
     private final int port;
     private final Gamer gamer;
     private ServerSocket listener;
+    /** Notified from the threads of every connection, so copied on write. */
     private final List<Observer> observers;
 
-    public GamePlayer(int port, Gamer gamer) throws IOException
+    private final GamerFactory gamerFactory;
+    private final int maxMatches;
+    private final RequestFactory requestFactory = new RequestFactory();
+    /** Processes the requests of each match in order, keyed by the match's slot. */
+    private final KeyedExecutor dispatcher;
+    /** The slots of the matches in progress, by match id; guards all of the slots. */
+    private final Map<String, MatchSlot> matches = new HashMap<String, MatchSlot>();
+    /** Slots whose gamers aren't playing a match, most recently used first. */
+    private final Deque<MatchSlot> idleSlots = new ArrayDeque<MatchSlot>();
+    private int slotCount = 0;
+    /** The connections being served, so that they can be closed on shutdown. */
+    private final Set<HttpServerConnection> connections = new HashSet<HttpServerConnection>();
+
+    /**
+     * Creates a player that plays one match at a time with the given gamer.
+     * If the port is taken, the next free one is used; a port of zero picks
+     * any free port. Either way, {@link #getGamerPort()} returns the port.
+     */
+    public GamePlayer(int port, final Gamer gamer) throws IOException
+    {
+        this(port, new GamerFactory() {
+            @Override
+            public Gamer createGamer() {
+                return gamer;
+            }
+        }, 1);
+    }
+
+    /**
+     * Creates a player that plays up to the given number of matches at once,
+     * with a new gamer from the factory for each match it can't give one of
+     * its idle gamers. The first gamer is created straight away, and is the
+     * one returned by {@link #getGamer()}.
+     */
+    public GamePlayer(int port, GamerFactory gamerFactory, int maxMatches) throws IOException
     {
-        observers = new ArrayList<Observer>();
+        observers = new CopyOnWriteArrayList<Observer>();
         listener = null;
 
         while(listener == null) {
@@ -43,8 +96,30 @@ public final class GamePlayer extends Thread implements Subject
             }
         }
 
-        this.port = port;
-        this.gamer = gamer;
+        this.port = listener.getLocalPort();
+        this.gamerFactory = gamerFactory;
+        this.maxMatches = maxMatches;
+        this.dispatcher = new KeyedExecutor("GamePlayer on port " + port, maxMatches);
+        MatchSlot first = createSlot();
+        this.gamer = first.gamer;
+        idleSlots.add(first);
+    }
+
+    /**
+     * A gamer, along with the Gdl pool scope holding the Gdl of its match,
+     * which is released whenever it isn't playing one.
+     */
+    private static final class MatchSlot
+    {
+        final Gamer gamer;
+        final GdlPool.Scope scope;
+        String matchId;
+
+        MatchSlot(Gamer gamer, GdlPool.Scope scope)
+        {
+            this.gamer = gamer;
+            this.scope = scope;
+        }
     }
 
 	@Override
@@ -73,31 +148,295 @@ public final class GamePlayer extends Thread implements Subject
 	@Override
 	public void run()
 	{
-		while (!isInterrupted())
+		while (!isInterrupted() && !listener.isClosed())
 		{
 			try
 			{
-				Socket connection = listener.accept();
-				String in = HttpReader.readAsServer(connection);
-				if (in.length() == 0) {
-				    throw new IOException("Empty message received.");
+				serve(new HttpServerConnection(listener.accept()));
+			}
+			catch (Exception e)
+			{
+				if (!listener.isClosed())
+				{
+					notifyObservers(new PlayerDroppedPacketEvent());
 				}
+			}
+		}
+	}
 
-				notifyObservers(new PlayerReceivedMessageEvent(in));
-				GamerLogger.log("GamePlayer", "[Received at " + System.currentTimeMillis() + "] " + in, GamerLogger.LOG_LEVEL_DATA_DUMP);
-
-				Request request = new RequestFactory().create(gamer, in);
-				String out = request.process(System.currentTimeMillis());
+	/**
+	 * Stops listening for requests and closes the connections being served.
+	 * Requests being processed are interrupted, and those waiting for their
+	 * match are cancelled.
+	 */
+	public void shutdown()
+	{
+		try
+		{
+			listener.close();
+		}
+		catch (IOException e)
+		{
+			;
+		}
+		dispatcher.shutdown();
+		synchronized (connections)
+		{
+			for (HttpServerConnection connection : connections)
+			{
+				connection.close();
+			}
+			connections.clear();
+		}
+	}
 
-				HttpWriter.writeAsServer(connection, out);
+	/**
+	 * Answers the requests on a connection, on a thread of its own so that
+	 * other connections can still be accepted, until the match host closes
+	 * it or stops asking for it to be kept open.
+	 */
+	private void serve(final HttpServerConnection connection)
+	{
+		synchronized (connections)
+		{
+			if (listener.isClosed())
+			{
 				connection.close();
-				notifyObservers(new PlayerSentMessageEvent(out));
-				GamerLogger.log("GamePlayer", "[Sent at " + System.currentTimeMillis() + "] " + out, GamerLogger.LOG_LEVEL_DATA_DUMP);
+				return;
 			}
-			catch (Exception e)
+			connections.add(connection);
+		}
+		Thread thread = new Thread("GamePlayer connection on port " + port) {
+			@Override
+			public void run() {
+				try {
+					CharSequence in = connection.readRequestContent();
+					do {
+						respond(connection, in);
+					} while (connection.isKeepAlive() && (in = connection.readRequestContent()) != null);
+				} catch (SocketTimeoutException e) {
+					// The host left the connection unused, and has likely forgotten it.
+				} catch (Exception e) {
+					notifyObservers(new PlayerDroppedPacketEvent());
+				} finally {
+					synchronized (connections) {
+						connections.remove(connection);
+					}
+					connection.close();
+				}
+			}
+		};
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	/**
+	 * Responds to a request, which is parsed straight from the connection's
+	 * buffer; a copy of it is only made if there are observers or the log
+	 * would keep it.
+	 */
+	private void respond(HttpServerConnection connection, CharSequence in) throws Exception
+	{
+		long receptionTime = System.currentTimeMillis();
+		if (in == null || in.length() == 0) {
+		    throw new IOException("Empty message received.");
+		}
+
+		boolean logging = GamerLogger.isLogging(GamerLogger.LOG_LEVEL_DATA_DUMP);
+		if (!observers.isEmpty() || logging) {
+			String message = in.toString();
+			notifyObservers(new PlayerReceivedMessageEvent(message));
+			if (logging) {
+				GamerLogger.log("GamePlayer", "[Received at " + receptionTime + "] " + message, GamerLogger.LOG_LEVEL_DATA_DUMP);
+			}
+		}
+
+		String out = dispatch(in, receptionTime);
+
+		connection.writeResponse(out);
+		notifyObservers(new PlayerSentMessageEvent(out));
+		GamerLogger.log("GamePlayer", "[Sent at " + System.currentTimeMillis() + "] " + out, GamerLogger.LOG_LEVEL_DATA_DUMP);
+	}
+
+	/**
+	 * Processes a request with the gamer of its match, after the requests
+	 * for that match received before it, and returns the response.
+	 */
+	private String dispatch(CharSequence in, final long receptionTime) throws Exception
+	{
+		final SymbolList list = requestFactory.parse(in);
+		String type = requestFactory.getType(list);
+		String matchId = requestFactory.getMatchId(list);
+
+		if (type.equals("info"))
+		{
+			// Answered straight away, without waiting for any match, and
+			// by an idle gamer if there is one, so that it reports whether
+			// there's room for another match.
+			return requestFactory.create(getInfoGamer(), list).process(receptionTime);
+		}
+
+		if (!type.equals("start") && !type.equals("preview") && !type.equals("play") && !type.equals("stop") && !type.equals("abort"))
+		{
+			// Dropped as badly formatted, rather than taken for a request for another match.
+			throw new RequestFormatException(list.toString(), new IllegalArgumentException("Unrecognized request type!"));
+		}
+
+		final MatchSlot slot;
+		if (type.equals("start") || type.equals("preview"))
+		{
+			slot = reserveSlot(matchId);
+			if (slot == null)
+			{
+				GamerLogger.logError("GamePlayer", "Got " + type + " message with no gamer free for another match: ignoring.");
+				if (matchId != null)
+				{
+					gamer.notifyObservers(new GamerUnrecognizedMatchEvent(matchId));
+				}
+				return "busy";
+			}
+		}
+		else
+		{
+			synchronized (matches)
+			{
+				slot = matches.get(matchId);
+			}
+			if (slot == null)
+			{
+				GamerLogger.logError("GamePlayer", "Got " + type + " message not intended for a current game: ignoring.");
+				gamer.notifyObservers(new GamerUnrecognizedMatchEvent(matchId));
+				return "busy";
+			}
+		}
+
+		final String slotMatchId = matchId;
+		try
+		{
+			return dispatcher.submit(slot, new Callable<String>() {
+				@Override
+				public String call() throws Exception {
+					return process(slot, slotMatchId, list, receptionTime);
+				}
+			}).get();
+		}
+		catch (ExecutionException e)
+		{
+			if (e.getCause() instanceof Exception)
+			{
+				throw (Exception) e.getCause();
+			}
+			throw e;
+		}
+	}
+
+	/**
+	 * Processes a request in the scope of its match, and frees the slot for
+	 * another match if the gamer isn't playing this one afterwards, because
+	 * it has ended or never started.
+	 */
+	private String process(MatchSlot slot, String matchId, SymbolList list, long receptionTime) throws Exception
+	{
+		GdlPool.Scope previousScope = GdlPool.enterScope(slot.scope);
+		try
+		{
+			return requestFactory.create(slot.gamer, list).process(receptionTime);
+		}
+		finally
+		{
+			if (slot.gamer.getMatch() == null)
+			{
+				releaseSlot(slot, matchId);
+			}
+			GdlPool.enterScope(previousScope);
+		}
+	}
+
+	/**
+	 * Returns an idle gamer, creating one if there's room for another match,
+	 * or the first gamer if there isn't.
+	 */
+	private Gamer getInfoGamer()
+	{
+		synchronized (matches)
+		{
+			if (idleSlots.isEmpty() && slotCount < maxMatches)
 			{
-				notifyObservers(new PlayerDroppedPacketEvent());
+				idleSlots.add(createSlot());
 			}
+			return idleSlots.isEmpty() ? gamer : idleSlots.peekFirst().gamer;
+		}
+	}
+
+	/**
+	 * Takes an idle slot for a new match, or for a preview if the match id
+	 * is null, or returns null if every slot is in use.
+	 */
+	private MatchSlot reserveSlot(String matchId)
+	{
+		synchronized (matches)
+		{
+			if (matchId != null && matches.containsKey(matchId))
+			{
+				return null;
+			}
+			MatchSlot slot = idleSlots.pollFirst();
+			if (slot == null && slotCount < maxMatches)
+			{
+				slot = createSlot();
+			}
+			if (slot != null)
+			{
+				slot.matchId = matchId;
+				if (matchId != null)
+				{
+					matches.put(matchId, slot);
+				}
+			}
+			return slot;
+		}
+	}
+
+	private MatchSlot createSlot()
+	{
+		slotCount++;
+		String name = "GamePlayer on port " + port + (slotCount > 1 ? " #" + slotCount : "");
+		return new MatchSlot(gamerFactory.createGamer(), GdlPool.createScope(name));
+	}
+
+	/**
+	 * Makes a slot idle, unless it has already been freed from the given
+	 * match, and perhaps reserved for another one since.
+	 */
+	private void releaseSlot(MatchSlot slot, String matchId)
+	{
+		synchronized (matches)
+		{
+			if (idleSlots.contains(slot) || (matchId == null ? slot.matchId != null : !matchId.equals(slot.matchId)))
+			{
+				return;
+			}
+			if (matchId != null)
+			{
+				matches.remove(matchId);
+			}
+			slot.matchId = null;
+			releaseMatchScope(slot.scope);
+			idleSlots.addFirst(slot);
+		}
+	}
+
+	/**
+	 * Discards the Gdl objects of the last match, once it has stopped or
+	 * been aborted, so that memory use doesn't grow from match to match.
+	 */
+	private void releaseMatchScope(GdlPool.Scope matchScope)
+	{
+		GdlPool.Statistics statistics = matchScope.getStatistics();
+		if (statistics.getEntries() > 0)
+		{
+			GamerLogger.log("GamePlayer", "Releasing Gdl pool for the last match: " + statistics);
+			matchScope.release();
 		}
 	}
 
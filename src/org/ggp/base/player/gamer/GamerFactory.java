@@ -0,0 +1,11 @@
+package org.ggp.base.player.gamer;
+
+/**
+ * A GamerFactory creates the gamers of a {@link org.ggp.base.player.GamePlayer}
+ * that plays several matches at once, each of which gets a gamer of its own.
+ * Gamers are reused for later matches once their matches are over.
+ */
+public interface GamerFactory
+{
+	public Gamer createGamer();
+}
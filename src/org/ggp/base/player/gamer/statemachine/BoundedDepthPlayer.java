@@ -77,13 +77,42 @@ public final class BoundedDepthPlayer extends SampleGamer {
 		if (getStateMachine().isTerminal(state))		return getStateMachine().getGoal(state, getRole());
 		if(level>=limit) return 0;
 
+		// Reuse earlier searches of this state, as long as they went at least as deep.
+		TranspositionTable table = getTranspositionTable();
+		long key = TranspositionTable.hash(state);
+		int depth = limit - level;
+		int slot = table.find(key);
+		int firstMove = 0;
+		if (slot != -1) {
+			if (table.getDepth(slot) >= depth) {
+				int value = table.getValue(slot);
+				byte bound = table.getBound(slot);
+				if (bound == TranspositionTable.EXACT)	return max(alpha, min(beta, value));
+				if (bound == TranspositionTable.LOWER_BOUND && value >= beta)	return beta;
+				if (bound == TranspositionTable.UPPER_BOUND && value <= alpha)	return alpha;
+			}
+			firstMove = table.getBestMove(slot);
+		}
+
 		List<Move> my_moves = getStateMachine().getLegalMoves(state, getRole());
-		for (int i = 0; i < my_moves.size(); i++) {
+		if (firstMove < 0 || firstMove >= my_moves.size())	firstMove = 0;
+		int originalAlpha = alpha;
+		int bestMove = -1;
+		for (int k = 0; k < my_moves.size(); k++) {
+			// Try the best move from the table first, then the rest in order.
+			int i = (k == 0) ? firstMove : (k <= firstMove ? k - 1 : k);
 			int result = minscore(my_moves.get(i), state, alpha, beta, timeout, level+1);
 			if(result==-1) return -1;
-			alpha = max(alpha, result);
-			if (alpha >= beta) 	return beta;
+			if (result > alpha) {
+				alpha = result;
+				bestMove = i;
+			}
+			if (alpha >= beta) {
+				table.store(key, depth, TranspositionTable.LOWER_BOUND, i, beta);
+				return beta;
+			}
 		}
+		table.store(key, depth, TranspositionTable.boundFor(alpha, originalAlpha, beta), bestMove, alpha);
 		return alpha;
 	}
 
@@ -1,178 +1,480 @@
 package org.ggp.base.player.gamer.statemachine;
 
-import java.util.Iterator;
+import java.util.ArrayList;
 import java.util.List;
-import java.util.Map;
-import java.util.Map.Entry;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
 
 import org.ggp.base.player.gamer.event.GamerSelectedMoveEvent;
 import org.ggp.base.player.gamer.statemachine.sample.SampleGamer;
+import org.ggp.base.player.proxy.ProxyGamePlayer;
+import org.ggp.base.player.proxy.WorkingResponseSelectedEvent;
+import org.ggp.base.player.proxy.WorkingStatisticsEvent;
+import org.ggp.base.util.logging.GamerLogger;
 import org.ggp.base.util.statemachine.MachineState;
 import org.ggp.base.util.statemachine.Move;
+import org.ggp.base.util.statemachine.Role;
 import org.ggp.base.util.statemachine.StateMachine;
 import org.ggp.base.util.statemachine.exceptions.GoalDefinitionException;
 import org.ggp.base.util.statemachine.exceptions.MoveDefinitionException;
 import org.ggp.base.util.statemachine.exceptions.TransitionDefinitionException;
 
-class MoveInfo {
-	double avgScore = 0;
-	int numVisits = 0;
-}
-
-class Node {
-	int nvisits = 0;
-	double utility = 0;
-	MachineState state = null;
-	public Map<Move, MoveInfo> myMovesMap;  // need to be able to find our move with highest avg at the end of the stateMachineSelectMove method
-	Map<List<Move>, MoveInfo> oppMovesMap;  // allows us to choose best move for opponent (somewhat like minimax)
-	Map<List<Move>, MoveInfo> jointMovesMap;
-	Map<List<Move>, Node> children;  // gives us access to rest of tree
-}
-
 /**
- * MonteCarloGamer uses a pure Monte Carlo approach towards picking moves, doing
- * simulations, & then choosing the move that has the highest expected score.
+ * MonteCarloTreeSearchGamer runs UCT on several threads at once, all sharing
+ * one search tree.
  *
- * It is currently extremely mediocre... it doesn't even block one-move wins. This
- * is mostly due to the assumption that the opponent plays randomly.
+ * Each node keeps, for every role, the number of visits and the total score of
+ * each of that role's legal moves, and every role picks its own move by UCB1
+ * (so simultaneous-move and multi-player games are handled the same way as
+ * turn-taking ones, where the other roles just have a single noop). All of
+ * these counters are atomic, and children are created lazily and installed
+ * with a compare-and-set, so the tree needs no locks.
+ *
+ * Visits are counted on the way down the tree, before the playout is done,
+ * and the score is only added on the way back up. Until then, the pending
+ * playout counts as a loss for every role, which is what steers other threads
+ * away from the path a thread is already exploring ("virtual loss").
+ *
+ * Since state machines generally aren't thread-safe, each worker thread gets
+ * its own state machine from {@link #getInitialStateMachine()}, and the
+ * gamer's own state machine is never used while the workers are running.
+ * The workers' machines are built in parallel during the start clock, and
+ * any that aren't ready in time are left out; only if none are does the
+ * gamer's own machine become the one worker's.
  * @author1 Varun Datta
  * @author2 Leonard Bronner
  * @author3 Devon Zuegel
  */
 public final class MonteCarloTreeSearchGamer extends SampleGamer {
-	Node parent = null;
-	int numDepthChargesTotal = 0;
+	/** Exploration constant for UCB1, with scores scaled to [0, 1]. */
+	private static final double EXPLORATION = Math.sqrt(2);
+	/** Joint moves per node above which children are kept in a map rather than an array. */
+	private static final int MAX_CHILD_ARRAY_SIZE = 1 << 16;
+	/** How often to report our progress to observers while searching, in milliseconds. */
+	private static final long REPORT_INTERVAL = 250;
 
-	@Override
-	public void stateMachineMetaGame(long timeout) throws TransitionDefinitionException, MoveDefinitionException, GoalDefinitionException {
+	private final int numThreads;
+	private ExecutorService executor;
+	private StateMachine[] workerMachines;
+	private Node root;
+
+	/**
+	 * Creates a gamer with one thread per processor, shared evenly between
+	 * the workers when running behind a {@link ProxyGamePlayer} with several
+	 * worker processes.
+	 */
+	public MonteCarloTreeSearchGamer() {
+		this(Math.max(1, Runtime.getRuntime().availableProcessors() / Integer.getInteger(ProxyGamePlayer.WORKERS_PROPERTY, 1)));
 	}
 
-	@Override
-	public Move stateMachineSelectMove(long timeout) throws TransitionDefinitionException, MoveDefinitionException, GoalDefinitionException {
-		StateMachine m = getStateMachine();
-		long start_time = System.currentTimeMillis();
-		long finishBy = timeout - 1000;
+	public MonteCarloTreeSearchGamer(int numThreads) {
+		if (numThreads < 1) {
+			throw new IllegalArgumentException("numThreads must be positive");
+		}
+		this.numThreads = numThreads;
+	}
 
-		parent = new Node();
-		parent.state = getCurrentState();
+	/**
+	 * A node in the shared tree. Everything but the counters and the children
+	 * is computed by the thread that creates the node, before the node is
+	 * published to other threads.
+	 */
+	private static final class Node {
+		final MachineState state;
+		final boolean terminal;
+		/** The goal values of a terminal node, indexed by role. */
+		final int[] goals;
+		/** The legal moves of a non-terminal node, indexed by role. */
+		final Move[][] legalMoves;
+		final AtomicLong visits = new AtomicLong();
+		/** Visits of each role's moves; the move index runs fastest. */
+		final AtomicLongArray moveVisits;
+		/** Total scores of each role's moves, laid out like moveVisits. */
+		final AtomicLongArray moveScores;
+		final int[] moveOffsets;
+		final AtomicReferenceArray<Node> childArray;
+		final ConcurrentMap<Long, Node> childMap;
 
-		List<Move> myMoves = m.getLegalMoves(getCurrentState(), getRole());
-		for (int i = 0; i < myMoves.size(); i++) {
-			parent.myMovesMap.put(myMoves.get(i), new MoveInfo());
+		Node(MachineState state, StateMachine machine) throws MoveDefinitionException, GoalDefinitionException {
+			this.state = state;
+			this.terminal = machine.isTerminal(state);
+			List<Role> roles = machine.getRoles();
+			if (terminal) {
+				goals = new int[roles.size()];
+				for (int r = 0; r < roles.size(); r++) {
+					goals[r] = machine.getGoal(state, roles.get(r));
+				}
+				legalMoves = null;
+				moveOffsets = null;
+				moveVisits = null;
+				moveScores = null;
+				childArray = null;
+				childMap = null;
+				return;
+			}
+			goals = null;
+			legalMoves = new Move[roles.size()][];
+			moveOffsets = new int[roles.size() + 1];
+			long numJointMoves = 1;
+			for (int r = 0; r < roles.size(); r++) {
+				List<Move> moves = machine.getLegalMoves(state, roles.get(r));
+				legalMoves[r] = moves.toArray(new Move[moves.size()]);
+				moveOffsets[r + 1] = moveOffsets[r] + moves.size();
+				if (numJointMoves <= MAX_CHILD_ARRAY_SIZE) {
+					numJointMoves *= moves.size();
+				}
+			}
+			moveVisits = new AtomicLongArray(moveOffsets[roles.size()]);
+			moveScores = new AtomicLongArray(moveOffsets[roles.size()]);
+			if (numJointMoves <= MAX_CHILD_ARRAY_SIZE) {
+				childArray = new AtomicReferenceArray<Node>((int) numJointMoves);
+				childMap = null;
+			} else {
+				childArray = null;
+				childMap = new ConcurrentHashMap<Long, Node>();
+			}
 		}
 
-		List<List<Move>> opponentsMoves = m.getLegalOpponentJointMoves(getCurrentState(), getRole());
-		for (int i = 0; i < opponentsMoves.size(); i++) {
-			parent.oppMovesMap.put(opponentsMoves.get(i), new MoveInfo());
+		/** Returns the index of a joint move, given the index of each role's move. */
+		long jointIndex(int[] moveIndices) {
+			long index = 0;
+			for (int r = 0; r < moveIndices.length; r++) {
+				index = index * legalMoves[r].length + moveIndices[r];
+			}
+			return index;
 		}
 
-		List<List<Move>> jointMoves = m.getLegalJointMoves(getCurrentState());
-		for (int i = 0; i < jointMoves.size(); i++) {
-			parent.jointMovesMap.put(jointMoves.get(i), new MoveInfo());
-			Node child = new Node();
-			child.state = m.getNextState(parent.state, jointMoves.get(i));
-			parent.children.put(jointMoves.get(i), child);
+		Node getChild(long jointIndex) {
+			if (childArray != null) {
+				return childArray.get((int) jointIndex);
+			}
+			return childMap.get(jointIndex);
+		}
 
+		/**
+		 * Installs the child unless another thread got there first, and returns
+		 * whichever child ended up in the tree.
+		 */
+		Node putChild(long jointIndex, Node child) {
+			if (childArray != null) {
+				if (childArray.compareAndSet((int) jointIndex, null, child)) {
+					return child;
+				}
+				return childArray.get((int) jointIndex);
+			}
+			Node existing = childMap.putIfAbsent(jointIndex, child);
+			return (existing == null) ? child : existing;
 		}
 
-		// find a pair that hasn't been explored yet, or if none use selection equation
-		Node selectedNode = selectNode(parent);
-		expand(selectedNode);
-		// do depth charge, back propagate
+		List<Node> getChildren() {
+			List<Node> children = new ArrayList<Node>();
+			if (childArray != null) {
+				for (int i = 0; i < childArray.length(); i++) {
+					if (childArray.get(i) != null) {
+						children.add(childArray.get(i));
+					}
+				}
+			} else if (childMap != null) {
+				children.addAll(childMap.values());
+			}
+			return children;
+		}
+	}
 
+	/**
+	 * Builds the workers' state machines in parallel, and keeps however many
+	 * are ready a second before the start clock runs out. If none are, the
+	 * gamer's own state machine becomes the only worker's.
+	 */
+	@Override
+	public void stateMachineMetaGame(long timeout) throws TransitionDefinitionException, MoveDefinitionException, GoalDefinitionException {
+		shutdownWorkers();
+		executor = createExecutor(numThreads);
+		List<Future<StateMachine>> builds = new ArrayList<Future<StateMachine>>();
+		for (int i = 0; i < numThreads; i++) {
+			builds.add(executor.submit(new Callable<StateMachine>() {
+				@Override
+				public StateMachine call() {
+					StateMachine machine = getInitialStateMachine();
+					machine.initialize(getMatch().getGame().getRules());
+					return machine;
+				}
+			}));
+		}
+		long finishBy = timeout - 1000;
+		List<StateMachine> machines = new ArrayList<StateMachine>();
+		for (Future<StateMachine> build : builds) {
+			try {
+				machines.add(build.get(Math.max(0, finishBy - System.currentTimeMillis()), TimeUnit.MILLISECONDS));
+			} catch (TimeoutException e) {
+				build.cancel(true);
+			} catch (InterruptedException e) {
+				build.cancel(true);
+				Thread.currentThread().interrupt();
+			} catch (ExecutionException e) {
+				GamerLogger.logStackTrace("GamePlayer", e);
+			}
+		}
+		if (machines.size() < numThreads) {
+			GamerLogger.log("GamePlayer", "MCTS built " + machines.size() + " of " + numThreads + " worker state machines in time");
+			// Builds that are still running may not notice the interrupt,
+			// so the search gets threads of its own rather than wait for them.
+			executor.shutdownNow();
+			if (machines.isEmpty()) {
+				machines.add(getStateMachine());
+			}
+			executor = createExecutor(machines.size());
+		}
+		workerMachines = machines.toArray(new StateMachine[machines.size()]);
+		root = null;
+	}
+
+	private static ExecutorService createExecutor(int threads) {
+		return Executors.newFixedThreadPool(threads, new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread thread = new Thread(r, "MCTS worker");
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+	}
+
+	@Override
+	public Move stateMachineSelectMove(long timeout) throws TransitionDefinitionException, MoveDefinitionException, GoalDefinitionException {
+		StateMachine m = getStateMachine();
+		long start_time = System.currentTimeMillis();
+		final long finishBy = timeout - 1000;
 
+		List<Move> moves = m.getLegalMoves(getCurrentState(), getRole());
+		// The tree only holds states of the workers' machines, so that they
+		// never have to convert states from the gamer's machine.
+		root = findRoot(getCurrentState(), workerMachines[0]);
+		final Node searchRoot = root;
+		final int roleIndex = m.getRoleIndices().get(getRole());
 
-//		Move selection = moves.get(0);
-//		if (moves.size() > 1)	selection = monte_carlo_tree_search(moves, getCurrentState(), machine, finishBy);		// checks that there's actually a choice to make
+		if (moves.size() > 1) {
+			List<Future<?>> workers = new ArrayList<Future<?>>();
+			for (int i = 0; i < workerMachines.length; i++) {
+				final StateMachine machine = workerMachines[i];
+				workers.add(executor.submit(new Runnable() {
+					@Override
+					public void run() {
+						search(searchRoot, machine, finishBy);
+					}
+				}));
+			}
+			// Report our progress while we wait, so a proxy can use it if we stall.
+			waiting:
+			for (Future<?> worker : workers) {
+				while (true) {
+					try {
+						worker.get(REPORT_INTERVAL, TimeUnit.MILLISECONDS);
+						break;
+					} catch (TimeoutException e) {
+						reportProgress(searchRoot, roleIndex);
+					} catch (InterruptedException e) {
+						Thread.currentThread().interrupt();
+						break waiting;
+					} catch (ExecutionException e) {
+						GamerLogger.logStackTrace("GamePlayer", e);
+						break;
+					}
+				}
+			}
+			reportProgress(searchRoot, roleIndex);
+		}
+
+		Move selection = root.legalMoves[roleIndex][getMostVisitedMove(root, roleIndex)];
+		GamerLogger.log("GamePlayer", "MCTS ran " + root.visits.get() + " playouts on " + workerMachines.length + " threads");
 
 		long stop = System.currentTimeMillis();
 		notifyObservers(new GamerSelectedMoveEvent(moves, selection, stop - start_time));
-		return selectedMove;
+		return selection;
 	}
 
-	void expand(Node selectedNode) throws MoveDefinitionException, TransitionDefinitionException {
-		StateMachine m = getStateMachine();
-		List<Move> myMoves = m.getLegalMoves(selectedNode.state, getRole());
-		for (int i = 0; i < myMoves.size(); i++) {
-			selectedNode.myMovesMap.put(myMoves.get(i), new MoveInfo());
+	/**
+	 * Returns the index of the move we've explored the most for the given
+	 * role, which is a less noisy choice than the move with the best average.
+	 */
+	private static int getMostVisitedMove(Node node, int roleIndex) {
+		int offset = node.moveOffsets[roleIndex];
+		int best = 0;
+		for (int i = 1; i < node.legalMoves[roleIndex].length; i++) {
+			if (node.moveVisits.get(offset + i) > node.moveVisits.get(offset + best)) {
+				best = i;
+			}
 		}
+		return best;
+	}
 
-		List<List<Move>> opponentsMoves = m.getLegalOpponentJointMoves(selectedNode.state, getRole());
-		for (int i = 0; i < opponentsMoves.size(); i++) {
-			selectedNode.oppMovesMap.put(opponentsMoves.get(i), new MoveInfo());
+	/**
+	 * Tells observers about the best move so far, and about the statistics
+	 * for each of our moves at the root. When running as one of several
+	 * workers behind a {@link ProxyGamePlayer}, the proxy merges these
+	 * statistics across workers.
+	 */
+	private void reportProgress(Node node, int roleIndex) {
+		Move[] legalMoves = node.legalMoves[roleIndex];
+		int offset = node.moveOffsets[roleIndex];
+		List<String> moveNames = new ArrayList<String>(legalMoves.length);
+		long[] visits = new long[legalMoves.length];
+		long[] totalScores = new long[legalMoves.length];
+		for (int i = 0; i < legalMoves.length; i++) {
+			moveNames.add(legalMoves[i].getContents().toString());
+			visits[i] = node.moveVisits.get(offset + i);
+			totalScores[i] = node.moveScores.get(offset + i);
 		}
+		notifyObservers(new WorkingResponseSelectedEvent(moveNames.get(getMostVisitedMove(node, roleIndex))));
+		notifyObservers(new WorkingStatisticsEvent(moveNames, visits, totalScores));
+	}
 
-		List<List<Move>> jointMoves = m.getLegalJointMoves(getCurrentState());
-		for (int i = 0; i < jointMoves.size(); i++) {
-			selectedNode.jointMovesMap.put(jointMoves.get(i), new MoveInfo());
-			Node child = new Node();
-			child.state = m.getNextState(selectedNode.state, jointMoves.get(i));
-			selectedNode.children.put(jointMoves.get(i), child);
+	/**
+	 * Reuses the subtree for the current state if the last search reached it,
+	 * and otherwise starts a new tree.
+	 */
+	private Node findRoot(MachineState state, StateMachine m) throws MoveDefinitionException, GoalDefinitionException {
+		if (root != null) {
+			if (root.state.equals(state)) {
+				return root;
+			}
+			for (Node child : root.getChildren()) {
+				if (child.state.equals(state)) {
+					return child;
+				}
+			}
 		}
+		return new Node(state, m);
+	}
 
+	/**
+	 * Runs select/expand/simulate/backpropagate iterations from the root until
+	 * the deadline passes. Called on each worker thread, with that thread's
+	 * own state machine. A worker whose iteration fails stops, since the
+	 * failure is likely to repeat on every iteration after it.
+	 */
+	private void search(Node root, StateMachine machine, long finishBy) {
+		Random random = new Random();
+		List<Node> path = new ArrayList<Node>();
+		List<int[]> pathMoves = new ArrayList<int[]>();
+		int numRoles = machine.getRoles().size();
+		int[][] chargeResults = new int[1][numRoles];
+		while (System.currentTimeMillis() < finishBy && !Thread.currentThread().isInterrupted()) {
+			path.clear();
+			pathMoves.clear();
+			try {
+				// Selection and expansion, counting visits on the way down.
+				Node node = root;
+				node.visits.incrementAndGet();
+				path.add(node);
+				while (!node.terminal) {
+					int[] moveIndices = new int[numRoles];
+					for (int r = 0; r < numRoles; r++) {
+						moveIndices[r] = selectMove(node, r, random);
+						node.moveVisits.incrementAndGet(node.moveOffsets[r] + moveIndices[r]);
+					}
+					pathMoves.add(moveIndices);
+					long jointIndex = node.jointIndex(moveIndices);
+					Node child = node.getChild(jointIndex);
+					boolean expanded = false;
+					if (child == null) {
+						List<Move> jointMove = new ArrayList<Move>(numRoles);
+						for (int r = 0; r < numRoles; r++) {
+							jointMove.add(node.legalMoves[r][moveIndices[r]]);
+						}
+						child = node.putChild(jointIndex, new Node(machine.getNextState(node.state, jointMove), machine));
+						expanded = true;
+					}
+					node = child;
+					node.visits.incrementAndGet();
+					path.add(node);
+					if (expanded) {
+						break;
+					}
+				}
 
-	}
+				// Simulation.
+				int[] goals;
+				if (node.terminal) {
+					goals = node.goals;
+				} else {
+					machine.performDepthCharges(node.state, 1, chargeResults);
+					goals = chargeResults[0];
+				}
 
-//	List<Move> selectJointMove(Node root) {
-//		double bestAvg = 0;
-//		List<Move> bestJointMove = null;
-//
-//		// go thru nVisitsToJointMove map to find one that has 0 visits
-//		Iterator<Entry<List<Move>, MoveInfo>> it = root.jointMovesMap.entrySet().iterator();
-//		while (it.hasNext()) {
-//			Map.Entry<List<Move>, MoveInfo> pair = (Map.Entry<List<Move>, MoveInfo>)it.next();
-//			if (pair.getValue().numVisits == 0)    return pair.getKey();
-//			if (selectnFn(pair.getKey(), root) > bestAvg  ||  bestJointMove == null) {
-//				bestJointMove = pair.getKey();
-//				bestAvg = selectnFn(pair.getKey(), root);
-//			}
-//		}
-//
-//		// if we don't find one with 0 visits, use the selection equation to find the best one to visit
-//		return selectJointMove(root.children.get(bestJointMove));
-//	}
-
-	Node selectNode(Node root) {
-		if(root.children.size() == 0) return root;
-
-		// go thru nVisitsToJointMove map to find one that has 0 visits
-		//Map<List<Move>, Node> children
-		Iterator<Entry<List<Move>, Node>> it = root.children.entrySet().iterator();
-		while (it.hasNext()) {
-			Map.Entry<List<Move>, Node> pair = (Map.Entry<List<Move>, Node>)it.next();
-			if (pair.getValue().nvisits == 0)    return pair.getValue();
-		}
-
-		Iterator<Entry<List<Move>, Node>> iter = root.children.entrySet().iterator();
-		double bestAvg = 0;
-		Node bestNode = null;
-		while (iter.hasNext()) {
-			Map.Entry<List<Move>, Node> pair = (Map.Entry<List<Move>, Node>)iter.next();
-			if (selectnFn(pair.getValue(), root) > bestAvg) {
-				bestNode = pair.getValue();
-				bestAvg = selectnFn(pair.getValue(), root);
+				// Backpropagation. The visits were already counted on the way down.
+				for (int i = 0; i < pathMoves.size(); i++) {
+					Node n = path.get(i);
+					int[] moveIndices = pathMoves.get(i);
+					for (int r = 0; r < numRoles; r++) {
+						n.moveScores.addAndGet(n.moveOffsets[r] + moveIndices[r], goals[r]);
+					}
 				}
+			} catch (Exception e) {
+				// Leave the virtual losses in place, so that the other workers steer clear of the broken line of play.
+				GamerLogger.logError("GamePlayer", "MCTS worker stopped after a failed iteration: " + e);
+				GamerLogger.logStackTrace("GamePlayer", e);
+				return;
+			}
 		}
+	}
 
-		return selectNode(bestNode);
+	/**
+	 * Picks a move for the given role by UCB1, trying unvisited moves first.
+	 */
+	private static int selectMove(Node node, int roleIndex, Random random) {
+		int offset = node.moveOffsets[roleIndex];
+		int numMoves = node.legalMoves[roleIndex].length;
+		if (numMoves == 1) {
+			return 0;
+		}
+		double logVisits = Math.log(Math.max(1, node.visits.get()));
+		int best = -1;
+		double bestValue = Double.NEGATIVE_INFINITY;
+		int start = random.nextInt(numMoves);
+		for (int k = 0; k < numMoves; k++) {
+			int i = (start + k) % numMoves;
+			long visits = node.moveVisits.get(offset + i);
+			if (visits == 0) {
+				return i;
+			}
+			double value = node.moveScores.get(offset + i) / (100.0 * visits) + EXPLORATION * Math.sqrt(logVisits / visits);
+			if (value > bestValue) {
+				bestValue = value;
+				best = i;
+			}
+		}
+		return best;
+	}
 
-		// if we don't find one with 0 visits, use the selection equation to find the best one to visit
+	private void shutdownWorkers() {
+		if (executor != null) {
+			executor.shutdownNow();
+			executor = null;
+		}
+		workerMachines = null;
+		root = null;
 	}
 
-	double selectnFn(Node node, Node root) {
-		return node.utility + Math.sqrt(2*Math.log(root.nvisits)/node.nvisits);
+	@Override
+	public void stateMachineStop() {
+		shutdownWorkers();
 	}
 
-	private int[] depth = new int[1];
-
-	int performDepthChargeFromMove(MachineState theState, Move myMove) {
-	    StateMachine theMachine = getStateMachine();
-	    try {
-            MachineState finalState = theMachine.performDepthCharge(theMachine.getRandomNextState(theState, getRole(), myMove), depth);
-            return theMachine.getGoal(finalState, getRole());
-        } catch (Exception e) {
-            e.printStackTrace();
-            return 0;
-        }
+	@Override
+	public void stateMachineAbort() {
+		shutdownWorkers();
 	}
-}
\ No newline at end of file
+}
@@ -73,13 +73,40 @@ public final class OurAlphaBetaGamer extends SampleGamer {
 		}
 
 		if (getStateMachine().isTerminal(state))		return getStateMachine().getGoal(state, getRole());
+
+		// Reuse what we know about this state from searching it before, possibly by another move order.
+		TranspositionTable table = getTranspositionTable();
+		long key = TranspositionTable.hash(state);
+		int slot = table.find(key);
+		int firstMove = 0;
+		if (slot != -1) {
+			int value = table.getValue(slot);
+			byte bound = table.getBound(slot);
+			if (bound == TranspositionTable.EXACT)	return max(alpha, min(beta, value));
+			if (bound == TranspositionTable.LOWER_BOUND && value >= beta)	return beta;
+			if (bound == TranspositionTable.UPPER_BOUND && value <= alpha)	return alpha;
+			firstMove = table.getBestMove(slot);
+		}
+
 		List<Move> my_moves = getStateMachine().getLegalMoves(state, getRole());
-		for (int i = 0; i < my_moves.size(); i++) {
+		if (firstMove < 0 || firstMove >= my_moves.size())	firstMove = 0;
+		int originalAlpha = alpha;
+		int bestMove = -1;
+		for (int k = 0; k < my_moves.size(); k++) {
+			// Try the best move from the table first, then the rest in order.
+			int i = (k == 0) ? firstMove : (k <= firstMove ? k - 1 : k);
 			int result = minscore(my_moves.get(i), state, alpha, beta, timeout);
 			if(result==-1) return -1;
-			alpha = max(alpha, result);
-			if (alpha >= beta) 	return beta;
+			if (result > alpha) {
+				alpha = result;
+				bestMove = i;
+			}
+			if (alpha >= beta) {
+				table.store(key, TranspositionTable.FULL_DEPTH, TranspositionTable.LOWER_BOUND, i, beta);
+				return beta;
+			}
 		}
+		table.store(key, TranspositionTable.FULL_DEPTH, TranspositionTable.boundFor(alpha, originalAlpha, beta), bestMove, alpha);
 		return alpha;
 	}
 
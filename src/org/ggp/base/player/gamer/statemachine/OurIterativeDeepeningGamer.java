@@ -0,0 +1,281 @@
+package org.ggp.base.player.gamer.statemachine;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.ggp.base.player.gamer.event.GamerSelectedMoveEvent;
+import org.ggp.base.player.gamer.statemachine.sample.SampleGamer;
+import org.ggp.base.util.logging.GamerLogger;
+import org.ggp.base.util.statemachine.MachineState;
+import org.ggp.base.util.statemachine.Move;
+import org.ggp.base.util.statemachine.StateMachine;
+import org.ggp.base.util.statemachine.exceptions.GoalDefinitionException;
+import org.ggp.base.util.statemachine.exceptions.MoveDefinitionException;
+import org.ggp.base.util.statemachine.exceptions.TransitionDefinitionException;
+
+/**
+ * OurIterativeDeepeningGamer runs alpha-beta searches to increasing depths
+ * until it runs out of time, and plays the best move from the deepest search
+ * that finished. A search that runs out of time is thrown away, but the ones
+ * before it aren't, so running out of time never costs more than the last
+ * iteration.
+ *
+ * States at the depth limit are scored by their goal value, as in the
+ * BoundedDepthHeuristicPlayer. Each search orders our moves by the best move
+ * found for that state by the previous iteration (the principal variation,
+ * kept in the transposition table), and then by the history heuristic, which
+ * favours moves that caused cutoffs elsewhere in the tree. The opponents'
+ * replies are ordered by the history heuristic alone.
+ *
+ * The clock is only checked every NODES_PER_CLOCK_CHECK nodes, and running
+ * out of time unwinds the search with an exception rather than a sentinel
+ * score.
+ */
+public final class OurIterativeDeepeningGamer extends SampleGamer {
+	/** How many nodes to visit between checks of the clock. */
+	private static final int NODES_PER_CLOCK_CHECK = 64;
+	/** How long before the timeout to stop searching, in milliseconds. */
+	private static final long TIMEOUT_BUFFER = 1000;
+
+	private final Map<Move, Integer> myHistory = new HashMap<Move, Integer>();
+	private final Map<List<Move>, Integer> theirHistory = new HashMap<List<Move>, Integer>();
+	private long finishBy;
+	private int nodesVisited;
+	/** Whether the current iteration cut off any non-terminal state at the depth limit. */
+	private boolean reachedDepthLimit;
+
+	/** Thrown to unwind the search when we're out of time. */
+	private static final class SearchTimeoutException extends Exception {
+		private static final long serialVersionUID = 1L;
+
+		@Override
+		public synchronized Throwable fillInStackTrace() {
+			return this;
+		}
+	}
+	private static final SearchTimeoutException TIMEOUT = new SearchTimeoutException();
+
+	@Override
+	public void stateMachineMetaGame(long timeout) throws TransitionDefinitionException, MoveDefinitionException, GoalDefinitionException {
+		myHistory.clear();
+		theirHistory.clear();
+	}
+
+	@Override
+	public Move stateMachineSelectMove(long timeout) throws TransitionDefinitionException, MoveDefinitionException, GoalDefinitionException {
+		long start = System.currentTimeMillis();
+		finishBy = timeout - TIMEOUT_BUFFER;
+		nodesVisited = 0;
+		ageHistory();
+
+		List<Move> moves = getStateMachine().getLegalMoves(getCurrentState(), getRole());
+		Move bestMove = moves.get(0);
+		int completedDepth = 0;
+		if (moves.size() > 1) {
+			for (int depth = 1; ; depth++) {
+				reachedDepthLimit = false;
+				try {
+					int bestIndex = searchRoot(getCurrentState(), moves, depth);
+					bestMove = moves.get(bestIndex);
+					completedDepth = depth;
+				} catch (SearchTimeoutException e) {
+					break;
+				}
+				// Searching deeper won't change anything once we've seen every terminal state.
+				if (!reachedDepthLimit) {
+					break;
+				}
+			}
+		}
+		GamerLogger.log("GamePlayer", "Iterative deepening completed depth " + completedDepth + " after " + nodesVisited + " nodes");
+
+		long stop = System.currentTimeMillis();
+		notifyObservers(new GamerSelectedMoveEvent(moves, bestMove, stop - start));
+		return bestMove;
+	}
+
+	/**
+	 * Searches the current state to the given depth, and returns the index of
+	 * the best move.
+	 */
+	private int searchRoot(MachineState state, List<Move> moves, int depth) throws SearchTimeoutException, MoveDefinitionException, TransitionDefinitionException, GoalDefinitionException {
+		TranspositionTable table = getTranspositionTable();
+		long key = TranspositionTable.hash(state);
+		int slot = table.find(key);
+		int pvMove = (slot == -1) ? -1 : table.getBestMove(slot);
+
+		int alpha = 0;
+		int bestIndex = -1;
+		for (int i : orderMyMoves(moves, pvMove)) {
+			int result = minscore(moves.get(i), state, alpha, 100, depth);
+			if (result > alpha || bestIndex == -1) {
+				alpha = Math.max(alpha, result);
+				bestIndex = i;
+			}
+			if (alpha >= 100) {
+				break;
+			}
+		}
+		table.store(key, depth, TranspositionTable.EXACT, bestIndex, alpha);
+		return bestIndex;
+	}
+
+	private int minscore(Move move, MachineState state, int alpha, int beta, int depth) throws SearchTimeoutException, MoveDefinitionException, TransitionDefinitionException, GoalDefinitionException {
+		checkClock();
+		StateMachine m = getStateMachine();
+		List<List<Move>> jointMoves = m.getLegalJointMoves(state, getRole(), move);
+		for (List<Move> jointMove : orderTheirMoves(jointMoves)) {
+			int result = maxscore(m.getNextState(state, jointMove), alpha, beta, depth - 1);
+			if (result < beta) {
+				beta = result;
+			}
+			if (beta <= alpha) {
+				addHistory(theirHistory, jointMove, depth);
+				return alpha;
+			}
+		}
+		return beta;
+	}
+
+	private int maxscore(MachineState state, int alpha, int beta, int depth) throws SearchTimeoutException, MoveDefinitionException, TransitionDefinitionException, GoalDefinitionException {
+		checkClock();
+		StateMachine m = getStateMachine();
+		if (m.isTerminal(state)) {
+			return m.getGoal(state, getRole());
+		}
+		if (depth <= 0) {
+			reachedDepthLimit = true;
+			return evaluateState(state);
+		}
+
+		TranspositionTable table = getTranspositionTable();
+		long key = TranspositionTable.hash(state);
+		int slot = table.find(key);
+		int pvMove = -1;
+		if (slot != -1) {
+			if (table.getDepth(slot) >= depth) {
+				int value = table.getValue(slot);
+				byte bound = table.getBound(slot);
+				boolean usable = (bound == TranspositionTable.EXACT)
+						|| (bound == TranspositionTable.LOWER_BOUND && value >= beta)
+						|| (bound == TranspositionTable.UPPER_BOUND && value <= alpha);
+				if (usable) {
+					if (table.getDepth(slot) != TranspositionTable.FULL_DEPTH) {
+						reachedDepthLimit = true;
+					}
+					return Math.max(alpha, Math.min(beta, value));
+				}
+			}
+			pvMove = table.getBestMove(slot);
+		}
+
+		// Track whether this subtree hits the depth limit, so that results that
+		// don't depend on it can be stored as searched to full depth.
+		boolean limitReachedBefore = reachedDepthLimit;
+		reachedDepthLimit = false;
+		List<Move> moves = m.getLegalMoves(state, getRole());
+		int originalAlpha = alpha;
+		int bestIndex = -1;
+		byte bound = TranspositionTable.LOWER_BOUND;
+		for (int i : orderMyMoves(moves, pvMove)) {
+			int result = minscore(moves.get(i), state, alpha, beta, depth);
+			if (result > alpha) {
+				alpha = result;
+				bestIndex = i;
+			}
+			if (alpha >= beta) {
+				alpha = beta;
+				break;
+			}
+		}
+		if (alpha < beta) {
+			bound = TranspositionTable.boundFor(alpha, originalAlpha, beta);
+		}
+		if (bestIndex != -1) {
+			addHistory(myHistory, moves.get(bestIndex), depth);
+		}
+		int searchedDepth = reachedDepthLimit ? depth : TranspositionTable.FULL_DEPTH;
+		reachedDepthLimit |= limitReachedBefore;
+		table.store(key, searchedDepth, bound, bestIndex, alpha);
+		return alpha;
+	}
+
+	/**
+	 * Scores a non-terminal state at the depth limit by its goal value, or
+	 * zero if the game doesn't define one there.
+	 */
+	private int evaluateState(MachineState state) {
+		try {
+			return getStateMachine().getGoal(state, getRole());
+		} catch (GoalDefinitionException e) {
+			return 0;
+		}
+	}
+
+	private void checkClock() throws SearchTimeoutException {
+		if (++nodesVisited % NODES_PER_CLOCK_CHECK == 0 && System.currentTimeMillis() > finishBy) {
+			throw TIMEOUT;
+		}
+	}
+
+	/**
+	 * Returns the indices of our moves, with the principal variation move
+	 * first and the rest by descending history score.
+	 */
+	private List<Integer> orderMyMoves(final List<Move> moves, final int pvMove) {
+		List<Integer> order = new ArrayList<Integer>(moves.size());
+		for (int i = 0; i < moves.size(); i++) {
+			order.add(i);
+		}
+		Collections.sort(order, new Comparator<Integer>() {
+			@Override
+			public int compare(Integer a, Integer b) {
+				if (a.equals(b)) return 0;
+				if (a == pvMove) return -1;
+				if (b == pvMove) return 1;
+				return getHistory(myHistory, moves.get(b)) - getHistory(myHistory, moves.get(a));
+			}
+		});
+		return order;
+	}
+
+	private List<List<Move>> orderTheirMoves(List<List<Move>> jointMoves) {
+		if (jointMoves.size() <= 1) {
+			return jointMoves;
+		}
+		List<List<Move>> order = new ArrayList<List<Move>>(jointMoves);
+		Collections.sort(order, new Comparator<List<Move>>() {
+			@Override
+			public int compare(List<Move> a, List<Move> b) {
+				return getHistory(theirHistory, b) - getHistory(theirHistory, a);
+			}
+		});
+		return order;
+	}
+
+	private static <K> int getHistory(Map<K, Integer> history, K key) {
+		Integer score = history.get(key);
+		return (score == null) ? 0 : score;
+	}
+
+	private static <K> void addHistory(Map<K, Integer> history, K key, int depth) {
+		history.put(key, getHistory(history, key) + depth * depth);
+	}
+
+	/**
+	 * Halves the history scores, so that what we learned in earlier turns
+	 * counts for less than what we learn now.
+	 */
+	private void ageHistory() {
+		for (Map.Entry<Move, Integer> entry : myHistory.entrySet()) {
+			entry.setValue(entry.getValue() / 2);
+		}
+		for (Map.Entry<List<Move>, Integer> entry : theirHistory.entrySet()) {
+			entry.setValue(entry.getValue() / 2);
+		}
+	}
+}
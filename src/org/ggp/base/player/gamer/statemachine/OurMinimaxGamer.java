@@ -80,13 +80,25 @@ public final class OurMinimaxGamer extends SampleGamer {
 		}
 
 		if (getStateMachine().isTerminal(state))		return getStateMachine().getGoal(state, getRole());
+
+		// States reached by different move orders have the same value, so only compute it once.
+		TranspositionTable table = getTranspositionTable();
+		long key = TranspositionTable.hash(state);
+		int slot = table.find(key);
+		if (slot != -1)		return table.getValue(slot);
+
 		List<Move> my_moves = getStateMachine().getLegalMoves(state, getRole());
 		int maxscore = 0;
+		int bestMove = 0;
 		for (int i = 0; i < my_moves.size(); i++) {
 			int result = minscore(my_moves.get(i), state, timeout);
 			if(result==-1) return -1;
-			if (result > maxscore) 	maxscore = result;
+			if (result > maxscore) {
+				maxscore = result;
+				bestMove = i;
+			}
 		}
+		table.store(key, TranspositionTable.FULL_DEPTH, TranspositionTable.EXACT, bestMove, maxscore);
 		return maxscore;
 	}
 }
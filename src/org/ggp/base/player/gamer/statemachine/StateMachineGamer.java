@@ -101,6 +101,30 @@ public abstract class StateMachineGamer extends Gamer
 		return stateMachine;
 	}
 
+	/**
+	 * Returns the transposition table for searches in the current match. The
+	 * table is allocated the first time this is called, and is cleared at the
+	 * start of every match, before stateMachineMetaGame is called.
+	 */
+	public final TranspositionTable getTranspositionTable()
+	{
+		if (transpositionTable == null) {
+			transpositionTable = new TranspositionTable(getTranspositionTableLog2Size());
+		}
+		return transpositionTable;
+	}
+
+	/**
+	 * Defines the size of the transposition table, as the base-two logarithm
+	 * of its number of entries. Each entry takes 21 bytes. Gamers can override
+	 * this to size the table for the games they play, using the hit and miss
+	 * counts logged at the end of each match.
+	 */
+	protected int getTranspositionTableLog2Size()
+	{
+		return 18;
+	}
+
     /**
      * Cleans up the role, currentState and stateMachine. This should only be
      * used when a match is over, and even then only when you really need to
@@ -171,6 +195,9 @@ public abstract class StateMachineGamer extends Gamer
 			currentState = stateMachine.getInitialState();
 			role = stateMachine.getRoleFromConstant(getRoleName());
 			getMatch().appendState(currentState.getContents());
+			if (transpositionTable != null) {
+				transpositionTable.clear();
+			}
 
 			stateMachineMetaGame(timeout);
 		}
@@ -234,6 +261,9 @@ public abstract class StateMachineGamer extends Gamer
 				getMatch().appendState(currentState.getContents());
 				getMatch().markCompleted(stateMachine.getGoals(currentState));
 			}
+			if (transpositionTable != null) {
+				GamerLogger.log("GamePlayer", "Finished match with " + transpositionTable);
+			}
 
 			stateMachineStop();
 		}
@@ -260,4 +290,5 @@ public abstract class StateMachineGamer extends Gamer
     private Role role;
     private MachineState currentState;
     private StateMachine stateMachine;
+    private TranspositionTable transpositionTable;
 }
\ No newline at end of file
@@ -0,0 +1,224 @@
+package org.ggp.base.player.gamer.statemachine;
+
+import java.util.Arrays;
+
+import org.ggp.base.util.gdl.grammar.GdlSentence;
+import org.ggp.base.util.statemachine.BitSetMachineState;
+import org.ggp.base.util.statemachine.MachineState;
+
+/**
+ * TranspositionTable is a fixed-size hash table of search results, indexed by
+ * a 64-bit hash of the state they were computed for. It's meant to stop game
+ * tree searches from re-searching a state that they've already reached
+ * through a different sequence of moves.
+ *
+ * Each entry holds the depth the state was searched to, the value found and
+ * whether it's exact or only a bound, and the index of the best move found,
+ * which is worth trying first even when the value itself can't be reused.
+ * When two states hash to the same slot, the one searched to the greater
+ * depth is kept.
+ *
+ * The table is stored in parallel arrays rather than as entry objects, so
+ * storing a result never allocates. It isn't thread-safe.
+ */
+public final class TranspositionTable
+{
+	/** The value is the exact value of the state. */
+	public static final byte EXACT = 0;
+	/** The value is a lower bound: the search failed high. */
+	public static final byte LOWER_BOUND = 1;
+	/** The value is an upper bound: the search failed low. */
+	public static final byte UPPER_BOUND = 2;
+
+	/** The depth of a search that went all the way to terminal states. */
+	public static final int FULL_DEPTH = Integer.MAX_VALUE;
+
+	private static final int EMPTY = -1;
+
+	private final int mask;
+	private final long[] keys;
+	private final int[] depths;
+	private final byte[] bounds;
+	private final int[] bestMoves;
+	private final int[] values;
+
+	private long hits;
+	private long misses;
+	private long stores;
+	private long rejections;
+
+	/**
+	 * @param log2Size The base-two logarithm of the number of entries.
+	 */
+	public TranspositionTable(int log2Size)
+	{
+		if (log2Size < 0 || log2Size > 30) {
+			throw new IllegalArgumentException("log2Size must be between 0 and 30");
+		}
+		int size = 1 << log2Size;
+		mask = size - 1;
+		keys = new long[size];
+		depths = new int[size];
+		bounds = new byte[size];
+		bestMoves = new int[size];
+		values = new int[size];
+		clear();
+	}
+
+	/**
+	 * Removes every entry, and resets the statistics.
+	 */
+	public void clear()
+	{
+		Arrays.fill(depths, EMPTY);
+		hits = 0;
+		misses = 0;
+		stores = 0;
+		rejections = 0;
+	}
+
+	/**
+	 * Returns a 64-bit hash of the given state. For a {@link BitSetMachineState},
+	 * this is its precomputed Zobrist hash; otherwise it's computed from the
+	 * hash codes of the sentences in the state. The two hashes differ for the
+	 * same state, so a table shouldn't mix states from different kinds of
+	 * state machine.
+	 */
+	public static long hash(MachineState state)
+	{
+		if (state instanceof BitSetMachineState) {
+			return ((BitSetMachineState) state).getZobristHash();
+		}
+		long hash = 0;
+		for (GdlSentence sentence : state.getContents()) {
+			long z = sentence.hashCode() * 0x9E3779B97F4A7C15L;
+			hash += z ^ (z >>> 32);
+		}
+		return hash;
+	}
+
+	/**
+	 * Looks up the entry for the state with the given hash, and counts the
+	 * lookup as a hit or a miss.
+	 *
+	 * @return The slot holding the entry, to pass to the getters, or -1 if
+	 * there isn't one.
+	 */
+	public int find(long key)
+	{
+		int slot = (int) (key ^ (key >>> 32)) & mask;
+		if (depths[slot] != EMPTY && keys[slot] == key) {
+			hits++;
+			return slot;
+		}
+		misses++;
+		return -1;
+	}
+
+	public int find(MachineState state)
+	{
+		return find(hash(state));
+	}
+
+	public int getDepth(int slot)
+	{
+		return depths[slot];
+	}
+
+	public byte getBound(int slot)
+	{
+		return bounds[slot];
+	}
+
+	public int getBestMove(int slot)
+	{
+		return bestMoves[slot];
+	}
+
+	public int getValue(int slot)
+	{
+		return values[slot];
+	}
+
+	/**
+	 * Stores a search result, unless its slot already holds a different
+	 * state searched to a greater depth.
+	 *
+	 * @param bestMove The index of the best move found, in the order the
+	 * state machine lists the legal moves, or -1 if there isn't one.
+	 * @return Whether the result was stored.
+	 */
+	public boolean store(long key, int depth, byte bound, int bestMove, int value)
+	{
+		int slot = (int) (key ^ (key >>> 32)) & mask;
+		if (depths[slot] != EMPTY && keys[slot] != key && depths[slot] > depth) {
+			rejections++;
+			return false;
+		}
+		keys[slot] = key;
+		depths[slot] = depth;
+		bounds[slot] = bound;
+		bestMoves[slot] = bestMove;
+		values[slot] = value;
+		stores++;
+		return true;
+	}
+
+	public boolean store(MachineState state, int depth, byte bound, int bestMove, int value)
+	{
+		return store(hash(state), depth, bound, bestMove, value);
+	}
+
+	/**
+	 * Returns the bound type for a fail-hard alpha-beta result: an upper
+	 * bound if it's no better than alpha, a lower bound if it's at least
+	 * beta, and exact otherwise.
+	 */
+	public static byte boundFor(int value, int alpha, int beta)
+	{
+		if (value <= alpha) {
+			return UPPER_BOUND;
+		} else if (value >= beta) {
+			return LOWER_BOUND;
+		}
+		return EXACT;
+	}
+
+	public int getSize()
+	{
+		return keys.length;
+	}
+
+	public long getHits()
+	{
+		return hits;
+	}
+
+	public long getMisses()
+	{
+		return misses;
+	}
+
+	public long getStores()
+	{
+		return stores;
+	}
+
+	/**
+	 * Returns the number of results that weren't stored because their slot
+	 * held a deeper search of another state.
+	 */
+	public long getRejections()
+	{
+		return rejections;
+	}
+
+	@Override
+	public String toString()
+	{
+		long lookups = hits + misses;
+		double hitRate = (lookups == 0) ? 0.0 : (double) hits / lookups;
+		return String.format("TranspositionTable[size=%d, hits=%d, misses=%d, hitRate=%.3f, stores=%d, rejections=%d]",
+				getSize(), hits, misses, hitRate, stores, rejections);
+	}
+}
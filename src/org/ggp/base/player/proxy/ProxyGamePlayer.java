@@ -9,7 +9,9 @@ import java.net.ServerSocket;
 import java.net.Socket;
 import java.net.SocketException;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Random;
 import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.BlockingQueue;
@@ -65,6 +67,15 @@ import org.ggp.base.util.symbol.grammar.SymbolPool;
  * fairly complex, this proxy has proven to be decently reliable in my testing.
  * So, that's progress.
  *
+ * The proxy can also run several Gamer processes at once, as independent
+ * workers that are all sent the same requests. This is root-parallel search:
+ * gamers that report {@link WorkingStatisticsEvent}s (like the Monte Carlo
+ * tree search gamer) each search their own tree for the current state, and
+ * just before the play clock runs out, the proxy adds up their statistics
+ * for each move and plays the move that was explored the most. Since the
+ * workers are separate processes, a crash or a full garbage collection in
+ * one of them only loses that worker's share of the search.
+ *
  * @author Sam Schreiber
  */
 public final class ProxyGamePlayer extends Thread implements Subject
@@ -73,9 +84,16 @@ public final class ProxyGamePlayer extends Thread implements Subject
 	private ServerSocket listener;
 	private ServerSocket clientListener;
 	private final List<Observer> observers;
-	private ClientManager theClientManager;
+	private final int numWorkers;
+	private List<ClientManager> theClientManagers;
 	private Gamer theDefaultGamer;
 
+	/**
+	 * System property set on each worker process, giving the total number of
+	 * workers, so that gamers can size their own thread pools accordingly.
+	 */
+	public static final String WORKERS_PROPERTY = "ggp.proxy.workers";
+
 	private class ClientManager extends Thread {
 	    private Process theClientProcess;
 	    private Socket theClientConnection;
@@ -99,6 +117,7 @@ public final class ProxyGamePlayer extends Thread implements Subject
 	        processArgs.add("-XX:-DontCompileHugeMethods");
 	        processArgs.add("-XX:MinHeapFreeRatio=10");
 	        processArgs.add("-XX:MaxHeapFreeRatio=10");
+	        processArgs.add("-D" + WORKERS_PROPERTY + "=" + numWorkers);
 	        processArgs.add("-classpath");
 	        processArgs.add(System.getProperty("java.class.path"));
 	        processArgs.add("org.ggp.base.player.proxy.ProxyGamePlayerClient");
@@ -187,7 +206,7 @@ public final class ProxyGamePlayer extends Thread implements Subject
                     if(in == null)
                         continue;
 
-                    processClientResponse(in, parentThread);
+                    processClientResponse(in, this, parentThread);
                 } catch(SocketException se) {
                     if(expectStop)
                         return;
@@ -222,6 +241,19 @@ public final class ProxyGamePlayer extends Thread implements Subject
 	public final int myPort;
 	public ProxyGamePlayer(int port, Class<? extends Gamer> gamer) throws IOException
 	{
+	    this(port, gamer, 1);
+	}
+
+	/**
+	 * Creates a proxy that runs numWorkers separate Gamer processes, merging
+	 * the move statistics they report when there is more than one.
+	 */
+	public ProxyGamePlayer(int port, Class<? extends Gamer> gamer, int numWorkers) throws IOException
+	{
+	    if(numWorkers < 1)
+	        throw new IllegalArgumentException("numWorkers must be positive");
+	    this.numWorkers = numWorkers;
+
 	    // Use a random gamer as our "default" gamer, that we fall back to
 	    // in the event that we don't get a message from the client, or if
 	    // we need to handle a simple request (START or STOP).
@@ -276,19 +308,33 @@ public final class ProxyGamePlayer extends Thread implements Subject
 	}
 
 	private Random theRandomGenerator = new Random();
-	private long currentMoveCode = 0L;
-	private boolean receivedClientMove = false;
+	private volatile long currentMoveCode = 0L;
+	private volatile boolean receivedClientMove = false;
 	private boolean needRestart = false;
 
+	// Statistics reported by each worker for the current move code, and
+	// the number of workers that have sent in their final move.
+	private final Object responseLock = new Object();
+	private final Map<ClientManager, WorkingStatisticsEvent> latestStatistics = new HashMap<ClientManager, WorkingStatisticsEvent>();
+	private int numFinishedClients = 0;
+
+	private void startClients() {
+	    theClientManagers = new ArrayList<ClientManager>();
+	    for(int i = 0; i < numWorkers; i++) {
+	        ClientManager theClientManager = new ClientManager(Thread.currentThread());
+	        theClientManager.start();
+	        theClientManagers.add(theClientManager);
+	    }
+	}
+
 	@Override
 	public void run()
 	{
 		GamerConfiguration.showConfiguration();
 		GamerLogger.setSpilloverLogfile("spilloverLog");
 
-	    // Start up the client manager
-	    theClientManager = new ClientManager(Thread.currentThread());
-	    theClientManager.start();
+	    // Start up the client managers
+	    startClients();
 
 	    // Start up the input queue listener
 	    inputQueue = new ArrayBlockingQueue<ProxyMessage>(100);
@@ -324,19 +370,28 @@ public final class ProxyGamePlayer extends Thread implements Subject
 
 				if (!(request instanceof InfoRequest)) {
 					// Update the move codes and prepare to send the request on to the client.
-					receivedClientMove = false;
-			        currentMoveCode = 1 + theRandomGenerator.nextLong();
-			        if(request instanceof StopRequest || request instanceof AbortRequest)
-			            theClientManager.expectStop = true;
-
-					// Send the request on to the client, along with the move code.
-					ProxyMessage theMessage = new ProxyMessage(in, currentMoveCode, receptionTime);
-					theClientManager.sendMessage(theMessage);
+					long theMoveCode;
+					synchronized(responseLock) {
+					    receivedClientMove = false;
+					    latestStatistics.clear();
+					    numFinishedClients = 0;
+					    currentMoveCode = 1 + theRandomGenerator.nextLong();
+					    theMoveCode = currentMoveCode;
+					}
+			        for(ClientManager theClientManager : theClientManagers) {
+			            if(request instanceof StopRequest || request instanceof AbortRequest)
+			                theClientManager.expectStop = true;
+
+			            // Send the request on to the client, along with the move code.
+			            theClientManager.sendMessage(new ProxyMessage(in, theMoveCode, receptionTime));
+			        }
 	                if(!(request instanceof PlayRequest))   // If we're not asked for a move, just let
 	                    currentMoveCode = 0L;               // the default gamer handle it by switching move code.
 
 	                // Wait the appropriate amount of time for the request.
 					proxyProcessRequest(request, receptionTime);
+					if(request instanceof PlayRequest && numWorkers > 1)
+					    mergeWorkerStatistics();
 				} else {
 					receivedClientMove = true;
 				}
@@ -361,8 +416,10 @@ public final class ProxyGamePlayer extends Thread implements Subject
 				// Once everything is said and done, restart the client if we're
 				// due for a restart (having finished playing a game).
 				if(needRestart) {
-	                theClientManager.closeClient();
-	                theClientManager.pleaseStop = true;
+				    for(ClientManager theClientManager : theClientManagers) {
+				        theClientManager.closeClient();
+				        theClientManager.pleaseStop = true;
+				    }
 
 	                if(GamerConfiguration.runningOnLinux()) {
 	                	// Clean up the working directory and terminate any orphan processes.
@@ -376,8 +433,7 @@ public final class ProxyGamePlayer extends Thread implements Subject
 	                	Thread.sleep(500);
 	                }
 
-	                theClientManager = new ClientManager(Thread.currentThread());
-	                theClientManager.start();
+	                startClients();
 
 	                theDefaultGamer = new RandomGamer();
 	                GdlPool.drainPool();
@@ -458,30 +514,79 @@ public final class ProxyGamePlayer extends Thread implements Subject
 	    GamerLogger.log("Proxy", "[PROXY] Proxy slept for " + (System.currentTimeMillis() - startSleeping) + ", and woke up " + (System.currentTimeMillis() - timeToFinish) + "ms late (started " + (startSleeping - receptionTime) + "ms after receiving message).");
 	}
 
-	private String latestProxiedResponse;
-	private void processClientResponse(ProxyMessage in, Thread toWakeUp) {
+	/**
+	 * Stops accepting responses for the current move, and replaces the latest
+	 * response with the move that the workers explored the most in total, if
+	 * they reported any statistics.
+	 */
+	private void mergeWorkerStatistics() {
+	    synchronized(responseLock) {
+	        currentMoveCode = 0L;
+	        Map<String, Long> mergedVisits = new HashMap<String, Long>();
+	        for(WorkingStatisticsEvent theStatistics : latestStatistics.values()) {
+	            for(int i = 0; i < theStatistics.getMoves().size(); i++) {
+	                String move = theStatistics.getMoves().get(i);
+	                Long visits = mergedVisits.get(move);
+	                mergedVisits.put(move, (visits == null ? 0L : visits) + theStatistics.getVisits()[i]);
+	            }
+	        }
+	        String bestMove = null;
+	        long bestVisits = 0L;
+	        for(Map.Entry<String, Long> entry : mergedVisits.entrySet()) {
+	            if(entry.getValue() > bestVisits) {
+	                bestMove = entry.getKey();
+	                bestVisits = entry.getValue();
+	            }
+	        }
+	        if(bestMove != null) {
+	            latestProxiedResponse = bestMove;
+	            receivedClientMove = true;
+	            GamerLogger.log("Proxy", "[PROXY] Merged statistics from " + latestStatistics.size() + " workers: playing " + bestMove + " with " + bestVisits + " visits.");
+	        }
+	    }
+	}
+
+	private int countLiveClients() {
+	    int nLive = 0;
+	    for(ClientManager theClientManager : theClientManagers) {
+	        if(theClientManager.isAlive())
+	            nLive++;
+	    }
+	    return nLive;
+	}
+
+	private volatile String latestProxiedResponse;
+	private void processClientResponse(ProxyMessage in, ClientManager source, Thread toWakeUp) {
 	    String theirTag = in.theMessage.substring(0,5);
 	    String theirMessage = in.theMessage.substring(5);
 
-	    // Ignore their message unless it has an up-to-date move code.
-	    if(!(in.messageCode == currentMoveCode)) {
-	        if(currentMoveCode > 0)
-	            GamerLogger.logError("Proxy", "CODE MISMATCH: " + currentMoveCode + " vs " + in.messageCode);
-	        return;
-	    }
+	    synchronized(responseLock) {
+	        // Ignore their message unless it has an up-to-date move code.
+	        if(!(in.messageCode == currentMoveCode)) {
+	            if(currentMoveCode > 0)
+	                GamerLogger.logError("Proxy", "CODE MISMATCH: " + currentMoveCode + " vs " + in.messageCode);
+	            return;
+	        }
 
-	    if(theirTag.equals("WORK:")) {
-            latestProxiedResponse = theirMessage;
-            GamerLogger.log("Proxy", "[PROXY] Got latest working move: " + latestProxiedResponse);
-            receivedClientMove = true;
-	    } else if(theirTag.equals("DONE:")) {
-            latestProxiedResponse = theirMessage;
-            GamerLogger.log("Proxy", "[PROXY] Got a final move: " + latestProxiedResponse);
-            receivedClientMove = true;
-            currentMoveCode = 0L;
-            toWakeUp.interrupt();
+	        if(theirTag.equals("WORK:")) {
+	            latestProxiedResponse = theirMessage;
+	            GamerLogger.log("Proxy", "[PROXY] Got latest working move: " + latestProxiedResponse);
+	            receivedClientMove = true;
+	        } else if(theirTag.equals("STAT:")) {
+	            latestStatistics.put(source, WorkingStatisticsEvent.fromMessage(theirMessage));
+	        } else if(theirTag.equals("DONE:")) {
+	            latestProxiedResponse = theirMessage;
+	            GamerLogger.log("Proxy", "[PROXY] Got a final move: " + latestProxiedResponse);
+	            receivedClientMove = true;
+	            // With several workers, keep listening until they have all finished.
+	            numFinishedClients++;
+	            if(numFinishedClients >= countLiveClients()) {
+	                currentMoveCode = 0L;
+	                toWakeUp.interrupt();
+	            }
+	        }
 	    }
-    }
+	}
 
 	private BlockingQueue<ProxyMessage> inputQueue;
 	private BlockingQueue<Socket> inputConnectionQueue;
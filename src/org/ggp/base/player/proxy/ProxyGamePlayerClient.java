@@ -172,6 +172,10 @@ public final class ProxyGamePlayerClient extends Thread implements Subject, Obse
             ProxyMessage theMessage = new ProxyMessage("WORK:" + theWorking.getWorkingResponse(), theCode, 0L);
             theMessage.writeTo(theOutput);
             GamerLogger.log("Proxy", "[ProxyClient] Sent message: " + theMessage);
+        } else if(event instanceof WorkingStatisticsEvent) {
+            WorkingStatisticsEvent theStatistics = (WorkingStatisticsEvent)event;
+            ProxyMessage theMessage = new ProxyMessage("STAT:" + theStatistics.toMessage(), theCode, 0L);
+            theMessage.writeTo(theOutput);
         }
     }
 }
@@ -0,0 +1,70 @@
+package org.ggp.base.player.proxy;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.ggp.base.util.observer.Event;
+
+/**
+ * WorkingStatisticsEvent carries the search statistics a gamer has so far for
+ * each of its legal moves in the current state: how many times the move was
+ * explored, and the total score those explorations got. When running behind
+ * a {@link ProxyGamePlayer} with several workers, the proxy adds up these
+ * statistics across workers and plays the move explored the most.
+ *
+ * The statistics are cumulative, so each event replaces the last one sent
+ * for the same move.
+ */
+public class WorkingStatisticsEvent extends Event {
+    private final List<String> theMoves;
+    private final long[] theVisits;
+    private final long[] theTotalScores;
+
+    public WorkingStatisticsEvent(List<String> theMoves, long[] theVisits, long[] theTotalScores) {
+        if(theMoves.size() != theVisits.length || theMoves.size() != theTotalScores.length)
+            throw new IllegalArgumentException("Need exactly one visit count and total score per move");
+        this.theMoves = theMoves;
+        this.theVisits = theVisits;
+        this.theTotalScores = theTotalScores;
+    }
+
+    public List<String> getMoves() {
+        return theMoves;
+    }
+
+    public long[] getVisits() {
+        return theVisits;
+    }
+
+    public long[] getTotalScores() {
+        return theTotalScores;
+    }
+
+    /**
+     * Encodes the statistics on a single line, as tab-separated triples of
+     * visits, total score and move.
+     */
+    public String toMessage() {
+        StringBuilder sb = new StringBuilder();
+        for(int i = 0; i < theMoves.size(); i++) {
+            if(i > 0) sb.append('\t');
+            sb.append(theVisits[i]).append('\t').append(theTotalScores[i]).append('\t').append(theMoves.get(i));
+        }
+        return sb.toString();
+    }
+
+    public static WorkingStatisticsEvent fromMessage(String theMessage) {
+        List<String> moves = new ArrayList<String>();
+        String[] parts = theMessage.isEmpty() ? new String[0] : theMessage.split("\t");
+        if(parts.length % 3 != 0)
+            throw new IllegalArgumentException("Malformed statistics message: " + theMessage);
+        long[] visits = new long[parts.length / 3];
+        long[] totalScores = new long[parts.length / 3];
+        for(int i = 0; i < parts.length / 3; i++) {
+            visits[i] = Long.parseLong(parts[3*i]);
+            totalScores[i] = Long.parseLong(parts[3*i+1]);
+            moves.add(parts[3*i+2]);
+        }
+        return new WorkingStatisticsEvent(moves, visits, totalScores);
+    }
+}
@@ -26,12 +26,66 @@ public final class RequestFactory
 {
 	public Request create(Gamer gamer, String source) throws RequestFormatException
 	{
+		return create(gamer, parse(source));
+	}
+
+	/**
+	 * Parses a request without creating it, so that its type and match can
+	 * be looked at first, such as to pick the gamer to create it for.
+	 */
+	public SymbolList parse(CharSequence source) throws RequestFormatException
+	{
+		try
+		{
+			return (SymbolList) SymbolFactory.create(source);
+		}
+		catch (Exception e)
+		{
+			throw new RequestFormatException(source.toString(), e);
+		}
+	}
+
+	/**
+	 * Returns the type of a parsed request, such as "play", in lower case.
+	 */
+	public String getType(SymbolList list) throws RequestFormatException
+	{
+		try
+		{
+			return ((SymbolAtom) list.get(0)).getValue().toLowerCase();
+		}
+		catch (Exception e)
+		{
+			throw new RequestFormatException(list.toString(), e);
+		}
+	}
+
+	/**
+	 * Returns the match a parsed request is for, or null if it isn't for a
+	 * particular match, as with "info" and "preview" requests.
+	 */
+	public String getMatchId(SymbolList list) throws RequestFormatException
+	{
+		String type = getType(list);
+		if (!type.equals("play") && !type.equals("start") && !type.equals("stop") && !type.equals("abort"))
+		{
+			return null;
+		}
 		try
 		{
-			SymbolList list = (SymbolList) SymbolFactory.create(source);
-			SymbolAtom head = (SymbolAtom) list.get(0);
+			return ((SymbolAtom) list.get(1)).getValue();
+		}
+		catch (Exception e)
+		{
+			throw new RequestFormatException(list.toString(), e);
+		}
+	}
 
-			String type = head.getValue().toLowerCase();
+	public Request create(Gamer gamer, SymbolList list) throws RequestFormatException
+	{
+		try
+		{
+			String type = getType(list);
 			if (type.equals("play"))
 			{
 				return createPlay(gamer, list);
@@ -61,9 +115,13 @@ public final class RequestFactory
 				throw new IllegalArgumentException("Unrecognized request type!");
 			}
 		}
+		catch (RequestFormatException e)
+		{
+			throw e;
+		}
 		catch (Exception e)
 		{
-			throw new RequestFormatException(source, e);
+			throw new RequestFormatException(list.toString(), e);
 		}
 	}
 
@@ -24,6 +24,7 @@ import org.ggp.base.server.threads.AbortRequestThread;
 import org.ggp.base.server.threads.PlayRequestThread;
 import org.ggp.base.server.threads.PreviewRequestThread;
 import org.ggp.base.server.threads.RandomPlayRequestThread;
+import org.ggp.base.server.threads.RequestThread;
 import org.ggp.base.server.threads.StartRequestThread;
 import org.ggp.base.server.threads.StopRequestThread;
 import org.ggp.base.util.match.Match;
@@ -59,6 +60,7 @@ public final class GameServer extends Thread implements Subject
     private String spectatorServerURL;
     private String spectatorServerKey;
     private boolean forceUsingEntireClock;
+    private boolean keepConnectionsAlive;
 
     public GameServer(Match match, List<String> hosts, List<Integer> ports) {
         this.match = match;
@@ -85,6 +87,7 @@ public final class GameServer extends Thread implements Subject
 
         spectatorServerURL = null;
         forceUsingEntireClock = false;
+        keepConnectionsAlive = true;
     }
 
     public void startSavingToFilename(String theFilename) {
@@ -266,17 +269,10 @@ public final class GameServer extends Thread implements Subject
                 threads.add(new PlayRequestThread(this, match, previousMoves, legalMoves, stateMachine.getRoles().get(i), hosts.get(i), ports.get(i), getPlayerNameFromMatchForRequest(i), playerGetsUnlimitedTime[i]));
             }
         }
-        for (PlayRequestThread thread : threads) {
-            thread.start();
-        }
-
-        if (forceUsingEntireClock) {
-            Thread.sleep(match.getPlayClock() * 1000);
-        }
+        sendRequestsAndWait(threads, forceUsingEntireClock ? match.getPlayClock() * 1000 : 0);
 
         List<Move> moves = new ArrayList<Move>();
         for (PlayRequestThread thread : threads) {
-            thread.join();
             moves.add(thread.getMove());
         }
 
@@ -290,15 +286,7 @@ public final class GameServer extends Thread implements Subject
         		threads.add(new PreviewRequestThread(this, match, stateMachine.getRoles().get(i), hosts.get(i), ports.get(i), getPlayerNameFromMatchForRequest(i)));
         	}
         }
-        for (PreviewRequestThread thread : threads) {
-            thread.start();
-        }
-        if (forceUsingEntireClock) {
-            Thread.sleep(match.getStartClock() * 1000);
-        }
-        for (PreviewRequestThread thread : threads) {
-            thread.join();
-        }
+        sendRequestsAndWait(threads, forceUsingEntireClock ? match.getStartClock() * 1000 : 0);
     }
 
     private synchronized void sendStartRequests() throws InterruptedException {
@@ -308,15 +296,7 @@ public final class GameServer extends Thread implements Subject
         		threads.add(new StartRequestThread(this, match, stateMachine.getRoles().get(i), hosts.get(i), ports.get(i), getPlayerNameFromMatchForRequest(i)));
         	}
         }
-        for (StartRequestThread thread : threads) {
-            thread.start();
-        }
-        if (forceUsingEntireClock) {
-            Thread.sleep(match.getStartClock() * 1000);
-        }
-        for (StartRequestThread thread : threads) {
-            thread.join();
-        }
+        sendRequestsAndWait(threads, forceUsingEntireClock ? match.getStartClock() * 1000 : 0);
     }
 
     private synchronized void sendStopRequests(List<Move> previousMoves) throws InterruptedException {
@@ -326,12 +306,7 @@ public final class GameServer extends Thread implements Subject
         		threads.add(new StopRequestThread(this, match, previousMoves, stateMachine.getRoles().get(i), hosts.get(i), ports.get(i), getPlayerNameFromMatchForRequest(i)));
         	}
         }
-        for (StopRequestThread thread : threads) {
-            thread.start();
-        }
-        for (StopRequestThread thread : threads) {
-            thread.join();
-        }
+        sendRequestsAndWait(threads, 0);
     }
 
     private void sendAbortRequests() throws InterruptedException {
@@ -341,13 +316,35 @@ public final class GameServer extends Thread implements Subject
         		threads.add(new AbortRequestThread(this, match, stateMachine.getRoles().get(i), hosts.get(i), ports.get(i), getPlayerNameFromMatchForRequest(i)));
         	}
         }
-        for (AbortRequestThread thread : threads) {
-            thread.start();
+        sendRequestsAndWait(threads, 0);
+        interrupt();
+    }
+
+    /**
+     * Sends every request through the shared HTTP client at once, and then
+     * waits for all of their responses, and for at least the given number of
+     * milliseconds since they were sent.
+     */
+    private void sendRequestsAndWait(List<? extends RequestThread> requests, long minimumMillis) throws InterruptedException {
+        long start = System.currentTimeMillis();
+        for (RequestThread request : requests) {
+            request.sendRequest(keepConnectionsAlive);
         }
-        for (AbortRequestThread thread : threads) {
-            thread.join();
+        try {
+            for (int i = 0; i < requests.size(); i++) {
+                requests.get(i).awaitResponse();
+            }
+        } catch (InterruptedException e) {
+            // The request being awaited was abandoned; abandon the rest too.
+            for (RequestThread request : requests) {
+                request.cancelRequest();
+            }
+            throw e;
+        }
+        long remaining = start + minimumMillis - System.currentTimeMillis();
+        if (remaining > 0) {
+            Thread.sleep(remaining);
         }
-        interrupt();
     }
 
     public void givePlayerUnlimitedTime(int i) {
@@ -365,6 +362,14 @@ public final class GameServer extends Thread implements Subject
         forceUsingEntireClock = true;
     }
 
+    // By default, players are asked to keep their connections open between
+    // requests, so that each request after the first doesn't have to wait to
+    // connect. Players that don't support this just close their connections
+    // as usual, but this can be turned off to open a connection per request.
+    public void setKeepConnectionsAlive(boolean keepAlive) {
+        keepConnectionsAlive = keepAlive;
+    }
+
     public Match getMatch() {
         return match;
     }
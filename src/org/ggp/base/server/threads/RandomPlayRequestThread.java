@@ -23,6 +23,18 @@ public final class RandomPlayRequestThread extends PlayRequestThread
 		return move;
 	}
 
+	@Override
+	public void sendRequest(boolean keepAlive)
+	{
+		;
+	}
+
+	@Override
+	public void awaitResponse()
+	{
+		;
+	}
+
 	@Override
 	public void run()
 	{
@@ -7,7 +7,8 @@ import java.net.UnknownHostException;
 import org.ggp.base.server.GameServer;
 import org.ggp.base.server.event.ServerConnectionErrorEvent;
 import org.ggp.base.server.event.ServerTimeoutEvent;
-import org.ggp.base.util.http.HttpRequest;
+import org.ggp.base.util.http.AsyncHttpClient;
+import org.ggp.base.util.http.HttpResponseFuture;
 import org.ggp.base.util.statemachine.Role;
 
 
@@ -20,6 +21,14 @@ import org.ggp.base.util.statemachine.Role;
  * that the concrete RequestThread subclasses can focus on request-specific
  * business logic.
  *
+ * A request can be run on its own thread, but the game server instead sends
+ * all of its requests through the shared {@link AsyncHttpClient} with
+ * {@link #sendRequest(boolean)}, and then waits for each of them with
+ * {@link #awaitResponse()}, so that no thread is needed per request. The
+ * timeout is now a total deadline for the response once connected, rather
+ * than a limit on each read, so a player that trickles out its response is
+ * timed out all the same.
+ *
  * @author schreib
  */
 public abstract class RequestThread extends Thread
@@ -32,6 +41,8 @@ public abstract class RequestThread extends Thread
 	private final Role role;
 	private final String request;
 
+	private HttpResponseFuture response;
+
 	public RequestThread(GameServer gameServer, Role role, String host, int port, String playerName, int timeout, String request)
 	{
 		this.gameServer = gameServer;
@@ -45,18 +56,58 @@ public abstract class RequestThread extends Thread
 
 	protected abstract void handleResponse(String response);
 
-	@Override
-	public void run()
+	/**
+	 * Sends the request, without waiting for the response.
+	 *
+	 * @param keepAlive Whether to send it on a connection kept open from an
+	 * earlier request to the same player, if there is one, and to ask the
+	 * player to keep this one open too.
+	 */
+	public void sendRequest(boolean keepAlive)
+	{
+		response = AsyncHttpClient.getShared().issueRequest(host, port, playerName, request, timeout, keepAlive);
+	}
+
+	/**
+	 * Waits for the response to the request sent by {@link #sendRequest(boolean)},
+	 * and handles it or reports the error to the game server. If the calling
+	 * thread is interrupted, the request is abandoned.
+	 */
+	public void awaitResponse() throws InterruptedException
 	{
 		try {
-			String response = HttpRequest.issueRequest(host, port, playerName, request, timeout);
-			handleResponse(response);
+			handleResponse(response.get());
 		} catch (SocketTimeoutException e) {
 			gameServer.notifyObservers(new ServerTimeoutEvent(role));
 		} catch (UnknownHostException e) {
 			gameServer.notifyObservers(new ServerConnectionErrorEvent(role));
 		} catch (IOException e) {
 			gameServer.notifyObservers(new ServerConnectionErrorEvent(role));
+		} catch (InterruptedException e) {
+			cancelRequest();
+			throw e;
+		}
+	}
+
+	/**
+	 * Abandons the request sent by {@link #sendRequest(boolean)}, if it hasn't
+	 * finished yet.
+	 */
+	public void cancelRequest()
+	{
+		if (response != null) {
+			response.cancel();
+		}
+	}
+
+	@Override
+	public void run()
+	{
+		sendRequest(false);
+		try {
+			awaitResponse();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
 		}
 	}
 }
\ No newline at end of file
@@ -5,12 +5,27 @@ import org.junit.runners.Suite;
 
 @RunWith(Suite.class)
 @Suite.SuiteClasses({
+	AsyncHttpClientTests.class,
+	BitSetPropNetStateMachineTests.class,
+	DifferentialPropNetStateMachineTests.class,
 	GameParsingTests.class,
+	GamePlayerTests.class,
 	GdlCleanerTests.class,
+	GdlPoolTests.class,
+	HttpReaderTests.class,
+	JavassistPropNetStateMachineTests.class,
+	KnowledgeBaseTests.class,
 	NoTabsInRulesheetsTest.class,
+	OptimizingPropNetFactoryTests.class,
+	PropNetCacheTests.class,
+	ProverConcurrencyTests.class,
 	ProverStateMachineTests.class,
+	ReasonerStateMachineTests.class,
 	SimpleSentenceFormTest.class,
-	StaticValidationTests.class
+	StaticValidationTests.class,
+	SymbolFactoryTests.class,
+	TermArenaTests.class,
+	TranspositionTableTests.class
                      })
 public class AllTests {
 
@@ -0,0 +1,205 @@
+package org.ggp.base.test;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.ggp.base.util.http.AsyncHttpClient;
+import org.ggp.base.util.http.HttpResponseFuture;
+import org.ggp.base.util.http.HttpServerConnection;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+
+public class AsyncHttpClientTests extends Assert {
+
+    private ServerSocket listener;
+    private int port;
+    private final AtomicInteger connections = new AtomicInteger();
+    /** Released each time the player closes a connection. */
+    private final Semaphore closed = new Semaphore(0);
+    private final AtomicInteger vanished = new AtomicInteger();
+
+    @Before
+    public void setUp() throws Exception {
+        listener = new ServerSocket(0);
+        port = listener.getLocalPort();
+        Thread acceptor = new Thread() {
+            @Override
+            public void run() {
+                try {
+                    while (true) {
+                        final Socket connection = listener.accept();
+                        connections.incrementAndGet();
+                        new Thread() {
+                            @Override
+                            public void run() {
+                                respond(connection);
+                                closed.release();
+                            }
+                        }.start();
+                    }
+                } catch (IOException e) {
+                    // The listener was closed.
+                }
+            }
+        };
+        acceptor.setDaemon(true);
+        acceptor.start();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        listener.close();
+    }
+
+    /**
+     * Echoes each request, after sleeping first if it starts with "sleep", or
+     * without a content length if it starts with "raw". Connections are kept
+     * open when asked, unless the request starts with "drop", and are closed
+     * without any response if it starts with "vanish".
+     */
+    private void respond(Socket socket) {
+        HttpServerConnection connection = null;
+        try {
+            connection = new HttpServerConnection(socket);
+            String request;
+            while ((request = connection.readRequest()) != null) {
+                if (request.startsWith("vanish")) {
+                    vanished.incrementAndGet();
+                    break;
+                }
+                if (request.startsWith("sleep")) {
+                    Thread.sleep(2000);
+                }
+                if (request.startsWith("raw")) {
+                    OutputStream out = socket.getOutputStream();
+                    out.write(("HTTP/1.0 200 OK\r\nContent-type: text/acl\r\n\r\n" + request + "\nmore\r\n").getBytes());
+                    out.flush();
+                    break;
+                }
+                connection.writeResponse(request);
+                if (!connection.isKeepAlive() || request.startsWith("drop")) {
+                    break;
+                }
+            }
+        } catch (Exception e) {
+            // The client went away.
+        } finally {
+            if (connection != null) {
+                connection.close();
+            }
+        }
+    }
+
+    @Test
+    public void testConcurrentRequests() throws Exception {
+        AsyncHttpClient client = AsyncHttpClient.getShared();
+        List<HttpResponseFuture> responses = new ArrayList<HttpResponseFuture>();
+        for (int i = 0; i < 100; i++) {
+            responses.add(client.issueRequest("127.0.0.1", port, "Player" + i, "( play match" + i + " nil )", 5000));
+        }
+        for (int i = 0; i < 100; i++) {
+            assertEquals("( play match" + i + " nil )", responses.get(i).get());
+        }
+    }
+
+    @Test
+    public void testResponseWithoutContentLength() throws Exception {
+        HttpResponseFuture response = AsyncHttpClient.getShared().issueRequest("localhost", port, "", "raw data", 5000);
+        assertEquals("raw datamore", response.get());
+    }
+
+    @Test
+    public void testTimeout() throws Exception {
+        HttpResponseFuture slow = AsyncHttpClient.getShared().issueRequest("127.0.0.1", port, "", "sleep", 200);
+        HttpResponseFuture fast = AsyncHttpClient.getShared().issueRequest("127.0.0.1", port, "", "fast", 5000);
+        try {
+            slow.get();
+            fail("Expected a timeout");
+        } catch (SocketTimeoutException e) {
+            // The slow request timed out, without holding up the fast one.
+        }
+        assertEquals("fast", fast.get());
+    }
+
+    @Test
+    public void testUnlimitedTime() throws Exception {
+        HttpResponseFuture response = AsyncHttpClient.getShared().issueRequest("127.0.0.1", port, "", "sleep unlimited", -1);
+        assertEquals("sleep unlimited", response.get());
+    }
+
+    @Test
+    public void testConnectionError() throws Exception {
+        ServerSocket closed = new ServerSocket(0);
+        int closedPort = closed.getLocalPort();
+        closed.close();
+        try {
+            AsyncHttpClient.getShared().issueRequest("127.0.0.1", closedPort, "", "anyone there", 5000).get();
+            fail("Expected a connection error");
+        } catch (SocketTimeoutException e) {
+            fail("A refused connection isn't a timeout");
+        } catch (IOException e) {
+            // Expected.
+        }
+    }
+
+    @Test
+    public void testCancel() throws Exception {
+        HttpResponseFuture response = AsyncHttpClient.getShared().issueRequest("127.0.0.1", port, "", "sleep", -1);
+        response.cancel();
+        assertTrue(response.isDone());
+        try {
+            response.get();
+            fail("Expected the request to be cancelled");
+        } catch (IOException e) {
+            // Expected.
+        }
+    }
+
+    @Test
+    public void testKeepAliveReusesConnection() throws Exception {
+        AsyncHttpClient client = new AsyncHttpClient("KeepAliveTest");
+        for (int i = 0; i < 5; i++) {
+            assertEquals("( play match" + i + " nil )", client.issueRequest("127.0.0.1", port, "", "( play match" + i + " nil )", 5000, true).get());
+        }
+        assertEquals(1, connections.get());
+
+        // Requests that don't ask for keep-alive still get connections of their own.
+        assertEquals("( ping )", client.issueRequest("127.0.0.1", port, "", "( ping )", 5000).get());
+        assertEquals(2, connections.get());
+    }
+
+    @Test
+    public void testKeepAliveAfterPlayerCloses() throws Exception {
+        AsyncHttpClient client = new AsyncHttpClient("KeepAliveTest");
+        assertEquals("drop", client.issueRequest("127.0.0.1", port, "", "drop", 5000, true).get());
+        closed.acquire();
+        assertEquals("again", client.issueRequest("127.0.0.1", port, "", "again", 5000, true).get());
+        assertEquals("and again", client.issueRequest("127.0.0.1", port, "", "and again", 5000, true).get());
+        assertEquals(2, connections.get());
+    }
+
+    @Test
+    public void testWrittenRequestIsNeverResent() throws Exception {
+        AsyncHttpClient client = new AsyncHttpClient("KeepAliveTest");
+        assertEquals("first", client.issueRequest("127.0.0.1", port, "", "first", 5000, true).get());
+        HttpResponseFuture response = client.issueRequest("127.0.0.1", port, "", "vanish", 5000, true);
+        try {
+            response.get();
+            fail();
+        } catch (IOException e) {
+            // The player closed the connection after reading the request.
+        }
+        assertEquals(1, vanished.get());
+        assertEquals(1, connections.get());
+    }
+}
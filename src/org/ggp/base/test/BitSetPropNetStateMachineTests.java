@@ -0,0 +1,186 @@
+package org.ggp.base.test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+
+import org.ggp.base.util.game.TestGameRepository;
+import org.ggp.base.util.gdl.grammar.Gdl;
+import org.ggp.base.util.gdl.grammar.GdlConstant;
+import org.ggp.base.util.gdl.grammar.GdlPool;
+import org.ggp.base.util.gdl.grammar.GdlSentence;
+import org.ggp.base.util.gdl.grammar.GdlTerm;
+import org.ggp.base.util.statemachine.BitSetMachineState;
+import org.ggp.base.util.statemachine.FailsafeStateMachine;
+import org.ggp.base.util.statemachine.MachineState;
+import org.ggp.base.util.statemachine.Move;
+import org.ggp.base.util.statemachine.Role;
+import org.ggp.base.util.statemachine.StateMachine;
+import org.ggp.base.util.statemachine.cache.CachedStateMachine;
+import org.ggp.base.util.statemachine.implementation.propnet.BitSetPropNetStateMachine;
+import org.ggp.base.util.statemachine.implementation.prover.ProverStateMachine;
+import org.ggp.base.util.statemachine.verifier.StateMachineVerifier;
+import org.junit.Assert;
+import org.junit.Test;
+
+
+public class BitSetPropNetStateMachineTests extends Assert {
+
+    protected final BitSetPropNetStateMachine sm = new BitSetPropNetStateMachine();
+
+    @Test
+    public void testPropNetOnTicTacToe() throws Exception {
+        List<Gdl> ticTacToeDesc = new TestGameRepository().getGame("ticTacToe").getRules();
+        sm.initialize(ticTacToeDesc);
+        MachineState state = sm.getInitialState();
+        assertFalse(sm.isTerminal(state));
+        Role xRole = new Role(GdlPool.getConstant("xplayer"));
+        Role oRole = new Role(GdlPool.getConstant("oplayer"));
+        assertEquals(Arrays.asList(xRole, oRole), sm.getRoles());
+
+        assertEquals(9, sm.getLegalJointMoves(state).size());
+        Move noop = new Move(GdlPool.getConstant("noop"));
+        assertEquals(Arrays.asList(noop), sm.getLegalMoves(state, oRole));
+
+        state = sm.getNextState(state, Arrays.asList(move("mark 1 1"), noop));
+        state = sm.getNextState(state, Arrays.asList(noop, move("mark 1 3")));
+        state = sm.getNextState(state, Arrays.asList(move("mark 3 1"), noop));
+        state = sm.getNextState(state, Arrays.asList(noop, move("mark 2 2")));
+        assertFalse(sm.isTerminal(state));
+        assertTrue(sm.getLegalMoves(state, xRole).contains(move("mark 2 1")));
+        state = sm.getNextState(state, Arrays.asList(move("mark 2 1"), noop));
+        assertTrue(sm.isTerminal(state));
+        assertEquals(100, sm.getGoal(state, xRole));
+        assertEquals(0, sm.getGoal(state, oRole));
+    }
+
+    @Test
+    public void testStatesMatchProver() throws Exception {
+        List<Gdl> connectFourDesc = new TestGameRepository().getGame("connectFour").getRules();
+        StateMachine prover = new ProverStateMachine();
+        prover.initialize(connectFourDesc);
+        sm.initialize(connectFourDesc);
+
+        MachineState proverState = prover.getInitialState();
+        MachineState propNetState = sm.getInitialState();
+        assertEquals(proverState, propNetState);
+        while (!prover.isTerminal(proverState)) {
+            assertFalse(sm.isTerminal(propNetState));
+            List<Move> jointMove = prover.getRandomJointMove(proverState);
+            proverState = prover.getNextState(proverState, jointMove);
+            propNetState = sm.getNextState(propNetState, jointMove);
+            assertEquals(proverState, propNetState);
+        }
+        assertTrue(sm.isTerminal(propNetState));
+        assertEquals(prover.getGoals(proverState), sm.getGoals(propNetState));
+    }
+
+    @Test
+    public void testBitSetStatesMatchPlainStates() throws Exception {
+        List<Gdl> ticTacToeDesc = new TestGameRepository().getGame("ticTacToe").getRules();
+        sm.initialize(ticTacToeDesc);
+        MachineState state = sm.getInitialState();
+        state = sm.getNextState(state, Arrays.asList(move("mark 2 2"), move("noop")));
+        assertTrue(state instanceof BitSetMachineState);
+
+        MachineState plain = new MachineState(new HashSet<GdlSentence>(state.getContents()));
+        assertEquals(plain, state);
+        assertEquals(state, plain);
+        assertEquals(plain.hashCode(), state.hashCode());
+
+        BitSetMachineState rebuilt = (BitSetMachineState) sm.getMachineStateFromSentenceList(plain.getContents());
+        assertEquals(state, rebuilt);
+        assertEquals(((BitSetMachineState) state).getZobristHash(), rebuilt.getZobristHash());
+        assertEquals(state, state.clone());
+        assertFalse(state.equals(sm.getInitialState()));
+        assertFalse(((BitSetMachineState) state).getZobristHash() == ((BitSetMachineState) sm.getInitialState()).getZobristHash());
+    }
+
+    @Test
+    public void testDepthCharges() throws Exception {
+        List<Gdl> connectFourDesc = new TestGameRepository().getGame("connectFour").getRules();
+        sm.initialize(connectFourDesc);
+        MachineState initial = sm.getInitialState();
+        int[][] results = new int[50][2];
+        int[] depths = new int[50];
+        sm.performDepthCharges(initial, 50, results, depths);
+        for (int i = 0; i < 50; i++) {
+            assertEquals(100, results[i][0] + results[i][1]);
+            assertTrue(depths[i] >= 7 && depths[i] <= 48);
+        }
+        // The depth charges mustn't leave the initial state looking marked.
+        assertFalse(sm.isTerminal(initial));
+        assertEquals(8, sm.getLegalJointMoves(initial).size());
+    }
+
+    @Test
+    public void testConsistencyWithProver() throws Exception {
+        for (String gameKey : new String[] {"ticTacToe", "connectFour", "test_case_1a", "test_case_3c"}) {
+            List<Gdl> desc = new TestGameRepository().getGame(gameKey).getRules();
+            StateMachine prover = new ProverStateMachine();
+            prover.initialize(desc);
+            StateMachine propNet = new BitSetPropNetStateMachine();
+            propNet.initialize(desc);
+            assertTrue(gameKey, StateMachineVerifier.checkMachineConsistency(prover, propNet, 1000));
+        }
+    }
+
+    @Test
+    public void testIndexedMoves() throws Exception {
+        for (String gameKey : new String[] {"ticTacToe", "connectFour"}) {
+            List<Gdl> desc = new TestGameRepository().getGame(gameKey).getRules();
+            for (StateMachine machine : new StateMachine[] {new BitSetPropNetStateMachine(), new FailsafeStateMachine(new BitSetPropNetStateMachine()), new CachedStateMachine(new BitSetPropNetStateMachine())}) {
+                machine.initialize(desc);
+                assertTrue(gameKey, StateMachineVerifier.checkIndexedMoveConsistency(machine, 50));
+            }
+        }
+    }
+
+    @Test
+    public void testIndexedMovesThatDontPack() throws Exception {
+        sm.initialize(ProverStateMachineTests.getManyRolesGame());
+        assertTrue(StateMachineVerifier.checkIndexedMoveConsistency(sm, 10));
+        // Every role's second move is past the radix the default leaves it.
+        int[] moveIndices = new int[64];
+        for (int r = 0; r < 64; r++) {
+            moveIndices[r] = Math.max(sm.getMoveIndex(r, move("a")), sm.getMoveIndex(r, move("b")));
+        }
+        long jointMove = sm.getJointMoveIndex(moveIndices);
+        assertTrue(jointMove < 0);
+        assertEquals(sm.getNextState(sm.getInitialState(), sm.getJointMoveFromIndex(jointMove)),
+                sm.getNextState(sm.getInitialState(), jointMove));
+    }
+
+    @Test
+    public void testIndexedMovesAfterFailsafeFallsBack() throws Exception {
+        List<Gdl> desc = new TestGameRepository().getGame("ticTacToe").getRules();
+        FailsafeStateMachine failsafe = new FailsafeStateMachine(new BitSetPropNetStateMachine() {
+            @Override
+            public MachineState getNextState(MachineState state, long jointMove) {
+                throw new IllegalStateException("Broken on purpose");
+            }
+        });
+        failsafe.initialize(desc);
+        MachineState state = failsafe.getInitialState();
+        int mark22 = failsafe.getMoveIndex(0, move("mark 2 2"));
+        int noop = failsafe.getMoveIndex(1, move("noop"));
+        MachineState next = failsafe.getNextState(state, failsafe.getJointMoveIndex(new int[] {mark22, noop}));
+        assertTrue(failsafe.getBackingMachine() instanceof ProverStateMachine);
+        assertEquals(failsafe.getNextState(state, Arrays.asList(move("mark 2 2"), move("noop"))), next);
+        assertTrue(StateMachineVerifier.checkIndexedMoveConsistency(failsafe, 50));
+    }
+
+
+    protected Move move(String description) {
+        String[] parts = description.split(" ");
+        GdlConstant head = GdlPool.getConstant(parts[0]);
+        if(parts.length == 1)
+            return new Move(head);
+        List<GdlTerm> body = new ArrayList<GdlTerm>();
+        for(int i = 1; i < parts.length; i++) {
+            body.add(GdlPool.getConstant(parts[i]));
+        }
+        return new Move(GdlPool.getFunction(head, body));
+    }
+}
@@ -0,0 +1,125 @@
+package org.ggp.base.test;
+
+import java.util.Collections;
+import java.util.List;
+
+import org.ggp.base.util.game.Game;
+import org.ggp.base.util.game.TestGameRepository;
+import org.ggp.base.util.gdl.factory.GdlFactory;
+import org.ggp.base.util.gdl.grammar.Gdl;
+import org.ggp.base.util.statemachine.MachineState;
+import org.ggp.base.util.statemachine.Move;
+import org.ggp.base.util.statemachine.StateMachine;
+import org.ggp.base.util.statemachine.implementation.propnet.DifferentialPropNetStateMachine;
+import org.ggp.base.util.statemachine.implementation.prover.ProverStateMachine;
+import org.ggp.base.util.statemachine.verifier.StateMachineVerifier;
+import org.junit.Assert;
+import org.junit.Test;
+
+
+public class DifferentialPropNetStateMachineTests extends Assert {
+
+    @Test
+    public void testStatesMatchProver() throws Exception {
+        List<Gdl> connectFourDesc = new TestGameRepository().getGame("connectFour").getRules();
+        StateMachine prover = new ProverStateMachine();
+        prover.initialize(connectFourDesc);
+        DifferentialPropNetStateMachine sm = new DifferentialPropNetStateMachine();
+        sm.initialize(connectFourDesc);
+
+        for (int i = 0; i < 5; i++) {
+            MachineState proverState = prover.getInitialState();
+            MachineState propNetState = sm.getInitialState();
+            assertEquals(proverState, propNetState);
+            while (!prover.isTerminal(proverState)) {
+                assertFalse(sm.isTerminal(propNetState));
+                assertEquals(prover.getLegalJointMoves(proverState).size(), sm.getLegalJointMoves(propNetState).size());
+                List<Move> jointMove = prover.getRandomJointMove(proverState);
+                proverState = prover.getNextState(proverState, jointMove);
+                propNetState = sm.getNextState(propNetState, jointMove);
+                assertEquals(proverState, propNetState);
+            }
+            assertTrue(sm.isTerminal(propNetState));
+            assertEquals(prover.getGoals(proverState), sm.getGoals(propNetState));
+        }
+        assertTrue(sm.getAverageComponentsTouched() > 0);
+        assertTrue(sm.getAverageComponentsTouched() < sm.getPropNetSize());
+    }
+
+    @Test
+    public void testUpdatesTouchFewComponents() throws Exception {
+        List<Gdl> connectFourDesc = new TestGameRepository().getGame("connectFour").getRules();
+        DifferentialPropNetStateMachine sm = new DifferentialPropNetStateMachine();
+        sm.initialize(connectFourDesc);
+        MachineState initial = sm.getInitialState();
+        List<List<Move>> jointMoves = sm.getLegalJointMoves(initial);
+
+        // Changing one input, from the same state, costs a few gates.
+        sm.getNextState(initial, jointMoves.get(0));
+        long before = sm.getComponentsTouched();
+        sm.getNextState(initial, jointMoves.get(1));
+        long singleInput = sm.getComponentsTouched() - before;
+        assertTrue(singleInput > 0);
+        assertTrue(singleInput + " of " + sm.getPropNetSize(), singleInput * 10 < sm.getPropNetSize());
+
+        // A move in a game, counting the marking of its state, changes an
+        // input and a few bases, so it costs a few times as much.
+        MachineState state = initial;
+        for (int i = 0; i < 5; i++) {
+            before = sm.getComponentsTouched();
+            List<Move> jointMove = sm.getRandomJointMove(state);
+            MachineState next = sm.getNextState(state, jointMove);
+            long transition = sm.getComponentsTouched() - before;
+            assertTrue(transition + " for " + singleInput, transition <= 10 * singleInput);
+            state = next;
+        }
+    }
+
+    @Test
+    public void testIndexedMoveForRoleWithNoLegalMoves() throws Exception {
+        String rules = "(role mover) (role watcher) (init (step 0)) " +
+                "(<= (legal mover go) (true (step 0))) " +
+                "(<= (next (step 1)) (does mover go)) " +
+                "(<= terminal (true (step 1))) " +
+                "(goal mover 100) (goal watcher 0)";
+        List<Gdl> description = Game.createEphemeralGame(Game.preprocessRulesheet(rules)).getRules();
+        DifferentialPropNetStateMachine sm = new DifferentialPropNetStateMachine();
+        sm.initialize(description);
+        MachineState initial = sm.getInitialState();
+        assertEquals(1, sm.getMoveIndexRadix(1));
+
+        MachineState next = sm.getNextState(initial, 0L);
+        assertEquals(Collections.singleton(GdlFactory.create("(true (step 1))")), next.getContents());
+        assertTrue(sm.isTerminal(next));
+    }
+
+    @Test
+    public void testDepthCharges() throws Exception {
+        List<Gdl> connectFourDesc = new TestGameRepository().getGame("connectFour").getRules();
+        DifferentialPropNetStateMachine sm = new DifferentialPropNetStateMachine();
+        sm.initialize(connectFourDesc);
+        MachineState initial = sm.getInitialState();
+        int[][] results = new int[50][2];
+        int[] depths = new int[50];
+        sm.performDepthCharges(initial, 50, results, depths);
+        for (int i = 0; i < 50; i++) {
+            assertEquals(100, results[i][0] + results[i][1]);
+            assertTrue(depths[i] >= 7 && depths[i] <= 48);
+        }
+        // The depth charges mustn't leave the initial state looking marked.
+        assertFalse(sm.isTerminal(initial));
+        assertEquals(8, sm.getLegalJointMoves(initial).size());
+    }
+
+    @Test
+    public void testConsistencyWithProver() throws Exception {
+        for (String gameKey : new String[] {"ticTacToe", "connectFour", "test_case_1a", "test_case_3c"}) {
+            List<Gdl> desc = new TestGameRepository().getGame(gameKey).getRules();
+            StateMachine prover = new ProverStateMachine();
+            prover.initialize(desc);
+            StateMachine propNet = new DifferentialPropNetStateMachine();
+            propNet.initialize(desc);
+            assertTrue(gameKey, StateMachineVerifier.checkMachineConsistency(prover, propNet, 1000));
+        }
+    }
+}
@@ -0,0 +1,228 @@
+package org.ggp.base.test;
+
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.ggp.base.player.GamePlayer;
+import org.ggp.base.player.event.PlayerDroppedPacketEvent;
+import org.ggp.base.player.gamer.Gamer;
+import org.ggp.base.player.gamer.GamerFactory;
+import org.ggp.base.player.gamer.event.GamerUnrecognizedMatchEvent;
+import org.ggp.base.player.gamer.statemachine.sample.SampleGamer;
+import org.ggp.base.server.request.RequestBuilder;
+import org.ggp.base.util.game.TestGameRepository;
+import org.ggp.base.util.gdl.grammar.Gdl;
+import org.ggp.base.util.gdl.scrambler.NoOpGdlScrambler;
+import org.ggp.base.util.http.AsyncHttpClient;
+import org.ggp.base.util.http.HttpRequest;
+import org.ggp.base.util.http.HttpResponseFuture;
+import org.ggp.base.util.observer.Event;
+import org.ggp.base.util.observer.Observer;
+import org.ggp.base.util.statemachine.Move;
+import org.ggp.base.util.statemachine.Role;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+
+public class GamePlayerTests extends Assert {
+
+    /** How long to wait for something that should happen straight away, before giving up. */
+    private static final long PATIENCE_SECONDS = 10;
+
+    /**
+     * Signals when it starts to metagame, and then waits for the go-ahead
+     * before finishing. It plays the first legal move.
+     */
+    public static final class BlockingGamer extends SampleGamer {
+        private final Semaphore metagaming;
+        private final CountDownLatch goAhead;
+
+        public BlockingGamer(Semaphore metagaming, CountDownLatch goAhead) {
+            this.metagaming = metagaming;
+            this.goAhead = goAhead;
+        }
+
+        @Override
+        public void stateMachineMetaGame(long timeout) {
+            metagaming.release();
+            try {
+                goAhead.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        @Override
+        public Move stateMachineSelectMove(long timeout) {
+            try {
+                return getStateMachine().getLegalMoves(getCurrentState(), getRole()).get(0);
+            } catch (Exception e) {
+                throw new RuntimeException(e);
+            }
+        }
+    }
+
+    private List<Gdl> rules;
+    private Role role;
+
+    @Before
+    public void setUp() throws Exception {
+        rules = new TestGameRepository().getGame("ticTacToe").getRules();
+        role = Role.computeRoles(rules).get(0);
+    }
+
+    @Test
+    public void testConcurrentMatches() throws Exception {
+        final Semaphore metagaming = new Semaphore(0);
+        final CountDownLatch goAhead = new CountDownLatch(1);
+        GamePlayer player = new GamePlayer(0, new GamerFactory() {
+            @Override
+            public Gamer createGamer() {
+                return new BlockingGamer(metagaming, goAhead);
+            }
+        }, 2);
+        player.start();
+        try {
+            int port = player.getGamerPort();
+
+            HttpResponseFuture startA = AsyncHttpClient.getShared().issueRequest("127.0.0.1", port, "", getStartRequest("matchA"), -1);
+            assertTrue(metagaming.tryAcquire(PATIENCE_SECONDS, TimeUnit.SECONDS));
+
+            // Info requests are answered while a match is metagaming.
+            String info = request(port, RequestBuilder.getInfoRequest());
+            assertTrue(info, info.contains("available"));
+
+            // A second match starts while the first is still metagaming.
+            HttpResponseFuture startB = AsyncHttpClient.getShared().issueRequest("127.0.0.1", port, "", getStartRequest("matchB"), -1);
+            assertTrue(metagaming.tryAcquire(PATIENCE_SECONDS, TimeUnit.SECONDS));
+            assertFalse(startA.isDone());
+            goAhead.countDown();
+            assertEquals("ready", startA.get());
+            assertEquals("ready", startB.get());
+
+            // There's no room for a third match.
+            assertTrue(request(port, RequestBuilder.getInfoRequest()).contains("busy"));
+            assertEquals("busy", request(port, getStartRequest("matchC")));
+
+            assertFalse("busy".equals(request(port, RequestBuilder.getPlayRequest("matchA", null, new NoOpGdlScrambler()))));
+            assertFalse("busy".equals(request(port, RequestBuilder.getPlayRequest("matchB", null, new NoOpGdlScrambler()))));
+            assertEquals("busy", request(port, RequestBuilder.getPlayRequest("matchC", null, new NoOpGdlScrambler())));
+
+            // Once a match ends, its gamer can play another.
+            assertEquals("aborted", request(port, RequestBuilder.getAbortRequest("matchA")));
+            assertTrue(request(port, RequestBuilder.getInfoRequest()).contains("available"));
+            assertEquals("busy", request(port, RequestBuilder.getAbortRequest("matchA")));
+            assertEquals("ready", request(port, getStartRequest("matchC")));
+            assertEquals("aborted", request(port, RequestBuilder.getAbortRequest("matchB")));
+            assertEquals("aborted", request(port, RequestBuilder.getAbortRequest("matchC")));
+        } finally {
+            shutdown(player);
+        }
+    }
+
+    @Test
+    public void testSingleGamer() throws Exception {
+        Gamer gamer = new BlockingGamer(new Semaphore(0), new CountDownLatch(0));
+        GamePlayer player = new GamePlayer(0, gamer);
+        player.start();
+        try {
+            int port = player.getGamerPort();
+            assertSame(gamer, player.getGamer());
+
+            assertEquals("ready", request(port, getStartRequest("matchA")));
+            assertTrue(request(port, RequestBuilder.getInfoRequest()).contains("busy"));
+            assertEquals("busy", request(port, getStartRequest("matchB")));
+            assertEquals("busy", request(port, RequestBuilder.getPlayRequest("matchB", null, new NoOpGdlScrambler())));
+            assertEquals("aborted", request(port, RequestBuilder.getAbortRequest("matchA")));
+            assertNull(gamer.getMatch());
+
+            assertEquals("ready", request(port, getStartRequest("matchB")));
+            assertEquals("matchB", gamer.getMatch().getMatchId());
+            assertEquals("aborted", request(port, RequestBuilder.getAbortRequest("matchB")));
+        } finally {
+            shutdown(player);
+        }
+    }
+
+    @Test
+    public void testShutdown() throws Exception {
+        final Semaphore metagaming = new Semaphore(0);
+        GamePlayer player = new GamePlayer(0, new BlockingGamer(metagaming, new CountDownLatch(1)));
+        player.start();
+        int port = player.getGamerPort();
+
+        // A request still being processed is abandoned, and its connection closed.
+        HttpResponseFuture start = AsyncHttpClient.getShared().issueRequest("127.0.0.1", port, "", getStartRequest("matchA"), -1);
+        assertTrue(metagaming.tryAcquire(PATIENCE_SECONDS, TimeUnit.SECONDS));
+        shutdown(player);
+        try {
+            start.get();
+            fail();
+        } catch (IOException e) {
+            // The connection was closed without a response.
+        }
+
+        // The port is free again.
+        new ServerSocket(port).close();
+    }
+
+    @Test
+    public void testUnrecognizedRequest() throws Exception {
+        final CountDownLatch dropped = new CountDownLatch(1);
+        final AtomicBoolean unrecognizedMatch = new AtomicBoolean(false);
+        Gamer gamer = new BlockingGamer(new Semaphore(0), new CountDownLatch(0));
+        gamer.addObserver(new Observer() {
+            @Override
+            public void observe(Event event) {
+                if (event instanceof GamerUnrecognizedMatchEvent) {
+                    unrecognizedMatch.set(true);
+                }
+            }
+        });
+        GamePlayer player = new GamePlayer(0, gamer);
+        player.addObserver(new Observer() {
+            @Override
+            public void observe(Event event) {
+                if (event instanceof PlayerDroppedPacketEvent) {
+                    dropped.countDown();
+                }
+            }
+        });
+        player.start();
+        try {
+            int port = player.getGamerPort();
+            try {
+                request(port, "( dance match1 )");
+                fail("Expected no response");
+            } catch (IOException e) {
+                // The request was dropped without a response.
+            }
+            assertTrue(dropped.await(PATIENCE_SECONDS, TimeUnit.SECONDS));
+            assertFalse(unrecognizedMatch.get());
+            assertEquals("ready", request(port, getStartRequest("matchA")));
+        } finally {
+            shutdown(player);
+        }
+    }
+
+    /** Shuts the player down, and checks that its thread stops. */
+    private static void shutdown(GamePlayer player) throws InterruptedException {
+        player.shutdown();
+        player.join(TimeUnit.SECONDS.toMillis(PATIENCE_SECONDS));
+        assertFalse(player.isAlive());
+    }
+
+    private String getStartRequest(String matchId) {
+        return RequestBuilder.getStartRequest(matchId, role, rules, 10, 10, new NoOpGdlScrambler());
+    }
+
+    private static String request(int port, String request) throws Exception {
+        return HttpRequest.issueRequest("127.0.0.1", port, "", request, 10000);
+    }
+}
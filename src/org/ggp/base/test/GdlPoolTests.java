@@ -0,0 +1,162 @@
+package org.ggp.base.test;
+
+import java.util.List;
+import java.util.Random;
+
+import org.ggp.base.util.game.Game;
+import org.ggp.base.util.game.TestGameRepository;
+import org.ggp.base.util.gdl.factory.GdlFactory;
+import org.ggp.base.util.gdl.grammar.Gdl;
+import org.ggp.base.util.gdl.grammar.GdlPool;
+import org.ggp.base.util.gdl.grammar.GdlSentence;
+import org.ggp.base.util.gdl.scrambler.MappingGdlScrambler;
+import org.ggp.base.util.propnet.architecture.PropNet;
+import org.ggp.base.util.propnet.architecture.components.Proposition;
+import org.ggp.base.util.propnet.factory.OptimizingPropNetFactory;
+import org.ggp.base.util.propnet.factory.PropNetBuildTimings;
+import org.ggp.base.util.statemachine.MachineState;
+import org.ggp.base.util.statemachine.Role;
+import org.ggp.base.util.statemachine.StateMachine;
+import org.ggp.base.util.statemachine.implementation.propnet.BitSetPropNetStateMachine;
+import org.ggp.base.util.statemachine.implementation.prover.ProverStateMachine;
+import org.ggp.base.util.statemachine.implementation.prover.query.ProverQueryBuilder;
+import org.junit.Assert;
+import org.junit.Test;
+
+
+public class GdlPoolTests extends Assert {
+
+    @Test
+    public void testScopeLayersOverPermanentPool() throws Exception {
+        final Gdl permanent = GdlFactory.create("(permanent (cell 1 1 b))");
+        GdlPool.Scope scope = GdlPool.createScope("test");
+        GdlPool.Scope previous = GdlPool.enterScope(scope);
+        try {
+            assertSame(scope, GdlPool.getCurrentScope());
+            assertSame(permanent, GdlFactory.create("(permanent (cell 1 1 b))"));
+            assertSame(GdlPool.TRUE, GdlPool.getConstant("true"));
+            Gdl scoped = GdlFactory.create("(scoped (cell 1 1 b))");
+            assertSame(scoped, GdlFactory.create("(scoped (cell 1 1 b))"));
+            assertTrue(scope.getStatistics().getEntries() > 0);
+            assertTrue(scope.getStatistics().getHits() > 0);
+
+            // Threads started from within the scope share it.
+            final Gdl[] fromThread = new Gdl[1];
+            Thread thread = new Thread() {
+                @Override
+                public void run() {
+                    try {
+                        fromThread[0] = GdlFactory.create("(scoped (cell 1 1 b))");
+                    } catch (Exception e) {
+                        throw new RuntimeException(e);
+                    }
+                }
+            };
+            thread.start();
+            thread.join();
+            assertSame(scoped, fromThread[0]);
+
+            scope.release();
+            assertEquals(0, scope.getStatistics().getEntries());
+            assertEquals(0, scope.getStatistics().getHits());
+            assertNotSame(scoped, GdlFactory.create("(scoped (cell 1 1 b))"));
+            assertSame(permanent, GdlFactory.create("(permanent (cell 1 1 b))"));
+        } finally {
+            GdlPool.enterScope(previous);
+        }
+    }
+
+    @Test
+    public void testPermanentPoolStaysFlatAcrossScopedMatches() throws Exception {
+        List<Gdl> rules = new TestGameRepository().getGame("ticTacToe").getRules();
+        GdlPool.Scope scope = GdlPool.createScope("matches");
+        GdlPool.Scope previous = GdlPool.enterScope(scope);
+        try {
+            int permanentEntries = GdlPool.getStatistics().getEntries();
+            for (int match = 0; match < 20; match++) {
+                // Every scrambled match brings new constants, as on a tournament player.
+                MappingGdlScrambler scrambler = new MappingGdlScrambler(new Random(match));
+                for (Gdl rule : rules) {
+                    scrambler.unscramble(scrambler.scramble(rule));
+                    GdlFactory.create(scrambler.scramble(rule));
+                }
+                assertTrue(scope.getStatistics().getEntries() > 0);
+                scope.release();
+            }
+            assertEquals(permanentEntries, GdlPool.getStatistics().getEntries());
+        } finally {
+            GdlPool.enterScope(previous);
+        }
+    }
+
+    @Test
+    public void testPinMovesScopedObjectsToPermanentPool() throws Exception {
+        GdlPool.Scope scope = GdlPool.createScope("pin");
+        GdlPool.Scope previous = GdlPool.enterScope(scope);
+        Gdl pinned;
+        Gdl holder;
+        try {
+            Gdl scoped = GdlFactory.create("(pinned (cell ?q b))");
+            holder = GdlFactory.create("(holder (cell ?q b))");
+            pinned = GdlPool.pin((GdlSentence) scoped);
+            // The scoped object itself is moved, so what was built from it still matches.
+            assertSame(scoped, pinned);
+            assertSame(holder, GdlFactory.create("(holder (cell ?q b))"));
+            scope.release();
+        } finally {
+            GdlPool.enterScope(previous);
+        }
+        assertSame(pinned, GdlFactory.create("(pinned (cell ?q b))"));
+        assertNotSame(holder, GdlFactory.create("(holder (cell ?q b))"));
+    }
+
+    @Test
+    public void testMatchesAcrossReleaseWithProverAndPropNet() throws Exception {
+        String rulesheet = new TestGameRepository().getGame("ticTacToe").getRulesheet();
+        for (String machine : new String[] {"prover", "propnet", "parallel propnet factory"}) {
+            GdlPool.Scope scope = GdlPool.createScope(machine);
+            GdlPool.Scope previous = GdlPool.enterScope(scope);
+            try {
+                int permanentEntries = 0;
+                for (int match = 0; match < 2; match++) {
+                    // The rules are parsed in the scope, as on a player.
+                    List<Gdl> rules = Game.createEphemeralGame(rulesheet).getRules();
+                    if (machine.equals("parallel propnet factory")) {
+                        PropNet propNet = OptimizingPropNetFactory.create(rules, false, 4, new PropNetBuildTimings());
+                        for (Proposition proposition : propNet.getPropositions()) {
+                            Gdl name = proposition.getName();
+                            assertSame(name, GdlFactory.create(name.toString()));
+                        }
+                    } else {
+                        StateMachine sm = machine.equals("prover") ? new ProverStateMachine() : new BitSetPropNetStateMachine();
+                        sm.initialize(rules);
+                        playMatch(sm);
+                    }
+                    scope.release();
+                    // Whatever the first match loaded for good, the second adds nothing.
+                    if (match > 0) {
+                        assertEquals(machine, permanentEntries, GdlPool.getStatistics().getEntries());
+                    }
+                    permanentEntries = GdlPool.getStatistics().getEntries();
+                }
+            } finally {
+                GdlPool.enterScope(previous);
+            }
+        }
+        // The prover's queries stayed in the permanent pool, wherever they were loaded.
+        assertSame(ProverQueryBuilder.getInitQuery(), GdlFactory.create("(init ?x)"));
+        assertSame(ProverQueryBuilder.getNextQuery(), GdlFactory.create("(next ?x)"));
+    }
+
+    private static void playMatch(StateMachine sm) throws Exception {
+        MachineState state = sm.getInitialState();
+        Role xplayer = sm.getRoles().get(0);
+        assertEquals(9, sm.getLegalMoves(state, xplayer).size());
+        while (!sm.isTerminal(state)) {
+            state = sm.getNextState(state, sm.getRandomJointMove(state));
+        }
+        for (int goal : sm.getGoals(state)) {
+            assertTrue(goal == 0 || goal == 50 || goal == 100);
+        }
+    }
+}
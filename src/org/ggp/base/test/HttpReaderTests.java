@@ -0,0 +1,225 @@
+package org.ggp.base.test;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.ggp.base.server.request.RequestBuilder;
+import org.ggp.base.util.game.TestGameRepository;
+import org.ggp.base.util.gdl.grammar.Gdl;
+import org.ggp.base.util.gdl.scrambler.NoOpGdlScrambler;
+import org.ggp.base.util.http.HttpServerConnection;
+import org.ggp.base.util.statemachine.Role;
+import org.ggp.base.util.symbol.factory.SymbolFactory;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+
+/**
+ * Reads requests from a kept-alive connection through HttpServerConnection,
+ * checking that they come out as they did when requests were read a line and
+ * a character at a time.
+ */
+public class HttpReaderTests extends Assert {
+
+    private ServerSocket listener;
+    private Socket client;
+    private Socket server;
+
+    @Before
+    public void setUp() throws Exception {
+        listener = new ServerSocket(0);
+        client = new Socket("127.0.0.1", listener.getLocalPort());
+        server = listener.accept();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        client.close();
+        server.close();
+        listener.close();
+    }
+
+    @Test
+    public void testRequestsOnOneConnection() throws Exception {
+        List<String> contents = new ArrayList<String>();
+        contents.add(getLargeStartRequest());
+        contents.add("( PLAY match1 NIL )");
+        contents.add("  ( PLAY match1 ( ( mark 1 1 ) noop ) )\r\n");
+        contents.add("( INFO )");
+        contents.add("( PLAY match1 ( caf\u00e9 \u00fcber \u20ac ) )");
+        contents.add("");
+        contents.add("( STOP match1 NIL )");
+        List<String> requests = new ArrayList<String>();
+        for (String content : contents) {
+            requests.add(post(content, "Connection: keep-alive"));
+        }
+        Writer writer = writeInBackground(requests);
+
+        // Content that isn't ASCII comes out as the platform's charset encodes it.
+        HttpServerConnection connection = new HttpServerConnection(server);
+        for (String content : contents) {
+            CharSequence request = connection.readRequestContent();
+            assertEquals(new String(content.getBytes()).trim(), request.toString());
+            assertTrue(connection.isKeepAlive());
+        }
+        writer.finish();
+    }
+
+    @Test
+    public void testConnectionHeader() throws Exception {
+        Writer writer = writeInBackground(Arrays.asList(
+                post("( INFO )", "connection: Keep-Alive"),
+                post("( INFO )", "Connection-Foo: keep-alive\r\nConnection: keep-alive"),
+                post("( INFO )", "Connection: close")));
+        HttpServerConnection connection = new HttpServerConnection(server);
+        assertEquals("( INFO )", connection.readRequestContent().toString());
+        assertTrue(connection.isKeepAlive());
+        assertEquals("( INFO )", connection.readRequestContent().toString());
+        assertTrue(connection.isKeepAlive());
+        assertEquals("( INFO )", connection.readRequestContent().toString());
+        assertFalse(connection.isKeepAlive());
+        writer.finish();
+    }
+
+    @Test
+    public void testLargeStartRequests() throws Exception {
+        String content = getLargeStartRequest();
+        List<String> requests = Arrays.asList(post(content, "Connection: keep-alive"));
+
+        Writer writer = writeInBackground(requests);
+        String before = readContentFromPOST(new BufferedReader(new InputStreamReader(server.getInputStream())));
+        writer.finish();
+
+        writer = writeInBackground(requests);
+        CharSequence now = new HttpServerConnection(server).readRequestContent();
+        writer.finish();
+
+        // Both ways read the same content, and parse to the same symbols.
+        assertEquals(before, now.toString());
+        assertSame(SymbolFactory.create(before), SymbolFactory.create(now));
+    }
+
+    @Test
+    public void testContentLengthIsNotTrusted() throws Exception {
+        // A length far beyond what can be buffered is rejected outright.
+        Writer writer = writeInBackground(Arrays.asList(post("( INFO )", "Connection: keep-alive").replace("Content-Length: 8", "Content-Length: 2000000000")));
+        try {
+            new HttpServerConnection(server).readRequestContent();
+            fail("Expected the request to be rejected");
+        } catch (IOException e) {
+            // The request was too long to accept.
+        }
+        writer.finish();
+    }
+
+    @Test
+    public void testContentShorterThanItsLength() throws Exception {
+        // Only the bytes that arrive are buffered, rather than the length claimed.
+        Writer writer = writeInBackground(Arrays.asList(
+                post("( PLAY match1 NIL )", "Connection: close").replace("Content-Length: 19", "Content-Length: 60000000"),
+                "( PLAY match1 ( caf\u00e9 ) )"));
+        writer.finish();
+        client.shutdownOutput();
+        try {
+            new HttpServerConnection(server).readRequestContent();
+            fail("Expected the request to be cut short");
+        } catch (IOException e) {
+            // The connection was closed before the end of the content.
+        }
+    }
+
+    /** The way HttpReader read the content of requests before it read them into a buffer. */
+    private static String readContentFromPOST(BufferedReader br) throws IOException {
+        br.readLine();
+        String line;
+        int theContentLength = -1;
+        StringBuilder theContent = new StringBuilder();
+        while ((line = br.readLine()) != null) {
+            if (line.toLowerCase().startsWith("content-length:")) {
+                theContentLength = Integer.parseInt(line.toLowerCase().replace("content-length:", "").trim());
+            } else if (line.length() == 0) {
+                for (int i = 0; i < theContentLength; i++) {
+                    theContent.append((char)br.read());
+                }
+                return theContent.toString().trim();
+            }
+        }
+        throw new IOException("Could not find content in POST request.");
+    }
+
+    /** A request from the match host, with the given extra headers. */
+    private static String post(String content, String headers) {
+        StringBuilder sb = new StringBuilder();
+        sb.append("POST / HTTP/1.0\r\n");
+        sb.append("Accept: text/delim\r\n");
+        sb.append("Host: 127.0.0.1\r\n");
+        sb.append("Sender: GAMESERVER\r\n");
+        sb.append("Receiver: Player\r\n");
+        sb.append("Content-Type: text/acl\r\n");
+        sb.append(headers).append("\r\n");
+        sb.append("Content-Length: ").append(content.length()).append("\r\n");
+        sb.append("\r\n");
+        sb.append(content);
+        return sb.toString();
+    }
+
+    /** Writes the requests from another thread, so that they can be read as they're written. */
+    private Writer writeInBackground(List<String> requests) {
+        Writer writer = new Writer(requests);
+        writer.start();
+        return writer;
+    }
+
+    private final class Writer extends Thread {
+        private final List<String> requests;
+        private volatile IOException failure;
+
+        Writer(List<String> requests) {
+            this.requests = requests;
+        }
+
+        @Override
+        public void run() {
+            try {
+                OutputStream out = client.getOutputStream();
+                for (String request : requests) {
+                    out.write(request.getBytes());
+                }
+                out.flush();
+            } catch (IOException e) {
+                failure = e;
+            }
+        }
+
+        /** Waits for the requests to be written, and throws whatever stopped them being. */
+        void finish() throws Exception {
+            join();
+            if (failure != null) {
+                throw failure;
+            }
+        }
+    }
+
+    /** A start request carrying the rules of every test game at once. */
+    private static String getLargeStartRequest() {
+        TestGameRepository repository = new TestGameRepository();
+        List<Gdl> rules = new ArrayList<Gdl>();
+        for (File file : new File("games/test").listFiles()) {
+            if (file.getName().endsWith(".kif")) {
+                rules.addAll(repository.getGame(file.getName().replace(".kif", "")).getRules());
+            }
+        }
+        Role role = Role.computeRoles(repository.getGame("ticTacToe").getRules()).get(0);
+        return RequestBuilder.getStartRequest("match1", role, rules, 60, 15, new NoOpGdlScrambler());
+    }
+}
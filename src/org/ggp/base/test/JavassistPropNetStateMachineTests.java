@@ -0,0 +1,42 @@
+package org.ggp.base.test;
+
+import java.util.List;
+
+import org.ggp.base.util.game.TestGameRepository;
+import org.ggp.base.util.gdl.grammar.Gdl;
+import org.ggp.base.util.propnet.factory.JavassistPropNetCompiler;
+import org.ggp.base.util.statemachine.FailsafeStateMachine;
+import org.ggp.base.util.statemachine.StateMachine;
+import org.ggp.base.util.statemachine.implementation.propnet.JavassistPropNetStateMachine;
+import org.ggp.base.util.statemachine.implementation.prover.ProverStateMachine;
+import org.ggp.base.util.statemachine.verifier.StateMachineVerifier;
+import org.junit.Assert;
+import org.junit.Test;
+
+
+public class JavassistPropNetStateMachineTests extends Assert {
+
+    @Test
+    public void testConsistencyWithProver() throws Exception {
+        for (String gameKey : new String[] {"ticTacToe", "connectFour", "test_case_1a", "test_case_3c"}) {
+            List<Gdl> desc = new TestGameRepository().getGame(gameKey).getRules();
+            StateMachine prover = new ProverStateMachine();
+            prover.initialize(desc);
+            StateMachine compiled = new FailsafeStateMachine(new JavassistPropNetStateMachine());
+            compiled.initialize(desc);
+            assertEquals("Failsafe(JavassistPropNetStateMachine)", compiled.getName());
+            assertTrue(gameKey, StateMachineVerifier.checkMachineConsistency(prover, compiled, 1000));
+        }
+    }
+
+    @Test
+    public void testSplitIntoManyMethods() throws Exception {
+        // With one input per method, every gate reads its inputs back from the value array.
+        List<Gdl> desc = new TestGameRepository().getGame("connectFour").getRules();
+        StateMachine prover = new ProverStateMachine();
+        prover.initialize(desc);
+        StateMachine compiled = new JavassistPropNetStateMachine(new JavassistPropNetCompiler(1));
+        compiled.initialize(desc);
+        assertTrue(StateMachineVerifier.checkMachineConsistency(prover, compiled, 1000));
+    }
+}
@@ -0,0 +1,57 @@
+package org.ggp.base.test;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.ggp.base.util.gdl.factory.GdlFactory;
+import org.ggp.base.util.gdl.grammar.Gdl;
+import org.ggp.base.util.gdl.grammar.GdlRule;
+import org.ggp.base.util.gdl.grammar.GdlSentence;
+import org.ggp.base.util.prover.aima.knowledge.KnowledgeBase;
+import org.ggp.base.util.prover.aima.unifier.Unifier;
+import org.junit.Assert;
+import org.junit.Test;
+
+
+public class KnowledgeBaseTests extends Assert {
+
+    @Test
+    public void testFetchReturnsEveryUnifiableRule() throws Exception {
+        Set<Gdl> description = new HashSet<Gdl>();
+        for (int x = 1; x <= 4; x++) {
+            for (int y = 1; y <= 4; y++) {
+                description.add(GdlFactory.create("(true (cell " + x + " " + y + " b))"));
+            }
+        }
+        description.add(GdlFactory.create("(true (control white))"));
+        description.add(GdlFactory.create("(true ?anything)"));
+        description.add(GdlFactory.create("(true (cell ?x 2 x))"));
+        description.add(GdlFactory.create("(true (cell 1 1))"));
+        description.add(GdlFactory.create("(true (cell 1 1 b) extra)"));
+        description.add(GdlFactory.create("(<= (true (cell 3 ?y o)) (row ?y))"));
+        KnowledgeBase knowledgeBase = new KnowledgeBase(description);
+
+        for (String query : new String[] {"(true (cell 1 2 ?p))", "(true (cell ?x 3 b))", "(true (cell 3 3 o))",
+                "(true (control ?p))", "(true cell)", "(true ?q)", "(true (cell ?x ?y ?p))", "(row 1)"}) {
+            GdlSentence sentence = (GdlSentence) GdlFactory.create(query);
+            List<GdlRule> fetched = knowledgeBase.fetch(sentence);
+            for (Gdl gdl : description) {
+                GdlSentence head = (gdl instanceof GdlRule) ? ((GdlRule) gdl).getHead() : (GdlSentence) gdl;
+                if (head.arity() == sentence.arity() && Unifier.unify(head, sentence) != null) {
+                    assertTrue(query + " should fetch " + gdl, containsHead(fetched, head));
+                }
+            }
+        }
+        assertEquals(2, knowledgeBase.fetch((GdlSentence) GdlFactory.create("(true (control ?p))")).size());
+    }
+
+    private static boolean containsHead(List<GdlRule> rules, GdlSentence head) {
+        List<GdlSentence> heads = new ArrayList<GdlSentence>();
+        for (GdlRule rule : rules) {
+            heads.add(rule.getHead());
+        }
+        return heads.contains(head);
+    }
+}
@@ -0,0 +1,80 @@
+package org.ggp.base.test;
+
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.ggp.base.util.game.TestGameRepository;
+import org.ggp.base.util.gdl.grammar.Gdl;
+import org.ggp.base.util.propnet.architecture.PropNet;
+import org.ggp.base.util.propnet.architecture.components.Proposition;
+import org.ggp.base.util.propnet.factory.OptimizingPropNetFactory;
+import org.ggp.base.util.propnet.factory.PropNetBuildTimings;
+import org.junit.Assert;
+import org.junit.Test;
+
+
+public class OptimizingPropNetFactoryTests extends Assert {
+
+    @Test
+    public void testParallelBuildMatchesSerialBuild() throws Exception {
+        for (String gameKey : new String[] {"ticTacToe", "connectFour", "test_case_1a", "test_case_2a", "test_case_3c", "test_case_5b"}) {
+            List<Gdl> description = new TestGameRepository().getGame(gameKey).getRules();
+            PropNet serial = OptimizingPropNetFactory.create(description, false, 1, new PropNetBuildTimings());
+            PropNet parallel = OptimizingPropNetFactory.create(description, false, 4, new PropNetBuildTimings());
+            assertEquals(gameKey, serial.getSize(), parallel.getSize());
+            assertEquals(gameKey, serial.getNumLinks(), parallel.getNumLinks());
+            assertEquals(gameKey, serial.getNumAnds(), parallel.getNumAnds());
+            assertEquals(gameKey, serial.getNumOrs(), parallel.getNumOrs());
+            assertEquals(gameKey, serial.getNumNots(), parallel.getNumNots());
+            assertEquals(gameKey, getNames(serial.getPropositions()), getNames(parallel.getPropositions()));
+            assertEquals(gameKey, serial.getBasePropositions().keySet(), parallel.getBasePropositions().keySet());
+            assertEquals(gameKey, serial.getInputPropositions().keySet(), parallel.getInputPropositions().keySet());
+        }
+    }
+
+    @Test
+    public void testTimingsCoverEachPhase() throws Exception {
+        List<Gdl> description = new TestGameRepository().getGame("connectFour").getRules();
+        PropNetBuildTimings timings = new PropNetBuildTimings();
+        PropNet propNet = OptimizingPropNetFactory.create(description, false, 2, timings);
+        OptimizingPropNetFactory.removeUnreachableBasesAndInputs(propNet, new HashSet<Proposition>(), timings);
+        OptimizingPropNetFactory.lopUselessLeaves(propNet, timings);
+        for (String phase : new String[] {"sentence forms", "component set", "optimizeAwayTrueAndFalse", "removeUnreachableBasesAndInputs", "lopUselessLeaves"}) {
+            assertTrue(phase + " in " + timings, timings.getMillis().containsKey(phase));
+        }
+    }
+
+    @Test
+    public void testInterruptionCancelsBuild() throws Exception {
+        final List<Gdl> description = new TestGameRepository().getGame("connectFour").getRules();
+        final Throwable[] thrown = new Throwable[1];
+        Thread builder = new Thread() {
+            @Override
+            public void run() {
+                try {
+                    // Keep building until the interruption lands mid-build.
+                    while (true) {
+                        OptimizingPropNetFactory.create(description, false, 4, new PropNetBuildTimings());
+                    }
+                } catch (Throwable t) {
+                    thrown[0] = t;
+                }
+            }
+        };
+        builder.start();
+        Thread.sleep(200);
+        builder.interrupt();
+        builder.join(10000);
+        assertFalse(builder.isAlive());
+        assertTrue(String.valueOf(thrown[0]), thrown[0] instanceof InterruptedException);
+    }
+
+    private static Set<String> getNames(Set<Proposition> propositions) {
+        Set<String> names = new HashSet<String>();
+        for (Proposition proposition : propositions) {
+            names.add(proposition.getName().toString());
+        }
+        return names;
+    }
+}
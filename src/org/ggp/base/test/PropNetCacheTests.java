@@ -0,0 +1,209 @@
+package org.ggp.base.test;
+
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.ggp.base.util.game.TestGameRepository;
+import org.ggp.base.util.gdl.grammar.Gdl;
+import org.ggp.base.util.propnet.architecture.Component;
+import org.ggp.base.util.propnet.architecture.PropNet;
+import org.ggp.base.util.propnet.architecture.components.Proposition;
+import org.ggp.base.util.propnet.factory.OptimizingPropNetFactory;
+import org.ggp.base.util.propnet.factory.PropNetCache;
+import org.ggp.base.util.statemachine.StateMachine;
+import org.ggp.base.util.statemachine.implementation.propnet.BitSetPropNetStateMachine;
+import org.ggp.base.util.statemachine.implementation.propnet.DifferentialPropNetStateMachine;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+
+public class PropNetCacheTests extends Assert {
+
+    private File directory;
+    private PropNetCache cache;
+
+    @Before
+    public void setUp() throws Exception {
+        directory = File.createTempFile("propnetcache", "");
+        directory.delete();
+        cache = new PropNetCache(directory);
+    }
+
+    @After
+    public void tearDown() {
+        File[] files = directory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        directory.delete();
+    }
+
+    @Test
+    public void testCachedPropNetMatchesOriginal() throws Exception {
+        for (String gameKey : new String[] {"ticTacToe", "connectFour", "test_case_1a", "test_case_3c"}) {
+            List<Gdl> description = new TestGameRepository().getGame(gameKey).getRules();
+            String key = PropNetCache.computeKey(description);
+            assertNull(cache.get(key));
+            PropNet original = OptimizingPropNetFactory.create(description);
+            cache.put(key, original);
+            PropNet loaded = cache.get(key);
+            assertNotNull(gameKey, loaded);
+
+            assertEquals(gameKey, original.getRoles(), loaded.getRoles());
+            assertEquals(gameKey, original.getSize(), loaded.getSize());
+            assertEquals(gameKey, original.getNumLinks(), loaded.getNumLinks());
+            assertEquals(gameKey, original.getNumAnds(), loaded.getNumAnds());
+            assertEquals(gameKey, original.getNumOrs(), loaded.getNumOrs());
+            assertEquals(gameKey, original.getNumNots(), loaded.getNumNots());
+            assertEquals(gameKey, getSignatures(original), getSignatures(loaded));
+            assertEquals(gameKey, original.getBasePropositions().keySet(), loaded.getBasePropositions().keySet());
+            assertEquals(gameKey, original.getInputPropositions().keySet(), loaded.getInputPropositions().keySet());
+            assertEquals(gameKey, original.getLegalPropositions().keySet(), loaded.getLegalPropositions().keySet());
+            assertEquals(gameKey, original.getGoalPropositions().keySet(), loaded.getGoalPropositions().keySet());
+            assertEquals(gameKey, original.getInitProposition() == null, loaded.getInitProposition() == null);
+            assertEquals(gameKey, original.getTerminalProposition().getName(), loaded.getTerminalProposition().getName());
+        }
+    }
+
+    @Test
+    public void testKeyIgnoresRuleOrder() throws Exception {
+        List<Gdl> description = new TestGameRepository().getGame("ticTacToe").getRules();
+        List<Gdl> reversed = new ArrayList<Gdl>(description);
+        Collections.reverse(reversed);
+        assertEquals(PropNetCache.computeKey(description), PropNetCache.computeKey(reversed));
+        assertFalse(PropNetCache.computeKey(description).equals(PropNetCache.computeKey(reversed.subList(1, reversed.size()))));
+    }
+
+    @Test
+    public void testCorruptFileIsRebuilt() throws Exception {
+        List<Gdl> description = new TestGameRepository().getGame("ticTacToe").getRules();
+        String key = PropNetCache.computeKey(description);
+        PropNet built = cache.getOrCreate(description);
+        File file = new File(directory, key + ".propnet");
+        assertTrue(file.exists());
+
+        // Keep the header, but cut the file off partway through.
+        long length = file.length();
+        FileOutputStream out = new FileOutputStream(file, true);
+        out.getChannel().truncate(length / 2);
+        out.close();
+        assertNull(cache.get(key));
+        assertFalse(file.exists());
+
+        PropNet rebuilt = cache.getOrCreate(description);
+        assertEquals(built.getSize(), rebuilt.getSize());
+        assertTrue(file.exists());
+        assertNotNull(cache.get(key));
+    }
+
+    @Test
+    public void testCorruptLengthsAreMisses() throws Exception {
+        List<Gdl> description = new TestGameRepository().getGame("ticTacToe").getRules();
+        String key = PropNetCache.computeKey(description);
+        File file = new File(directory, key + ".propnet");
+        long[] offsets = new long[2];
+        for (int i = 0; i < offsets.length; i++) {
+            cache.getOrCreate(description);
+            offsets = findCounts(file);
+            // A count far beyond what the file holds must not be allocated.
+            RandomAccessFile raf = new RandomAccessFile(file, "rw");
+            raf.seek(offsets[i]);
+            raf.writeInt(Integer.MAX_VALUE);
+            raf.close();
+            assertNull(cache.get(key));
+            assertFalse(file.exists());
+        }
+    }
+
+    @Test
+    public void testStateMachinesUseTheirCache() throws Exception {
+        List<Gdl> description = new TestGameRepository().getGame("ticTacToe").getRules();
+        File file = new File(directory, PropNetCache.computeKey(description) + ".propnet");
+        StateMachine built = new BitSetPropNetStateMachine(cache);
+        built.initialize(description);
+        assertTrue(file.exists());
+        StateMachine loaded = new DifferentialPropNetStateMachine(cache);
+        loaded.initialize(description);
+        assertEquals(built.getInitialState(), loaded.getInitialState());
+
+        // The default cache is only used once it's set.
+        PropNetCache previous = PropNetCache.getDefault();
+        File otherDirectory = new File(directory, "default");
+        PropNetCache.setDefault(new PropNetCache(otherDirectory));
+        try {
+            new BitSetPropNetStateMachine().initialize(description);
+            assertTrue(new File(otherDirectory, file.getName()).delete());
+            assertTrue(otherDirectory.delete());
+            PropNetCache.setDefault(null);
+            new BitSetPropNetStateMachine().initialize(description);
+            assertFalse(otherDirectory.exists());
+        } finally {
+            PropNetCache.setDefault(previous);
+        }
+    }
+
+    /**
+     * Returns the offsets of the number of symbols and the number of
+     * components in a cached propnet file.
+     */
+    private static long[] findCounts(File file) throws Exception {
+        DataInputStream in = new DataInputStream(new FileInputStream(file));
+        try {
+            long offset = 8;
+            in.readInt();
+            in.readInt();
+            offset += 4 + skip(in, in.readInt());
+            long symbolsOffset = offset;
+            int symbols = in.readInt();
+            offset += 4;
+            for (int i = 0; i < symbols; i++) {
+                offset += 4 + skip(in, in.readInt());
+            }
+            offset += 4 + skip(in, 4 * in.readInt());
+            return new long[] {symbolsOffset, offset};
+        } finally {
+            in.close();
+        }
+    }
+
+    private static int skip(DataInputStream in, int bytes) throws Exception {
+        in.readFully(new byte[bytes]);
+        return bytes;
+    }
+
+    /**
+     * Describes each component by its type and, for propositions, its name,
+     * along with the same for its inputs.
+     */
+    private static Set<String> getSignatures(PropNet propNet) {
+        Set<String> signatures = new HashSet<String>();
+        for (Component component : propNet.getComponents()) {
+            List<String> inputs = new ArrayList<String>();
+            for (Component input : component.getInputs()) {
+                inputs.add(describe(input));
+            }
+            Collections.sort(inputs);
+            signatures.add(describe(component) + " <- " + inputs);
+        }
+        return signatures;
+    }
+
+    private static String describe(Component component) {
+        if (component instanceof Proposition) {
+            return ((Proposition) component).getName().toString();
+        }
+        return component.getClass().getSimpleName() + component.getValue();
+    }
+}
@@ -0,0 +1,129 @@
+package org.ggp.base.test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.ggp.base.util.game.TestGameRepository;
+import org.ggp.base.util.gdl.grammar.Gdl;
+import org.ggp.base.util.statemachine.MachineState;
+import org.ggp.base.util.statemachine.Move;
+import org.ggp.base.util.statemachine.Role;
+import org.ggp.base.util.statemachine.StateMachine;
+import org.ggp.base.util.statemachine.implementation.prover.ProverStateMachine;
+import org.junit.Assert;
+import org.junit.Test;
+
+
+/**
+ * Runs random playouts on one ProverStateMachine from several threads at
+ * once, through both the Move lists and the indexed moves, checking that
+ * each playout ends where it does on a single thread.
+ * See ProverThroughputBenchmark for how throughput scales with the threads.
+ */
+public class ProverConcurrencyTests extends Assert {
+
+    private static final int PLAYOUTS = 24;
+    private static final int THREADS = 4;
+
+    @Test
+    public void testSharedProverAcrossThreads() throws Exception {
+        checkConcurrentPlayouts("connectFour", new ProverStateMachine());
+    }
+
+    @Test
+    public void testSharedTabledProverAcrossThreads() throws Exception {
+        checkConcurrentPlayouts("connectFour", new ProverStateMachine(true));
+    }
+
+    @Test
+    public void testIndexedMovesAcrossThreads() throws Exception {
+        checkConcurrentIndexedPlayouts("connectFour", new TestGameRepository().getGame("connectFour").getRules());
+        // Joint moves that don't pack are interned, from every thread at once.
+        checkConcurrentIndexedPlayouts("many roles", ProverStateMachineTests.getManyRolesGame());
+    }
+
+    private void checkConcurrentPlayouts(String gameKey, StateMachine sm) throws Exception {
+        sm.initialize(new TestGameRepository().getGame(gameKey).getRules());
+        checkConcurrentPlayouts(gameKey, sm, sm, false);
+    }
+
+    /**
+     * Checks playouts through indexed moves on a machine that hasn't indexed
+     * any moves yet, so that the threads index them all between them.
+     */
+    private void checkConcurrentIndexedPlayouts(String gameKey, List<Gdl> rules) throws Exception {
+        StateMachine reference = new ProverStateMachine();
+        reference.initialize(rules);
+        StateMachine sm = new ProverStateMachine();
+        sm.initialize(rules);
+        checkConcurrentPlayouts(gameKey, reference, sm, true);
+    }
+
+    private void checkConcurrentPlayouts(String gameKey, StateMachine reference, final StateMachine sm, final boolean indexed) throws Exception {
+        List<MachineState> expected = new ArrayList<MachineState>();
+        for (int i = 0; i < PLAYOUTS; i++) {
+            expected.add(indexed ? indexedPlayout(reference, i) : playout(reference, i));
+        }
+
+        ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+        try {
+            List<Future<MachineState>> results = new ArrayList<Future<MachineState>>();
+            for (int i = 0; i < PLAYOUTS; i++) {
+                final int seed = i;
+                results.add(executor.submit(new Callable<MachineState>() {
+                    @Override
+                    public MachineState call() throws Exception {
+                        return indexed ? indexedPlayout(sm, seed) : playout(sm, seed);
+                    }
+                }));
+            }
+            for (int i = 0; i < PLAYOUTS; i++) {
+                assertEquals(gameKey + " playout " + i, expected.get(i), results.get(i).get());
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /** Plays as {@link #playout(StateMachine, long)} does, but through move and joint move indices. */
+    private static MachineState indexedPlayout(StateMachine sm, long seed) throws Exception {
+        Random random = new Random(seed);
+        int numRoles = sm.getRoles().size();
+        int[] buffer = new int[64];
+        MachineState state = sm.getInitialState();
+        while (!sm.isTerminal(state)) {
+            int[] moveIndices = new int[numRoles];
+            for (int r = 0; r < numRoles; r++) {
+                int count = sm.getLegalMoveIndices(state, r, buffer);
+                moveIndices[r] = buffer[random.nextInt(count)];
+            }
+            long jointMove = sm.getJointMoveIndex(moveIndices);
+            assertEquals(sm.getJointMoveFromIndex(jointMove).get(0), sm.getMoveFromIndex(0, moveIndices[0]));
+            state = sm.getNextState(state, jointMove);
+        }
+        return state;
+    }
+
+    /** Plays random moves from the initial state, chosen by a generator with the given seed. */
+    private static MachineState playout(StateMachine sm, long seed) throws Exception {
+        Random random = new Random(seed);
+        MachineState state = sm.getInitialState();
+        while (!sm.isTerminal(state)) {
+            List<Move> moves = new ArrayList<Move>();
+            for (Role role : sm.getRoles()) {
+                List<Move> legalMoves = sm.getLegalMoves(state, role);
+                moves.add(legalMoves.get(random.nextInt(legalMoves.size())));
+            }
+            state = sm.getNextState(state, moves);
+        }
+        for (Role role : sm.getRoles()) {
+            sm.getGoal(state, role);
+        }
+        return state;
+    }
+}
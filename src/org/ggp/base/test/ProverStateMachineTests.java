@@ -3,17 +3,31 @@ package org.ggp.base.test;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
 
+import org.ggp.base.util.game.Game;
 import org.ggp.base.util.game.TestGameRepository;
+import org.ggp.base.util.gdl.factory.GdlFactory;
 import org.ggp.base.util.gdl.grammar.Gdl;
 import org.ggp.base.util.gdl.grammar.GdlConstant;
 import org.ggp.base.util.gdl.grammar.GdlPool;
+import org.ggp.base.util.gdl.grammar.GdlSentence;
 import org.ggp.base.util.gdl.grammar.GdlTerm;
+import org.ggp.base.util.gdl.model.SentenceForm;
+import org.ggp.base.util.gdl.model.SimpleSentenceForm;
+import org.ggp.base.util.prover.aima.AimaProver;
+import org.ggp.base.util.statemachine.FailsafeStateMachine;
 import org.ggp.base.util.statemachine.MachineState;
 import org.ggp.base.util.statemachine.Move;
 import org.ggp.base.util.statemachine.Role;
+import org.ggp.base.util.statemachine.StateMachine;
+import org.ggp.base.util.statemachine.cache.CachedStateMachine;
+import org.ggp.base.util.statemachine.exceptions.MoveDefinitionException;
 import org.ggp.base.util.statemachine.implementation.prover.ProverStateMachine;
+import org.ggp.base.util.statemachine.implementation.prover.cache.StateSliceCache;
+import org.ggp.base.util.statemachine.verifier.StateMachineVerifier;
 import org.junit.Assert;
 import org.junit.Test;
 
@@ -157,6 +171,146 @@ public class ProverStateMachineTests extends Assert {
         assertEquals(Collections.singletonList(100), sm.getGoals(state));
     }
 
+    @Test
+    public void testIndexedMoves() throws Exception {
+        for (String gameKey : new String[] {"ticTacToe", "connectFour"}) {
+            List<Gdl> desc = new TestGameRepository().getGame(gameKey).getRules();
+            for (StateMachine machine : new StateMachine[] {new ProverStateMachine(), new FailsafeStateMachine(new ProverStateMachine()), new CachedStateMachine(new ProverStateMachine())}) {
+                machine.initialize(desc);
+                assertTrue(gameKey, StateMachineVerifier.checkIndexedMoveConsistency(machine, 50));
+            }
+        }
+    }
+
+    @Test
+    public void testCachedIndexedMovesUseTheCache() throws Exception {
+        final int[] provedLegalMoves = new int[1];
+        CachedStateMachine machine = new CachedStateMachine(new ProverStateMachine() {
+            @Override
+            public List<Move> getLegalMoves(MachineState state, Role role) throws MoveDefinitionException {
+                provedLegalMoves[0]++;
+                return super.getLegalMoves(state, role);
+            }
+        });
+        machine.initialize(new TestGameRepository().getGame("ticTacToe").getRules());
+        MachineState state = machine.getInitialState();
+        int[] buffer = new int[16];
+        for (int i = 0; i < 3; i++) {
+            assertEquals(9, machine.getLegalMoveIndices(state, 0, buffer));
+            assertEquals(1, machine.getLegalMoveIndices(state, 1, buffer));
+            long jointMove = machine.getRandomJointMoveIndex(state);
+            assertTrue(machine.getLegalJointMoves(state).contains(machine.getJointMoveFromIndex(jointMove)));
+        }
+        assertEquals(2, provedLegalMoves[0]);
+    }
+
+    @Test
+    public void testIndexedMovesThatDontPack() throws Exception {
+        sm.initialize(getManyRolesGame());
+        assertTrue(StateMachineVerifier.checkIndexedMoveConsistency(sm, 10));
+        // Every role's second move is past the radix the default leaves it.
+        int[] moveIndices = new int[64];
+        for (int r = 0; r < 64; r++) {
+            moveIndices[r] = Math.max(sm.getMoveIndex(r, move("a")), sm.getMoveIndex(r, move("b")));
+        }
+        long jointMove = sm.getJointMoveIndex(moveIndices);
+        assertTrue(jointMove < 0);
+        assertEquals(jointMove, sm.getJointMoveIndex(moveIndices));
+        for (int r = 0; r < 64; r++) {
+            assertEquals(moveIndices[r], sm.getMoveIndexFromJointMove(jointMove, r));
+        }
+    }
+
+    /** A game with so many roles that their moves don't pack into a long. */
+    static List<Gdl> getManyRolesGame() {
+        StringBuilder rules = new StringBuilder();
+        for (int i = 0; i < 64; i++) {
+            rules.append("(role r").append(i).append(") ");
+        }
+        rules.append("(init (step 0)) ");
+        rules.append("(<= (legal ?r a) (role ?r)) (<= (legal ?r b) (role ?r)) ");
+        rules.append("(<= (next (chose ?r ?m)) (does ?r ?m)) ");
+        rules.append("(<= (next (step 1)) (true (step 0))) (<= (next (step 2)) (true (step 1))) ");
+        rules.append("(<= terminal (true (step 2))) (<= (goal ?r 100) (role ?r))");
+        return Game.createEphemeralGame(Game.preprocessRulesheet(rules.toString())).getRules();
+    }
+
+    @Test
+    public void testTabledResolutionOnRecursiveRules() throws Exception {
+        String rules = "(role robot) (init (at a)) " +
+                "(edge a b) (edge b c) (edge c a) (edge c d) (edge e f) " +
+                "(<= (reachable ?x ?y) (edge ?x ?y)) " +
+                "(<= (reachable ?x ?z) (reachable ?x ?y) (edge ?y ?z)) " +
+                "(<= (legal robot (go ?y)) (true (at ?x)) (reachable ?x ?y)) " +
+                "(<= (next (at ?y)) (does robot (go ?y))) " +
+                "(<= terminal (true (at d))) " +
+                "(<= (goal robot 100) (true (at d))) " +
+                "(<= (goal robot 0) (not (true (at d))))";
+        List<Gdl> description = Game.createEphemeralGame(Game.preprocessRulesheet(rules)).getRules();
+        AimaProver prover = new AimaProver(description, true);
+        GdlSentence query = (GdlSentence) GdlFactory.create("(reachable a ?y)");
+        Set<GdlSentence> answers = prover.askAll(query, new HashSet<GdlSentence>());
+        Set<GdlSentence> expected = new HashSet<GdlSentence>();
+        for (String y : new String[] {"a", "b", "c", "d"}) {
+            expected.add((GdlSentence) GdlFactory.create("(reachable a " + y + ")"));
+        }
+        assertEquals(expected, answers);
+        // Single answers come from the same tables.
+        assertTrue(expected.contains(prover.askOne(query, new HashSet<GdlSentence>())));
+        assertTrue(prover.prove((GdlSentence) GdlFactory.create("(reachable a a)"), new HashSet<GdlSentence>()));
+        assertTrue(prover.prove((GdlSentence) GdlFactory.create("(reachable b d)"), new HashSet<GdlSentence>()));
+        assertFalse(prover.prove((GdlSentence) GdlFactory.create("(reachable a e)"), new HashSet<GdlSentence>()));
+        assertNull(prover.askOne((GdlSentence) GdlFactory.create("(reachable d ?y)"), new HashSet<GdlSentence>()));
+
+        ProverStateMachine tabledMachine = new ProverStateMachine(true);
+        tabledMachine.initialize(description);
+        MachineState state = tabledMachine.getInitialState();
+        assertEquals(4, tabledMachine.getLegalMoves(state, tabledMachine.getRoles().get(0)).size());
+        state = tabledMachine.getNextState(state, Arrays.asList(move("go d")));
+        assertTrue(tabledMachine.isTerminal(state));
+        assertEquals(100, tabledMachine.getGoal(state, tabledMachine.getRoles().get(0)));
+    }
+
+    @Test
+    public void testViewCacheKeysOnRelevantSentences() throws Exception {
+        List<Gdl> ticTacToeDesc = new TestGameRepository().getGame("ticTacToe").getRules();
+        ProverStateMachine cachedMachine = new ProverStateMachine(false, true);
+        cachedMachine.initialize(ticTacToeDesc);
+        StateSliceCache cache = cachedMachine.getViewCache();
+        // Goals and termination only depend on the board, not on whose turn it is.
+        GdlSentence cell = (GdlSentence) GdlFactory.create("(true (cell 1 1 b))");
+        GdlSentence control = (GdlSentence) GdlFactory.create("(true (control xplayer))");
+        SentenceForm cellForm = SimpleSentenceForm.create(cell);
+        SentenceForm controlForm = SimpleSentenceForm.create(control);
+        assertEquals(Collections.singleton(cellForm), cache.getRelevantForms(GdlPool.GOAL));
+        assertEquals(Collections.singleton(cellForm), cache.getRelevantForms(GdlPool.TERMINAL));
+        assertEquals(new HashSet<SentenceForm>(Arrays.asList(cellForm, controlForm)), cache.getRelevantForms(GdlPool.LEGAL));
+
+        MachineState state = cachedMachine.getInitialState();
+        Set<GdlSentence> otherTurn = new HashSet<GdlSentence>(state.getContents());
+        otherTurn.remove(control);
+        otherTurn.add((GdlSentence) GdlFactory.create("(true (control oplayer))"));
+        assertTrue(otherTurn.contains(cell));
+        MachineState sibling = new MachineState(otherTurn);
+        Role xRole = new Role(GdlPool.getConstant("xplayer"));
+        assertFalse(cachedMachine.isTerminal(state));
+        long hits = cache.getHits();
+        assertFalse(cachedMachine.isTerminal(sibling));
+        assertEquals(hits + 1, cache.getHits());
+        // Legal moves depend on whose turn it is, so they aren't shared.
+        assertEquals(9, cachedMachine.getLegalMoves(state, xRole).size());
+        assertEquals(1, cachedMachine.getLegalMoves(sibling, xRole).size());
+
+        for (String gameKey : new String[] {"ticTacToe", "connectFour", "test_case_1b", "test_case_3e"}) {
+            List<Gdl> desc = new TestGameRepository().getGame(gameKey).getRules();
+            StateMachine plain = new ProverStateMachine();
+            plain.initialize(desc);
+            StateMachine cached = new ProverStateMachine(false, true);
+            cached.initialize(desc);
+            assertTrue(gameKey, StateMachineVerifier.checkMachineConsistency(plain, cached, 1000));
+        }
+    }
+
     protected Move move(String description) {
         String[] parts = description.split(" ");
         GdlConstant head = GdlPool.getConstant(parts[0]);
@@ -0,0 +1,148 @@
+package org.ggp.base.test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.ggp.base.util.game.Game;
+import org.ggp.base.util.game.TestGameRepository;
+import org.ggp.base.util.gdl.factory.GdlFactory;
+import org.ggp.base.util.gdl.grammar.Gdl;
+import org.ggp.base.util.gdl.grammar.GdlConstant;
+import org.ggp.base.util.gdl.grammar.GdlPool;
+import org.ggp.base.util.gdl.grammar.GdlSentence;
+import org.ggp.base.util.gdl.grammar.GdlTerm;
+import org.ggp.base.util.statemachine.MachineState;
+import org.ggp.base.util.statemachine.Move;
+import org.ggp.base.util.statemachine.Role;
+import org.ggp.base.util.statemachine.StateMachine;
+import org.ggp.base.util.statemachine.implementation.prover.ProverStateMachine;
+import org.ggp.base.util.statemachine.implementation.reasoner.ReasonerStateMachine;
+import org.ggp.base.util.statemachine.verifier.StateMachineVerifier;
+import org.junit.Assert;
+import org.junit.Test;
+
+
+public class ReasonerStateMachineTests extends Assert {
+
+    protected final ReasonerStateMachine sm = new ReasonerStateMachine();
+
+    @Test
+    public void testReasonerOnTicTacToe() throws Exception {
+        List<Gdl> ticTacToeDesc = new TestGameRepository().getGame("ticTacToe").getRules();
+        sm.initialize(ticTacToeDesc);
+        MachineState state = sm.getInitialState();
+        assertFalse(sm.isTerminal(state));
+        Role xRole = new Role(GdlPool.getConstant("xplayer"));
+        Role oRole = new Role(GdlPool.getConstant("oplayer"));
+        assertEquals(Arrays.asList(xRole, oRole), sm.getRoles());
+
+        assertEquals(9, sm.getLegalJointMoves(state).size());
+        Move noop = new Move(GdlPool.getConstant("noop"));
+        assertEquals(Arrays.asList(noop), sm.getLegalMoves(state, oRole));
+
+        state = sm.getNextState(state, Arrays.asList(move("mark 1 1"), noop));
+        state = sm.getNextState(state, Arrays.asList(noop, move("mark 1 3")));
+        state = sm.getNextState(state, Arrays.asList(move("mark 3 1"), noop));
+        state = sm.getNextState(state, Arrays.asList(noop, move("mark 2 2")));
+        assertFalse(sm.isTerminal(state));
+        assertTrue(sm.getLegalMoves(state, xRole).contains(move("mark 2 1")));
+        state = sm.getNextState(state, Arrays.asList(move("mark 2 1"), noop));
+        assertTrue(sm.isTerminal(state));
+        assertEquals(100, sm.getGoal(state, xRole));
+        assertEquals(0, sm.getGoal(state, oRole));
+    }
+
+    @Test
+    public void testConsistencyWithProver() throws Exception {
+        for (String gameKey : new String[] {"ticTacToe", "connectFour", "test_case_1b", "test_case_2b", "test_case_3c", "simpleMutex"}) {
+            List<Gdl> desc = new TestGameRepository().getGame(gameKey).getRules();
+            StateMachine prover = new ProverStateMachine();
+            prover.initialize(desc);
+            StateMachine reasoner = new ReasonerStateMachine();
+            reasoner.initialize(desc);
+            assertTrue(gameKey, StateMachineVerifier.checkMachineConsistency(prover, reasoner, 1000));
+        }
+    }
+
+    @Test
+    public void testRecursiveRulesOverTheState() throws Exception {
+        // The edges are part of the state, so reachable is evaluated for each state.
+        // The robot may always wait, and the game ends after four steps.
+        String rules = "(role robot) (init (at a)) (init (step 0)) " +
+                "(init (edge a b)) (init (edge b c)) (init (edge c a)) (init (edge c d)) (init (edge e f)) " +
+                "(succ 0 1) (succ 1 2) (succ 2 3) (succ 3 4) " +
+                "(<= (reachable ?x ?y) (true (edge ?x ?y))) " +
+                "(<= (reachable ?x ?z) (reachable ?x ?y) (true (edge ?y ?z))) " +
+                "(<= (legal robot (go ?y)) (true (at ?x)) (reachable ?x ?y)) " +
+                "(legal robot wait) " +
+                "(<= (next (at ?y)) (does robot (go ?y))) " +
+                "(<= (next (at ?x)) (true (at ?x)) (does robot wait)) " +
+                "(<= (next (edge ?x ?y)) (true (edge ?x ?y)) (not (does robot (go ?y)))) " +
+                "(<= (next (step ?n)) (true (step ?m)) (succ ?m ?n)) " +
+                "(<= terminal (true (at d))) " +
+                "(<= terminal (true (step 4))) " +
+                "(<= (goal robot 100) (true (at d))) " +
+                "(<= (goal robot 0) (not (true (at d))))";
+        List<Gdl> description = Game.createEphemeralGame(Game.preprocessRulesheet(rules)).getRules();
+        sm.initialize(description);
+        Role robot = sm.getRoles().get(0);
+        MachineState state = sm.getInitialState();
+        assertEquals(state("(at a)", "(step 0)", "(edge a b)", "(edge b c)", "(edge c a)", "(edge c d)", "(edge e f)"), state);
+        assertEquals(new HashSet<Move>(Arrays.asList(move("go a"), move("go b"), move("go c"), move("go d"), move("wait"))),
+                new HashSet<Move>(sm.getLegalMoves(state, robot)));
+        assertFalse(sm.isTerminal(state));
+        assertEquals(0, sm.getGoal(state, robot));
+
+        // Going to b removes the edge into b, so b is no longer reachable from itself.
+        state = sm.getNextState(state, Arrays.asList(move("go b")));
+        assertEquals(state("(at b)", "(step 1)", "(edge b c)", "(edge c a)", "(edge c d)", "(edge e f)"), state);
+        assertEquals(new HashSet<Move>(Arrays.asList(move("go a"), move("go c"), move("go d"), move("wait"))),
+                new HashSet<Move>(sm.getLegalMoves(state, robot)));
+        state = sm.getNextState(state, Arrays.asList(move("wait")));
+        assertEquals(state("(at b)", "(step 2)", "(edge b c)", "(edge c a)", "(edge c d)", "(edge e f)"), state);
+        state = sm.getNextState(state, Arrays.asList(move("go d")));
+        assertEquals(state("(at d)", "(step 3)", "(edge b c)", "(edge c a)", "(edge e f)"), state);
+        assertTrue(sm.isTerminal(state));
+        assertEquals(100, sm.getGoal(state, robot));
+
+        // Waiting out the clock ends the game away from d.
+        state = sm.getInitialState();
+        for (int i = 0; i < 4; i++) {
+            assertFalse(sm.isTerminal(state));
+            state = sm.getNextState(state, Arrays.asList(move("wait")));
+        }
+        assertEquals(state("(at a)", "(step 4)", "(edge a b)", "(edge b c)", "(edge c a)", "(edge c d)", "(edge e f)"), state);
+        assertTrue(sm.isTerminal(state));
+        assertEquals(0, sm.getGoal(state, robot));
+
+        // Plain resolution doesn't terminate on the left-recursive rule, so compare with tabling.
+        StateMachine prover = new ProverStateMachine(true);
+        prover.initialize(description);
+        StateMachine reasoner = new ReasonerStateMachine();
+        reasoner.initialize(description);
+        assertTrue(StateMachineVerifier.checkMachineConsistency(prover, reasoner, 1000));
+    }
+
+    private static MachineState state(String... facts) throws Exception {
+        Set<GdlSentence> contents = new HashSet<GdlSentence>();
+        for (String fact : facts) {
+            contents.add((GdlSentence) GdlFactory.create("(true " + fact + ")"));
+        }
+        return new MachineState(contents);
+    }
+
+    protected Move move(String description) {
+        String[] parts = description.split(" ");
+        GdlConstant head = GdlPool.getConstant(parts[0]);
+        if(parts.length == 1)
+            return new Move(head);
+        List<GdlTerm> body = new ArrayList<GdlTerm>();
+        for(int i = 1; i < parts.length; i++) {
+            body.add(GdlPool.getConstant(parts[i]));
+        }
+        return new Move(GdlPool.getFunction(head, body));
+    }
+}
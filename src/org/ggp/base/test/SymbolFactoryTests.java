@@ -0,0 +1,158 @@
+package org.ggp.base.test;
+
+import java.io.File;
+import java.io.FilterReader;
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedList;
+import java.util.List;
+
+import org.ggp.base.util.files.FileUtils;
+import org.ggp.base.util.game.Game;
+import org.ggp.base.util.http.AsciiCharSequence;
+import org.ggp.base.util.symbol.factory.SymbolFactory;
+import org.ggp.base.util.symbol.factory.exceptions.SymbolFormatException;
+import org.ggp.base.util.symbol.grammar.Symbol;
+import org.ggp.base.util.symbol.grammar.SymbolList;
+import org.ggp.base.util.symbol.grammar.SymbolPool;
+import org.junit.Assert;
+import org.junit.Test;
+
+
+/**
+ * Checks that SymbolFactory parses every rulesheet, and the corner cases of
+ * its old tokenizer, to the same symbols as it did when it split the whole
+ * string into tokens before converting them.
+ */
+public class SymbolFactoryTests extends Assert {
+
+    @Test
+    public void testEveryRulesheet() throws Exception {
+        List<File> rulesheets = findRulesheets(new File("games"));
+        assertFalse(rulesheets.isEmpty());
+        for (File file : rulesheets) {
+            String raw = FileUtils.readFileAsString(file);
+            String preprocessed = Game.preprocessRulesheet(raw);
+            Symbol expected = createTheOldWay(preprocessed);
+
+            assertSame(file.getName(), expected, SymbolFactory.create(preprocessed));
+            assertSame(file.getName(), expected, SymbolFactory.create(new StringReader(preprocessed)));
+            assertSame(file.getName(), expected, SymbolFactory.create(new ChunkedReader(preprocessed, 7)));
+            byte[] bytes = preprocessed.getBytes("ISO-8859-1");
+            assertSame(file.getName(), expected, SymbolFactory.create(new AsciiCharSequence(bytes, 0, bytes.length)));
+
+            // Comments are skipped without stripping them first.
+            String wrapped = "(\n" + raw + "\n)";
+            assertSame(file.getName(), expected, SymbolFactory.create(wrapped));
+            assertSame(file.getName(), expected, SymbolFactory.create(new ChunkedReader(wrapped, 5)));
+        }
+    }
+
+    @Test
+    public void testSameAsBefore() throws Exception {
+        List<String> inputs = Arrays.asList(
+                "", "   ", "NIL", "  NIL \r\n", "( )", "()", "( a b )", "(a(b c)d)",
+                "((a) (b))", "a b", "( a ) b", "(a))", ")", ") a", "(\ta\n\rb\f\u000Bc)",
+                "\u0001(a)", "abc\u0001", "abc\u0001 ", "abc\u0001 d", "( a \u0001 b )",
+                "( \u0001a\u0002 )", "( caf\u00e9 \u20ac )", "(a", "((a)", "( a ( b )");
+        for (String input : inputs) {
+            Symbol expected;
+            try {
+                expected = createTheOldWay(input);
+            } catch (SymbolFormatException e) {
+                try {
+                    SymbolFactory.create(input);
+                    fail("Parsed " + input);
+                } catch (SymbolFormatException f) {
+                    assertEquals(input, f.getSource());
+                }
+                continue;
+            }
+            assertSame(input, expected, SymbolFactory.create(input));
+            assertSame(input, expected, SymbolFactory.create(new ChunkedReader(input, 1)));
+        }
+    }
+
+    @Test
+    public void testComments() throws Exception {
+        SymbolList ab = SymbolPool.getList(new Symbol[] {SymbolPool.getAtom("a"), SymbolPool.getAtom("b")});
+        assertSame(ab, SymbolFactory.create("( a ; ( c\n b )"));
+        assertSame(ab, SymbolFactory.create("; (c)\r(a b)"));
+        assertSame(ab, SymbolFactory.create("(a;c\nb;)\n) ; c"));
+        assertSame(SymbolPool.getAtom("a"), SymbolFactory.create("a;b"));
+        assertSame(SymbolPool.getAtom(""), SymbolFactory.create("; a"));
+        try {
+            SymbolFactory.create("(a b ; )");
+            fail();
+        } catch (SymbolFormatException e) {
+            assertEquals("(a b ; )", e.getSource());
+        }
+    }
+
+    @Test
+    public void testAllTestRulesheetsAtOnce() throws Exception {
+        StringBuilder sb = new StringBuilder("(");
+        for (File file : findRulesheets(new File("games/test"))) {
+            sb.append(Game.preprocessRulesheet(FileUtils.readFileAsString(file)));
+        }
+        String rulesheets = sb.append(")").toString();
+        assertSame(createTheOldWay(rulesheets), SymbolFactory.create(rulesheets));
+    }
+
+    private static List<File> findRulesheets(File directory) {
+        List<File> rulesheets = new ArrayList<File>();
+        File[] files = directory.listFiles();
+        Arrays.sort(files);
+        for (File file : files) {
+            if (file.isDirectory()) {
+                rulesheets.addAll(findRulesheets(file));
+            } else if (file.getName().endsWith(".kif")) {
+                rulesheets.add(file);
+            }
+        }
+        return rulesheets;
+    }
+
+    /** Hands out a few characters at a time, so that tokens span reads. */
+    private static final class ChunkedReader extends FilterReader {
+        private final int chunk;
+
+        ChunkedReader(String string, int chunk) {
+            super(new StringReader(string));
+            this.chunk = chunk;
+        }
+
+        @Override
+        public int read(char[] buffer, int offset, int length) throws IOException {
+            return super.read(buffer, offset, Math.min(length, chunk));
+        }
+    }
+
+    /** The way SymbolFactory parsed strings before it did so in one pass. */
+    private static Symbol createTheOldWay(String string) throws SymbolFormatException {
+        try {
+            String preprocessed = string.replaceAll("\\(", " ( ");
+            preprocessed = preprocessed.replaceAll("\\)", " ) ");
+            preprocessed = preprocessed.replaceAll("\\s+", " ");
+            preprocessed = preprocessed.trim();
+            return convert(new LinkedList<String>(Arrays.asList(preprocessed.split(" "))));
+        } catch (Exception e) {
+            throw new SymbolFormatException(string);
+        }
+    }
+
+    private static Symbol convert(LinkedList<String> tokens) {
+        if (!tokens.getFirst().equals("(")) {
+            return SymbolPool.getAtom(tokens.removeFirst());
+        }
+        List<Symbol> contents = new ArrayList<Symbol>();
+        tokens.removeFirst();
+        while (!tokens.getFirst().equals(")")) {
+            contents.add(convert(tokens));
+        }
+        tokens.removeFirst();
+        return SymbolPool.getList(contents);
+    }
+}
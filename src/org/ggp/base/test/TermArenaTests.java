@@ -0,0 +1,126 @@
+package org.ggp.base.test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.ggp.base.util.game.TestGameRepository;
+import org.ggp.base.util.gdl.encoding.Bindings;
+import org.ggp.base.util.gdl.encoding.SymbolTable;
+import org.ggp.base.util.gdl.encoding.TermArena;
+import org.ggp.base.util.gdl.factory.GdlFactory;
+import org.ggp.base.util.gdl.grammar.Gdl;
+import org.ggp.base.util.gdl.grammar.GdlLiteral;
+import org.ggp.base.util.gdl.grammar.GdlNot;
+import org.ggp.base.util.gdl.grammar.GdlRule;
+import org.ggp.base.util.gdl.grammar.GdlSentence;
+import org.ggp.base.util.prover.aima.renamer.VariableRenamer;
+import org.ggp.base.util.prover.aima.unifier.Unifier;
+import org.junit.Assert;
+import org.junit.Test;
+
+
+public class TermArenaTests extends Assert {
+
+    @Test
+    public void testEncodingRoundTrips() throws Exception {
+        TermArena arena = new TermArena(new SymbolTable());
+        for (String gameKey : new String[] {"ticTacToe", "connectFour", "test_case_3b", "test_case_5a"}) {
+            for (GdlSentence sentence : getSentences(gameKey)) {
+                int offset = arena.encode(sentence);
+                assertSame(sentence, arena.decodeSentence(offset));
+                int again = arena.encode(sentence);
+                assertTrue(arena.equal(offset, again));
+                assertEquals(arena.hashCode(offset), arena.hashCode(again));
+                assertEquals(sentence.isGround(), arena.isGround(offset));
+                assertEquals(sentence.arity(), arena.arity(offset));
+                for (int i = 0; i < sentence.arity(); i++) {
+                    assertSame(sentence.get(i), arena.decodeTerm(arena.getArgument(offset, i)));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testUnificationAgreesWithUnifier() throws Exception {
+        TermArena arena = new TermArena(new SymbolTable());
+        Bindings bindings = new Bindings(arena);
+        List<GdlSentence> sentences = getSentences("ticTacToe");
+        for (GdlSentence x : sentences) {
+            for (GdlSentence original : sentences) {
+                // Rename apart, as a prover would.
+                GdlSentence y = new VariableRenamer().rename(original);
+                int mark = arena.mark();
+                int xOffset = arena.encode(x);
+                int yOffset = arena.encode(y);
+                boolean unified = bindings.unify(xOffset, yOffset);
+                assertEquals(x + " and " + y, Unifier.unify(x, y) != null, unified);
+                if (unified) {
+                    GdlSentence xInstance = arena.decodeSentence(arena.substitute(xOffset, bindings));
+                    GdlSentence yInstance = arena.decodeSentence(arena.substitute(yOffset, bindings));
+                    assertEquals(xInstance, yInstance);
+                    assertNotNull(Unifier.unify(x, xInstance));
+                } else {
+                    assertTrue(bindings.isEmpty());
+                }
+                bindings.undo(0);
+                arena.release(mark);
+            }
+        }
+        assertEquals(0, arena.mark());
+    }
+
+    @Test
+    public void testSubstituteSharesUnboundTerms() throws Exception {
+        TermArena arena = new TermArena(new SymbolTable());
+        Bindings bindings = new Bindings(arena);
+        int query = arena.encode((GdlSentence) GdlFactory.create("(cell ?x (f ?y) ?z)"));
+        int fact = arena.encode((GdlSentence) GdlFactory.create("(cell 1 ?w ?w)"));
+        int mark = bindings.mark();
+        assertTrue(bindings.unify(query, fact));
+        assertEquals(GdlFactory.create("(cell 1 (f ?y) (f ?y))"), arena.decodeSentence(arena.substitute(query, bindings)));
+        assertEquals(GdlFactory.create("(cell 1 (f ?y) (f ?y))"), arena.decodeSentence(arena.substitute(fact, bindings)));
+        assertFalse(bindings.unify(query, arena.encode((GdlSentence) GdlFactory.create("(cell 2 ?a ?b)"))));
+
+        bindings.undo(mark);
+        assertEquals(query, arena.substitute(query, bindings));
+        assertTrue(bindings.unify(arena.encode((GdlSentence) GdlFactory.create("(cell ?a ?a ?a)")), query));
+        assertEquals(GdlFactory.create("(cell (f ?y) (f ?y) (f ?y))"), arena.decodeSentence(arena.substitute(query, bindings)));
+    }
+
+    @Test
+    public void testCellsCanBeAddedToAnotherArena() throws Exception {
+        SymbolTable symbols = new SymbolTable();
+        TermArena arena = new TermArena(symbols);
+        TermArena other = new TermArena(symbols);
+        other.encode((GdlSentence) GdlFactory.create("(step 1)"));
+        for (GdlSentence sentence : getSentences("connectFour")) {
+            int mark = arena.mark();
+            int[] cells = arena.getCells(arena.encode(sentence));
+            arena.release(mark);
+            int offset = other.add(cells);
+            assertSame(sentence, other.decodeSentence(offset));
+            assertEquals(cells.length, other.length(offset));
+        }
+        assertEquals(0, arena.mark());
+    }
+
+    private static List<GdlSentence> getSentences(String gameKey) {
+        List<GdlSentence> sentences = new ArrayList<GdlSentence>();
+        for (Gdl gdl : new TestGameRepository().getGame(gameKey).getRules()) {
+            if (gdl instanceof GdlSentence) {
+                sentences.add((GdlSentence) gdl);
+            } else if (gdl instanceof GdlRule) {
+                GdlRule rule = (GdlRule) gdl;
+                sentences.add(rule.getHead());
+                for (GdlLiteral literal : rule.getBody()) {
+                    if (literal instanceof GdlSentence) {
+                        sentences.add((GdlSentence) literal);
+                    } else if (literal instanceof GdlNot && ((GdlNot) literal).getBody() instanceof GdlSentence) {
+                        sentences.add((GdlSentence) ((GdlNot) literal).getBody());
+                    }
+                }
+            }
+        }
+        return sentences;
+    }
+}
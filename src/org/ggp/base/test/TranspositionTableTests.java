@@ -0,0 +1,70 @@
+package org.ggp.base.test;
+
+import java.util.List;
+
+import org.ggp.base.player.gamer.statemachine.TranspositionTable;
+import org.ggp.base.util.game.TestGameRepository;
+import org.ggp.base.util.gdl.grammar.Gdl;
+import org.ggp.base.util.statemachine.MachineState;
+import org.ggp.base.util.statemachine.StateMachine;
+import org.ggp.base.util.statemachine.implementation.prover.ProverStateMachine;
+import org.junit.Assert;
+import org.junit.Test;
+
+
+public class TranspositionTableTests extends Assert {
+
+    @Test
+    public void testStoreAndFind() {
+        TranspositionTable table = new TranspositionTable(4);
+        assertEquals(-1, table.find(42L));
+        assertTrue(table.store(42L, 3, TranspositionTable.LOWER_BOUND, 2, 75));
+        int slot = table.find(42L);
+        assertTrue(slot != -1);
+        assertEquals(3, table.getDepth(slot));
+        assertEquals(TranspositionTable.LOWER_BOUND, table.getBound(slot));
+        assertEquals(2, table.getBestMove(slot));
+        assertEquals(75, table.getValue(slot));
+        assertEquals(1, table.getHits());
+        assertEquals(1, table.getMisses());
+
+        table.clear();
+        assertEquals(-1, table.find(42L));
+        assertEquals(0, table.getHits());
+    }
+
+    @Test
+    public void testReplaceByDepth() {
+        // With a single slot, every key collides.
+        TranspositionTable table = new TranspositionTable(0);
+        assertTrue(table.store(1L, 5, TranspositionTable.EXACT, 0, 50));
+        assertFalse(table.store(2L, 4, TranspositionTable.EXACT, 0, 60));
+        assertEquals(-1, table.find(2L));
+        assertEquals(50, table.getValue(table.find(1L)));
+        assertEquals(1, table.getRejections());
+
+        // The same state can always be updated, and deeper searches replace others.
+        assertTrue(table.store(1L, 1, TranspositionTable.UPPER_BOUND, 0, 40));
+        assertTrue(table.store(2L, 6, TranspositionTable.EXACT, 1, 60));
+        assertEquals(-1, table.find(1L));
+        assertEquals(60, table.getValue(table.find(2L)));
+    }
+
+    @Test
+    public void testStateHashes() throws Exception {
+        List<Gdl> desc = new TestGameRepository().getGame("ticTacToe").getRules();
+        StateMachine sm = new ProverStateMachine();
+        sm.initialize(desc);
+        MachineState initial = sm.getInitialState();
+        MachineState next = sm.getRandomNextState(initial);
+        assertEquals(TranspositionTable.hash(initial), TranspositionTable.hash(initial.clone()));
+        assertFalse(TranspositionTable.hash(initial) == TranspositionTable.hash(next));
+    }
+
+    @Test
+    public void testBoundFor() {
+        assertEquals(TranspositionTable.UPPER_BOUND, TranspositionTable.boundFor(10, 10, 90));
+        assertEquals(TranspositionTable.LOWER_BOUND, TranspositionTable.boundFor(90, 10, 90));
+        assertEquals(TranspositionTable.EXACT, TranspositionTable.boundFor(50, 10, 90));
+    }
+}
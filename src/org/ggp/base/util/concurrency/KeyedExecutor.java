@@ -0,0 +1,120 @@
+package org.ggp.base.util.concurrency;
+
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * KeyedExecutor runs tasks on a bounded pool of threads, running the tasks
+ * submitted with the same key one at a time, in the order they were
+ * submitted. Tasks with different keys run in parallel, and keys take turns
+ * for threads, so a key with many tasks waiting doesn't hold up the others.
+ * The threads are daemon threads, and stay around until {@link #shutdown()}.
+ */
+public final class KeyedExecutor
+{
+	private final ExecutorService executor;
+	/** The waiting tasks of each key with any, the first of which is running or about to. */
+	private final Map<Object, Queue<FutureTask<?>>> queues = new HashMap<Object, Queue<FutureTask<?>>>();
+	private boolean shutdown = false;
+
+	public KeyedExecutor(final String name, int threads)
+	{
+		executor = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+			private int count = 0;
+
+			@Override
+			public synchronized Thread newThread(Runnable r) {
+				Thread thread = new Thread(r, name + " " + (++count));
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+	}
+
+	/**
+	 * Runs the task once every task submitted before it with the same key has
+	 * finished.
+	 */
+	public <T> Future<T> submit(Object key, Callable<T> task)
+	{
+		FutureTask<T> future = new FutureTask<T>(task);
+		synchronized (queues) {
+			if (shutdown) {
+				throw new RejectedExecutionException("The executor has been shut down");
+			}
+			Queue<FutureTask<?>> queue = queues.get(key);
+			if (queue == null) {
+				queue = new ArrayDeque<FutureTask<?>>();
+				queues.put(key, queue);
+				queue.add(future);
+				schedule(key);
+			} else {
+				queue.add(future);
+			}
+		}
+		return future;
+	}
+
+	private void schedule(final Object key)
+	{
+		executor.execute(new Runnable() {
+			@Override
+			public void run() {
+				runNext(key);
+			}
+		});
+	}
+
+	private void runNext(Object key)
+	{
+		FutureTask<?> next;
+		synchronized (queues) {
+			Queue<FutureTask<?>> queue = queues.get(key);
+			if (queue == null) {
+				// The executor was shut down.
+				return;
+			}
+			next = queue.peek();
+		}
+		next.run();
+		synchronized (queues) {
+			Queue<FutureTask<?>> queue = queues.get(key);
+			if (queue == null) {
+				return;
+			}
+			queue.poll();
+			if (queue.isEmpty()) {
+				queues.remove(key);
+			} else {
+				schedule(key);
+			}
+		}
+	}
+
+	/**
+	 * Stops the threads, interrupting the tasks that are running and
+	 * cancelling those still waiting. Tasks can't be submitted afterwards.
+	 */
+	public void shutdown()
+	{
+		synchronized (queues) {
+			shutdown = true;
+			for (Queue<FutureTask<?>> queue : queues.values()) {
+				for (FutureTask<?> task : queue) {
+					task.cancel(true);
+				}
+			}
+			queues.clear();
+		}
+		executor.shutdownNow();
+	}
+}
@@ -0,0 +1,180 @@
+package org.ggp.base.util.gdl.encoding;
+
+import java.util.Arrays;
+
+
+/**
+ * Bindings of variables to terms in a {@link TermArena}, built up by
+ * unifying encoded terms. Unlike a Substitution, Bindings are changed in
+ * place: each binding is recorded on a trail, so that a search can undo the
+ * bindings made since any earlier {@link #mark()}.
+ *
+ * As with the Gdl unifier, the variables of the two terms being unified
+ * should be renamed apart beforehand, and there is no occurs check.
+ */
+public final class Bindings
+{
+	private final TermArena arena;
+	/** The offset of the term bound to each variable id, plus one, or zero if it's unbound. */
+	private int[] values = new int[64];
+	/** The ids of the variables bound, in the order they were bound. */
+	private int[] trail = new int[64];
+	private int trailSize = 0;
+
+	public Bindings(TermArena arena)
+	{
+		this.arena = arena;
+	}
+
+	/**
+	 * Unifies the terms at the two offsets, extending these bindings. If they
+	 * don't unify, returns false and leaves the bindings as they were.
+	 */
+	public boolean unify(int x, int y)
+	{
+		int mark = trailSize;
+		if (unifyTerms(x, y))
+		{
+			return true;
+		}
+		undo(mark);
+		return false;
+	}
+
+	private boolean unifyTerms(int x, int y)
+	{
+		x = dereference(x);
+		y = dereference(y);
+		if (x == y)
+		{
+			return true;
+		}
+		int xCell = arena.cell(x);
+		int yCell = arena.cell(y);
+		if (TermArena.tag(xCell) == TermArena.VARIABLE)
+		{
+			if (xCell != yCell)
+			{
+				bind(TermArena.id(xCell), y);
+			}
+			return true;
+		}
+		if (TermArena.tag(yCell) == TermArena.VARIABLE)
+		{
+			bind(TermArena.id(yCell), x);
+			return true;
+		}
+		// Matching function cells have the same name and arity.
+		if (xCell != yCell)
+		{
+			return false;
+		}
+		if (TermArena.tag(xCell) == TermArena.FUNCTION)
+		{
+			int arity = arena.arity(x);
+			int xArgument = x + 2;
+			int yArgument = y + 2;
+			for (int i = 0; i < arity; i++)
+			{
+				if (!unifyTerms(xArgument, yArgument))
+				{
+					return false;
+				}
+				xArgument += arena.length(xArgument);
+				yArgument += arena.length(yArgument);
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Follows the bindings of the variable at the given offset, if any, and
+	 * returns the offset of the term it's ultimately bound to. Returns the
+	 * given offset if there's no variable there or it's unbound.
+	 */
+	public int dereference(int offset)
+	{
+		while (true)
+		{
+			int cell = arena.cell(offset);
+			if (TermArena.tag(cell) != TermArena.VARIABLE)
+			{
+				return offset;
+			}
+			int id = TermArena.id(cell);
+			if (id >= values.length || values[id] == 0)
+			{
+				return offset;
+			}
+			offset = values[id] - 1;
+		}
+	}
+
+	/**
+	 * Returns whether the term at the given offset contains any bound
+	 * variables.
+	 */
+	public boolean affects(int offset)
+	{
+		if (trailSize == 0)
+		{
+			return false;
+		}
+		int end = offset + arena.length(offset);
+		for (int i = offset; i < end; i++)
+		{
+			int cell = arena.cell(i);
+			int tag = TermArena.tag(cell);
+			if (tag == TermArena.VARIABLE)
+			{
+				int id = TermArena.id(cell);
+				if (id < values.length && values[id] != 0)
+				{
+					return true;
+				}
+			}
+			else if (tag == TermArena.FUNCTION)
+			{
+				// Skip the length cell.
+				i++;
+			}
+		}
+		return false;
+	}
+
+	private void bind(int id, int offset)
+	{
+		if (id >= values.length)
+		{
+			values = Arrays.copyOf(values, Math.max(values.length * 2, id + 1));
+		}
+		if (trailSize == trail.length)
+		{
+			trail = Arrays.copyOf(trail, trail.length * 2);
+		}
+		values[id] = offset + 1;
+		trail[trailSize++] = id;
+	}
+
+	/**
+	 * Returns the number of bindings made so far, which can be passed to
+	 * {@link #undo(int)} to undo every binding made after this call.
+	 */
+	public int mark()
+	{
+		return trailSize;
+	}
+
+	public void undo(int mark)
+	{
+		while (trailSize > mark)
+		{
+			values[trail[--trailSize]] = 0;
+		}
+	}
+
+	public boolean isEmpty()
+	{
+		return trailSize == 0;
+	}
+}
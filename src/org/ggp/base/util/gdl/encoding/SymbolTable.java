@@ -0,0 +1,101 @@
+package org.ggp.base.util.gdl.encoding;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.ggp.base.util.gdl.grammar.GdlConstant;
+import org.ggp.base.util.gdl.grammar.GdlVariable;
+
+
+/**
+ * A SymbolTable numbers the constants and variables of encoded terms (see
+ * {@link TermArena}). Constants and variables are numbered separately, from
+ * zero, in the order they're first seen.
+ *
+ * Symbols can be looked up from any number of threads at once. Adding a new
+ * symbol takes a lock, which only happens the first time it's seen.
+ */
+public final class SymbolTable
+{
+	private final Map<GdlConstant, Integer> constantIds = new ConcurrentHashMap<GdlConstant, Integer>();
+	private final Map<GdlVariable, Integer> variableIds = new ConcurrentHashMap<GdlVariable, Integer>();
+	/**
+	 * Reassigned whenever a symbol is added, even if the array hasn't grown,
+	 * so that readers see the new symbol without locking.
+	 */
+	private volatile GdlConstant[] constants = new GdlConstant[16];
+	private volatile GdlVariable[] variables = new GdlVariable[16];
+	private volatile int constantCount = 0;
+	private volatile int variableCount = 0;
+
+	public int getConstantId(GdlConstant constant)
+	{
+		Integer id = constantIds.get(constant);
+		return (id != null) ? id : addConstant(constant);
+	}
+
+	public int getVariableId(GdlVariable variable)
+	{
+		Integer id = variableIds.get(variable);
+		return (id != null) ? id : addVariable(variable);
+	}
+
+	public GdlConstant getConstant(int id)
+	{
+		return constants[id];
+	}
+
+	public GdlVariable getVariable(int id)
+	{
+		return variables[id];
+	}
+
+	public int getConstantCount()
+	{
+		return constantCount;
+	}
+
+	public int getVariableCount()
+	{
+		return variableCount;
+	}
+
+	private synchronized int addConstant(GdlConstant constant)
+	{
+		Integer id = constantIds.get(constant);
+		if (id == null)
+		{
+			GdlConstant[] array = constants;
+			if (constantCount == array.length)
+			{
+				array = Arrays.copyOf(array, array.length * 2);
+			}
+			id = constantCount;
+			array[id] = constant;
+			constants = array;
+			constantCount = id + 1;
+			constantIds.put(constant, id);
+		}
+		return id;
+	}
+
+	private synchronized int addVariable(GdlVariable variable)
+	{
+		Integer id = variableIds.get(variable);
+		if (id == null)
+		{
+			GdlVariable[] array = variables;
+			if (variableCount == array.length)
+			{
+				array = Arrays.copyOf(array, array.length * 2);
+			}
+			id = variableCount;
+			array[id] = variable;
+			variables = array;
+			variableCount = id + 1;
+			variableIds.put(variable, id);
+		}
+		return id;
+	}
+}
@@ -0,0 +1,428 @@
+package org.ggp.base.util.gdl.encoding;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.ggp.base.util.gdl.grammar.GdlConstant;
+import org.ggp.base.util.gdl.grammar.GdlFunction;
+import org.ggp.base.util.gdl.grammar.GdlPool;
+import org.ggp.base.util.gdl.grammar.GdlProposition;
+import org.ggp.base.util.gdl.grammar.GdlSentence;
+import org.ggp.base.util.gdl.grammar.GdlTerm;
+import org.ggp.base.util.gdl.grammar.GdlVariable;
+
+
+/**
+ * A TermArena stores terms and sentences as runs of ints in one growable
+ * array, as a compact alternative to {@link GdlTerm} and {@link GdlSentence}
+ * objects for code that builds and unifies lots of them, such as a prover.
+ * Encoded terms are referred to by their offset in the arena, and can be
+ * converted to and from Gdl objects at any time.
+ *
+ * A term is encoded in prefix order, one cell per symbol. A constant or a
+ * variable is a single cell holding its id in the arena's {@link SymbolTable}
+ * and a tag. A function is a cell holding the id of its name, its arity and
+ * a tag, then a cell holding the total number of cells in the function, and
+ * then its arguments. A proposition is encoded like a constant and a relation
+ * like a function. The encoding of a term is unique, so two encoded terms are
+ * equal exactly when their cells are.
+ *
+ * Terms are never freed individually. Instead, {@link #mark()} and
+ * {@link #release(int)} discard everything added since a point, such as the
+ * intermediate terms built while answering a query. A TermArena must only be
+ * used by one thread at a time, though its symbol table may be shared.
+ */
+public final class TermArena
+{
+	static final int CONSTANT = 0;
+	static final int VARIABLE = 1;
+	static final int FUNCTION = 2;
+
+	private static final int TAG_BITS = 2;
+	private static final int TAG_MASK = (1 << TAG_BITS) - 1;
+	private static final int ARITY_BITS = 8;
+	private static final int MAX_ARITY = (1 << ARITY_BITS) - 1;
+	/** The largest symbol id that fits in a function cell alongside its arity. */
+	private static final int MAX_FUNCTION_ID = (1 << (31 - TAG_BITS - ARITY_BITS)) - 1;
+	/** The largest symbol id that fits in a constant or variable cell. */
+	private static final int MAX_ID = (1 << (31 - TAG_BITS)) - 1;
+
+	private final SymbolTable symbols;
+	private int[] cells;
+	private int size;
+
+	public TermArena(SymbolTable symbols)
+	{
+		this(symbols, 1024);
+	}
+
+	public TermArena(SymbolTable symbols, int initialCapacity)
+	{
+		this.symbols = symbols;
+		this.cells = new int[Math.max(initialCapacity, 16)];
+		this.size = 0;
+	}
+
+	public SymbolTable getSymbols()
+	{
+		return symbols;
+	}
+
+	/**
+	 * Adds the given term to the arena, and returns its offset.
+	 */
+	public int encode(GdlTerm term)
+	{
+		int offset = size;
+		append(term);
+		return offset;
+	}
+
+	/**
+	 * Adds the given sentence to the arena, and returns its offset.
+	 */
+	public int encode(GdlSentence sentence)
+	{
+		int offset = size;
+		if (sentence instanceof GdlProposition)
+		{
+			add(constantCell(symbols.getConstantId(sentence.getName())));
+		}
+		else
+		{
+			appendFunction(sentence.getName(), sentence.getBody());
+		}
+		return offset;
+	}
+
+	private void append(GdlTerm term)
+	{
+		if (term instanceof GdlConstant)
+		{
+			add(constantCell(symbols.getConstantId((GdlConstant) term)));
+		}
+		else if (term instanceof GdlVariable)
+		{
+			add(variableCell(symbols.getVariableId((GdlVariable) term)));
+		}
+		else
+		{
+			GdlFunction function = (GdlFunction) term;
+			appendFunction(function.getName(), function.getBody());
+		}
+	}
+
+	private void appendFunction(GdlConstant name, List<GdlTerm> body)
+	{
+		int offset = size;
+		add(functionCell(symbols.getConstantId(name), body.size()));
+		add(0);
+		for (GdlTerm argument : body)
+		{
+			append(argument);
+		}
+		cells[offset + 1] = size - offset;
+	}
+
+	/**
+	 * Returns a copy of the cells of the term or sentence at the given
+	 * offset, which stays valid after the term is released, and can be added
+	 * back to any arena with the same symbol table by {@link #add(int[])}.
+	 */
+	public int[] getCells(int offset)
+	{
+		return Arrays.copyOfRange(cells, offset, offset + length(offset));
+	}
+
+	/**
+	 * Adds a term or sentence copied out by {@link #getCells(int)}, and
+	 * returns its offset.
+	 */
+	public int add(int[] encoded)
+	{
+		int offset = size;
+		ensureCapacity(encoded.length);
+		System.arraycopy(encoded, 0, cells, size, encoded.length);
+		size += encoded.length;
+		return offset;
+	}
+
+	/**
+	 * Returns the Gdl term encoded at the given offset.
+	 */
+	public GdlTerm decodeTerm(int offset)
+	{
+		int cell = cells[offset];
+		switch (tag(cell))
+		{
+		case CONSTANT:
+			return symbols.getConstant(id(cell));
+		case VARIABLE:
+			return symbols.getVariable(id(cell));
+		default:
+			return GdlPool.getFunction(symbols.getConstant(functionId(cell)), decodeArguments(offset));
+		}
+	}
+
+	/**
+	 * Returns the Gdl sentence encoded at the given offset.
+	 */
+	public GdlSentence decodeSentence(int offset)
+	{
+		int cell = cells[offset];
+		switch (tag(cell))
+		{
+		case CONSTANT:
+			return GdlPool.getProposition(symbols.getConstant(id(cell)));
+		case FUNCTION:
+			return GdlPool.getRelation(symbols.getConstant(functionId(cell)), decodeArguments(offset));
+		default:
+			throw new IllegalArgumentException("A variable isn't a sentence: " + decodeTerm(offset));
+		}
+	}
+
+	private List<GdlTerm> decodeArguments(int offset)
+	{
+		int arity = cellArity(cells[offset]);
+		List<GdlTerm> arguments = new ArrayList<GdlTerm>(arity);
+		int argument = offset + 2;
+		for (int i = 0; i < arity; i++)
+		{
+			arguments.add(decodeTerm(argument));
+			argument += length(argument);
+		}
+		return arguments;
+	}
+
+	/**
+	 * Returns the number of cells in the term at the given offset.
+	 */
+	public int length(int offset)
+	{
+		return (tag(cells[offset]) == FUNCTION) ? cells[offset + 1] : 1;
+	}
+
+	/**
+	 * Returns the offset of the given argument of the function or relation
+	 * at the given offset.
+	 */
+	public int getArgument(int offset, int index)
+	{
+		if (index >= arity(offset))
+		{
+			throw new IndexOutOfBoundsException(index + " of " + decodeTerm(offset));
+		}
+		int argument = offset + 2;
+		for (int i = 0; i < index; i++)
+		{
+			argument += length(argument);
+		}
+		return argument;
+	}
+
+	/**
+	 * Returns the arity of the function or relation at the given offset, or
+	 * zero for any other term.
+	 */
+	public int arity(int offset)
+	{
+		int cell = cells[offset];
+		return (tag(cell) == FUNCTION) ? cellArity(cell) : 0;
+	}
+
+	public boolean isGround(int offset)
+	{
+		int end = offset + length(offset);
+		for (int i = offset; i < end; i++)
+		{
+			if (tag(cells[i]) == VARIABLE)
+			{
+				return false;
+			}
+			if (tag(cells[i]) == FUNCTION)
+			{
+				// Skip the length cell, which could look like a variable.
+				i++;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Returns whether the terms at the two offsets are equal, without
+	 * regard to any bindings of their variables.
+	 */
+	public boolean equal(int x, int y)
+	{
+		if (x == y)
+		{
+			return true;
+		}
+		int length = length(x);
+		if (length != length(y))
+		{
+			return false;
+		}
+		for (int i = 0; i < length; i++)
+		{
+			if (cells[x + i] != cells[y + i])
+			{
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Returns a hash code for the term at the given offset, consistent with
+	 * {@link #equal(int, int)}.
+	 */
+	public int hashCode(int offset)
+	{
+		int result = 1;
+		int end = offset + length(offset);
+		for (int i = offset; i < end; i++)
+		{
+			result = 31 * result + cells[i];
+		}
+		return result;
+	}
+
+	/**
+	 * Returns the number of cells in use, which can be passed to
+	 * {@link #release(int)} to discard everything added after this call.
+	 */
+	public int mark()
+	{
+		return size;
+	}
+
+	/**
+	 * Discards every term added since the given mark. Their offsets must not
+	 * be used afterwards.
+	 */
+	public void release(int mark)
+	{
+		if (mark < 0 || mark > size)
+		{
+			throw new IllegalArgumentException("Mark " + mark + " is beyond the end of the arena, at " + size);
+		}
+		size = mark;
+	}
+
+	/**
+	 * Copies the term at the given offset to the end of the arena, replacing
+	 * each bound variable with the term it's bound to. Returns the offset of
+	 * the copy, or the original offset if the term has no bound variables.
+	 */
+	public int substitute(int offset, Bindings bindings)
+	{
+		if (!bindings.affects(offset))
+		{
+			return offset;
+		}
+		int result = size;
+		copyResolved(offset, bindings);
+		return result;
+	}
+
+	private void copyResolved(int offset, Bindings bindings)
+	{
+		offset = bindings.dereference(offset);
+		int cell = cells[offset];
+		if (tag(cell) != FUNCTION)
+		{
+			add(cell);
+		}
+		else if (!bindings.affects(offset))
+		{
+			int length = cells[offset + 1];
+			ensureCapacity(length);
+			System.arraycopy(cells, offset, cells, size, length);
+			size += length;
+		}
+		else
+		{
+			int start = size;
+			add(cell);
+			add(0);
+			int argument = offset + 2;
+			for (int i = 0; i < cellArity(cell); i++)
+			{
+				copyResolved(argument, bindings);
+				argument += length(argument);
+			}
+			cells[start + 1] = size - start;
+		}
+	}
+
+	int cell(int offset)
+	{
+		return cells[offset];
+	}
+
+	private void add(int cell)
+	{
+		ensureCapacity(1);
+		cells[size++] = cell;
+	}
+
+	private void ensureCapacity(int extra)
+	{
+		if (size + extra > cells.length)
+		{
+			cells = Arrays.copyOf(cells, Math.max(cells.length * 2, size + extra));
+		}
+	}
+
+	static int tag(int cell)
+	{
+		return cell & TAG_MASK;
+	}
+
+	static int id(int cell)
+	{
+		return cell >>> TAG_BITS;
+	}
+
+	private static int functionId(int cell)
+	{
+		return cell >>> (TAG_BITS + ARITY_BITS);
+	}
+
+	private static int cellArity(int cell)
+	{
+		return (cell >>> TAG_BITS) & MAX_ARITY;
+	}
+
+	private static int constantCell(int id)
+	{
+		checkId(id, MAX_ID);
+		return (id << TAG_BITS) | CONSTANT;
+	}
+
+	private static int variableCell(int id)
+	{
+		checkId(id, MAX_ID);
+		return (id << TAG_BITS) | VARIABLE;
+	}
+
+	private static int functionCell(int id, int arity)
+	{
+		checkId(id, MAX_FUNCTION_ID);
+		if (arity > MAX_ARITY)
+		{
+			throw new IllegalArgumentException("Can't encode a function with more than " + MAX_ARITY + " arguments");
+		}
+		return (((id << ARITY_BITS) | arity) << TAG_BITS) | FUNCTION;
+	}
+
+	private static void checkId(int id, int max)
+	{
+		if (id > max)
+		{
+			throw new IllegalStateException("Too many symbols to encode: " + id);
+		}
+	}
+}
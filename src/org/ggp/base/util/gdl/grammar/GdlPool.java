@@ -24,21 +24,24 @@ import com.google.common.collect.MapMaker;
  * them, it may call {@link #drainPool()} in between games. Note that if this
  * method is called while references to Gdl objects other than keyword constants
  * are held elsewhere, bad things will happen.
+ * <p>
+ * Alternatively, the objects of a match can be kept in a {@link Scope}, a child
+ * pool layered over the permanent pool. A thread that has entered a scope (and
+ * any thread it starts afterwards) looks objects up in the permanent pool
+ * first, and creates the ones it doesn't find in the scope. Releasing the
+ * scope at the end of the match discards everything created in it, while the
+ * keywords and anything else created outside the scope are kept. Only one
+ * object is created for each fragment of GDL as long as every thread working
+ * on a match is in the same scope, so threads started before entering a scope
+ * (such as the threads of a shared pool) must enter it before working with the
+ * match's Gdl objects. Gdl held in static fields outlives any scope, so it
+ * should be {@link #pin(Gdl) pinned} in the permanent pool.
  */
 public final class GdlPool
 {
-	private static final ConcurrentMap<GdlTerm, ConcurrentMap<GdlTerm, GdlDistinct>> distinctPool = new ConcurrentHashMap<GdlTerm, ConcurrentMap<GdlTerm, GdlDistinct>>();
-	private static final ConcurrentMap<GdlConstant, ConcurrentMap<List<GdlTerm>, GdlFunction>> functionPool = new ConcurrentHashMap<GdlConstant, ConcurrentMap<List<GdlTerm>, GdlFunction>>();
-	private static final ConcurrentMap<GdlLiteral, GdlNot> notPool = new ConcurrentHashMap<GdlLiteral, GdlNot>();
-	private static final ConcurrentMap<List<GdlLiteral>, GdlOr> orPool = new ConcurrentHashMap<List<GdlLiteral>, GdlOr>();
-	private static final ConcurrentMap<GdlConstant, GdlProposition> propositionPool = new ConcurrentHashMap<GdlConstant, GdlProposition>();
-	private static final ConcurrentMap<GdlConstant, ConcurrentMap<List<GdlTerm>, GdlRelation>> relationPool = new ConcurrentHashMap<GdlConstant, ConcurrentMap<List<GdlTerm>, GdlRelation>>();
-	private static final ConcurrentMap<GdlSentence, ConcurrentMap<List<GdlLiteral>, GdlRule>> rulePool = new ConcurrentHashMap<GdlSentence, ConcurrentMap<List<GdlLiteral>, GdlRule>>();
-	private static final ConcurrentMap<String, GdlVariable> variablePool = new ConcurrentHashMap<String, GdlVariable>();
-    private static final ConcurrentMap<String, GdlConstant> constantPool = new ConcurrentHashMap<String, GdlConstant>();
-    //Access to constantCases and variableCases should be synchronized using their monitor locks.
-    private static final Map<String,String> constantCases = new TreeMap<String,String>(String.CASE_INSENSITIVE_ORDER);
-    private static final Map<String,String> variableCases = new TreeMap<String,String>(String.CASE_INSENSITIVE_ORDER);
+	/** The permanent pool, used outside of any scope. */
+	private static final Tables root = new Tables();
+	private static final InheritableThreadLocal<Scope> currentScope = new InheritableThreadLocal<Scope>();
 
     // Controls whether we normalize the case of incoming constants and variables.
     public static volatile boolean caseSensitive = true;
@@ -81,16 +84,9 @@ public final class GdlPool
 	 * pool.
 	 */
 	public static void drainPool() {
-	    distinctPool.clear();
-	    functionPool.clear();
-	    notPool.clear();
-	    orPool.clear();
-	    propositionPool.clear();
-	    relationPool.clear();
-	    rulePool.clear();
-	    variablePool.clear();
-	    synchronized (variableCases) {
-	    	variableCases.clear();
+	    root.clearAllButConstants();
+	    synchronized (root.variableCases) {
+	    	root.variableCases.clear();
 	    }
 
 	    // When draining the pool between matches, we still need to preserve the keywords
@@ -102,18 +98,58 @@ public final class GdlPool
 	    // were game-specific) have been drained.
 	    Map<String, GdlConstant> keywordConstants = new HashMap<String, GdlConstant>();
 	    for (String keyword : KEYWORDS) {
-	    	keywordConstants.put(keyword, GdlPool.getConstant(keyword));
+	    	keywordConstants.put(keyword, root.constantPool.get(keyword));
 	    }
-	    synchronized (constantCases) {
-	    	constantPool.clear();
-	    	constantCases.clear();
+	    synchronized (root.constantCases) {
+	    	root.constantPool.clear();
+	    	root.constantCases.clear();
 	    	for (Map.Entry<String,GdlConstant> keywordEntry : keywordConstants.entrySet()) {
-	    		constantCases.put(keywordEntry.getKey(), keywordEntry.getKey());
-	    		constantPool.put(keywordEntry.getKey(), keywordEntry.getValue());
+	    		root.constantCases.put(keywordEntry.getKey(), keywordEntry.getKey());
+	    		root.constantPool.put(keywordEntry.getKey(), keywordEntry.getValue());
 	    	}
 	    }
 	}
 
+	/**
+	 * Creates a new, empty scope over the permanent pool. The scope isn't
+	 * used until a thread enters it with {@link #enterScope(Scope)}.
+	 */
+	public static Scope createScope(String name) {
+		return new Scope(name);
+	}
+
+	/**
+	 * Makes the current thread, and any threads it starts from now on, use
+	 * the given scope, or the permanent pool if it's null.
+	 *
+	 * @return the scope the thread was using before, or null if none
+	 */
+	public static Scope enterScope(Scope scope) {
+		Scope previous = currentScope.get();
+		currentScope.set(scope);
+		return previous;
+	}
+
+	/**
+	 * Returns the scope the current thread is using, or null if it's using
+	 * the permanent pool.
+	 */
+	public static Scope getCurrentScope() {
+		return currentScope.get();
+	}
+
+	/**
+	 * Returns the size and hit rate of the permanent pool.
+	 */
+	public static Statistics getStatistics() {
+		return root.getStatistics();
+	}
+
+	private static Tables currentTables() {
+		Scope scope = currentScope.get();
+		return (scope == null) ? root : scope.tables;
+	}
+
 	/**
 	 * If the pool does not have a mapping for the given key, adds a mapping from key to value
 	 * to the pool.
@@ -132,54 +168,93 @@ public final class GdlPool
 			return prevValue;
 	}
 
+	/**
+	 * Looks the key up in the permanent pool and then in the given pool of
+	 * the current tables, recording a hit or a miss.
+	 */
+	private static <K,V> V lookup(Tables tables, ConcurrentMap<K, V> rootPool, ConcurrentMap<K, V> pool, K key) {
+		V ret = rootPool.get(key);
+		if(ret == null && pool != rootPool)
+			ret = pool.get(key);
+		tables.record(ret != null);
+		return ret;
+	}
+
+	private static <K,L,V> V lookup(Tables tables, ConcurrentMap<K, ConcurrentMap<L, V>> rootPool, ConcurrentMap<K, ConcurrentMap<L, V>> pool, K key, L subkey) {
+		V ret = get(rootPool, key, subkey);
+		if(ret == null && pool != rootPool)
+			ret = get(pool, key, subkey);
+		tables.record(ret != null);
+		return ret;
+	}
+
+	private static <K,L,V> V get(ConcurrentMap<K, ConcurrentMap<L, V>> pool, K key, L subkey) {
+		ConcurrentMap<L, V> bucket = pool.get(key);
+		return (bucket == null) ? null : bucket.get(subkey);
+	}
+
+	/**
+	 * Returns the case in which a name was first seen, in the permanent pool
+	 * or else in the given tables, recording it there if it's new.
+	 */
+	private static String getCase(String name, Map<String,String> rootCases, Map<String,String> cases) {
+		synchronized (rootCases) {
+			String existing = rootCases.get(name);
+			if (existing != null)
+				return existing;
+			if (cases == rootCases) {
+				rootCases.put(name, name);
+				return name;
+			}
+		}
+		synchronized (cases) {
+			String existing = cases.get(name);
+			if (existing != null)
+				return existing;
+			cases.put(name, name);
+			return name;
+		}
+	}
+
 	public static GdlConstant getConstant(String value)
 	{
 		if (KEYWORDS.contains(value.toLowerCase())) {
 			value = value.toLowerCase();
 		}
+	    Tables tables = currentTables();
 	    if (!caseSensitive) {
-	    	synchronized (constantCases) {
-	    		if (constantCases.containsKey(value)) {
-	    			value = constantCases.get(value);
-	    		} else {
-	    			constantCases.put(value, value);
-	    		}
-	    	}
+	    	value = getCase(value, root.constantCases, tables.constantCases);
 	    }
 
-		GdlConstant ret = constantPool.get(value);
+		GdlConstant ret = lookup(tables, root.constantPool, tables.constantPool, value);
 		if(ret == null)
-			ret = addToPool(value, new GdlConstant(value), constantPool);
+			ret = addToPool(value, new GdlConstant(value), tables.constantPool);
 		return ret;
 	}
 
     public static GdlVariable getVariable(String name)
     {
+        Tables tables = currentTables();
         if (!caseSensitive) {
-        	synchronized (variableCases) {
-        		if (variableCases.containsKey(name)) {
-        			name = variableCases.get(name);
-        		} else {
-        			variableCases.put(name, name);
-        		}
-        	}
+        	name = getCase(name, root.variableCases, tables.variableCases);
         }
 
-        GdlVariable ret = variablePool.get(name);
+        GdlVariable ret = lookup(tables, root.variablePool, tables.variablePool, name);
         if(ret == null)
-            ret = addToPool(name, new GdlVariable(name), variablePool);
+            ret = addToPool(name, new GdlVariable(name), tables.variablePool);
         return ret;
     }
 
 	public static GdlDistinct getDistinct(GdlTerm arg1, GdlTerm arg2)
 	{
-		ConcurrentMap<GdlTerm, GdlDistinct> bucket = distinctPool.get(arg1);
-		if(bucket == null)
-			bucket = addToPool(arg1, new ConcurrentHashMap<GdlTerm, GdlDistinct>(), distinctPool);
-
-		GdlDistinct ret = bucket.get(arg2);
-		if(ret == null)
+		Tables tables = currentTables();
+		GdlDistinct ret = lookup(tables, root.distinctPool, tables.distinctPool, arg1, arg2);
+		if(ret == null) {
+			ConcurrentMap<GdlTerm, GdlDistinct> bucket = tables.distinctPool.get(arg1);
+			if(bucket == null)
+				bucket = addToPool(arg1, new ConcurrentHashMap<GdlTerm, GdlDistinct>(), tables.distinctPool);
 			ret = addToPool(arg2, new GdlDistinct(arg1, arg2), bucket);
+		}
 
 		return ret;
 	}
@@ -197,14 +272,14 @@ public final class GdlPool
 
 	public static GdlFunction getFunction(GdlConstant name, List<GdlTerm> body)
 	{
-		ConcurrentMap<List<GdlTerm>, GdlFunction> bucket = functionPool.get(name);
-		if(bucket == null) {
-			ConcurrentMap<List<GdlTerm>, GdlFunction> newMap = new MapMaker().softValues().makeMap();
-			bucket = addToPool(name, newMap, functionPool);
-		}
-
-		GdlFunction ret = bucket.get(body);
+		Tables tables = currentTables();
+		GdlFunction ret = lookup(tables, root.functionPool, tables.functionPool, name, body);
 		if(ret == null) {
+			ConcurrentMap<List<GdlTerm>, GdlFunction> bucket = tables.functionPool.get(name);
+			if(bucket == null) {
+				ConcurrentMap<List<GdlTerm>, GdlFunction> newMap = new MapMaker().softValues().makeMap();
+				bucket = addToPool(name, newMap, tables.functionPool);
+			}
 		    body = getImmutableCopy(body);
 			ret = addToPool(body, new GdlFunction(name, body), bucket);
 		}
@@ -214,9 +289,10 @@ public final class GdlPool
 
 	public static GdlNot getNot(GdlLiteral body)
 	{
-		GdlNot ret = notPool.get(body);
+		Tables tables = currentTables();
+		GdlNot ret = lookup(tables, root.notPool, tables.notPool, body);
 		if(ret == null)
-			ret = addToPool(body, new GdlNot(body), notPool);
+			ret = addToPool(body, new GdlNot(body), tables.notPool);
 
 		return ret;
 	}
@@ -228,10 +304,11 @@ public final class GdlPool
 
 	public static GdlOr getOr(List<GdlLiteral> disjuncts)
 	{
-		GdlOr ret = orPool.get(disjuncts);
+		Tables tables = currentTables();
+		GdlOr ret = lookup(tables, root.orPool, tables.orPool, disjuncts);
 		if(ret == null) {
 		    disjuncts = getImmutableCopy(disjuncts);
-			ret = addToPool(disjuncts, new GdlOr(disjuncts), orPool);
+			ret = addToPool(disjuncts, new GdlOr(disjuncts), tables.orPool);
 		}
 
 		return ret;
@@ -239,9 +316,10 @@ public final class GdlPool
 
 	public static GdlProposition getProposition(GdlConstant name)
 	{
-		GdlProposition ret = propositionPool.get(name);
+		Tables tables = currentTables();
+		GdlProposition ret = lookup(tables, root.propositionPool, tables.propositionPool, name);
 		if(ret == null)
-			ret = addToPool(name, new GdlProposition(name), propositionPool);
+			ret = addToPool(name, new GdlProposition(name), tables.propositionPool);
 
 		return ret;
 	}
@@ -259,14 +337,14 @@ public final class GdlPool
 
 	public static GdlRelation getRelation(GdlConstant name, List<GdlTerm> body)
 	{
-		ConcurrentMap<List<GdlTerm>, GdlRelation> bucket = relationPool.get(name);
-		if(bucket == null) {
-			ConcurrentMap<List<GdlTerm>, GdlRelation> newMap = new MapMaker().softValues().makeMap();
-			bucket = addToPool(name, newMap, relationPool);
-		}
-
-		GdlRelation ret = bucket.get(body);
+		Tables tables = currentTables();
+		GdlRelation ret = lookup(tables, root.relationPool, tables.relationPool, name, body);
 		if(ret == null) {
+			ConcurrentMap<List<GdlTerm>, GdlRelation> bucket = tables.relationPool.get(name);
+			if(bucket == null) {
+				ConcurrentMap<List<GdlTerm>, GdlRelation> newMap = new MapMaker().softValues().makeMap();
+				bucket = addToPool(name, newMap, tables.relationPool);
+			}
 		    body = getImmutableCopy(body);
 			ret = addToPool(body, new GdlRelation(name, body), bucket);
 		}
@@ -287,12 +365,12 @@ public final class GdlPool
 
 	public static GdlRule getRule(GdlSentence head, List<GdlLiteral> body)
 	{
-		ConcurrentMap<List<GdlLiteral>, GdlRule> bucket = rulePool.get(head);
-		if(bucket == null)
-			bucket = addToPool(head, new ConcurrentHashMap<List<GdlLiteral>, GdlRule>(), rulePool);
-
-		GdlRule ret = bucket.get(body);
+		Tables tables = currentTables();
+		GdlRule ret = lookup(tables, root.rulePool, tables.rulePool, head, body);
 		if(ret == null) {
+			ConcurrentMap<List<GdlLiteral>, GdlRule> bucket = tables.rulePool.get(head);
+			if(bucket == null)
+				bucket = addToPool(head, new ConcurrentHashMap<List<GdlLiteral>, GdlRule>(), tables.rulePool);
 		    body = getImmutableCopy(body);
 			ret = addToPool(body, new GdlRule(head, body), bucket);
 		}
@@ -304,6 +382,92 @@ public final class GdlPool
 	    return Collections.unmodifiableList(new ArrayList<T>(list));
 	}
 
+	/**
+	 * Returns the given term or sentence as it is in the permanent pool, so
+	 * that it outlives the current thread's scope; this is meant for Gdl
+	 * held in static fields. Anything the thread's scope holds for it is
+	 * moved into the permanent pool rather than copied, so objects already
+	 * built from it in the scope still match it.
+	 */
+	@SuppressWarnings("unchecked")
+	public static <T extends Gdl> T pin(T gdl) {
+		Scope scope = currentScope.get();
+		return (T) pin(gdl, (scope == null) ? root : scope.tables);
+	}
+
+	private static Gdl pin(Gdl gdl, Tables tables) {
+		if(gdl instanceof GdlConstant) {
+			String value = ((GdlConstant) gdl).getValue();
+			pinCase(value, root.constantCases, tables.constantCases);
+			return move(value, (GdlConstant) gdl, root.constantPool, tables.constantPool);
+		} else if(gdl instanceof GdlVariable) {
+			String name = ((GdlVariable) gdl).getName();
+			pinCase(name, root.variableCases, tables.variableCases);
+			return move(name, (GdlVariable) gdl, root.variablePool, tables.variablePool);
+		} else if(gdl instanceof GdlProposition) {
+			GdlConstant name = (GdlConstant) pin(((GdlProposition) gdl).getName(), tables);
+			GdlProposition current = tables.propositionPool.get(name);
+			return move(name, (current == null) ? new GdlProposition(name) : current, root.propositionPool, tables.propositionPool);
+		} else if(gdl instanceof GdlRelation) {
+			GdlRelation relation = (GdlRelation) gdl;
+			GdlConstant name = (GdlConstant) pin(relation.getName(), tables);
+			List<GdlTerm> body = pinBody(relation.getBody(), tables);
+			GdlRelation current = get(tables.relationPool, name, body);
+			return move(name, body, (current == null) ? new GdlRelation(name, body) : current, root.relationPool, tables.relationPool);
+		} else if(gdl instanceof GdlFunction) {
+			GdlFunction function = (GdlFunction) gdl;
+			GdlConstant name = (GdlConstant) pin(function.getName(), tables);
+			List<GdlTerm> body = pinBody(function.getBody(), tables);
+			GdlFunction current = get(tables.functionPool, name, body);
+			return move(name, body, (current == null) ? new GdlFunction(name, body) : current, root.functionPool, tables.functionPool);
+		} else
+			throw new IllegalArgumentException("Only terms and sentences can be pinned: " + gdl);
+	}
+
+	private static List<GdlTerm> pinBody(List<GdlTerm> body, Tables tables) {
+		List<GdlTerm> pinned = new ArrayList<GdlTerm>(body.size());
+		for (GdlTerm term : body)
+			pinned.add((GdlTerm) pin(term, tables));
+		return Collections.unmodifiableList(pinned);
+	}
+
+	private static void pinCase(String name, Map<String,String> rootCases, Map<String,String> cases) {
+		synchronized (rootCases) {
+			if (!rootCases.containsKey(name))
+				rootCases.put(name, name);
+		}
+		if (cases != rootCases) {
+			synchronized (cases) {
+				cases.remove(name);
+			}
+		}
+	}
+
+	/**
+	 * Adds a value to the permanent pool, unless it has one already, and
+	 * then removes it from the scoped pool. The other way around, a lookup
+	 * in between could find neither and create a duplicate.
+	 */
+	private static <K,V> V move(K key, V value, ConcurrentMap<K, V> rootPool, ConcurrentMap<K, V> pool) {
+		V ret = addToPool(key, value, rootPool);
+		if (pool != rootPool)
+			pool.remove(key, value);
+		return ret;
+	}
+
+	private static <K,L,V> V move(K key, L subkey, V value, ConcurrentMap<K, ConcurrentMap<L, V>> rootPool, ConcurrentMap<K, ConcurrentMap<L, V>> pool) {
+		ConcurrentMap<L, V> rootBucket = rootPool.get(key);
+		if (rootBucket == null) {
+			ConcurrentMap<L, V> newMap = new MapMaker().softValues().makeMap();
+			rootBucket = addToPool(key, newMap, rootPool);
+		}
+		V ret = addToPool(subkey, value, rootBucket);
+		ConcurrentMap<L, V> bucket = pool.get(key);
+		if (pool != rootPool && bucket != null)
+			bucket.remove(subkey, value);
+		return ret;
+	}
+
 	/**
 	 * This method should only rarely be used. It takes a foreign GDL object
 	 * (one that wasn't constructed through the GdlPool) and returns a version
@@ -360,4 +524,158 @@ public final class GdlPool
         } else
             throw new RuntimeException("Uh oh, gdl hierarchy must have been extended without updating this code.");
 	}
+
+	/**
+	 * A child pool over the permanent pool, holding the objects created by
+	 * the threads that have entered it. See {@link GdlPool}.
+	 */
+	public static final class Scope
+	{
+		private final String name;
+		private final Tables tables = new Tables();
+
+		private Scope(String name)
+		{
+			this.name = name;
+		}
+
+		public String getName()
+		{
+			return name;
+		}
+
+		/**
+		 * Returns the size and hit rate of this scope since it was created
+		 * or last released.
+		 */
+		public Statistics getStatistics()
+		{
+			return tables.getStatistics();
+		}
+
+		/**
+		 * Discards every object created in this scope, along with the cases
+		 * of its names, and resets its statistics. The scope can be used
+		 * again afterwards, such as for the next match, but objects created
+		 * in it before it was released must no longer be used.
+		 */
+		public void release()
+		{
+			tables.clearAllButConstants();
+			tables.constantPool.clear();
+			synchronized (tables.constantCases) {
+				tables.constantCases.clear();
+			}
+			synchronized (tables.variableCases) {
+				tables.variableCases.clear();
+			}
+			tables.hits.reset();
+			tables.misses.reset();
+		}
+
+		@Override
+		public String toString()
+		{
+			return "GdlPool.Scope[" + name + ", " + getStatistics() + "]";
+		}
+	}
+
+	/** A snapshot of the size and hit rate of a pool. */
+	public static final class Statistics
+	{
+		private final int entries;
+		private final long hits;
+		private final long misses;
+
+		Statistics(int entries, long hits, long misses)
+		{
+			this.entries = entries;
+			this.hits = hits;
+			this.misses = misses;
+		}
+
+		/** The number of Gdl objects in the pool. */
+		public int getEntries()
+		{
+			return entries;
+		}
+
+		/** The number of requests for an object that was already pooled. */
+		public long getHits()
+		{
+			return hits;
+		}
+
+		/** The number of requests that created a new object. */
+		public long getMisses()
+		{
+			return misses;
+		}
+
+		public double getHitRate()
+		{
+			long requests = hits + misses;
+			return (requests == 0) ? 0 : (double) hits / requests;
+		}
+
+		@Override
+		public String toString()
+		{
+			return String.format("entries=%d, hits=%d, misses=%d, hitRate=%.3f", entries, hits, misses, getHitRate());
+		}
+	}
+
+	/** The maps of one pool, permanent or scoped. */
+	private static final class Tables
+	{
+		final ConcurrentMap<GdlTerm, ConcurrentMap<GdlTerm, GdlDistinct>> distinctPool = new ConcurrentHashMap<GdlTerm, ConcurrentMap<GdlTerm, GdlDistinct>>();
+		final ConcurrentMap<GdlConstant, ConcurrentMap<List<GdlTerm>, GdlFunction>> functionPool = new ConcurrentHashMap<GdlConstant, ConcurrentMap<List<GdlTerm>, GdlFunction>>();
+		final ConcurrentMap<GdlLiteral, GdlNot> notPool = new ConcurrentHashMap<GdlLiteral, GdlNot>();
+		final ConcurrentMap<List<GdlLiteral>, GdlOr> orPool = new ConcurrentHashMap<List<GdlLiteral>, GdlOr>();
+		final ConcurrentMap<GdlConstant, GdlProposition> propositionPool = new ConcurrentHashMap<GdlConstant, GdlProposition>();
+		final ConcurrentMap<GdlConstant, ConcurrentMap<List<GdlTerm>, GdlRelation>> relationPool = new ConcurrentHashMap<GdlConstant, ConcurrentMap<List<GdlTerm>, GdlRelation>>();
+		final ConcurrentMap<GdlSentence, ConcurrentMap<List<GdlLiteral>, GdlRule>> rulePool = new ConcurrentHashMap<GdlSentence, ConcurrentMap<List<GdlLiteral>, GdlRule>>();
+		final ConcurrentMap<String, GdlVariable> variablePool = new ConcurrentHashMap<String, GdlVariable>();
+		final ConcurrentMap<String, GdlConstant> constantPool = new ConcurrentHashMap<String, GdlConstant>();
+		//Access to constantCases and variableCases should be synchronized using their monitor locks.
+		final Map<String,String> constantCases = new TreeMap<String,String>(String.CASE_INSENSITIVE_ORDER);
+		final Map<String,String> variableCases = new TreeMap<String,String>(String.CASE_INSENSITIVE_ORDER);
+		final StripedCounter hits = new StripedCounter();
+		final StripedCounter misses = new StripedCounter();
+
+		void record(boolean hit)
+		{
+			if (hit)
+				hits.increment();
+			else
+				misses.increment();
+		}
+
+		void clearAllButConstants()
+		{
+			distinctPool.clear();
+			functionPool.clear();
+			notPool.clear();
+			orPool.clear();
+			propositionPool.clear();
+			relationPool.clear();
+			rulePool.clear();
+			variablePool.clear();
+		}
+
+		Statistics getStatistics()
+		{
+			int entries = notPool.size() + orPool.size() + propositionPool.size() + variablePool.size() + constantPool.size();
+			entries += countBuckets(distinctPool) + countBuckets(functionPool) + countBuckets(relationPool) + countBuckets(rulePool);
+			return new Statistics(entries, hits.get(), misses.get());
+		}
+
+		private static int countBuckets(ConcurrentMap<?, ? extends ConcurrentMap<?, ?>> pool)
+		{
+			int count = 0;
+			for (ConcurrentMap<?, ?> bucket : pool.values())
+				count += bucket.size();
+			return count;
+		}
+	}
 }
@@ -1,14 +1,20 @@
 package org.ggp.base.util.gdl.grammar;
 
+import java.util.concurrent.atomic.AtomicInteger;
+
 @SuppressWarnings("serial")
 public final class GdlVariable extends GdlTerm
 {
 
+	private static final AtomicInteger nextId = new AtomicInteger();
+
 	private final String name;
+	private final int id;
 
 	GdlVariable(String name)
 	{
 		this.name = name.intern();
+		this.id = nextId.getAndIncrement();
 	}
 
 	public String getName()
@@ -16,6 +22,16 @@ public final class GdlVariable extends GdlTerm
 		return name;
 	}
 
+	/**
+	 * Returns a number that identifies this variable. Since variables are
+	 * interned by the {@link GdlPool}, each name has a single id for as long
+	 * as the pool holds it.
+	 */
+	public int getId()
+	{
+		return id;
+	}
+
 	@Override
 	public boolean isGround()
 	{
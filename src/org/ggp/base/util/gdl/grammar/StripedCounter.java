@@ -0,0 +1,40 @@
+package org.ggp.base.util.gdl.grammar;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A counter that many threads can increment at once without all of them
+ * contending for one memory location, for statistics on hot paths.
+ */
+final class StripedCounter
+{
+	private static final int STRIPES = 16;
+	/** The spacing between stripes, so that each has its own cache line. */
+	private static final int SPACING = 8;
+
+	private final AtomicLongArray cells = new AtomicLongArray(STRIPES * SPACING);
+
+	void increment()
+	{
+		int stripe = (int) Thread.currentThread().getId() & (STRIPES - 1);
+		cells.incrementAndGet(stripe * SPACING);
+	}
+
+	long get()
+	{
+		long sum = 0;
+		for (int i = 0; i < STRIPES; i++)
+		{
+			sum += cells.get(i * SPACING);
+		}
+		return sum;
+	}
+
+	void reset()
+	{
+		for (int i = 0; i < STRIPES; i++)
+		{
+			cells.set(i * SPACING, 0);
+		}
+	}
+}
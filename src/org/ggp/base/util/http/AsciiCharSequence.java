@@ -0,0 +1,73 @@
+package org.ggp.base.util.http;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * AsciiCharSequence reads a range of bytes as characters, one byte to each,
+ * without copying them. It's used for the content of requests, which is
+ * almost always ASCII, so that it can be parsed straight from the buffer it
+ * was read into. The bytes must not change while it's in use.
+ */
+public final class AsciiCharSequence implements CharSequence
+{
+	private final byte[] bytes;
+	private final int offset;
+	private final int length;
+
+	public AsciiCharSequence(byte[] bytes, int offset, int length)
+	{
+		if (offset < 0 || length < 0 || offset + length > bytes.length) {
+			throw new IndexOutOfBoundsException("Range " + offset + "+" + length + " is outside of " + bytes.length + " bytes");
+		}
+		this.bytes = bytes;
+		this.offset = offset;
+		this.length = length;
+	}
+
+	@Override
+	public int length()
+	{
+		return length;
+	}
+
+	@Override
+	public char charAt(int index)
+	{
+		if (index < 0 || index >= length) {
+			throw new IndexOutOfBoundsException("Index " + index + " is outside of " + length + " characters");
+		}
+		return (char) (bytes[offset + index] & 0xff);
+	}
+
+	@Override
+	public AsciiCharSequence subSequence(int start, int end)
+	{
+		if (start < 0 || end > length || start > end) {
+			throw new IndexOutOfBoundsException("Range " + start + "-" + end + " is outside of " + length + " characters");
+		}
+		return new AsciiCharSequence(bytes, offset + start, end - start);
+	}
+
+	/**
+	 * Returns the sequence without leading and trailing whitespace, in the
+	 * same way as {@link String#trim()}.
+	 */
+	public AsciiCharSequence trim()
+	{
+		int start = 0;
+		int end = length;
+		while (start < end && (bytes[offset + start] & 0xff) <= ' ') {
+			start++;
+		}
+		while (end > start && (bytes[offset + end - 1] & 0xff) <= ' ') {
+			end--;
+		}
+		return (start == 0 && end == length) ? this : subSequence(start, end);
+	}
+
+	@Override
+	public String toString()
+	{
+		return new String(bytes, offset, length, StandardCharsets.ISO_8859_1);
+	}
+}
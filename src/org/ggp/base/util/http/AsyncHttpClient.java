@@ -0,0 +1,522 @@
+package org.ggp.base.util.http;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.net.ConnectException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.nio.channels.CancelledKeyException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+import org.ggp.base.util.logging.GamerLogger;
+
+/**
+ * AsyncHttpClient issues the match host's requests to players without a
+ * thread per request. Every request is handled by a single event loop, which
+ * connects, writes the request and reads the response using non-blocking
+ * channels, and fails the request with a SocketTimeoutException if it takes
+ * longer than its deadline. Callers get an {@link HttpResponseFuture} back
+ * straight away, and wait on it when they need the response.
+ *
+ * Requests and responses are the same as for {@link HttpRequest}: each request
+ * is a POST, and the player has five seconds to accept the connection and then
+ * the given timeout to respond in total, rather than per read. Requests can
+ * also ask the player to keep the connection open afterwards. If it agrees,
+ * the connection is pooled and reused by the next such request to the same
+ * player, which then doesn't have to wait for a new connection. A request
+ * that finds its pooled connection closed by the player before any of it was
+ * written is retried on another connection; once any of it has been written,
+ * it fails instead, so that the player never sees a play or stop request
+ * twice.
+ */
+public final class AsyncHttpClient
+{
+	private static final int CONNECT_TIMEOUT = 5000;
+	/** How long a pooled connection can go unused before it's closed. */
+	private static final int IDLE_TIMEOUT = 60000;
+	private static final int READ_BUFFER_SIZE = 8192;
+
+	private static AsyncHttpClient shared = null;
+
+	private final Selector selector;
+	private final Thread eventLoop;
+	/** Requests waiting to be picked up by the event loop. */
+	private final Queue<Exchange> newExchanges = new ConcurrentLinkedQueue<Exchange>();
+	/** Cancelled requests whose connections the event loop should close. */
+	private final Queue<Exchange> cancelledExchanges = new ConcurrentLinkedQueue<Exchange>();
+	/** Deadlines of the requests in progress; only used by the event loop. */
+	private final PriorityQueue<Deadline> deadlines = new PriorityQueue<Deadline>();
+	/** Idle connections by player, most recently used first; only used by the event loop. */
+	private final Map<InetSocketAddress, Deque<IdleConnection>> pool = new HashMap<InetSocketAddress, Deque<IdleConnection>>();
+
+	public AsyncHttpClient(String name) throws IOException
+	{
+		selector = Selector.open();
+		eventLoop = new Thread(name) {
+			@Override
+			public void run() {
+				runEventLoop();
+			}
+		};
+		eventLoop.setDaemon(true);
+		eventLoop.start();
+	}
+
+	/**
+	 * Returns the client shared by every game server in this process.
+	 */
+	public static synchronized AsyncHttpClient getShared()
+	{
+		if (shared == null) {
+			try {
+				shared = new AsyncHttpClient("AsyncHttpClient");
+			} catch (IOException e) {
+				throw new RuntimeException("Could not open a selector for the HTTP client", e);
+			}
+		}
+		return shared;
+	}
+
+	/**
+	 * Sends a request to a player on a new connection, as
+	 * {@link HttpRequest#issueRequest} does, but returns without waiting for
+	 * the response.
+	 */
+	public HttpResponseFuture issueRequest(String targetHost, int targetPort, String forPlayerName, String requestContent, int timeoutClock)
+	{
+		return issueRequest(targetHost, targetPort, forPlayerName, requestContent, timeoutClock, false);
+	}
+
+	/**
+	 * Sends a request to a player, returning without waiting for the
+	 * response. Any error, including one looking up the host, is reported
+	 * through the returned future.
+	 *
+	 * @param timeoutClock The number of milliseconds the player has to respond
+	 * once connected, or a negative number for no limit.
+	 * @param keepAlive Whether to reuse a pooled connection to the player, and
+	 * to ask the player to keep the connection open afterwards.
+	 */
+	public HttpResponseFuture issueRequest(String targetHost, int targetPort, String forPlayerName, String requestContent, int timeoutClock, boolean keepAlive)
+	{
+		final HttpResponseFuture future = new HttpResponseFuture();
+		InetAddress theHost;
+		try {
+			theHost = HostResolver.resolve(targetHost);
+		} catch (IOException e) {
+			future.fail(e);
+			return future;
+		}
+		final Exchange exchange = new Exchange(future, new InetSocketAddress(theHost, targetPort),
+				HttpWriter.encodeAsClient(theHost.getHostName(), requestContent, forPlayerName, keepAlive), timeoutClock, keepAlive);
+		future.setOnCancel(new Runnable() {
+			@Override
+			public void run() {
+				cancelledExchanges.add(exchange);
+				selector.wakeup();
+			}
+		});
+		newExchanges.add(exchange);
+		selector.wakeup();
+		return future;
+	}
+
+	private void runEventLoop()
+	{
+		while (true) {
+			try {
+				startNewExchanges();
+				closeCancelledExchanges();
+				long timeout = expireDeadlines();
+				selector.select(timeout);
+				Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+				while (keys.hasNext()) {
+					SelectionKey key = keys.next();
+					keys.remove();
+					if (key.attachment() instanceof IdleConnection) {
+						// An idle connection only becomes readable when the player closes it.
+						((IdleConnection) key.attachment()).close();
+						continue;
+					}
+					Exchange exchange = (Exchange) key.attachment();
+					try {
+						exchange.handle(key);
+					} catch (IOException e) {
+						exchange.fail(e);
+					} catch (CancelledKeyException e) {
+						exchange.close();
+					}
+				}
+			} catch (Exception e) {
+				// Keep the loop running for everyone else's requests.
+				GamerLogger.logStackTrace("AsyncHttpClient", e);
+			}
+		}
+	}
+
+	private void startNewExchanges()
+	{
+		Exchange exchange;
+		while ((exchange = newExchanges.poll()) != null) {
+			try {
+				exchange.start();
+			} catch (IOException e) {
+				exchange.fail(e);
+			}
+		}
+	}
+
+	private void closeCancelledExchanges()
+	{
+		Exchange exchange;
+		while ((exchange = cancelledExchanges.poll()) != null) {
+			exchange.close();
+		}
+	}
+
+	/**
+	 * Fails every request whose deadline has passed and closes connections
+	 * that have been idle for too long, and returns how long the loop can
+	 * wait before the next deadline, or zero to wait indefinitely.
+	 */
+	private long expireDeadlines()
+	{
+		long now = System.currentTimeMillis();
+		while (!deadlines.isEmpty()) {
+			Deadline next = deadlines.peek();
+			if (!next.isCurrent()) {
+				deadlines.poll();
+			} else if (next.time <= now) {
+				deadlines.poll();
+				next.expire();
+			} else {
+				return next.time - now;
+			}
+		}
+		return 0;
+	}
+
+	/**
+	 * Takes the most recently used idle connection to the given player that
+	 * the player hasn't closed yet, if there is one.
+	 */
+	private IdleConnection takeIdleConnection(InetSocketAddress address)
+	{
+		Deque<IdleConnection> connections = pool.get(address);
+		while (connections != null && !connections.isEmpty()) {
+			IdleConnection connection = connections.peekFirst();
+			if (connection.isClosedByPlayer()) {
+				connection.close();
+				continue;
+			}
+			connections.pollFirst();
+			if (connections.isEmpty()) {
+				pool.remove(address);
+			}
+			connection.idle = false;
+			return connection;
+		}
+		return null;
+	}
+
+	private static final class Deadline implements Comparable<Deadline>
+	{
+		final long time;
+		private final Exchange exchange;
+		private final IdleConnection idleConnection;
+
+		Deadline(long time, Exchange exchange)
+		{
+			this.time = time;
+			this.exchange = exchange;
+			this.idleConnection = null;
+		}
+
+		Deadline(long time, IdleConnection idleConnection)
+		{
+			this.time = time;
+			this.exchange = null;
+			this.idleConnection = idleConnection;
+		}
+
+		/** Whether this is still the deadline of an unfinished request or an idle connection. */
+		boolean isCurrent()
+		{
+			if (exchange != null) {
+				return exchange.deadline == this && !exchange.future.isDone();
+			}
+			return idleConnection.idle;
+		}
+
+		void expire()
+		{
+			if (exchange != null) {
+				exchange.fail(new SocketTimeoutException(exchange.isConnected() ? "Read timed out" : "connect timed out"));
+			} else {
+				idleConnection.close();
+			}
+		}
+
+		@Override
+		public int compareTo(Deadline other)
+		{
+			return (time < other.time) ? -1 : ((time == other.time) ? 0 : 1);
+		}
+	}
+
+	/**
+	 * A kept-alive connection waiting in the pool for its next request. It
+	 * stays registered for reads, so that it's dropped if the player closes it.
+	 */
+	private final class IdleConnection
+	{
+		final InetSocketAddress address;
+		final SocketChannel channel;
+		final SelectionKey key;
+		boolean idle = true;
+
+		IdleConnection(InetSocketAddress address, SocketChannel channel, SelectionKey key)
+		{
+			this.address = address;
+			this.channel = channel;
+			this.key = key;
+		}
+
+		/**
+		 * Whether the player has closed the connection without the event loop
+		 * noticing yet. Checking before reusing it means a request is rarely
+		 * written to a connection that's already gone, since it can't be
+		 * retried once written.
+		 */
+		boolean isClosedByPlayer()
+		{
+			try {
+				return channel.read(ByteBuffer.allocate(1)) != 0;
+			} catch (IOException e) {
+				return true;
+			}
+		}
+
+		void close()
+		{
+			if (!idle) {
+				return;
+			}
+			idle = false;
+			Deque<IdleConnection> connections = pool.get(address);
+			if (connections != null) {
+				connections.remove(this);
+				if (connections.isEmpty()) {
+					pool.remove(address);
+				}
+			}
+			try {
+				channel.close();
+			} catch (IOException e) {
+				;
+			}
+		}
+	}
+
+	/**
+	 * A single request and response. Apart from the future, it's only ever
+	 * touched by the event loop.
+	 */
+	private final class Exchange
+	{
+		final HttpResponseFuture future;
+		private final InetSocketAddress address;
+		private final ByteBuffer request;
+		private final int timeoutClock;
+		private final boolean keepAlive;
+		private final ByteArrayOutputStream response = new ByteArrayOutputStream();
+		private final ByteBuffer readBuffer = ByteBuffer.allocate(READ_BUFFER_SIZE);
+		private SocketChannel channel;
+		private SelectionKey key;
+		private boolean connected = false;
+		/** Whether the connection came from the pool, and so may already have been closed by the player. */
+		private boolean reused = false;
+		/** Whether any of the request has been written to the current connection. */
+		private boolean written = false;
+		Deadline deadline;
+
+		Exchange(HttpResponseFuture future, InetSocketAddress address, byte[] request, int timeoutClock, boolean keepAlive)
+		{
+			this.future = future;
+			this.address = address;
+			this.request = ByteBuffer.wrap(request);
+			this.timeoutClock = timeoutClock;
+			this.keepAlive = keepAlive;
+		}
+
+		void start() throws IOException
+		{
+			if (future.isDone()) {
+				return;
+			}
+			written = false;
+			IdleConnection idle = keepAlive ? takeIdleConnection(address) : null;
+			if (idle != null) {
+				channel = idle.channel;
+				key = idle.key;
+				key.attach(this);
+				reused = true;
+				onConnected();
+				return;
+			}
+			reused = false;
+			channel = SocketChannel.open();
+			channel.configureBlocking(false);
+			setDeadline(CONNECT_TIMEOUT);
+			if (channel.connect(address)) {
+				key = channel.register(selector, 0, this);
+				onConnected();
+			} else {
+				key = channel.register(selector, SelectionKey.OP_CONNECT, this);
+			}
+		}
+
+		boolean isConnected()
+		{
+			return connected;
+		}
+
+		void handle(SelectionKey key) throws IOException
+		{
+			if (future.isDone()) {
+				close();
+				return;
+			}
+			if (key.isConnectable()) {
+				try {
+					channel.finishConnect();
+				} catch (ConnectException e) {
+					throw new ConnectException(e.getMessage() + ": " + address);
+				}
+				onConnected();
+			} else if (key.isWritable()) {
+				if (channel.write(request) > 0) {
+					written = true;
+				}
+				if (!request.hasRemaining()) {
+					key.interestOps(SelectionKey.OP_READ);
+				}
+			} else if (key.isReadable()) {
+				readBuffer.clear();
+				int read = channel.read(readBuffer);
+				if (read > 0) {
+					response.write(readBuffer.array(), 0, read);
+				}
+				byte[] bytes = response.toByteArray();
+				Map<String, String> headers = new HashMap<String, String>();
+				String content = HttpReader.parseResponse(bytes, read < 0, headers);
+				if (content != null) {
+					future.complete(content);
+					if (read >= 0 && canReuse(bytes, headers)) {
+						release();
+					} else {
+						close();
+					}
+				}
+			}
+		}
+
+		private void onConnected() throws IOException
+		{
+			connected = true;
+			setDeadline(timeoutClock);
+			key.interestOps(SelectionKey.OP_WRITE);
+		}
+
+		/**
+		 * Whether the player agreed to keep the connection open, and the
+		 * response ended exactly where its content length said it would.
+		 */
+		private boolean canReuse(byte[] bytes, Map<String, String> headers)
+		{
+			if (!keepAlive || !"keep-alive".equalsIgnoreCase(headers.get("connection")) || !headers.containsKey("content-length")) {
+				return false;
+			}
+			for (int i = 0; i + 3 < bytes.length; i++) {
+				if (bytes[i] == '\r' && bytes[i + 1] == '\n' && bytes[i + 2] == '\r' && bytes[i + 3] == '\n') {
+					try {
+						return bytes.length - (i + 4) == Integer.parseInt(headers.get("content-length"));
+					} catch (NumberFormatException e) {
+						return false;
+					}
+				}
+			}
+			return false;
+		}
+
+		private void setDeadline(int millis)
+		{
+			if (millis < 0) {
+				deadline = null;
+			} else {
+				deadline = new Deadline(System.currentTimeMillis() + millis, this);
+				deadlines.add(deadline);
+			}
+		}
+
+		void fail(IOException e)
+		{
+			if (reused && !written && !(e instanceof SocketTimeoutException) && !future.isDone()) {
+				// The player closed the pooled connection before any of the
+				// request was sent, so send it again on another connection.
+				// Once some of it has been sent the player may have acted on
+				// it, so it's never sent twice.
+				close();
+				request.rewind();
+				try {
+					start();
+					return;
+				} catch (IOException retryFailure) {
+					e = retryFailure;
+				}
+			}
+			future.fail(e);
+			close();
+		}
+
+		/** Puts the connection in the pool, for the next request to the same player. */
+		private void release()
+		{
+			deadline = null;
+			IdleConnection idle = new IdleConnection(address, channel, key);
+			key.attach(idle);
+			key.interestOps(SelectionKey.OP_READ);
+			Deque<IdleConnection> connections = pool.get(address);
+			if (connections == null) {
+				connections = new ArrayDeque<IdleConnection>();
+				pool.put(address, connections);
+			}
+			connections.addFirst(idle);
+			deadlines.add(new Deadline(System.currentTimeMillis() + IDLE_TIMEOUT, idle));
+		}
+
+		void close()
+		{
+			deadline = null;
+			if (channel != null) {
+				try {
+					channel.close();
+				} catch (IOException e) {
+					;
+				}
+			}
+		}
+	}
+}
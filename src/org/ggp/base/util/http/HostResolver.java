@@ -0,0 +1,49 @@
+package org.ggp.base.util.http;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * HostResolver looks up the addresses of players' hosts, remembering each
+ * one for a minute so that a match host doesn't resolve the same hostname
+ * for every request it sends. Failed lookups aren't remembered.
+ */
+public final class HostResolver
+{
+	private static final long TTL_MILLIS = 60000;
+
+	private static final Map<String, Entry> cache = new ConcurrentHashMap<String, Entry>();
+
+	private static final class Entry
+	{
+		final InetAddress address;
+		final long expires;
+
+		Entry(InetAddress address, long expires)
+		{
+			this.address = address;
+			this.expires = expires;
+		}
+	}
+
+	public static InetAddress resolve(String host) throws UnknownHostException
+	{
+		long now = System.currentTimeMillis();
+		Entry entry = cache.get(host);
+		if (entry == null || entry.expires < now) {
+			entry = new Entry(InetAddress.getByName(host), now + TTL_MILLIS);
+			cache.put(host, entry);
+		}
+		return entry.address;
+	}
+
+	/**
+	 * Forgets every address, so that hosts are looked up again.
+	 */
+	public static void clear()
+	{
+		cache.clear();
+	}
+}
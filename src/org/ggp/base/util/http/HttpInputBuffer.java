@@ -0,0 +1,128 @@
+package org.ggp.base.util.http;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * HttpInputBuffer holds the bytes read from a connection that haven't been
+ * parsed yet, between the position and the limit of its buffer, so that
+ * requests can be parsed where they lie. The buffer grows as the bytes of the
+ * largest request arrive, rather than to whatever size a request claims to
+ * be, and is reused for every request on the connection.
+ */
+final class HttpInputBuffer
+{
+	private static final int INITIAL_SIZE = 8192;
+
+	private final InputStream in;
+	private ByteBuffer buffer = ByteBuffer.allocate(INITIAL_SIZE);
+
+	HttpInputBuffer(InputStream in)
+	{
+		this.in = in;
+		buffer.limit(0);
+	}
+
+	/** The bytes of the buffer, the unread ones starting at {@link #position()}. */
+	byte[] array()
+	{
+		return buffer.array();
+	}
+
+	int position()
+	{
+		return buffer.position();
+	}
+
+	/** The number of unread bytes. */
+	int available()
+	{
+		return buffer.remaining();
+	}
+
+	/** Returns the unread bytes, in a buffer of their own whose position can be moved. */
+	ByteBuffer view()
+	{
+		return ByteBuffer.wrap(buffer.array(), buffer.position(), buffer.remaining());
+	}
+
+	/** Marks the next bytes as read. */
+	void skip(int count)
+	{
+		buffer.position(buffer.position() + count);
+	}
+
+	/**
+	 * Reads from the connection until there are at least the given number of
+	 * unread bytes, and returns false if it's closed first.
+	 */
+	boolean require(int count) throws IOException
+	{
+		while (buffer.remaining() < count) {
+			if (buffer.limit() == buffer.capacity()) {
+				makeRoom();
+			}
+			int read = in.read(buffer.array(), buffer.limit(), buffer.capacity() - buffer.limit());
+			if (read < 0) {
+				return false;
+			}
+			buffer.limit(buffer.limit() + read);
+		}
+		return true;
+	}
+
+	/**
+	 * Reads from the connection until it's closed.
+	 */
+	void readToEnd() throws IOException
+	{
+		while (require(buffer.remaining() + 1)) {
+			;
+		}
+	}
+
+	/**
+	 * Returns the length of the next line, up to but not including its line
+	 * feed, reading more of it from the connection as needed, or -1 if the
+	 * connection is closed before the end of the line.
+	 */
+	int lineLength() throws IOException
+	{
+		int scanned = 0;
+		while (true) {
+			byte[] bytes = buffer.array();
+			int start = buffer.position();
+			for (int i = start + scanned; i < buffer.limit(); i++) {
+				if (bytes[i] == '\n') {
+					return i - start;
+				}
+			}
+			scanned = buffer.remaining();
+			if (!require(scanned + 1)) {
+				return -1;
+			}
+		}
+	}
+
+	/**
+	 * Moves the unread bytes to the start of the buffer, to make room for
+	 * more after them, first doubling its size if they fill more than half
+	 * of it.
+	 */
+	private void makeRoom() throws IOException
+	{
+		ByteBuffer target = buffer;
+		if (buffer.remaining() > buffer.capacity() / 2) {
+			if (buffer.capacity() > Integer.MAX_VALUE / 2) {
+				throw new IOException("The request is too large to buffer.");
+			}
+			target = ByteBuffer.allocate(buffer.capacity() * 2);
+		}
+		int remaining = buffer.remaining();
+		System.arraycopy(buffer.array(), buffer.position(), target.array(), 0, remaining);
+		target.limit(remaining);
+		target.position(0);
+		buffer = target;
+	}
+}
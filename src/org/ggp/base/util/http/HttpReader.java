@@ -1,14 +1,25 @@
 package org.ggp.base.util.http;
 
 import java.io.BufferedReader;
+import java.io.EOFException;
 import java.io.IOException;
 import java.io.InputStreamReader;
 import java.net.Socket;
 import java.net.SocketTimeoutException;
 import java.net.URLDecoder;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.util.Map;
 
 public final class HttpReader
 {
+    /** The longest content a request may have, far more than the rules of any game take. */
+    private static final int MAX_CONTENT_LENGTH = 64 * 1024 * 1024;
+
     // Wrapper methods to support socket timeouts for reading requests/responses.
 
     public static String readAsClient(Socket socket, int timeout) throws IOException, SocketTimeoutException
@@ -30,25 +41,43 @@ public final class HttpReader
 	public static String readAsClient(Socket socket) throws IOException
 	{
 		BufferedReader br = new BufferedReader(new InputStreamReader(socket.getInputStream()));
-		return readContentFromPOST(br);
+		return readContentFromPOST(br, null);
 	}
 
 	public static String readAsServer(Socket socket) throws IOException
 	{
-		BufferedReader br = new BufferedReader(new InputStreamReader(socket.getInputStream()));
+		return readRequest(socket, new HttpInputBuffer(socket.getInputStream()), null).toString();
+	}
 
+	/**
+	 * Reads a request through the buffer kept for its connection, which may
+	 * carry several requests one after another. Headers are matched in the
+	 * bytes they were read as, and the content is read in one go rather than
+	 * a character at a time. Content that's all ASCII, as it almost always
+	 * is, is returned as an {@link AsciiCharSequence} over the buffer, which
+	 * is only valid until the next request is read.
+	 *
+	 * @param headers If not null, the request's Content-Length and Connection
+	 * headers are added to it, with their names in lower case. Other headers
+	 * are skipped without being decoded.
+	 * @throws EOFException if the connection was closed before the request.
+	 */
+	static CharSequence readRequest(Socket socket, HttpInputBuffer input, Map<String, String> headers) throws IOException
+	{
 		// The first line of the HTTP request is the request line.
-		String requestLine = br.readLine();
-		if (requestLine == null) {
-			throw new IOException("The HTTP request was empty.");
+		int length = input.lineLength();
+		if (length < 0) {
+			throw new EOFException("The HTTP request was empty.");
 		}
-		String message;
+		String requestLine = readLine(input, length);
+		CharSequence message;
 		if(requestLine.toUpperCase().startsWith("GET ")) {
-		    message = requestLine.substring(5, requestLine.lastIndexOf(' '));
-		    message = URLDecoder.decode(message, "UTF-8");
-		    message = message.replace((char)13, ' ');
+		    String path = requestLine.substring(5, requestLine.lastIndexOf(' '));
+		    path = URLDecoder.decode(path, "UTF-8");
+		    message = path.replace((char)13, ' ');
+		    readHeaders(input, headers);
 		} else if (requestLine.toUpperCase().startsWith("POST ")) {
-		    message = readContentFromPOST(br);
+		    message = readContent(input, readHeaders(input, headers));
 		} else if (requestLine.toUpperCase().startsWith("OPTIONS ")) {
 		    // Web browsers can send an OPTIONS request in advance of sending
 		    // real XHR requests, to discover whether they should have permission
@@ -67,11 +96,212 @@ public final class HttpReader
 		return message;
 	}
 
-	private static String readContentFromPOST(BufferedReader br) throws IOException {
+	/**
+	 * Reads the next line, of the given length, without its line break.
+	 */
+	private static String readLine(HttpInputBuffer input, int length)
+	{
+		int end = length;
+		if (end > 0 && input.array()[input.position() + end - 1] == '\r') {
+			end--;
+		}
+		String line = new AsciiCharSequence(input.array(), input.position(), end).toString();
+		input.skip(length + 1);
+		return line;
+	}
+
+	/**
+	 * Reads headers up to the blank line that ends them, and returns the
+	 * value of the Content-Length header, or -1 if there isn't one.
+	 */
+	private static int readHeaders(HttpInputBuffer input, Map<String, String> headers) throws IOException
+	{
+		int theContentLength = -1;
+		while (true) {
+			int length = input.lineLength();
+			if (length < 0) {
+				throw new IOException("Could not find content in POST request.");
+			}
+			byte[] bytes = input.array();
+			int start = input.position();
+			if (length == 0 || (length == 1 && bytes[start] == '\r')) {
+				input.skip(length + 1);
+				return theContentLength;
+			}
+			if (startsWithIgnoringCase(bytes, start, length, "content-length:")
+					|| (headers != null && startsWithIgnoringCase(bytes, start, length, "connection:"))) {
+				String line = readLine(input, length);
+				if (headers != null) {
+					addHeader(line, headers);
+				}
+				if (line.toLowerCase().startsWith("content-length:")) {
+					try {
+						theContentLength = Integer.parseInt(line.substring("content-length:".length()).trim());
+					} catch (NumberFormatException e) {
+						throw new IOException("Content-Length header can't be parsed: \"" + line + "\"");
+					}
+					if (theContentLength > MAX_CONTENT_LENGTH) {
+						throw new IOException("Content-Length of " + theContentLength + " is more than the " + MAX_CONTENT_LENGTH + " allowed.");
+					}
+				}
+			} else {
+				input.skip(length + 1);
+			}
+		}
+	}
+
+	private static boolean startsWithIgnoringCase(byte[] bytes, int start, int length, String prefix)
+	{
+		if (length < prefix.length()) {
+			return false;
+		}
+		for (int i = 0; i < prefix.length(); i++) {
+			if (Character.toLowerCase((char) bytes[start + i]) != prefix.charAt(i)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Reads the content of a request, trimmed as readContentFromPOST does.
+	 * As there, the content length is in characters, so content that isn't
+	 * ASCII is decoded as it's read, until there are enough characters.
+	 */
+	private static CharSequence readContent(HttpInputBuffer input, int theContentLength) throws IOException
+	{
+		if (theContentLength < 0) {
+			// If there is no content-length header, read from the stream until
+			// it is closed, dropping line breaks as readContentFromPOST does.
+			input.readToEnd();
+			String content = new String(input.array(), input.position(), input.available());
+			input.skip(input.available());
+			return content.replace("\r", "").replace("\n", "").trim();
+		}
+
+		// Each character takes at least one byte, so this never reads past the content.
+		if (!input.require(theContentLength)) {
+			throw new IOException("The connection was closed before the end of the content.");
+		}
+		byte[] bytes = input.array();
+		int start = input.position();
+		for (int i = start; i < start + theContentLength; i++) {
+			if (bytes[i] < 0) {
+				return readDecodedContent(input, theContentLength);
+			}
+		}
+		input.skip(theContentLength);
+		return new AsciiCharSequence(bytes, start, theContentLength).trim();
+	}
+
+	private static String readDecodedContent(HttpInputBuffer input, int theContentLength) throws IOException
+	{
+		CharsetDecoder decoder = Charset.defaultCharset().newDecoder()
+				.onMalformedInput(CodingErrorAction.REPLACE)
+				.onUnmappableCharacter(CodingErrorAction.REPLACE);
+		// The content buffer grows as characters are decoded, up to the content length.
+		CharBuffer content = CharBuffer.allocate(Math.min(theContentLength, Math.max(input.available(), 1024)));
+		while (content.position() < theContentLength) {
+			ByteBuffer bytes = input.view();
+			int start = bytes.position();
+			CoderResult result = decoder.decode(bytes, content, false);
+			input.skip(bytes.position() - start);
+			if (result.isOverflow()) {
+				if (content.capacity() == theContentLength) {
+					break;
+				}
+				content.flip();
+				content = CharBuffer.allocate((int) Math.min(theContentLength, content.capacity() * 2L)).put(content);
+				continue;
+			}
+			// What's left is at most part of a character. The rest of the
+			// content is at least as many bytes as it's missing characters,
+			// and more than what's left.
+			int missing = theContentLength - content.position();
+			if (missing > 0 && !input.require(Math.max(input.available() + 1, missing))) {
+				throw new IOException("The connection was closed before the end of the content.");
+			}
+		}
+		content.flip();
+		return content.toString().trim();
+	}
+
+	/**
+	 * Parses as much of an HTTP response as a non-blocking client has read so
+	 * far, in the same way as readAsClient. Returns the content, or null if
+	 * more of the response is needed.
+	 *
+	 * @param closed Whether the connection has been closed, so that no more of
+	 * the response will arrive.
+	 * @param headers If not null, the response's headers are added to it, with
+	 * their names in lower case.
+	 */
+	static String parseResponse(byte[] bytes, boolean closed, Map<String, String> headers) throws IOException
+	{
+		String text = new String(bytes);
+		int theContentLength = -1;
+		int position = 0;
+		while (true) {
+			int end = position;
+			while (end < text.length() && text.charAt(end) != '\n' && text.charAt(end) != '\r') {
+				end++;
+			}
+			// A line isn't complete until we've seen its end, which could be "\r\n".
+			if (!closed && (end == text.length() || (text.charAt(end) == '\r' && end + 1 == text.length()))) {
+				return null;
+			}
+			if (end == text.length() && end == position) {
+				throw new IOException("Could not find content in POST request.");
+			}
+			String line = text.substring(position, end);
+			if (end < text.length() && text.charAt(end) == '\r' && end + 1 < text.length() && text.charAt(end + 1) == '\n') {
+				position = end + 2;
+			} else {
+				position = Math.min(end + 1, text.length());
+			}
+
+			if (headers != null) {
+				addHeader(line, headers);
+			}
+			if (line.toLowerCase().startsWith("content-length:")) {
+				try {
+					theContentLength = Integer.parseInt(line.toLowerCase().replace("content-length:", "").trim());
+				} catch (NumberFormatException e) {
+					throw new IOException("Content-Length header can't be parsed: \"" + line + "\"");
+				}
+			} else if (line.length() == 0) {
+				if (theContentLength != -1) {
+					if (text.length() - position < theContentLength && !closed) {
+						return null;
+					}
+					return text.substring(position, Math.min(position + theContentLength, text.length())).trim();
+				} else {
+					// Without a content length, the content runs until the connection
+					// is closed, and readAsClient drops its line breaks.
+					if (!closed) {
+						return null;
+					}
+					return text.substring(position).replace("\r", "").replace("\n", "").trim();
+				}
+			}
+		}
+	}
+
+	private static void addHeader(String line, Map<String, String> headers) {
+	    int colon = line.indexOf(':');
+	    if (colon > 0) {
+	        headers.put(line.substring(0, colon).trim().toLowerCase(), line.substring(colon + 1).trim());
+	    }
+	}
+
+	private static String readContentFromPOST(BufferedReader br, Map<String, String> headers) throws IOException {
 	    String line;
         int theContentLength = -1;
         StringBuilder theContent = new StringBuilder();
         while ((line = br.readLine()) != null) {
+            if (headers != null) {
+                addHeader(line, headers);
+            }
             if (line.toLowerCase().startsWith("content-length:")) {
                 try {
                     theContentLength = Integer.parseInt(line.toLowerCase().replace("content-length:", "").trim());
@@ -16,7 +16,7 @@ public final class HttpRequest
 {
 	public static String issueRequest(String targetHost, int targetPort, String forPlayerName, String requestContent, int timeoutClock) throws IOException {
 		Socket socket = new Socket();
-    	InetAddress theHost = InetAddress.getByName(targetHost);
+    	InetAddress theHost = HostResolver.resolve(targetHost);
     	socket.connect(new InetSocketAddress(theHost.getHostAddress(), targetPort), 5000);
     	HttpWriter.writeAsClient(socket, theHost.getHostName(), requestContent, forPlayerName);
     	String response = (timeoutClock < 0) ? HttpReader.readAsClient(socket) : HttpReader.readAsClient(socket, timeoutClock);
@@ -0,0 +1,80 @@
+package org.ggp.base.util.http;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * The response to a request issued through an {@link AsyncHttpClient}, which
+ * becomes available once the player responds, the request times out or the
+ * connection fails.
+ */
+public final class HttpResponseFuture
+{
+	private final CountDownLatch done = new CountDownLatch(1);
+	private volatile String response;
+	private volatile IOException failure;
+	private volatile Runnable onCancel;
+
+	HttpResponseFuture()
+	{
+	}
+
+	/**
+	 * Waits for the response, and returns its content.
+	 *
+	 * @throws java.net.SocketTimeoutException if the player took too long to
+	 * accept the connection or to respond.
+	 * @throws IOException if the request failed in any other way, including
+	 * by being cancelled.
+	 */
+	public String get() throws InterruptedException, IOException
+	{
+		done.await();
+		if (failure != null) {
+			throw failure;
+		}
+		return response;
+	}
+
+	public boolean isDone()
+	{
+		return done.getCount() == 0;
+	}
+
+	/**
+	 * Abandons the request, closing its connection if it's still open. Does
+	 * nothing if the request has already finished.
+	 */
+	public void cancel()
+	{
+		if (fail(new InterruptedIOException("The request was cancelled.")) && onCancel != null) {
+			onCancel.run();
+		}
+	}
+
+	void setOnCancel(Runnable onCancel)
+	{
+		this.onCancel = onCancel;
+	}
+
+	synchronized boolean complete(String response)
+	{
+		if (isDone()) {
+			return false;
+		}
+		this.response = response;
+		done.countDown();
+		return true;
+	}
+
+	synchronized boolean fail(IOException failure)
+	{
+		if (isDone()) {
+			return false;
+		}
+		this.failure = failure;
+		done.countDown();
+		return true;
+	}
+}
@@ -0,0 +1,87 @@
+package org.ggp.base.util.http;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.Socket;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * HttpServerConnection is a player's side of a connection that the match host
+ * may keep open for several requests, read one after another through the same
+ * buffer. Each response says whether the connection is kept open, depending
+ * on whether the request asked for it.
+ */
+public final class HttpServerConnection
+{
+	/** How long a kept-alive connection can wait for its next request. */
+	private static final int IDLE_TIMEOUT = 120000;
+
+	private final Socket socket;
+	private final HttpInputBuffer input;
+	private boolean keepAlive = false;
+
+	public HttpServerConnection(Socket socket) throws IOException
+	{
+		this.socket = socket;
+		this.input = new HttpInputBuffer(socket.getInputStream());
+	}
+
+	/**
+	 * Reads the next request, waiting for it if the connection has been kept
+	 * open, and returns null if the client closed the connection instead.
+	 */
+	public String readRequest() throws IOException
+	{
+		CharSequence request = readRequestContent();
+		return (request == null) ? null : request.toString();
+	}
+
+	/**
+	 * Reads the next request as {@link #readRequest()} does, but without
+	 * copying its content out of the connection's buffer. The content is only
+	 * valid until the next request is read.
+	 */
+	public CharSequence readRequestContent() throws IOException
+	{
+		Map<String, String> headers = new HashMap<String, String>();
+		try {
+			CharSequence request = HttpReader.readRequest(socket, input, headers);
+			keepAlive = "keep-alive".equalsIgnoreCase(headers.get("connection"));
+			return request;
+		} catch (EOFException e) {
+			return null;
+		}
+	}
+
+	/**
+	 * Whether the last request asked for the connection to be kept open.
+	 */
+	public boolean isKeepAlive()
+	{
+		return keepAlive;
+	}
+
+	/**
+	 * Responds to the last request, and closes the connection unless the
+	 * request asked for it to be kept open.
+	 */
+	public void writeResponse(String data) throws IOException
+	{
+		HttpWriter.writeAsServer(socket, data, keepAlive);
+		if (keepAlive) {
+			socket.setSoTimeout(IDLE_TIMEOUT);
+		} else {
+			close();
+		}
+	}
+
+	public void close()
+	{
+		try {
+			socket.close();
+		} catch (IOException e) {
+			;
+		}
+	}
+}
@@ -1,6 +1,7 @@
 package org.ggp.base.util.http;
 
 import java.io.IOException;
+import java.io.OutputStream;
 import java.io.PrintWriter;
 import java.net.Socket;
 import java.net.URLEncoder;
@@ -24,36 +25,74 @@ public final class HttpWriter
 
 	public static void writeAsClient(Socket socket, String hostField, String data, String playerName) throws IOException
 	{
-		PrintWriter pw = new PrintWriter(socket.getOutputStream());
-
-		pw.print("POST / HTTP/1.0\r\n");
-		pw.print("Accept: text/delim\r\n");
-		pw.print("Host: " + hostField + "\r\n");
-		pw.print("Sender: GAMESERVER\r\n");
-		pw.print("Receiver: "+playerName + "\r\n");
-		pw.print("Content-Type: text/acl\r\n");
-		pw.print("Content-Length: " + data.length() + "\r\n");
-		pw.print("\r\n");
-		pw.print(data);
-
-		pw.flush();
+		OutputStream out = socket.getOutputStream();
+		out.write(encodeAsClient(hostField, data, playerName, false));
+		out.flush();
+	}
+
+	/**
+	 * Returns the bytes of the POST request that writeAsClient sends, for
+	 * clients that write to the connection themselves. As elsewhere, the
+	 * content length is in characters, and the platform's default charset is
+	 * used, to match HttpReader.
+	 *
+	 * @param keepAlive Whether to ask the player to keep the connection open
+	 * for further requests.
+	 */
+	static byte[] encodeAsClient(String hostField, String data, String playerName, boolean keepAlive)
+	{
+		StringBuilder sb = new StringBuilder();
+		sb.append("POST / HTTP/1.0\r\n");
+		sb.append("Accept: text/delim\r\n");
+		sb.append("Host: ").append(hostField).append("\r\n");
+		sb.append("Sender: GAMESERVER\r\n");
+		sb.append("Receiver: ").append(playerName).append("\r\n");
+		sb.append("Content-Type: text/acl\r\n");
+		if (keepAlive) {
+			sb.append("Connection: keep-alive\r\n");
+		}
+		sb.append("Content-Length: ").append(data.length()).append("\r\n");
+		sb.append("\r\n");
+		sb.append(data);
+		return sb.toString().getBytes();
 	}
 
 	public static void writeAsServer(Socket socket, String data) throws IOException
 	{
-		PrintWriter pw = new PrintWriter(socket.getOutputStream());
-
-		pw.print("HTTP/1.0 200 OK\r\n");
-		pw.print("Content-type: text/acl\r\n");
-		pw.print("Content-length: " + data.length() + "\r\n");
-		pw.print("Access-Control-Allow-Origin: *\r\n");
-		pw.print("Access-Control-Allow-Methods: POST, GET, OPTIONS\r\n");
-		pw.print("Access-Control-Allow-Headers: Content-Type\r\n");
-		pw.print("Access-Control-Allow-Age: 86400\r\n");
-		pw.print("\r\n");
-		pw.print(data);
-
-		pw.flush();
+		writeAsServer(socket, data, false);
+	}
+
+	/**
+	 * Writes a response, telling the client whether the connection will be
+	 * kept open for its next request.
+	 */
+	public static void writeAsServer(Socket socket, String data, boolean keepAlive) throws IOException
+	{
+		OutputStream out = socket.getOutputStream();
+		out.write(encodeAsServer(data, keepAlive));
+		out.flush();
+	}
+
+	/**
+	 * Encodes a response in a single array, so that it's written to the
+	 * connection in one go rather than a header at a time.
+	 */
+	static byte[] encodeAsServer(String data, boolean keepAlive)
+	{
+		StringBuilder sb = new StringBuilder(data.length() + 256);
+		sb.append("HTTP/1.0 200 OK\r\n");
+		if (keepAlive) {
+			sb.append("Connection: keep-alive\r\n");
+		}
+		sb.append("Content-type: text/acl\r\n");
+		sb.append("Content-length: ").append(data.length()).append("\r\n");
+		sb.append("Access-Control-Allow-Origin: *\r\n");
+		sb.append("Access-Control-Allow-Methods: POST, GET, OPTIONS\r\n");
+		sb.append("Access-Control-Allow-Headers: Content-Type\r\n");
+		sb.append("Access-Control-Allow-Age: 86400\r\n");
+		sb.append("\r\n");
+		sb.append(data);
+		return sb.toString().getBytes();
 	}
 
 }
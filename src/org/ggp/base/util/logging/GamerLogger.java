@@ -73,6 +73,16 @@ public class GamerLogger {
     public static final int LOG_LEVEL_IMPORTANT = 6;
     public static final int LOG_LEVEL_CRITICAL = 9;
 
+    /**
+     * Whether a message at the given level would be written anywhere, so that
+     * callers can skip building messages that would just be dropped.
+     */
+    public static boolean isLogging(int nLevel) {
+        if(suppressLoggerOutput)
+            return false;
+        return writeLogsToFile || spilloverLogfile != null || nLevel >= LOG_LEVEL_ORDINARY;
+    }
+
     public static void logError(String toFile, String message) {
         logEntry(System.err, toFile, message, LOG_LEVEL_CRITICAL);
         if(writeLogsToFile) {
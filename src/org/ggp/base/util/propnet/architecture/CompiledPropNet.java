@@ -0,0 +1,639 @@
+package org.ggp.base.util.propnet.architecture;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+
+import org.ggp.base.util.gdl.grammar.GdlConstant;
+import org.ggp.base.util.gdl.grammar.GdlPool;
+import org.ggp.base.util.gdl.grammar.GdlRelation;
+import org.ggp.base.util.gdl.grammar.GdlSentence;
+import org.ggp.base.util.propnet.architecture.components.And;
+import org.ggp.base.util.propnet.architecture.components.Constant;
+import org.ggp.base.util.propnet.architecture.components.Not;
+import org.ggp.base.util.propnet.architecture.components.Or;
+import org.ggp.base.util.propnet.architecture.components.Proposition;
+import org.ggp.base.util.propnet.architecture.components.Transition;
+import org.ggp.base.util.statemachine.Move;
+import org.ggp.base.util.statemachine.Role;
+
+
+/**
+ * The CompiledPropNet class is a flattened, array-based view of a {@link PropNet}
+ * that is designed to be evaluated quickly.
+ *
+ * Every component is given a dense integer id, and the ids are laid out so that
+ * a single pass over them in increasing order is a valid evaluation order:
+ * <ol>
+ * <li>Base propositions, with ids [0, getNumBases()).</li>
+ * <li>Input propositions, with ids [getNumBases(), getFirstFixed()).</li>
+ * <li>Components with fixed values: constants, the INIT proposition, and
+ *     propositions with no inputs, with ids [getFirstFixed(), getFirstGate()).</li>
+ * <li>Gates which do not depend on any input proposition, in topological
+ *     order, with ids [getFirstGate(), getFirstMoveGate()).</li>
+ * <li>Gates which depend on at least one input proposition, in topological
+ *     order, with ids [getFirstMoveGate(), getSize()).</li>
+ * </ol>
+ * Gates are every other component: views, transitions, ANDs, ORs and NOTs.
+ * Since legal, goal and terminal propositions never depend on the moves being
+ * made, they can be computed without touching the last group of gates.
+ *
+ * The inputs and outputs of each component are stored in compressed sparse
+ * row form: the inputs of component i are the ids in getInputIds() between
+ * getInputOffsets()[i] and getInputOffsets()[i+1], and likewise for outputs.
+ * The edge from a transition to its base proposition is only recorded through
+ * getBaseTransitions(), so the graph described by the input arrays is acyclic.
+ *
+ * The arrays returned by the getter methods are shared, not copied, and must
+ * not be modified by clients.
+ */
+public final class CompiledPropNet
+{
+	/** Base propositions, whose values are given by the state. */
+	public static final byte BASE = 0;
+	/** Input propositions, whose values are given by the moves. */
+	public static final byte INPUT = 1;
+	/** Components whose values never change during a sweep. */
+	public static final byte FIXED = 2;
+	/** Propositions that copy the value of their single input. */
+	public static final byte VIEW = 3;
+	/** Transitions, which copy the value of their single input. */
+	public static final byte TRANSITION = 4;
+	public static final byte AND = 5;
+	public static final byte OR = 6;
+	public static final byte NOT = 7;
+
+	private final List<Role> roles;
+	private final int size;
+	private final byte[] types;
+	private final int[] inputOffsets;
+	private final int[] inputIds;
+	private final int[] outputOffsets;
+	private final int[] outputIds;
+	private final long[] fixedValues;
+
+	private final int numBases;
+	private final int firstFixed;
+	private final int firstGate;
+	private final int firstMoveGate;
+	private final int initId;
+	private final int terminalId;
+
+	private final int[] baseTransitions;
+	private final GdlSentence[] baseSentences;
+	private final GdlSentence[] inputSentences;
+	private final Map<GdlSentence, Integer> baseIndices;
+
+	private final int[][] legalIds;
+	private final Move[][] legalMoves;
+	private final int[][] legalInputIds;
+	private final List<Map<Move, Integer>> legalIndicesByMove;
+	private final List<Map<Move, Integer>> inputIdsByMove;
+	private final int[][] goalIds;
+	private final int[][] goalValues;
+
+	/**
+	 * Flattens the given PropNet. The PropNet itself is not modified, and is
+	 * no longer needed once this returns.
+	 *
+	 * @throws IllegalArgumentException if the PropNet contains a cycle that
+	 * does not pass through a transition, since such a PropNet cannot be
+	 * evaluated in a single forward sweep.
+	 */
+	public static CompiledPropNet compile(PropNet propNet)
+	{
+		return new CompiledPropNet(propNet);
+	}
+
+	private CompiledPropNet(PropNet propNet)
+	{
+		roles = propNet.getRoles();
+		Set<Component> components = propNet.getComponents();
+		size = components.size();
+
+		// First, pick out the sources: everything that doesn't need to be computed.
+		List<Component> bases = new ArrayList<Component>();
+		List<Component> inputs = new ArrayList<Component>();
+		List<Component> fixed = new ArrayList<Component>();
+		List<Component> gates = new ArrayList<Component>();
+		for (Component c : components) {
+			if (c instanceof Proposition) {
+				Proposition p = (Proposition) c;
+				if (p.getInputs().size() == 1 && p.getSingleInput() instanceof Transition) {
+					bases.add(p);
+				} else if (p.getInputs().isEmpty()) {
+					if (isInputSentence(p.getName())) {
+						inputs.add(p);
+					} else {
+						fixed.add(p);
+					}
+				} else {
+					gates.add(p);
+				}
+			} else if (c instanceof Constant) {
+				fixed.add(c);
+			} else {
+				gates.add(c);
+			}
+		}
+
+		// Next, order the gates topologically, ignoring transition-to-base edges.
+		Map<Component, Integer> ids = new IdentityHashMap<Component, Integer>();
+		List<Component> order = new ArrayList<Component>(size);
+		appendAll(bases, order, ids);
+		appendAll(inputs, order, ids);
+		appendAll(fixed, order, ids);
+		numBases = bases.size();
+		firstFixed = numBases + inputs.size();
+		firstGate = firstFixed + fixed.size();
+
+		List<Component> sortedGates = topologicallySort(gates, ids);
+		if (sortedGates.size() != gates.size()) {
+			throw new IllegalArgumentException("PropNet has a cycle that does not pass through a transition; cannot compile it");
+		}
+
+		// Split the gates into those that depend on the moves and those that don't,
+		// keeping each group in topological order.
+		Set<Component> moveDependent = Collections.newSetFromMap(new IdentityHashMap<Component, Boolean>());
+		moveDependent.addAll(inputs);
+		List<Component> moveGates = new ArrayList<Component>();
+		for (Component gate : sortedGates) {
+			boolean dependsOnMove = false;
+			for (Component in : gate.getInputs()) {
+				if (moveDependent.contains(in)) {
+					dependsOnMove = true;
+					break;
+				}
+			}
+			if (dependsOnMove) {
+				moveDependent.add(gate);
+				moveGates.add(gate);
+			} else {
+				ids.put(gate, order.size());
+				order.add(gate);
+			}
+		}
+		firstMoveGate = order.size();
+		for (Component gate : moveGates) {
+			ids.put(gate, order.size());
+			order.add(gate);
+		}
+
+		// Now that every component has an id, lay out the arrays.
+		types = new byte[size];
+		fixedValues = new long[(size + 63) / 64];
+		inputOffsets = new int[size + 1];
+		outputOffsets = new int[size + 1];
+		int numInputLinks = 0;
+		int numOutputLinks = 0;
+		for (int i = 0; i < size; i++) {
+			Component c = order.get(i);
+			types[i] = typeOf(c, i);
+			if (types[i] == FIXED && c.getValue() && !(c instanceof Proposition)) {
+				fixedValues[i >>> 6] |= 1L << i;
+			}
+			if (types[i] != BASE) {
+				numInputLinks += c.getInputs().size();
+			}
+			for (Component out : c.getOutputs()) {
+				if (!isBaseLink(out, ids)) {
+					numOutputLinks++;
+				}
+			}
+		}
+		inputIds = new int[numInputLinks];
+		outputIds = new int[numOutputLinks];
+		int inputCursor = 0;
+		int outputCursor = 0;
+		for (int i = 0; i < size; i++) {
+			Component c = order.get(i);
+			inputOffsets[i] = inputCursor;
+			if (types[i] != BASE) {
+				for (Component in : c.getInputs()) {
+					inputIds[inputCursor++] = ids.get(in);
+				}
+			}
+			outputOffsets[i] = outputCursor;
+			for (Component out : c.getOutputs()) {
+				if (!isBaseLink(out, ids)) {
+					outputIds[outputCursor++] = ids.get(out);
+				}
+			}
+		}
+		inputOffsets[size] = inputCursor;
+		outputOffsets[size] = outputCursor;
+
+		baseTransitions = new int[numBases];
+		baseSentences = new GdlSentence[numBases];
+		baseIndices = new HashMap<GdlSentence, Integer>();
+		for (int b = 0; b < numBases; b++) {
+			Proposition base = (Proposition) order.get(b);
+			baseTransitions[b] = ids.get(base.getSingleInput());
+			baseSentences[b] = base.getName();
+			baseIndices.put(base.getName(), b);
+		}
+		inputSentences = new GdlSentence[firstFixed - numBases];
+		for (int i = numBases; i < firstFixed; i++) {
+			inputSentences[i - numBases] = ((Proposition) order.get(i)).getName();
+		}
+
+		Proposition init = propNet.getInitProposition();
+		initId = (init != null && ids.containsKey(init)) ? ids.get(init) : -1;
+		Proposition terminal = propNet.getTerminalProposition();
+		terminalId = (terminal != null && ids.containsKey(terminal)) ? ids.get(terminal) : -1;
+
+		legalIds = new int[roles.size()][];
+		legalMoves = new Move[roles.size()][];
+		goalIds = new int[roles.size()][];
+		goalValues = new int[roles.size()][];
+		legalIndicesByMove = new ArrayList<Map<Move, Integer>>(roles.size());
+		inputIdsByMove = new ArrayList<Map<Move, Integer>>(roles.size());
+		for (int r = 0; r < roles.size(); r++) {
+			Role role = roles.get(r);
+
+			List<Proposition> legals = new ArrayList<Proposition>();
+			if (propNet.getLegalPropositions().containsKey(role)) {
+				legals.addAll(propNet.getLegalPropositions().get(role));
+			}
+			legalIds[r] = new int[legals.size()];
+			legalMoves[r] = new Move[legals.size()];
+			legalIndicesByMove.add(new HashMap<Move, Integer>());
+			for (int i = 0; i < legals.size(); i++) {
+				legalIds[r][i] = ids.get(legals.get(i));
+				legalMoves[r][i] = new Move(legals.get(i).getName().get(1));
+				legalIndicesByMove.get(r).put(legalMoves[r][i], i);
+			}
+
+			List<Proposition> goals = new ArrayList<Proposition>();
+			if (propNet.getGoalPropositions().containsKey(role)) {
+				goals.addAll(propNet.getGoalPropositions().get(role));
+			}
+			goalIds[r] = new int[goals.size()];
+			goalValues[r] = new int[goals.size()];
+			for (int i = 0; i < goals.size(); i++) {
+				goalIds[r][i] = ids.get(goals.get(i));
+				GdlConstant value = (GdlConstant) ((GdlRelation) goals.get(i).getName()).get(1);
+				goalValues[r][i] = Integer.parseInt(value.getValue());
+			}
+
+			inputIdsByMove.add(new HashMap<Move, Integer>());
+		}
+		Map<Role, Integer> roleIndices = new HashMap<Role, Integer>();
+		for (int r = 0; r < roles.size(); r++) {
+			roleIndices.put(roles.get(r), r);
+		}
+		for (int i = numBases; i < firstFixed; i++) {
+			GdlSentence does = inputSentences[i - numBases];
+			Integer r = roleIndices.get(new Role((GdlConstant) does.get(0)));
+			if (r != null) {
+				inputIdsByMove.get(r).put(new Move(does.get(1)), i);
+			}
+		}
+		legalInputIds = new int[roles.size()][];
+		for (int r = 0; r < roles.size(); r++) {
+			legalInputIds[r] = new int[legalMoves[r].length];
+			for (int i = 0; i < legalMoves[r].length; i++) {
+				legalInputIds[r][i] = getInputId(r, legalMoves[r][i]);
+			}
+		}
+	}
+
+	private static void appendAll(List<Component> group, List<Component> order, Map<Component, Integer> ids)
+	{
+		for (Component c : group) {
+			ids.put(c, order.size());
+			order.add(c);
+		}
+	}
+
+	private static boolean isInputSentence(GdlSentence sentence)
+	{
+		return sentence instanceof GdlRelation && sentence.getName() == GdlPool.DOES;
+	}
+
+	/**
+	 * True iff the given component is a base proposition, i.e. the target of
+	 * a link that does not take part in the forward sweep.
+	 */
+	private boolean isBaseLink(Component target, Map<Component, Integer> ids)
+	{
+		return ids.get(target) < numBases;
+	}
+
+	private byte typeOf(Component c, int id)
+	{
+		if (id < numBases) {
+			return BASE;
+		} else if (id < firstFixed) {
+			return INPUT;
+		} else if (id < firstGate) {
+			return FIXED;
+		} else if (c instanceof Proposition) {
+			// Propositions defined by several rules are disjunctions.
+			return (c.getInputs().size() == 1) ? VIEW : OR;
+		} else if (c instanceof Transition) {
+			return TRANSITION;
+		} else if (c instanceof And) {
+			return AND;
+		} else if (c instanceof Or) {
+			return OR;
+		} else if (c instanceof Not) {
+			return NOT;
+		}
+		throw new IllegalArgumentException("Unhandled component type " + c.getClass());
+	}
+
+	private static List<Component> topologicallySort(List<Component> gates, Map<Component, Integer> sources)
+	{
+		Map<Component, Integer> pendingInputs = new IdentityHashMap<Component, Integer>();
+		Queue<Component> ready = new ArrayDeque<Component>();
+		for (Component gate : gates) {
+			int pending = 0;
+			for (Component in : gate.getInputs()) {
+				if (!sources.containsKey(in)) {
+					pending++;
+				}
+			}
+			pendingInputs.put(gate, pending);
+			if (pending == 0) {
+				ready.add(gate);
+			}
+		}
+
+		List<Component> sorted = new ArrayList<Component>(gates.size());
+		while (!ready.isEmpty()) {
+			Component gate = ready.remove();
+			sorted.add(gate);
+			for (Component out : gate.getOutputs()) {
+				Integer pending = pendingInputs.get(out);
+				if (pending == null) {
+					// Base propositions are sources, so we don't wait on them.
+					continue;
+				}
+				pendingInputs.put(out, pending - 1);
+				if (pending == 1) {
+					ready.add(out);
+				}
+			}
+		}
+		return sorted;
+	}
+
+	/**
+	 * Evaluates the gates with ids in [from, to) against the given values,
+	 * writing each result back into the values. The values of every
+	 * component with an id lower than from must already be set.
+	 */
+	public void sweep(long[] values, int from, int to)
+	{
+		for (int i = from; i < to; i++) {
+			boolean value;
+			switch (types[i]) {
+			case AND:
+				value = true;
+				for (int j = inputOffsets[i]; j < inputOffsets[i+1]; j++) {
+					int in = inputIds[j];
+					if ((values[in >>> 6] & (1L << in)) == 0) {
+						value = false;
+						break;
+					}
+				}
+				break;
+			case OR:
+				value = false;
+				for (int j = inputOffsets[i]; j < inputOffsets[i+1]; j++) {
+					int in = inputIds[j];
+					if ((values[in >>> 6] & (1L << in)) != 0) {
+						value = true;
+						break;
+					}
+				}
+				break;
+			case NOT: {
+				int in = inputIds[inputOffsets[i]];
+				value = (values[in >>> 6] & (1L << in)) == 0;
+				break;
+			}
+			default: {
+				int in = inputIds[inputOffsets[i]];
+				value = (values[in >>> 6] & (1L << in)) != 0;
+				break;
+			}
+			}
+			if (value) {
+				values[i >>> 6] |= 1L << i;
+			} else {
+				values[i >>> 6] &= ~(1L << i);
+			}
+		}
+	}
+
+	/**
+	 * Returns a fresh array of component values, with the fixed components
+	 * set and everything else false.
+	 */
+	public long[] createValues()
+	{
+		return fixedValues.clone();
+	}
+
+	public static boolean get(long[] values, int id)
+	{
+		return (values[id >>> 6] & (1L << id)) != 0;
+	}
+
+	public static void set(long[] values, int id, boolean value)
+	{
+		if (value) {
+			values[id >>> 6] |= 1L << id;
+		} else {
+			values[id >>> 6] &= ~(1L << id);
+		}
+	}
+
+	/**
+	 * Sets every component with an id in [from, to) to false.
+	 */
+	public static void clearRange(long[] values, int from, int to)
+	{
+		for (int i = from; i < to; ) {
+			if ((i & 63) == 0 && i + 64 <= to) {
+				values[i >>> 6] = 0L;
+				i += 64;
+			} else {
+				values[i >>> 6] &= ~(1L << i);
+				i++;
+			}
+		}
+	}
+
+	public List<Role> getRoles()
+	{
+		return roles;
+	}
+
+	public int getSize()
+	{
+		return size;
+	}
+
+	public byte[] getTypes()
+	{
+		return types;
+	}
+
+	public int[] getInputOffsets()
+	{
+		return inputOffsets;
+	}
+
+	public int[] getInputIds()
+	{
+		return inputIds;
+	}
+
+	public int[] getOutputOffsets()
+	{
+		return outputOffsets;
+	}
+
+	public int[] getOutputIds()
+	{
+		return outputIds;
+	}
+
+	public int getNumBases()
+	{
+		return numBases;
+	}
+
+	public int getFirstFixed()
+	{
+		return firstFixed;
+	}
+
+	public int getFirstGate()
+	{
+		return firstGate;
+	}
+
+	public int getFirstMoveGate()
+	{
+		return firstMoveGate;
+	}
+
+	/**
+	 * Returns the id of the INIT proposition, or -1 if there isn't one.
+	 */
+	public int getInitId()
+	{
+		return initId;
+	}
+
+	/**
+	 * Returns the id of the terminal proposition, or -1 if there isn't one.
+	 */
+	public int getTerminalId()
+	{
+		return terminalId;
+	}
+
+	/**
+	 * Returns, for each base proposition, the id of the transition whose
+	 * value gives the value of that base in the next state.
+	 */
+	public int[] getBaseTransitions()
+	{
+		return baseTransitions;
+	}
+
+	/**
+	 * Returns the (true ...) sentence for each base proposition.
+	 */
+	public GdlSentence[] getBaseSentences()
+	{
+		return baseSentences;
+	}
+
+	/**
+	 * Returns the (does ...) sentence for each input proposition, indexed
+	 * from zero rather than by component id.
+	 */
+	public GdlSentence[] getInputSentences()
+	{
+		return inputSentences;
+	}
+
+	/**
+	 * Returns the index of the base proposition with the given (true ...)
+	 * sentence, or null if there is no such base proposition.
+	 */
+	public Integer getBaseIndex(GdlSentence sentence)
+	{
+		return baseIndices.get(sentence);
+	}
+
+	/**
+	 * Returns the ids of the legal propositions for each role, in the order
+	 * the roles are listed by {@link #getRoles()}.
+	 */
+	public int[][] getLegalIds()
+	{
+		return legalIds;
+	}
+
+	/**
+	 * Returns the moves corresponding to the legal propositions returned
+	 * by {@link #getLegalIds()}.
+	 */
+	public Move[][] getLegalMoves()
+	{
+		return legalMoves;
+	}
+
+	/**
+	 * Returns the ids of the input propositions for the moves returned by
+	 * {@link #getLegalMoves()}, or -1 where a move has no input proposition.
+	 */
+	public int[][] getLegalInputIds()
+	{
+		return legalInputIds;
+	}
+
+	/**
+	 * Returns the position of the given move for the given role index in
+	 * the arrays returned by {@link #getLegalIds()} and {@link #getLegalMoves()},
+	 * or -1 if the move can never be legal.
+	 */
+	public int getLegalIndex(int roleIndex, Move move)
+	{
+		Integer index = legalIndicesByMove.get(roleIndex).get(move);
+		return (index == null) ? -1 : index;
+	}
+
+	/**
+	 * Returns the id of the input proposition for the given role index
+	 * making the given move, or -1 if the move can never be made.
+	 */
+	public int getInputId(int roleIndex, Move move)
+	{
+		Integer id = inputIdsByMove.get(roleIndex).get(move);
+		return (id == null) ? -1 : id;
+	}
+
+	public int[][] getGoalIds()
+	{
+		return goalIds;
+	}
+
+	public int[][] getGoalValues()
+	{
+		return goalValues;
+	}
+}
@@ -0,0 +1,45 @@
+package org.ggp.base.util.propnet.architecture;
+
+
+/**
+ * A PropNetEvaluator computes the values of the gates of a
+ * {@link CompiledPropNet}, in the long[] value layout used by that class.
+ * The evaluator returned by {@link #interpret(CompiledPropNet)} simply sweeps
+ * over the compiled propnet; other evaluators may be generated specifically
+ * for one propnet.
+ */
+public abstract class PropNetEvaluator
+{
+	/**
+	 * Computes the values of the gates which don't depend on the moves, with
+	 * ids in [getFirstGate(), getFirstMoveGate()), from the values of the
+	 * base and fixed components.
+	 */
+	public abstract void propagateState(long[] values);
+
+	/**
+	 * Computes the values of the gates which depend on the moves, with ids
+	 * in [getFirstMoveGate(), getSize()). The values of every other component
+	 * must already be set.
+	 */
+	public abstract void propagateMoves(long[] values);
+
+	/**
+	 * Returns an evaluator that calls {@link CompiledPropNet#sweep} on the
+	 * given propnet.
+	 */
+	public static PropNetEvaluator interpret(final CompiledPropNet net)
+	{
+		return new PropNetEvaluator() {
+			@Override
+			public void propagateState(long[] values) {
+				net.sweep(values, net.getFirstGate(), net.getFirstMoveGate());
+			}
+
+			@Override
+			public void propagateMoves(long[] values) {
+				net.sweep(values, net.getFirstMoveGate(), net.getSize());
+			}
+		};
+	}
+}
@@ -0,0 +1,233 @@
+package org.ggp.base.util.propnet.factory;
+
+import java.io.IOException;
+import java.lang.reflect.InvocationTargetException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javassist.CannotCompileException;
+import javassist.ClassClassPath;
+import javassist.ClassPool;
+import javassist.CtClass;
+import javassist.CtNewConstructor;
+import javassist.CtNewMethod;
+import javassist.NotFoundException;
+
+import org.ggp.base.util.propnet.architecture.CompiledPropNet;
+import org.ggp.base.util.propnet.architecture.PropNetEvaluator;
+
+
+/**
+ * The JavassistPropNetCompiler generates a {@link PropNetEvaluator} class for
+ * a single {@link CompiledPropNet}, using javassist.
+ *
+ * The generated code is straight-line: every gate becomes a local boolean
+ * computed from the locals of the gates it depends on, and is then written
+ * back into the long[] of values. Since there are no loops or lookups left,
+ * the JIT can compile and inline the whole propnet.
+ *
+ * The gates are split across several generated methods, so that no method
+ * holds more than a fixed number of gate inputs. This keeps every method well
+ * under the 64KB limit on the size of a method, and by default also under
+ * the 8000 byte limit above which HotSpot won't JIT-compile a method at all.
+ * Inputs from outside the current method are read from the long[] instead
+ * of from locals.
+ */
+public final class JavassistPropNetCompiler
+{
+	/** The default maximum number of gate inputs per generated method. */
+	public static final int DEFAULT_MAX_LINKS_PER_METHOD = 300;
+
+	private static final AtomicInteger classCounter = new AtomicInteger();
+
+	private final int maxLinksPerMethod;
+
+	public JavassistPropNetCompiler()
+	{
+		this(DEFAULT_MAX_LINKS_PER_METHOD);
+	}
+
+	/**
+	 * @param maxLinksPerMethod The number of gate inputs after which the
+	 * code for the remaining gates goes into a new method. Each gate and
+	 * each input costs roughly 15-25 bytes of bytecode.
+	 */
+	public JavassistPropNetCompiler(int maxLinksPerMethod)
+	{
+		if (maxLinksPerMethod < 1) {
+			throw new IllegalArgumentException("maxLinksPerMethod must be positive");
+		}
+		this.maxLinksPerMethod = maxLinksPerMethod;
+	}
+
+	/**
+	 * Generates, loads and instantiates an evaluator for the given propnet.
+	 * Each call defines a new class in its own class loader, so the class can
+	 * be garbage collected along with the evaluator.
+	 *
+	 * @throws CannotCompileException if javassist rejects the generated code.
+	 */
+	public PropNetEvaluator compile(CompiledPropNet net) throws CannotCompileException
+	{
+		String className = PropNetEvaluator.class.getPackage().getName() + ".GeneratedPropNetEvaluator" + classCounter.incrementAndGet();
+		ClassPool pool = new ClassPool(true);
+		pool.appendClassPath(new ClassClassPath(PropNetEvaluator.class));
+		CtClass ctClass = pool.makeClass(className);
+		try {
+			ctClass.setSuperclass(pool.get(PropNetEvaluator.class.getName()));
+		} catch (NotFoundException e) {
+			throw new CannotCompileException(e);
+		}
+		ctClass.addConstructor(CtNewConstructor.defaultConstructor(ctClass));
+
+		List<String> stateMethods = addMethods(ctClass, net, "state", net.getFirstGate(), net.getFirstMoveGate());
+		List<String> moveMethods = addMethods(ctClass, net, "moves", net.getFirstMoveGate(), net.getSize());
+		ctClass.addMethod(CtNewMethod.make(callAll("propagateState", stateMethods), ctClass));
+		ctClass.addMethod(CtNewMethod.make(callAll("propagateMoves", moveMethods), ctClass));
+
+		byte[] bytecode;
+		try {
+			bytecode = ctClass.toBytecode();
+		} catch (IOException e) {
+			throw new CannotCompileException(e);
+		} finally {
+			ctClass.detach();
+		}
+		Class<?> generated = new GeneratedClassLoader(PropNetEvaluator.class.getClassLoader()).define(className, bytecode);
+		try {
+			return (PropNetEvaluator) generated.getDeclaredConstructor().newInstance();
+		} catch (NoSuchMethodException e) {
+			throw new CannotCompileException(e);
+		} catch (InvocationTargetException e) {
+			throw new CannotCompileException(e);
+		} catch (InstantiationException e) {
+			throw new CannotCompileException(e);
+		} catch (IllegalAccessException e) {
+			throw new CannotCompileException(e);
+		}
+	}
+
+	/**
+	 * Adds static methods that evaluate the gates in [from, to), and returns
+	 * their names in the order they must be called.
+	 */
+	private List<String> addMethods(CtClass ctClass, CompiledPropNet net, String prefix, int from, int to) throws CannotCompileException
+	{
+		int[] inputOffsets = net.getInputOffsets();
+		List<String> names = new ArrayList<String>();
+		int start = from;
+		while (start < to) {
+			int end = start;
+			int links = 0;
+			do {
+				links += 1 + inputOffsets[end+1] - inputOffsets[end];
+				end++;
+			} while (end < to && links + 1 + inputOffsets[end+1] - inputOffsets[end] <= maxLinksPerMethod);
+
+			String name = prefix + names.size();
+			ctClass.addMethod(CtNewMethod.make(generateMethod(net, name, start, end), ctClass));
+			names.add(name);
+			start = end;
+		}
+		return names;
+	}
+
+	private static String generateMethod(CompiledPropNet net, String name, int from, int to)
+	{
+		byte[] types = net.getTypes();
+		int[] inputOffsets = net.getInputOffsets();
+		int[] inputIds = net.getInputIds();
+
+		StringBuilder sb = new StringBuilder();
+		sb.append("private static void ").append(name).append("(long[] v) {\n");
+		for (int i = from; i < to; i++) {
+			String op;
+			String empty;
+			boolean negate = false;
+			switch (types[i]) {
+			case CompiledPropNet.AND:
+				op = " && ";
+				empty = "true";
+				break;
+			case CompiledPropNet.OR:
+				op = " || ";
+				empty = "false";
+				break;
+			case CompiledPropNet.NOT:
+				op = null;
+				empty = "true";
+				negate = true;
+				break;
+			default:
+				op = null;
+				empty = "false";
+				break;
+			}
+
+			sb.append("boolean g").append(i).append(" = ");
+			if (inputOffsets[i] == inputOffsets[i+1]) {
+				sb.append(empty);
+			} else {
+				if (negate) {
+					sb.append("!(");
+				}
+				for (int j = inputOffsets[i]; j < inputOffsets[i+1]; j++) {
+					if (j > inputOffsets[i]) {
+						sb.append(op);
+					}
+					appendRead(sb, inputIds[j], from);
+				}
+				if (negate) {
+					sb.append(")");
+				}
+			}
+			sb.append(";\n");
+
+			int word = i >>> 6;
+			int shift = i & 63;
+			sb.append("if (g").append(i).append(") { v[").append(word).append("] |= (1L << ").append(shift)
+			  .append("); } else { v[").append(word).append("] &= ~(1L << ").append(shift).append("); }\n");
+		}
+		sb.append("}");
+		return sb.toString();
+	}
+
+	/**
+	 * Appends an expression for the value of the given component: a local if
+	 * it was computed earlier in the current method, and a read from the
+	 * value array otherwise.
+	 */
+	private static void appendRead(StringBuilder sb, int id, int methodStart)
+	{
+		if (id >= methodStart) {
+			sb.append("g").append(id);
+		} else {
+			sb.append("((v[").append(id >>> 6).append("] >>> ").append(id & 63).append(") & 1L) != 0L");
+		}
+	}
+
+	private static String callAll(String methodName, List<String> methods)
+	{
+		StringBuilder sb = new StringBuilder();
+		sb.append("public void ").append(methodName).append("(long[] v) {\n");
+		for (String method : methods) {
+			sb.append(method).append("(v);\n");
+		}
+		sb.append("}");
+		return sb.toString();
+	}
+
+	private static final class GeneratedClassLoader extends ClassLoader
+	{
+		public GeneratedClassLoader(ClassLoader parent)
+		{
+			super(parent);
+		}
+
+		public Class<?> define(String name, byte[] bytecode)
+		{
+			return defineClass(name, bytecode, 0, bytecode.length);
+		}
+	}
+}
@@ -12,6 +12,11 @@ import java.util.Map.Entry;
 import java.util.Queue;
 import java.util.Set;
 import java.util.Stack;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
 
 import org.ggp.base.util.Pair;
 import org.ggp.base.util.concurrency.ConcurrencyUtils;
@@ -90,6 +95,13 @@ import com.google.common.collect.Multiset;
  *
  */
 public class OptimizingPropNetFactory {
+	/**
+	 * The version of the propnets this factory builds. It must be changed
+	 * whenever a change to the factory changes the propnets it builds, so
+	 * that propnets cached by the {@link PropNetCache} are built again.
+	 */
+	public static final int VERSION = 1;
+
 	static final private GdlConstant LEGAL = GdlPool.getConstant("legal");
 	static final private GdlConstant NEXT = GdlPool.getConstant("next");
 	static final private GdlConstant TRUE = GdlPool.getConstant("true");
@@ -97,14 +109,15 @@ public class OptimizingPropNetFactory {
 	static final private GdlConstant GOAL = GdlPool.getConstant("goal");
 	static final private GdlConstant INIT = GdlPool.getConstant("init");
 	//TODO: This currently doesn't actually give a different constant from INIT
-	static final private GdlConstant INIT_CAPS = GdlPool.getConstant("INIT");
+	static final private GdlConstant INIT_CAPS = GdlPool.pin(GdlPool.getConstant("INIT"));
 	static final private GdlConstant TERMINAL = GdlPool.getConstant("terminal");
     static final private GdlConstant BASE = GdlPool.getConstant("base");
     static final private GdlConstant INPUT = GdlPool.getConstant("input");
-	static final private GdlProposition TEMP = GdlPool.getProposition(GdlPool.getConstant("TEMP"));
+	static final private GdlProposition TEMP = GdlPool.pin(GdlPool.getProposition(GdlPool.getConstant("TEMP")));
 
 	/**
-	 * Creates a PropNet for the game with the given description.
+	 * Creates a PropNet for the game with the given description, on the
+	 * calling thread.
 	 *
 	 * @throws InterruptedException if the thread is interrupted during
 	 * PropNet creation.
@@ -113,10 +126,40 @@ public class OptimizingPropNetFactory {
 		return create(description, false);
 	}
 
+	/**
+	 * Creates a PropNet on the calling thread; see
+	 * {@link #create(List, boolean, int, PropNetBuildTimings)} to build it
+	 * on several.
+	 */
 	public static PropNet create(List<Gdl> description, boolean verbose) throws InterruptedException {
+		PropNetBuildTimings timings = new PropNetBuildTimings();
+		PropNet propnet = create(description, verbose, 1, timings);
+		if(verbose)
+			System.out.println("Propnet build phases: " + timings);
+		return propnet;
+	}
+
+	/**
+	 * Creates a PropNet for the game with the given description.
+	 *
+	 * Sentence forms are added in layers, where each form in a layer depends
+	 * only on forms in earlier layers. The forms in a layer that aren't
+	 * recursive are built at the same time on a fork-join pool with the given
+	 * parallelism; recursive forms are then built one at a time. Interrupting
+	 * the calling thread cancels the whole build. The pool lasts only as
+	 * long as the build.
+	 *
+	 * @param parallelism The number of threads to build forms on; 1 builds
+	 * everything on the calling thread.
+	 * @param timings Records the time spent in each phase of the build.
+	 * @throws InterruptedException if the thread is interrupted during
+	 * PropNet creation.
+	 */
+	public static PropNet create(List<Gdl> description, boolean verbose, int parallelism, PropNetBuildTimings timings) throws InterruptedException {
 		System.out.println("Building propnet...");
 
 		long startTime = System.currentTimeMillis();
+		long phaseStart = System.nanoTime();
 
 		description = GdlCleaner.run(description);
 		description = DeORer.run(description);
@@ -124,6 +167,7 @@ public class OptimizingPropNetFactory {
 		description = Relationizer.run(description);
 
 		description = CondensationIsolator.run(description);
+		timings.record("transforms", phaseStart);
 
 
 		if(verbose)
@@ -132,16 +176,20 @@ public class OptimizingPropNetFactory {
 
 		//We want to start with a rule graph and follow the rule graph.
 		//Start by finding general information about the game
+		phaseStart = System.nanoTime();
 		SentenceDomainModel model = SentenceDomainModelFactory.createWithCartesianDomains(description);
 		//Restrict domains to values that could actually come up in rules.
 		//See chinesecheckers4's "count" relation for an example of why this
 		//could be useful.
 		model = SentenceDomainModelOptimizer.restrictDomainsToUsefulValues(model);
+		timings.record("domain model", phaseStart);
 
 		if(verbose)
 			System.out.println("Setting constants...");
 
+		phaseStart = System.nanoTime();
 		ConstantChecker constantChecker = ConstantCheckerFactory.createWithForwardChaining(model);
+		timings.record("constants", phaseStart);
 		if(verbose)
 			System.out.println("Done setting constants");
 
@@ -160,18 +208,194 @@ public class OptimizingPropNetFactory {
 			System.out.flush();
 		}
 		ConcurrencyUtils.checkForInterruption();
+		phaseStart = System.nanoTime();
 		List<SentenceForm> topologicalOrdering = getTopologicalOrdering(model.getSentenceForms(), dependencyGraph, usingBase, usingInput);
+		List<List<SentenceForm>> layers = getLayers(topologicalOrdering, dependencyGraph, usingBase, usingInput);
+		timings.record("ordering", phaseStart);
 		if(verbose)
 			System.out.println("done");
 
 		List<Role> roles = Role.computeRoles(description);
-		Map<GdlSentence, Component> components = new HashMap<GdlSentence, Component>();
-		Map<GdlSentence, Component> negations = new HashMap<GdlSentence, Component>();
+		// Concurrent, since the forms in a layer are added to them at the same time
+		Map<GdlSentence, Component> components = new ConcurrentHashMap<GdlSentence, Component>();
+		Map<GdlSentence, Component> negations = new ConcurrentHashMap<GdlSentence, Component>();
 		Constant trueComponent = new Constant(true);
 		Constant falseComponent = new Constant(false);
-		Map<SentenceForm, FunctionInfo> functionInfoMap = new HashMap<SentenceForm, FunctionInfo>();
-		Map<SentenceForm, Collection<GdlSentence>> completedSentenceFormValues = new HashMap<SentenceForm, Collection<GdlSentence>>();
-		for(SentenceForm form : topologicalOrdering) {
+		Map<SentenceForm, FunctionInfo> functionInfoMap = new ConcurrentHashMap<SentenceForm, FunctionInfo>();
+		Map<SentenceForm, Collection<GdlSentence>> completedSentenceFormValues = new ConcurrentHashMap<SentenceForm, Collection<GdlSentence>>();
+		FormBuilder builder = new FormBuilder(model, constantChecker, components, negations, trueComponent, falseComponent,
+				usingBase, usingInput, functionInfoMap, completedSentenceFormValues, timings, verbose);
+		phaseStart = System.nanoTime();
+		ForkJoinPool pool = (parallelism > 1) ? new ForkJoinPool(parallelism) : null;
+		try {
+			for(List<SentenceForm> layer : layers) {
+				ConcurrencyUtils.checkForInterruption();
+
+				List<SentenceForm> serialForms = new ArrayList<SentenceForm>();
+				List<SentenceForm> parallelForms = new ArrayList<SentenceForm>();
+				for(SentenceForm form : layer) {
+					//Recursive forms rewire temporary components across the
+					//whole propnet, so they can't share the layer with others
+					if(pool == null || dependencyGraph.get(form).contains(form))
+						serialForms.add(form);
+					else
+						parallelForms.add(form);
+				}
+				if(parallelForms.size() > 1) {
+					builder.addInParallel(parallelForms, pool);
+				} else {
+					serialForms.addAll(0, parallelForms);
+				}
+				for(SentenceForm form : serialForms) {
+					builder.add(form);
+				}
+			}
+		} finally {
+			if(pool != null)
+				pool.shutdownNow();
+		}
+		timings.record("sentence forms", phaseStart);
+		//Connect "next" to "true"
+		if(verbose)
+			System.out.println("Adding transitions...");
+		phaseStart = System.nanoTime();
+		addTransitions(components);
+		//Set up "init" proposition
+		if(verbose)
+			System.out.println("Setting up 'init' proposition...");
+		setUpInit(components, trueComponent, falseComponent);
+		timings.record("transitions and init", phaseStart);
+		//Now we can safely...
+		phaseStart = System.nanoTime();
+		removeUselessBasePropositions(components, negations, trueComponent, falseComponent, timings);
+		timings.record("removeUselessBasePropositions", phaseStart);
+		if(verbose)
+			System.out.println("Creating component set...");
+		phaseStart = System.nanoTime();
+		Set<Component> componentSet = new HashSet<Component>(components.values());
+		//Try saving some memory here...
+		components = null;
+		negations = null;
+		completeComponentSet(componentSet);
+		ConcurrencyUtils.checkForInterruption();
+		if(verbose)
+			System.out.println("Initializing propnet object...");
+		//Make it look the same as the PropNetFactory results, until we decide
+		//how we want it to look
+		normalizePropositions(componentSet);
+		PropNet propnet = new PropNet(roles, componentSet);
+		timings.record("component set", phaseStart);
+		if(verbose) {
+			System.out.println("Done setting up propnet; took " + (System.currentTimeMillis() - startTime) + "ms, has " + componentSet.size() + " components and " + propnet.getNumLinks() + " links");
+			System.out.println("Propnet has " +propnet.getNumAnds()+" ands; "+propnet.getNumOrs()+" ors; "+propnet.getNumNots()+" nots");
+		}
+		//System.out.println(propnet);
+		return propnet;
+	}
+
+	/**
+	 * Adds sentence forms to the propnet under construction, on the calling
+	 * thread or on a pool.
+	 *
+	 * Forms added at the same time only read each other's inputs, which were
+	 * completed in earlier layers, but they do connect new gates to those
+	 * inputs and to the true and false constants. Every change to a component
+	 * that another form might also change is made while holding the lock.
+	 */
+	private static final class FormBuilder {
+		private final SentenceDomainModel model;
+		private final ConstantChecker constantChecker;
+		private final Map<GdlSentence, Component> components;
+		private final Map<GdlSentence, Component> negations;
+		private final Constant trueComponent;
+		private final Constant falseComponent;
+		private final boolean usingBase;
+		private final boolean usingInput;
+		private final Map<SentenceForm, FunctionInfo> functionInfoMap;
+		private final Map<SentenceForm, Collection<GdlSentence>> completedSentenceFormValues;
+		private final PropNetBuildTimings timings;
+		private final boolean verbose;
+		private final Object lock = new Object();
+
+		FormBuilder(SentenceDomainModel model, ConstantChecker constantChecker,
+				Map<GdlSentence, Component> components, Map<GdlSentence, Component> negations,
+				Constant trueComponent, Constant falseComponent, boolean usingBase, boolean usingInput,
+				Map<SentenceForm, FunctionInfo> functionInfoMap,
+				Map<SentenceForm, Collection<GdlSentence>> completedSentenceFormValues,
+				PropNetBuildTimings timings, boolean verbose) {
+			this.model = model;
+			this.constantChecker = constantChecker;
+			this.components = components;
+			this.negations = negations;
+			this.trueComponent = trueComponent;
+			this.falseComponent = falseComponent;
+			this.usingBase = usingBase;
+			this.usingInput = usingInput;
+			this.functionInfoMap = functionInfoMap;
+			this.completedSentenceFormValues = completedSentenceFormValues;
+			this.timings = timings;
+			this.verbose = verbose;
+		}
+
+		/**
+		 * Adds the given forms, none of which depend on each other, on the
+		 * pool, in the calling thread's Gdl pool scope. If the calling thread
+		 * is interrupted, or adding any form fails, the threads adding the
+		 * others are interrupted.
+		 */
+		void addInParallel(List<SentenceForm> forms, ForkJoinPool pool) throws InterruptedException {
+			final Set<Thread> running = Collections.newSetFromMap(new ConcurrentHashMap<Thread, Boolean>());
+			final GdlPool.Scope scope = GdlPool.getCurrentScope();
+			List<ForkJoinTask<Void>> tasks = new ArrayList<ForkJoinTask<Void>>(forms.size());
+			for(final SentenceForm form : forms) {
+				tasks.add(pool.submit(new Callable<Void>() {
+					@Override
+					public Void call() throws InterruptedException {
+						running.add(Thread.currentThread());
+						//The pool's threads may have been started in another scope, or none
+						GdlPool.Scope previousScope = GdlPool.enterScope(scope);
+						try {
+							add(form);
+						} finally {
+							GdlPool.enterScope(previousScope);
+							running.remove(Thread.currentThread());
+						}
+						return null;
+					}
+				}));
+			}
+			try {
+				for(ForkJoinTask<Void> task : tasks) {
+					task.get();
+				}
+			} catch(InterruptedException e) {
+				cancel(tasks, running);
+				throw e;
+			} catch(ExecutionException e) {
+				cancel(tasks, running);
+				Throwable cause = e.getCause();
+				if(cause instanceof InterruptedException)
+					throw (InterruptedException) cause;
+				if(cause instanceof Error)
+					throw (Error) cause;
+				if(cause instanceof RuntimeException)
+					throw (RuntimeException) cause;
+				throw new RuntimeException(cause);
+			}
+		}
+
+		private static void cancel(List<ForkJoinTask<Void>> tasks, Set<Thread> running) {
+			for(ForkJoinTask<Void> task : tasks) {
+				task.cancel(true);
+			}
+			//Cancelling a fork-join task doesn't stop it once it's running, but
+			//interrupting its thread will at its next interruption check
+			for(Thread thread : running) {
+				thread.interrupt();
+			}
+		}
+
+		void add(SentenceForm form) throws InterruptedException {
 			ConcurrencyUtils.checkForInterruption();
 
 			if(verbose) {
@@ -186,11 +410,13 @@ public class OptimizingPropNetFactory {
 						|| form.getName().equals(GOAL)
 						|| form.getName().equals(INIT)) {
 					//Add it
-					for (GdlSentence trueSentence : constantChecker.getTrueSentences(form)) {
-						Proposition trueProp = new Proposition(trueSentence);
-						trueProp.addInput(trueComponent);
-						trueComponent.addOutput(trueProp);
-						components.put(trueSentence, trueComponent);
+					synchronized(lock) {
+						for (GdlSentence trueSentence : constantChecker.getTrueSentences(form)) {
+							Proposition trueProp = new Proposition(trueSentence);
+							trueProp.addInput(trueComponent);
+							trueComponent.addOutput(trueProp);
+							components.put(trueSentence, trueComponent);
+						}
 					}
 				}
 
@@ -199,7 +425,7 @@ public class OptimizingPropNetFactory {
 				addConstantsToFunctionInfo(form, constantChecker, functionInfoMap);
 				addFormToCompletedValues(form, completedSentenceFormValues, constantChecker);
 
-				continue;
+				return;
 			}
 			if(verbose)
 				System.out.println();
@@ -207,52 +433,21 @@ public class OptimizingPropNetFactory {
 			//Add a temporary sentence form thingy? ...
 			Map<GdlSentence, Component> temporaryComponents = new HashMap<GdlSentence, Component>();
 			Map<GdlSentence, Component> temporaryNegations = new HashMap<GdlSentence, Component>();
-			addSentenceForm(form, model, components, negations, trueComponent, falseComponent, usingBase, usingInput, Collections.singleton(form), temporaryComponents, temporaryNegations, functionInfoMap, constantChecker, completedSentenceFormValues);
+			addSentenceForm(form, model, components, negations, trueComponent, falseComponent, usingBase, usingInput, Collections.singleton(form), temporaryComponents, temporaryNegations, functionInfoMap, constantChecker, completedSentenceFormValues, lock);
 			//TODO: Pass these over groups of multiple sentence forms
 			if(verbose && !temporaryComponents.isEmpty())
 				System.out.println("Processing temporary components...");
-			processTemporaryComponents(temporaryComponents, temporaryNegations, components, negations, trueComponent, falseComponent);
+			processTemporaryComponents(temporaryComponents, temporaryNegations, components, negations, trueComponent, falseComponent, timings);
 			addFormToCompletedValues(form, completedSentenceFormValues, components);
 			//if(verbose)
 				//TODO: Add this, but with the correct total number of components (not just Propositions)
 				//System.out.println("  "+completedSentenceFormValues.get(form).size() + " components added");
 		}
-		//Connect "next" to "true"
-		if(verbose)
-			System.out.println("Adding transitions...");
-		addTransitions(components);
-		//Set up "init" proposition
-		if(verbose)
-			System.out.println("Setting up 'init' proposition...");
-		setUpInit(components, trueComponent, falseComponent);
-		//Now we can safely...
-		removeUselessBasePropositions(components, negations, trueComponent, falseComponent);
-		if(verbose)
-			System.out.println("Creating component set...");
-		Set<Component> componentSet = new HashSet<Component>(components.values());
-		//Try saving some memory here...
-		components = null;
-		negations = null;
-		completeComponentSet(componentSet);
-		ConcurrencyUtils.checkForInterruption();
-		if(verbose)
-			System.out.println("Initializing propnet object...");
-		//Make it look the same as the PropNetFactory results, until we decide
-		//how we want it to look
-		normalizePropositions(componentSet);
-		PropNet propnet = new PropNet(roles, componentSet);
-		if(verbose) {
-			System.out.println("Done setting up propnet; took " + (System.currentTimeMillis() - startTime) + "ms, has " + componentSet.size() + " components and " + propnet.getNumLinks() + " links");
-			System.out.println("Propnet has " +propnet.getNumAnds()+" ands; "+propnet.getNumOrs()+" ors; "+propnet.getNumNots()+" nots");
-		}
-		//System.out.println(propnet);
-		return propnet;
 	}
 
-
 	private static void removeUselessBasePropositions(
 			Map<GdlSentence, Component> components, Map<GdlSentence, Component> negations, Constant trueComponent,
-			Constant falseComponent) throws InterruptedException {
+			Constant falseComponent, PropNetBuildTimings timings) throws InterruptedException {
 		boolean changedSomething = false;
 		for(Entry<GdlSentence, Component> entry : components.entrySet()) {
 			if(entry.getKey().getName() == TRUE) {
@@ -267,7 +462,7 @@ public class OptimizingPropNetFactory {
 		if(!changedSomething)
 			return;
 
-		optimizeAwayTrueAndFalse(components, negations, trueComponent, falseComponent);
+		optimizeAwayTrueAndFalse(components, negations, trueComponent, falseComponent, timings);
 	}
 
 	/**
@@ -334,7 +529,7 @@ public class OptimizingPropNetFactory {
 			Map<GdlSentence, Component> temporaryNegations,
 			Map<GdlSentence, Component> components,
 			Map<GdlSentence, Component> negations, Component trueComponent,
-			Component falseComponent) throws InterruptedException {
+			Component falseComponent, PropNetBuildTimings timings) throws InterruptedException {
 		//For each component in temporary components, we want to "put it back"
 		//into the main components section.
 		//We also want to do optimization here...
@@ -368,7 +563,7 @@ public class OptimizingPropNetFactory {
 				//If this follows true/false, will get resolved by the next set of optimizations
 			}
 
-			optimizeAwayTrueAndFalse(components, negations, trueComponent, falseComponent);
+			optimizeAwayTrueAndFalse(components, negations, trueComponent, falseComponent, timings);
 
 		}
 	}
@@ -381,19 +576,23 @@ public class OptimizingPropNetFactory {
 	 * component from the propnet entirely.
 	 * @throws InterruptedException
 	 */
-	private static void optimizeAwayTrueAndFalse(Map<GdlSentence, Component> components, Map<GdlSentence, Component> negations, Component trueComponent, Component falseComponent) throws InterruptedException {
+	private static void optimizeAwayTrueAndFalse(Map<GdlSentence, Component> components, Map<GdlSentence, Component> negations, Component trueComponent, Component falseComponent, PropNetBuildTimings timings) throws InterruptedException {
+		long start = System.nanoTime();
 	    while(hasNonessentialChildren(trueComponent) || hasNonessentialChildren(falseComponent)) {
 	    	ConcurrencyUtils.checkForInterruption();
             optimizeAwayTrue(components, negations, null, trueComponent, falseComponent);
             optimizeAwayFalse(components, negations, null, trueComponent, falseComponent);
         }
+	    timings.record("optimizeAwayTrueAndFalse", start);
 	}
 
-	private static void optimizeAwayTrueAndFalse(PropNet pn, Component trueComponent, Component falseComponent) {
+	private static void optimizeAwayTrueAndFalse(PropNet pn, Component trueComponent, Component falseComponent, PropNetBuildTimings timings) {
+		long start = System.nanoTime();
 	    while(hasNonessentialChildren(trueComponent) || hasNonessentialChildren(falseComponent)) {
 	        optimizeAwayTrue(null, null, pn, trueComponent, falseComponent);
 	        optimizeAwayFalse(null, null, pn, trueComponent, falseComponent);
 	    }
+	    timings.record("optimizeAwayTrueAndFalse", start);
 	}
 
 	//TODO: Create a version with just a set of components that we can share with post-optimizations
@@ -828,6 +1027,35 @@ public class OptimizingPropNetFactory {
 		return ordering;
 	}
 
+	/**
+	 * Splits the topological ordering into layers, where each form depends
+	 * only on forms in earlier layers (or on itself), with the same extra
+	 * constraints on base and input forms as the ordering.
+	 */
+	private static List<List<SentenceForm>> getLayers(List<SentenceForm> ordering,
+			Multimap<SentenceForm, SentenceForm> dependencyGraph, boolean usingBase, boolean usingInput) {
+		Map<SentenceForm, Integer> layerOf = new HashMap<SentenceForm, Integer>();
+		List<List<SentenceForm>> layers = new ArrayList<List<SentenceForm>>();
+		for(SentenceForm form : ordering) {
+			List<SentenceForm> prerequisites = new ArrayList<SentenceForm>(dependencyGraph.get(form));
+			if(usingBase && (form.getName().equals(TRUE) || form.getName().equals(NEXT) || form.getName().equals(INIT)))
+				prerequisites.add(form.withName(BASE));
+			if(usingInput && (form.getName().equals(DOES) || form.getName().equals(LEGAL)))
+				prerequisites.add(form.withName(INPUT));
+			int layer = 0;
+			for(SentenceForm prerequisite : prerequisites) {
+				Integer prerequisiteLayer = layerOf.get(prerequisite);
+				if(!prerequisite.equals(form) && prerequisiteLayer != null)
+					layer = Math.max(layer, prerequisiteLayer + 1);
+			}
+			layerOf.put(form, layer);
+			while(layers.size() <= layer)
+				layers.add(new ArrayList<SentenceForm>());
+			layers.get(layer).add(form);
+		}
+		return layers;
+	}
+
 	private static void addSentenceForm(SentenceForm form, SentenceDomainModel model,
 			Map<GdlSentence, Component> components,
 			Map<GdlSentence, Component> negations,
@@ -836,7 +1064,8 @@ public class OptimizingPropNetFactory {
 			Set<SentenceForm> recursionForms,
 			Map<GdlSentence, Component> temporaryComponents, Map<GdlSentence, Component> temporaryNegations,
 			Map<SentenceForm, FunctionInfo> functionInfoMap, ConstantChecker constantChecker,
-			Map<SentenceForm, Collection<GdlSentence>> completedSentenceFormValues) throws InterruptedException {
+			Map<SentenceForm, Collection<GdlSentence>> completedSentenceFormValues,
+			Object lock) throws InterruptedException {
 		//This is the meat of it (along with the entire Assignments class).
 		//We need to enumerate the possible propositions in the sentence form...
 		//We also need to hook up the sentence form to the inputs that can make it true.
@@ -854,8 +1083,10 @@ public class OptimizingPropNetFactory {
 					|| alwaysTrueSentence.getName().equals(GOAL)) {
 				Proposition prop = new Proposition(alwaysTrueSentence);
 				//Attach to true
-				trueComponent.addOutput(prop);
-				prop.addInput(trueComponent);
+				synchronized(lock) {
+					trueComponent.addOutput(prop);
+					prop.addInput(trueComponent);
+				}
 				//Still want the same components;
 				//we just don't want this to be anonymized
 			}
@@ -1010,20 +1241,7 @@ public class OptimizingPropNetFactory {
 								continue; //to the next conjunct
 							}
 
-							//Check if we're sharing a component with another sentence with a negation
-							//(i.e. look for "nots" in our outputs and use those instead)
-							Not existingNotOutput = getNotOutput(positive);
-							if(existingNotOutput != null) {
-								componentsToConnect.add(existingNotOutput);
-								negations.put(transformed, existingNotOutput);
-								continue; //to the next conjunct
-							}
-
-							Not not = new Not();
-							not.addInput(positive);
-							positive.addOutput(not);
-							negations.put(transformed, not);
-							conj = not;
+							conj = getNegation(positive, transformed, negations, lock);
 						}
 						componentsToConnect.add(conj);
 					} else if(literal instanceof GdlDistinct) {
@@ -1036,7 +1254,9 @@ public class OptimizingPropNetFactory {
 					//Connect all the components
 					Proposition andComponent = new Proposition(TEMP);
 
-					andify(componentsToConnect, andComponent, trueComponent);
+					synchronized(lock) {
+						andify(componentsToConnect, andComponent, trueComponent);
+					}
 					if(!isThisConstant(andComponent, falseComponent)) {
 						if(!inputsToOr.containsKey(sentence))
 							inputsToOr.put(sentence, new HashSet<Component>());
@@ -1058,18 +1278,20 @@ public class OptimizingPropNetFactory {
 			GdlSentence sentence = entry.getKey();
 			Set<Component> inputs = entry.getValue();
 			Set<Component> realInputs = new HashSet<Component>();
-			for(Component input : inputs) {
-				if(input instanceof Constant || input.getInputs().size() == 0) {
-					realInputs.add(input);
-				} else {
-					realInputs.add(input.getSingleInput());
-					input.getSingleInput().removeOutput(input);
-					input.removeAllInputs();
+			Proposition prop = new Proposition(sentence);
+			synchronized(lock) {
+				for(Component input : inputs) {
+					if(input instanceof Constant || input.getInputs().size() == 0) {
+						realInputs.add(input);
+					} else {
+						realInputs.add(input.getSingleInput());
+						input.getSingleInput().removeOutput(input);
+						input.removeAllInputs();
+					}
 				}
-			}
 
-			Proposition prop = new Proposition(sentence);
-			orify(realInputs, prop, falseComponent);
+				orify(realInputs, prop, falseComponent);
+			}
 			components.put(sentence, prop);
 		}
 
@@ -1113,6 +1335,26 @@ public class OptimizingPropNetFactory {
 	}
 
 
+	/**
+	 * Returns a "not" of the given component, sharing one that's already
+	 * among its outputs if there is one, and records it as the negation of
+	 * the given sentence.
+	 */
+	private static Not getNegation(Component positive, GdlSentence sentence, Map<GdlSentence, Component> negations, Object lock) {
+		synchronized(lock) {
+			//Check if we're sharing a component with another sentence with a negation
+			//(i.e. look for "nots" in our outputs and use those instead)
+			Not not = getNotOutput(positive);
+			if(not == null) {
+				not = new Not();
+				not.addInput(positive);
+				positive.addOutput(not);
+			}
+			negations.put(sentence, not);
+			return not;
+		}
+	}
+
 	private static Not getNotOutput(Component positive) {
 		for(Component c : positive.getOutputs()) {
 			if(c instanceof Not) {
@@ -1263,6 +1505,15 @@ public class OptimizingPropNetFactory {
 	 * first turn of the game.
 	 */
 	public static void removeUnreachableBasesAndInputs(PropNet pn, Set<Proposition> basesTrueByInit) throws InterruptedException {
+		removeUnreachableBasesAndInputs(pn, basesTrueByInit, new PropNetBuildTimings());
+	}
+
+	/**
+	 * As {@link #removeUnreachableBasesAndInputs(PropNet, Set)}, recording
+	 * the time taken, including its optimizeAwayTrueAndFalse phase.
+	 */
+	public static void removeUnreachableBasesAndInputs(PropNet pn, Set<Proposition> basesTrueByInit, PropNetBuildTimings timings) throws InterruptedException {
+		long start = System.nanoTime();
 		//If this doesn't contain a component, that's the equivalent of Type.NEITHER
 		Map<Component, Type> reachability = Maps.newHashMap();
 		//Keep track of the number of true inputs to AND gates and false inputs to
@@ -1407,7 +1658,8 @@ public class OptimizingPropNetFactory {
 	        }
 	    }
 
-	    optimizeAwayTrueAndFalse(pn, trueConst, falseConst);
+	    optimizeAwayTrueAndFalse(pn, trueConst, falseConst, timings);
+	    timings.record("removeUnreachableBasesAndInputs", start);
 	}
 
     /**
@@ -1419,6 +1671,14 @@ public class OptimizingPropNetFactory {
 	 * @param pn
 	 */
 	public static void lopUselessLeaves(PropNet pn) {
+		lopUselessLeaves(pn, new PropNetBuildTimings());
+	}
+
+	/**
+	 * As {@link #lopUselessLeaves(PropNet)}, recording the time taken.
+	 */
+	public static void lopUselessLeaves(PropNet pn, PropNetBuildTimings timings) {
+		long start = System.nanoTime();
 		//Approach: Collect useful propositions based on a backwards
 		//search from goal/legal/terminal (passing through transitions)
 		Set<Component> usefulComponents = new HashSet<Component>();
@@ -1445,6 +1705,7 @@ public class OptimizingPropNetFactory {
 			if(!usefulComponents.contains(c))
 				pn.removeComponent(c);
 		}
+		timings.record("lopUselessLeaves", start);
 	}
 
 	/**
@@ -0,0 +1,66 @@
+package org.ggp.base.util.propnet.factory;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+
+/**
+ * The time spent in each phase of building and optimizing a propnet with
+ * the {@link OptimizingPropNetFactory}, in the order the phases first ran.
+ * A phase that runs more than once, such as optimizeAwayTrueAndFalse,
+ * accumulates its time, and a phase may run inside another one, whose time
+ * then includes it.
+ */
+public final class PropNetBuildTimings
+{
+	private final Map<String, Long> nanosByPhase = new LinkedHashMap<String, Long>();
+
+	/**
+	 * Adds the time since startNanos, as given by System.nanoTime(), to the
+	 * given phase.
+	 */
+	public synchronized void record(String phase, long startNanos)
+	{
+		long elapsed = System.nanoTime() - startNanos;
+		Long previous = nanosByPhase.get(phase);
+		nanosByPhase.put(phase, (previous == null) ? elapsed : previous + elapsed);
+	}
+
+	/**
+	 * Returns the milliseconds spent in the given phase, or zero if it
+	 * hasn't run.
+	 */
+	public synchronized long getMillis(String phase)
+	{
+		Long nanos = nanosByPhase.get(phase);
+		return (nanos == null) ? 0 : nanos / 1000000;
+	}
+
+	/**
+	 * Returns the milliseconds spent in each phase that has run.
+	 */
+	public synchronized Map<String, Long> getMillis()
+	{
+		Map<String, Long> result = new LinkedHashMap<String, Long>();
+		for (Map.Entry<String, Long> entry : nanosByPhase.entrySet())
+		{
+			result.put(entry.getKey(), entry.getValue() / 1000000);
+		}
+		return result;
+	}
+
+	@Override
+	public String toString()
+	{
+		StringBuilder sb = new StringBuilder();
+		for (Map.Entry<String, Long> entry : getMillis().entrySet())
+		{
+			if (sb.length() > 0)
+			{
+				sb.append(", ");
+			}
+			sb.append(entry.getKey()).append(": ").append(entry.getValue()).append("ms");
+		}
+		return sb.toString();
+	}
+}
@@ -0,0 +1,475 @@
+package org.ggp.base.util.propnet.factory;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.ggp.base.util.crypto.BaseHashing;
+import org.ggp.base.util.gdl.grammar.Gdl;
+import org.ggp.base.util.gdl.grammar.GdlConstant;
+import org.ggp.base.util.gdl.grammar.GdlFunction;
+import org.ggp.base.util.gdl.grammar.GdlPool;
+import org.ggp.base.util.gdl.grammar.GdlSentence;
+import org.ggp.base.util.gdl.grammar.GdlTerm;
+import org.ggp.base.util.logging.GamerLogger;
+import org.ggp.base.util.propnet.architecture.Component;
+import org.ggp.base.util.propnet.architecture.PropNet;
+import org.ggp.base.util.propnet.architecture.components.And;
+import org.ggp.base.util.propnet.architecture.components.Constant;
+import org.ggp.base.util.propnet.architecture.components.Not;
+import org.ggp.base.util.propnet.architecture.components.Or;
+import org.ggp.base.util.propnet.architecture.components.Proposition;
+import org.ggp.base.util.propnet.architecture.components.Transition;
+import org.ggp.base.util.statemachine.Role;
+
+
+/**
+ * A PropNetCache keeps the propnets built by the {@link OptimizingPropNetFactory}
+ * in a local directory, so that a game that has been played before doesn't
+ * need its propnet built again. Each propnet is stored in its own file, named
+ * after a hash of the game's rules that doesn't depend on their order.
+ *
+ * Propnets are stored in a compact binary form that is memory-mapped when
+ * read. Every component gets an id, and the file holds:
+ * <ol>
+ * <li>A header: a magic number, the format version and the rules hash.</li>
+ * <li>The symbol table: every constant used in a role or a proposition name.</li>
+ * <li>The roles, as symbol ids.</li>
+ * <li>The type of each component, one byte each.</li>
+ * <li>The names of the propositions, in id order, with each sentence
+ *     encoded in prefix order as symbol ids and arities.</li>
+ * <li>The inputs and outputs of each component, in compressed sparse row
+ *     form, as in {@link org.ggp.base.util.propnet.architecture.CompiledPropNet}.</li>
+ * </ol>
+ * The base, input, legal and goal propositions aren't stored separately,
+ * since the PropNet indexes them by name when it's created.
+ *
+ * A cache can be shared by several players, even in separate processes: files
+ * are written under a temporary name and then renamed into place. A file that
+ * can't be read is deleted and treated as missing.
+ *
+ * Caching is opt-in. The propnet state machines use the {@link #getDefault()
+ * default cache}, which is only set if the ggp.propnetcache system property
+ * names a directory or a cache is given to {@link #setDefault(PropNetCache)},
+ * or a cache they're constructed with.
+ */
+public final class PropNetCache {
+	private static final int MAGIC = 0x4747504E; // "GGPN"
+	private static final int VERSION = 1;
+
+	private static final byte PROPOSITION = 0;
+	private static final byte AND = 1;
+	private static final byte OR = 2;
+	private static final byte NOT = 3;
+	private static final byte TRANSITION = 4;
+	private static final byte TRUE = 5;
+	private static final byte FALSE = 6;
+
+	/** The system property naming the directory of the default cache. */
+	public static final String DIRECTORY_PROPERTY = "ggp.propnetcache";
+
+	private static PropNetCache defaultCache = null;
+	private static boolean defaultCacheConfigured = false;
+
+	private final File directory;
+
+	public PropNetCache(File directory) {
+		this.directory = directory;
+	}
+
+	/**
+	 * Returns the default cache, or null if propnets aren't cached by
+	 * default. Unless one has been set, this is a cache in the directory
+	 * named by the ggp.propnetcache system property, if there is one.
+	 */
+	public static synchronized PropNetCache getDefault() {
+		if(!defaultCacheConfigured) {
+			String directory = System.getProperty(DIRECTORY_PROPERTY);
+			if(directory != null && !directory.isEmpty())
+				defaultCache = new PropNetCache(new File(directory));
+			defaultCacheConfigured = true;
+		}
+		return defaultCache;
+	}
+
+	/**
+	 * Sets the cache used by state machines created from now on without a
+	 * cache of their own, or turns caching off by default if it's null.
+	 */
+	public static synchronized void setDefault(PropNetCache cache) {
+		defaultCache = cache;
+		defaultCacheConfigured = true;
+	}
+
+	public File getDirectory() {
+		return directory;
+	}
+
+	/**
+	 * Returns the propnet for the given game, loading it from the cache if
+	 * it's there, and otherwise building it and adding it to the cache.
+	 */
+	public PropNet getOrCreate(List<Gdl> description) throws InterruptedException {
+		String key = computeKey(description);
+		PropNet propNet = get(key);
+		if(propNet == null) {
+			propNet = OptimizingPropNetFactory.create(description);
+			put(key, propNet);
+		}
+		return propNet;
+	}
+
+	/**
+	 * Returns the cached propnet for the game with the given rules hash, as
+	 * given by {@link #computeKey(List)}, or null if there isn't one.
+	 */
+	public PropNet get(String key) {
+		File file = getFile(key);
+		if(!file.exists())
+			return null;
+		long start = System.currentTimeMillis();
+		try {
+			PropNet propNet = read(file, key);
+			GamerLogger.log("StateMachine", "Loaded cached propnet " + key + " in " + (System.currentTimeMillis() - start) + "ms");
+			return propNet;
+		} catch(IOException e) {
+			GamerLogger.log("StateMachine", "Discarding unreadable cached propnet " + file + ": " + e);
+			file.delete();
+			return null;
+		}
+	}
+
+	/**
+	 * Adds the given propnet to the cache, replacing any propnet already
+	 * cached for the same rules. Failing to write it is logged but otherwise
+	 * ignored, since the cache is only an optimization.
+	 */
+	public void put(String key, PropNet propNet) {
+		File file = getFile(key);
+		File temporaryFile = null;
+		try {
+			directory.mkdirs();
+			temporaryFile = File.createTempFile(key, ".tmp", directory);
+			write(temporaryFile, key, propNet);
+			if(!temporaryFile.renameTo(file)) {
+				file.delete();
+				if(!temporaryFile.renameTo(file))
+					throw new IOException("Could not rename " + temporaryFile + " to " + file);
+			}
+		} catch(IOException e) {
+			GamerLogger.log("StateMachine", "Could not cache propnet " + key + ": " + e);
+			if(temporaryFile != null)
+				temporaryFile.delete();
+		}
+	}
+
+	private File getFile(String key) {
+		return new File(directory, key + ".propnet");
+	}
+
+	/**
+	 * Returns a hash of the given rules that identifies the game, and of the
+	 * versions of the factory and the file format, so that propnets built
+	 * by an older factory aren't reused. Rules that only differ in their
+	 * order have the same hash.
+	 */
+	public static String computeKey(List<Gdl> description) {
+		List<String> rules = new ArrayList<String>(description.size());
+		for(Gdl gdl : description) {
+			rules.add(gdl.toString());
+		}
+		Collections.sort(rules);
+		StringBuilder sb = new StringBuilder();
+		sb.append("factory ").append(OptimizingPropNetFactory.VERSION).append(", format ").append(VERSION).append('\n');
+		for(String rule : rules) {
+			sb.append(rule).append('\n');
+		}
+		return BaseHashing.computeSHA1Hash(sb.toString());
+	}
+
+	private static void write(File file, String key, PropNet propNet) throws IOException {
+		List<Component> components = new ArrayList<Component>(propNet.getComponents());
+		Map<Component, Integer> ids = new IdentityHashMap<Component, Integer>();
+		for(Component c : components) {
+			ids.put(c, ids.size());
+		}
+		Map<GdlConstant, Integer> symbolIds = new HashMap<GdlConstant, Integer>();
+		List<GdlConstant> symbols = new ArrayList<GdlConstant>();
+		List<Integer> names = new ArrayList<Integer>();
+		for(Component c : components) {
+			if(c instanceof Proposition)
+				encodeSentence(((Proposition) c).getName(), symbolIds, symbols, names);
+		}
+		List<Integer> roles = new ArrayList<Integer>();
+		for(Role role : propNet.getRoles()) {
+			roles.add(getSymbolId(role.getName(), symbolIds, symbols));
+		}
+
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), 1 << 16));
+		try {
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			writeString(out, key);
+
+			out.writeInt(symbols.size());
+			for(GdlConstant symbol : symbols) {
+				writeString(out, symbol.getValue());
+			}
+			writeInts(out, roles);
+
+			out.writeInt(components.size());
+			for(Component c : components) {
+				out.writeByte(typeOf(c));
+			}
+			writeInts(out, names);
+
+			writeLinks(out, components, ids, true);
+			writeLinks(out, components, ids, false);
+		} finally {
+			out.close();
+		}
+	}
+
+	private static byte typeOf(Component c) {
+		if(c instanceof Proposition)
+			return PROPOSITION;
+		if(c instanceof And)
+			return AND;
+		if(c instanceof Or)
+			return OR;
+		if(c instanceof Not)
+			return NOT;
+		if(c instanceof Transition)
+			return TRANSITION;
+		if(c instanceof Constant)
+			return c.getValue() ? TRUE : FALSE;
+		throw new IllegalArgumentException("Can't cache a component of type " + c.getClass());
+	}
+
+	/**
+	 * Encodes a sentence as its name's symbol id, its arity and then its
+	 * arguments. A constant argument is its symbol id, and a function is
+	 * minus one minus its arity, then its name's symbol id and arguments.
+	 */
+	private static void encodeSentence(GdlSentence sentence, Map<GdlConstant, Integer> symbolIds, List<GdlConstant> symbols, List<Integer> out) {
+		out.add(getSymbolId(sentence.getName(), symbolIds, symbols));
+		out.add(sentence.arity());
+		for(GdlTerm term : sentence.getBody()) {
+			encodeTerm(term, symbolIds, symbols, out);
+		}
+	}
+
+	private static void encodeTerm(GdlTerm term, Map<GdlConstant, Integer> symbolIds, List<GdlConstant> symbols, List<Integer> out) {
+		if(term instanceof GdlConstant) {
+			out.add(getSymbolId((GdlConstant) term, symbolIds, symbols));
+		} else if(term instanceof GdlFunction) {
+			GdlFunction function = (GdlFunction) term;
+			out.add(-1 - function.arity());
+			out.add(getSymbolId(function.getName(), symbolIds, symbols));
+			for(GdlTerm argument : function.getBody()) {
+				encodeTerm(argument, symbolIds, symbols, out);
+			}
+		} else {
+			throw new IllegalArgumentException("Can't cache a propnet with a variable in " + term);
+		}
+	}
+
+	private static int getSymbolId(GdlConstant symbol, Map<GdlConstant, Integer> symbolIds, List<GdlConstant> symbols) {
+		Integer id = symbolIds.get(symbol);
+		if(id == null) {
+			id = symbols.size();
+			symbolIds.put(symbol, id);
+			symbols.add(symbol);
+		}
+		return id;
+	}
+
+	private static void writeInts(DataOutputStream out, List<Integer> ints) throws IOException {
+		out.writeInt(ints.size());
+		for(int i : ints) {
+			out.writeInt(i);
+		}
+	}
+
+	private static void writeLinks(DataOutputStream out, List<Component> components, Map<Component, Integer> ids, boolean inputs) throws IOException {
+		int offset = 0;
+		out.writeInt(components.size() + 1);
+		out.writeInt(offset);
+		for(Component c : components) {
+			offset += (inputs ? c.getInputs() : c.getOutputs()).size();
+			out.writeInt(offset);
+		}
+		out.writeInt(offset);
+		for(Component c : components) {
+			for(Component linked : (inputs ? c.getInputs() : c.getOutputs())) {
+				out.writeInt(ids.get(linked));
+			}
+		}
+	}
+
+	private static PropNet read(File file, String key) throws IOException {
+		RandomAccessFile raf = new RandomAccessFile(file, "r");
+		try {
+			FileChannel channel = raf.getChannel();
+			ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+			try {
+				return read(buffer, key);
+			} catch(BufferUnderflowException e) {
+				throw new IOException("Truncated propnet file");
+			} catch(RuntimeException e) {
+				throw new IOException("Corrupt propnet file", e);
+			}
+		} finally {
+			raf.close();
+		}
+	}
+
+	private static PropNet read(ByteBuffer buffer, String key) throws IOException {
+		if(buffer.getInt() != MAGIC)
+			throw new IOException("Not a propnet file");
+		if(buffer.getInt() != VERSION)
+			throw new IOException("Unsupported propnet file version");
+		if(!readString(buffer).equals(key))
+			throw new IOException("Propnet file is for other rules");
+
+		// Each symbol takes at least its length.
+		GdlConstant[] symbols = new GdlConstant[readLength(buffer, 4)];
+		for(int i = 0; i < symbols.length; i++) {
+			symbols[i] = GdlPool.getConstant(readString(buffer));
+		}
+		int[] roleIds = readInts(buffer);
+		List<Role> roles = new ArrayList<Role>(roleIds.length);
+		for(int id : roleIds) {
+			roles.add(new Role(symbols[id]));
+		}
+
+		// Each component takes at least its type.
+		Component[] components = new Component[readLength(buffer, 1)];
+		byte[] types = new byte[components.length];
+		buffer.get(types);
+		IntBuffer names = IntBuffer.wrap(readInts(buffer));
+		for(int i = 0; i < components.length; i++) {
+			components[i] = createComponent(types[i], names, symbols);
+		}
+
+		int[] inputOffsets = readInts(buffer);
+		int[] inputIds = readInts(buffer);
+		int[] outputOffsets = readInts(buffer);
+		int[] outputIds = readInts(buffer);
+		if(inputOffsets.length != components.length + 1 || outputOffsets.length != components.length + 1)
+			throw new IOException("Propnet file has the wrong number of links");
+		for(int i = 0; i < components.length; i++) {
+			for(int j = inputOffsets[i]; j < inputOffsets[i + 1]; j++) {
+				components[i].addInput(components[inputIds[j]]);
+			}
+			for(int j = outputOffsets[i]; j < outputOffsets[i + 1]; j++) {
+				components[i].addOutput(components[outputIds[j]]);
+			}
+		}
+
+		Set<Component> componentSet = new HashSet<Component>(components.length * 2);
+		Collections.addAll(componentSet, components);
+		return new PropNet(roles, componentSet);
+	}
+
+	private static Component createComponent(byte type, IntBuffer names, GdlConstant[] symbols) throws IOException {
+		switch(type) {
+		case PROPOSITION:
+			return new Proposition(decodeSentence(names, symbols));
+		case AND:
+			return new And();
+		case OR:
+			return new Or();
+		case NOT:
+			return new Not();
+		case TRANSITION:
+			return new Transition();
+		case TRUE:
+			return new Constant(true);
+		case FALSE:
+			return new Constant(false);
+		default:
+			throw new IOException("Unknown component type " + type);
+		}
+	}
+
+	private static GdlSentence decodeSentence(IntBuffer names, GdlConstant[] symbols) throws IOException {
+		GdlConstant name = symbols[names.get()];
+		int arity = checkArity(names.get(), names);
+		if(arity == 0)
+			return GdlPool.getProposition(name);
+		GdlTerm[] body = new GdlTerm[arity];
+		for(int i = 0; i < arity; i++) {
+			body[i] = decodeTerm(names, symbols);
+		}
+		return GdlPool.getRelation(name, body);
+	}
+
+	private static GdlTerm decodeTerm(IntBuffer names, GdlConstant[] symbols) throws IOException {
+		int cell = names.get();
+		if(cell >= 0)
+			return symbols[cell];
+		GdlConstant name = symbols[names.get()];
+		GdlTerm[] body = new GdlTerm[checkArity(-1 - cell, names)];
+		for(int i = 0; i < body.length; i++) {
+			body[i] = decodeTerm(names, symbols);
+		}
+		return GdlPool.getFunction(name, body);
+	}
+
+	/** Each argument takes at least one cell, so an arity can't exceed what's left. */
+	private static int checkArity(int arity, IntBuffer names) throws IOException {
+		if(arity < 0 || arity > names.remaining())
+			throw new IOException("Propnet file has a bad arity");
+		return arity;
+	}
+
+	/**
+	 * Reads the length of an array whose elements take at least the given
+	 * number of bytes, checking it against what's left of the file so that
+	 * a corrupt length can't make us allocate more than the file holds.
+	 */
+	private static int readLength(ByteBuffer buffer, int minimumBytes) throws IOException {
+		int length = buffer.getInt();
+		if(length < 0 || length > buffer.remaining() / minimumBytes)
+			throw new IOException("Propnet file has a bad array length");
+		return length;
+	}
+
+	private static int[] readInts(ByteBuffer buffer) throws IOException {
+		int[] ints = new int[readLength(buffer, 4)];
+		buffer.asIntBuffer().get(ints);
+		buffer.position(buffer.position() + 4 * ints.length);
+		return ints;
+	}
+
+	private static void writeString(DataOutputStream out, String string) throws IOException {
+		byte[] bytes = string.getBytes("UTF-8");
+		out.writeInt(bytes.length);
+		out.write(bytes);
+	}
+
+	private static String readString(ByteBuffer buffer) throws IOException {
+		int length = buffer.getInt();
+		if(length < 0 || length > buffer.remaining())
+			throw new IOException("Propnet file has a bad string length");
+		byte[] bytes = new byte[length];
+		buffer.get(bytes);
+		return new String(bytes, "UTF-8");
+	}
+}
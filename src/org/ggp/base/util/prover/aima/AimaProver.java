@@ -5,7 +5,10 @@ import java.util.HashSet;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
+import org.ggp.base.util.gdl.encoding.SymbolTable;
 import org.ggp.base.util.gdl.grammar.Gdl;
 import org.ggp.base.util.gdl.grammar.GdlConstant;
 import org.ggp.base.util.gdl.grammar.GdlDistinct;
@@ -22,6 +25,8 @@ import org.ggp.base.util.prover.aima.knowledge.KnowledgeBase;
 import org.ggp.base.util.prover.aima.renamer.VariableRenamer;
 import org.ggp.base.util.prover.aima.substituter.Substituter;
 import org.ggp.base.util.prover.aima.substitution.Substitution;
+import org.ggp.base.util.prover.aima.tabling.AnswerTable;
+import org.ggp.base.util.prover.aima.tabling.TabledResolver;
 import org.ggp.base.util.prover.aima.unifier.Unifier;
 
 import com.google.common.collect.Sets;
@@ -32,16 +37,40 @@ public final class AimaProver implements Prover
 
 	private final KnowledgeBase knowledgeBase;
 
+	/** The answers that are the same in every state, shared by queries on every thread. */
 	private final ProverCache fixedAnswerCache = ProverCache.createMultiThreadedCache();
 
+	/** Whether queries are answered by a {@link TabledResolver}. */
+	private final boolean tabled;
+	/** The complete answer tables that are the same in every state, in tabled mode. */
+	private final ConcurrentMap<GdlSentence, AnswerTable> fixedTables = new ConcurrentHashMap<GdlSentence, AnswerTable>();
+	/** The symbol table the answers in the tables are encoded with. */
+	private final SymbolTable symbols = new SymbolTable();
+
 	public AimaProver(List<Gdl> description)
+	{
+		this(description, false);
+	}
+
+	/**
+	 * @param tabled Whether to answer queries by tabled resolution, which
+	 * finds every answer to recursive subgoals, instead of cutting off a
+	 * subgoal that is already being asked.
+	 */
+	public AimaProver(List<Gdl> description, boolean tabled)
 	{
 		description = DistinctAndNotMover.run(description);
 		knowledgeBase = new KnowledgeBase(Sets.newHashSet(description));
+		this.tabled = tabled;
 	}
 
 	private Set<GdlSentence> ask(GdlSentence query, Set<GdlSentence> context, boolean askOne)
 	{
+		if (tabled)
+		{
+			return new TabledResolver(knowledgeBase, new KnowledgeBase(context), fixedTables, symbols).ask(query);
+		}
+
 		LinkedList<GdlLiteral> goals = new LinkedList<GdlLiteral>();
 		goals.add(query);
 
@@ -136,6 +165,11 @@ public final class AimaProver implements Prover
 	@Override
 	public GdlSentence askOne(GdlSentence query, Set<GdlSentence> context)
 	{
+		if (tabled)
+		{
+			return new TabledResolver(knowledgeBase, new KnowledgeBase(context), fixedTables, symbols).askOne(query);
+		}
+
 		Set<GdlSentence> results = ask(query, context, true);
 		return (results.size() > 0) ? results.iterator().next() : null;
 	}
@@ -2,11 +2,12 @@ package org.ggp.base.util.prover.aima.cache;
 
 import java.util.ArrayList;
 import java.util.HashMap;
-import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 import org.ggp.base.util.gdl.grammar.GdlSentence;
 import org.ggp.base.util.prover.aima.substituter.Substituter;
@@ -17,18 +18,19 @@ import org.ggp.base.util.prover.aima.unifier.Unifier;
 public final class ProverCache
 {
 
-	private final Map<GdlSentence, Set<GdlSentence>> contents;
+	/** The distinct answers to each renamed sentence. */
+	private final Map<GdlSentence, GdlSentence[]> contents;
 
-	private ProverCache(Map<GdlSentence, Set<GdlSentence>> mapForContents) {
+	private ProverCache(Map<GdlSentence, GdlSentence[]> mapForContents) {
 		this.contents = mapForContents;
 	}
 
 	public static ProverCache createSingleThreadedCache() {
-		return new ProverCache(new HashMap<GdlSentence, Set<GdlSentence>>());
+		return new ProverCache(new HashMap<GdlSentence, GdlSentence[]>());
 	}
 
 	public static ProverCache createMultiThreadedCache() {
-		return new ProverCache(new ConcurrentHashMap<GdlSentence, Set<GdlSentence>>());
+		return new ProverCache(new ConcurrentHashMap<GdlSentence, GdlSentence[]>());
 	}
 
 	/**
@@ -39,31 +41,54 @@ public final class ProverCache
 		return contents.containsKey(renamedSentence);
 	}
 
+	/**
+	 * Returns a substitution for each cached answer to the given sentence,
+	 * or null if the sentence hasn't been cached.
+	 */
 	public List<Substitution> get(GdlSentence sentence, GdlSentence varRenamedSentence)
 	{
-		Set<GdlSentence> cacheContents = contents.get(varRenamedSentence);
+		GdlSentence[] cacheContents = contents.get(varRenamedSentence);
 		if (cacheContents == null) {
 			return null;
 		}
-		Set<Substitution> results = new HashSet<Substitution>();
+		List<Substitution> results = new ArrayList<Substitution>(cacheContents.length);
 		for (GdlSentence answer : cacheContents)
 		{
-			results.add(Unifier.unify(sentence, answer));
+			Substitution theta = Unifier.unify(sentence, answer);
+			if (theta != null)
+			{
+				results.add(theta);
+			}
 		}
 
-		return new ArrayList<Substitution>(results);
+		return results;
 	}
 
+	/**
+	 * Caches the answers to the given sentence, unless it's been cached
+	 * already. The first set of answers to be cached is kept, so when several
+	 * threads prove the same sentence at once, they all go on to read the
+	 * same answers. Cached answers are never changed afterwards, so readers
+	 * need no locking.
+	 */
 	public void put(GdlSentence sentence, GdlSentence renamedSentence,
 			Set<Substitution> answers)
 	{
-		Set<GdlSentence> results = new HashSet<GdlSentence>();
+		Set<GdlSentence> results = new LinkedHashSet<GdlSentence>();
 		for (Substitution answer : answers)
 		{
 			results.add(Substituter.substitute(sentence, answer));
 		}
 
-		contents.put(renamedSentence, results);
+		GdlSentence[] array = results.toArray(new GdlSentence[results.size()]);
+		if (contents instanceof ConcurrentMap)
+		{
+			((ConcurrentMap<GdlSentence, GdlSentence[]>) contents).putIfAbsent(renamedSentence, array);
+		}
+		else if (!contents.containsKey(renamedSentence))
+		{
+			contents.put(renamedSentence, array);
+		}
 	}
 
 }
@@ -1,6 +1,8 @@
 package org.ggp.base.util.prover.aima.knowledge;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -8,42 +10,318 @@ import java.util.Set;
 
 import org.ggp.base.util.gdl.grammar.Gdl;
 import org.ggp.base.util.gdl.grammar.GdlConstant;
+import org.ggp.base.util.gdl.grammar.GdlFunction;
 import org.ggp.base.util.gdl.grammar.GdlPool;
 import org.ggp.base.util.gdl.grammar.GdlRule;
 import org.ggp.base.util.gdl.grammar.GdlSentence;
+import org.ggp.base.util.gdl.grammar.GdlTerm;
+import org.ggp.base.util.gdl.grammar.GdlVariable;
 
 
+/**
+ * A KnowledgeBase holds rules and facts, and returns the ones whose heads
+ * could unify with a given sentence.
+ *
+ * The rules are indexed by the name of the relation in their heads, then by
+ * its arity, and then, for relations with enough rules, by the constant or
+ * function name at each position in the head. A position is the path of
+ * argument indices leading to it, so (true (cell 1 1 ?p)) can be looked up
+ * by the constants inside (cell 1 1 ?p) as well. A lookup picks the position
+ * with the fewest candidates, and returns the rules with a matching symbol
+ * there, along with the rules with a variable there or on the way to it.
+ * Rules are always returned in the order they were given.
+ *
+ * A KnowledgeBase is immutable once constructed: every index is built up
+ * front, so any number of threads can fetch from it at once without locking.
+ */
 public final class KnowledgeBase
 {
-	private final Map<GdlConstant, List<GdlRule>> contents;
+	/** Relations with fewer rules than this are scanned rather than indexed. */
+	private static final int MIN_INDEXED_RULES = 8;
+	/** The number of bits per argument index in a position path. */
+	private static final int PATH_BITS = 6;
+	/** Arguments at or beyond this index aren't indexed. */
+	private static final int MAX_INDEXED_ARGUMENT = (1 << PATH_BITS) - 1;
+	/** Positions nested more deeply than this aren't indexed. */
+	private static final int MAX_INDEXED_DEPTH = 31 / PATH_BITS;
+
+	private final Map<GdlConstant, Map<Integer, Relation>> contents;
 
 	public KnowledgeBase(Set<? extends Gdl> description)
 	{
-		contents = new HashMap<GdlConstant, List<GdlRule>>();
+		contents = new HashMap<GdlConstant, Map<Integer, Relation>>();
 		for (Gdl gdl : description)
 		{
 			GdlRule rule = (gdl instanceof GdlRule) ? (GdlRule) gdl : GdlPool.getRule((GdlSentence) gdl);
-			GdlConstant key = rule.getHead().getName();
+			GdlSentence head = rule.getHead();
 
-			if (!contents.containsKey(key))
+			Map<Integer, Relation> byArity = contents.get(head.getName());
+			if (byArity == null)
+			{
+				byArity = new HashMap<Integer, Relation>();
+				contents.put(head.getName(), byArity);
+			}
+			Relation relation = byArity.get(head.arity());
+			if (relation == null)
+			{
+				relation = new Relation();
+				byArity.put(head.arity(), relation);
+			}
+			relation.rules.add(rule);
+		}
+		for (Map<Integer, Relation> byArity : contents.values())
+		{
+			for (Relation relation : byArity.values())
 			{
-				contents.put(key, new ArrayList<GdlRule>());
+				relation.buildIndex();
 			}
-			contents.get(key).add(rule);
 		}
 	}
 
-	public synchronized List<GdlRule> fetch(GdlSentence sentence)
+	/**
+	 * Returns the rules whose heads could unify with the given sentence. The
+	 * result may also contain rules that don't, and must not be modified.
+	 */
+	public List<GdlRule> fetch(GdlSentence sentence)
+	{
+		Map<Integer, Relation> byArity = contents.get(sentence.getName());
+		if (byArity == null)
+		{
+			return Collections.emptyList();
+		}
+		Relation relation = byArity.get(sentence.arity());
+		if (relation == null)
+		{
+			return Collections.emptyList();
+		}
+		return relation.fetch(sentence);
+	}
+
+	private static int childPath(int path, int argument)
+	{
+		return (path << PATH_BITS) | (argument + 1);
+	}
+
+	/** The rules of one relation name and arity. */
+	private static final class Relation
 	{
-		GdlConstant key = sentence.getName();
+		final List<GdlRule> rules = new ArrayList<GdlRule>();
+		/** The index of each position path, or null if the relation is scanned. */
+		Map<Integer, Position> positions = null;
+
+		List<GdlRule> fetch(GdlSentence sentence)
+		{
+			if (positions == null)
+			{
+				return rules;
+			}
+
+			Choice best = new Choice(rules.size());
+			for (int i = 0; i < sentence.arity() && i < MAX_INDEXED_ARGUMENT; i++)
+			{
+				choosePosition(sentence.get(i), childPath(0, i), 1, 0, best);
+			}
+			if (best.symbol == null)
+			{
+				return rules;
+			}
+
+			int[] candidates = new int[best.cost];
+			int count = 0;
+			Position position = positions.get(best.path);
+			if (position != null)
+			{
+				count = append(position.bySymbol.get(best.symbol), candidates, count);
+				count = append(position.variables, candidates, count);
+			}
+			for (int prefix = best.path >>> PATH_BITS; prefix != 0; prefix >>>= PATH_BITS)
+			{
+				Position prefixPosition = positions.get(prefix);
+				if (prefixPosition != null)
+				{
+					count = append(prefixPosition.variables, candidates, count);
+				}
+			}
+			// The lists are disjoint, so restoring the original order is enough.
+			Arrays.sort(candidates, 0, count);
+			List<GdlRule> result = new ArrayList<GdlRule>(count);
+			for (int i = 0; i < count; i++)
+			{
+				result.add(rules.get(candidates[i]));
+			}
+			return result;
+		}
 
-		if (contents.containsKey(key))
+		/**
+		 * Looks for the position under the given term with the fewest
+		 * candidates, given the number of rules with a variable on the way
+		 * to it.
+		 */
+		private void choosePosition(GdlTerm term, int path, int depth, int prefixVariables, Choice best)
 		{
-			return contents.get(key);
+			if (term instanceof GdlVariable)
+			{
+				return;
+			}
+			GdlConstant symbol = (term instanceof GdlFunction) ? ((GdlFunction) term).getName() : (GdlConstant) term;
+			Position position = positions.get(path);
+			int variables = 0;
+			int cost = prefixVariables;
+			if (position != null)
+			{
+				variables = position.variables.length;
+				int[] matching = position.bySymbol.get(symbol);
+				cost += variables + ((matching == null) ? 0 : matching.length);
+			}
+			if (cost < best.cost)
+			{
+				best.path = path;
+				best.symbol = symbol;
+				best.cost = cost;
+			}
+			if (term instanceof GdlFunction && depth < MAX_INDEXED_DEPTH && cost > 0)
+			{
+				GdlFunction function = (GdlFunction) term;
+				for (int j = 0; j < function.arity() && j < MAX_INDEXED_ARGUMENT; j++)
+				{
+					choosePosition(function.get(j), childPath(path, j), depth + 1, prefixVariables + variables, best);
+				}
+			}
 		}
-		else
+
+		/**
+		 * Builds the index of each position, if the relation has enough rules
+		 * to be worth indexing. Called once, before the knowledge base is
+		 * shared.
+		 */
+		void buildIndex()
 		{
-			return new ArrayList<GdlRule>();
+			if (rules.size() < MIN_INDEXED_RULES)
+			{
+				return;
+			}
+			Map<Integer, PositionBuilder> builders = new HashMap<Integer, PositionBuilder>();
+			for (int r = 0; r < rules.size(); r++)
+			{
+				GdlSentence head = rules.get(r).getHead();
+				for (int i = 0; i < head.arity() && i < MAX_INDEXED_ARGUMENT; i++)
+				{
+					index(head.get(i), childPath(0, i), 1, r, builders);
+				}
+			}
+			positions = new HashMap<Integer, Position>();
+			for (Map.Entry<Integer, PositionBuilder> entry : builders.entrySet())
+			{
+				positions.put(entry.getKey(), entry.getValue().build());
+			}
+		}
+
+		private static void index(GdlTerm term, int path, int depth, int ruleIndex, Map<Integer, PositionBuilder> builders)
+		{
+			PositionBuilder builder = builders.get(path);
+			if (builder == null)
+			{
+				builder = new PositionBuilder();
+				builders.put(path, builder);
+			}
+			if (term instanceof GdlVariable)
+			{
+				builder.variables.add(ruleIndex);
+			}
+			else if (term instanceof GdlFunction)
+			{
+				GdlFunction function = (GdlFunction) term;
+				builder.add(function.getName(), ruleIndex);
+				if (depth < MAX_INDEXED_DEPTH)
+				{
+					for (int j = 0; j < function.arity() && j < MAX_INDEXED_ARGUMENT; j++)
+					{
+						index(function.get(j), childPath(path, j), depth + 1, ruleIndex, builders);
+					}
+				}
+			}
+			else
+			{
+				builder.add((GdlConstant) term, ruleIndex);
+			}
+		}
+
+		private static int append(int[] source, int[] destination, int count)
+		{
+			if (source == null)
+			{
+				return count;
+			}
+			System.arraycopy(source, 0, destination, count, source.length);
+			return count + source.length;
+		}
+	}
+
+	/** The best position found so far by a lookup, which is local to that lookup. */
+	private static final class Choice
+	{
+		int path = 0;
+		GdlConstant symbol = null;
+		int cost;
+
+		Choice(int cost)
+		{
+			this.cost = cost;
+		}
+	}
+
+	/**
+	 * The rules with each constant or function name at one position, and the
+	 * rules with a variable there, as indices into the rules of the relation.
+	 * A constant and a function with the same name share an entry, which only
+	 * means that a few rules that can't unify are tried anyway.
+	 */
+	private static final class Position
+	{
+		final Map<GdlConstant, int[]> bySymbol;
+		final int[] variables;
+
+		Position(Map<GdlConstant, int[]> bySymbol, int[] variables)
+		{
+			this.bySymbol = bySymbol;
+			this.variables = variables;
+		}
+	}
+
+	private static final class PositionBuilder
+	{
+		final Map<GdlConstant, List<Integer>> bySymbol = new HashMap<GdlConstant, List<Integer>>();
+		final List<Integer> variables = new ArrayList<Integer>();
+
+		void add(GdlConstant symbol, int ruleIndex)
+		{
+			List<Integer> indices = bySymbol.get(symbol);
+			if (indices == null)
+			{
+				indices = new ArrayList<Integer>();
+				bySymbol.put(symbol, indices);
+			}
+			indices.add(ruleIndex);
+		}
+
+		Position build()
+		{
+			Map<GdlConstant, int[]> arrays = new HashMap<GdlConstant, int[]>();
+			for (Map.Entry<GdlConstant, List<Integer>> entry : bySymbol.entrySet())
+			{
+				arrays.put(entry.getKey(), toArray(entry.getValue()));
+			}
+			return new Position(arrays, toArray(variables));
+		}
+
+		private static int[] toArray(List<Integer> list)
+		{
+			int[] array = new int[list.size()];
+			for (int i = 0; i < array.length; i++)
+			{
+				array[i] = list.get(i);
+			}
+			return array;
 		}
 	}
-}
\ No newline at end of file
+}
@@ -183,13 +183,13 @@ public final class Substituter
 
 	private static GdlTerm substituteVariable(GdlVariable variable, Substitution theta)
 	{
-		if (!theta.contains(variable))
+		GdlTerm result = theta.get(variable);
+		if (result == null)
 		{
 			return variable;
 		}
 		else
 		{
-			GdlTerm result = theta.get(variable);
 			GdlTerm betterResult = null;
 
 			while (!(betterResult = substituteTerm(result, theta)).equals(result))
@@ -197,7 +197,6 @@ public final class Substituter
 				result = betterResult;
 			}
 
-			theta.put(variable, result);
 			return result;
 		}
 	}
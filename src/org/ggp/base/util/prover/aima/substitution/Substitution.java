@@ -1,90 +1,299 @@
 package org.ggp.base.util.prover.aima.substitution;
 
-import java.util.HashMap;
-import java.util.Map;
+import java.util.Arrays;
 
 import org.ggp.base.util.gdl.grammar.GdlTerm;
 import org.ggp.base.util.gdl.grammar.GdlVariable;
 
 
+/**
+ * An immutable mapping from variables to terms.
+ *
+ * Each substitution holds its own bindings in arrays sorted by variable id
+ * (see {@link GdlVariable#getId()}), and may sit on top of a parent whose
+ * bindings it overrides. Composing two substitutions shares both of them
+ * rather than copying either, so a resolution step costs one small object
+ * rather than a new map. Once a chain gets too long to search quickly, it's
+ * flattened into a single level.
+ */
 public final class Substitution
 {
+	/** Chains longer than this are flattened when composed further. */
+	private static final int MAX_DEPTH = 8;
+	private static final int[] NO_IDS = new int[0];
+	private static final GdlVariable[] NO_VARIABLES = new GdlVariable[0];
+	private static final GdlTerm[] NO_TERMS = new GdlTerm[0];
 
-	private final Map<GdlVariable, GdlTerm> contents;
+	private final Substitution parent;
+	private final int[] ids;
+	private final GdlVariable[] variables;
+	private final GdlTerm[] terms;
+	private final int depth;
 
+	/** This substitution as a single level, once it's been needed. */
+	private Substitution flattened;
+	private int hashCode;
+
+	/**
+	 * Creates an empty substitution.
+	 */
 	public Substitution()
 	{
-		contents = new HashMap<GdlVariable, GdlTerm>();
+		this(null, NO_IDS, NO_VARIABLES, NO_TERMS);
 	}
 
-	public Substitution compose(Substitution thetaPrime)
+	private Substitution(Substitution parent, int[] ids, GdlVariable[] variables, GdlTerm[] terms)
 	{
-		Substitution result = new Substitution();
+		this.parent = parent;
+		this.ids = ids;
+		this.variables = variables;
+		this.terms = terms;
+		this.depth = (parent == null) ? 1 : parent.depth + 1;
+		if (parent == null)
+		{
+			flattened = this;
+		}
+	}
 
-		result.contents.putAll(contents);
-		result.contents.putAll(thetaPrime.contents);
+	/**
+	 * Returns a substitution with the bindings of both this and thetaPrime,
+	 * taking the binding from thetaPrime where both bind a variable.
+	 */
+	public Substitution compose(Substitution thetaPrime)
+	{
+		if (thetaPrime.isEmpty())
+		{
+			return this;
+		}
+		if (isEmpty())
+		{
+			return thetaPrime;
+		}
+		Substitution top = thetaPrime.flatten();
+		Substitution result = new Substitution(this, top.ids, top.variables, top.terms);
+		return (result.depth > MAX_DEPTH) ? result.flatten() : result;
+	}
 
-		return result;
+	public boolean isEmpty()
+	{
+		return parent == null && ids.length == 0;
 	}
 
 	public boolean contains(GdlVariable variable)
 	{
-		return contents.containsKey(variable);
+		return get(variable) != null;
 	}
 
-	@Override
-	public boolean equals(Object o)
+	/**
+	 * Returns the term bound to the given variable, or null if it isn't
+	 * bound.
+	 */
+	public GdlTerm get(GdlVariable variable)
 	{
-		if ((o != null) && (o instanceof Substitution))
+		int id = variable.getId();
+		for (Substitution level = this; level != null; level = level.parent)
 		{
-			Substitution substitution = (Substitution) o;
-			return substitution.contents.equals(contents);
+			int index = indexOf(level.ids, id);
+			if (index >= 0 && level.variables[index] == variable)
+			{
+				return level.terms[index];
+			}
 		}
-
-		return false;
+		return null;
 	}
 
-	public GdlTerm get(GdlVariable variable)
+	private static int indexOf(int[] ids, int id)
 	{
-		return contents.get(variable);
+		if (ids.length <= 8)
+		{
+			for (int i = 0; i < ids.length; i++)
+			{
+				if (ids[i] == id)
+				{
+					return i;
+				}
+			}
+			return -1;
+		}
+		return Arrays.binarySearch(ids, id);
 	}
 
-	@Override
-	public int hashCode()
+	/**
+	 * Creates an identical substitution. Substitutions are immutable, so
+	 * this is the substitution itself.
+	 */
+	public Substitution copy()
 	{
-		return contents.hashCode();
+		return this;
 	}
 
-	public void put(GdlVariable variable, GdlTerm term)
+	/**
+	 * Returns the number of variables bound.
+	 */
+	public int size()
 	{
-		contents.put(variable, term);
+		return flatten().ids.length;
 	}
 
 	/**
-	 * Creates an identical substitution.
-	 *
-	 * @return A new, identical substitution.
+	 * Returns this substitution as a single level, with the bindings of its
+	 * ancestors merged in.
 	 */
-	public Substitution copy()
+	private Substitution flatten()
 	{
-		Substitution copy = new Substitution();
-		copy.contents.putAll(contents);
-		return copy;
+		if (flattened == null)
+		{
+			Substitution below = parent.flatten();
+			int[] mergedIds = new int[below.ids.length + ids.length];
+			GdlVariable[] mergedVariables = new GdlVariable[mergedIds.length];
+			GdlTerm[] mergedTerms = new GdlTerm[mergedIds.length];
+			int i = 0;
+			int j = 0;
+			int count = 0;
+			while (i < below.ids.length || j < ids.length)
+			{
+				if (j == ids.length || (i < below.ids.length && below.ids[i] < ids[j]))
+				{
+					mergedIds[count] = below.ids[i];
+					mergedVariables[count] = below.variables[i];
+					mergedTerms[count++] = below.terms[i++];
+				}
+				else
+				{
+					// This level overrides its parent.
+					if (i < below.ids.length && below.ids[i] == ids[j])
+					{
+						i++;
+					}
+					mergedIds[count] = ids[j];
+					mergedVariables[count] = variables[j];
+					mergedTerms[count++] = terms[j++];
+				}
+			}
+			if (count < mergedIds.length)
+			{
+				mergedIds = Arrays.copyOf(mergedIds, count);
+				mergedVariables = Arrays.copyOf(mergedVariables, count);
+				mergedTerms = Arrays.copyOf(mergedTerms, count);
+			}
+			flattened = new Substitution(null, mergedIds, mergedVariables, mergedTerms);
+		}
+		return flattened;
+	}
+
+	@Override
+	public boolean equals(Object o)
+	{
+		if (this == o)
+		{
+			return true;
+		}
+		if ((o != null) && (o instanceof Substitution))
+		{
+			Substitution mine = flatten();
+			Substitution theirs = ((Substitution) o).flatten();
+			return hashCode() == o.hashCode()
+					&& Arrays.equals(mine.variables, theirs.variables)
+					&& Arrays.equals(mine.terms, theirs.terms);
+		}
+
+		return false;
+	}
+
+	@Override
+	public int hashCode()
+	{
+		if (hashCode == 0)
+		{
+			Substitution flat = flatten();
+			int result = 1;
+			for (int i = 0; i < flat.ids.length; i++)
+			{
+				result = 31 * result + (flat.variables[i].hashCode() ^ flat.terms[i].hashCode());
+			}
+			hashCode = (result == 0) ? 1 : result;
+		}
+		return hashCode;
 	}
 
 	@Override
 	public String toString()
 	{
+		Substitution flat = flatten();
 		StringBuilder sb = new StringBuilder();
 
 		sb.append("{ ");
-		for (GdlVariable variable : contents.keySet())
+		for (int i = 0; i < flat.ids.length; i++)
 		{
-			sb.append(variable + "/" + contents.get(variable) + " ");
+			sb.append(flat.variables[i] + "/" + flat.terms[i] + " ");
 		}
 		sb.append("}");
 
 		return sb.toString();
 	}
 
+	/**
+	 * Collects the bindings for a new substitution, such as while unifying
+	 * two sentences.
+	 */
+	public static final class Builder
+	{
+		private int[] ids = new int[4];
+		private GdlVariable[] variables = new GdlVariable[4];
+		private GdlTerm[] terms = new GdlTerm[4];
+		private int size = 0;
+
+		public boolean contains(GdlVariable variable)
+		{
+			return get(variable) != null;
+		}
+
+		public GdlTerm get(GdlVariable variable)
+		{
+			for (int i = 0; i < size; i++)
+			{
+				if (variables[i] == variable)
+				{
+					return terms[i];
+				}
+			}
+			return null;
+		}
+
+		/**
+		 * Binds the given variable, which must not be bound already.
+		 */
+		public void put(GdlVariable variable, GdlTerm term)
+		{
+			if (size == ids.length)
+			{
+				ids = Arrays.copyOf(ids, size * 2);
+				variables = Arrays.copyOf(variables, size * 2);
+				terms = Arrays.copyOf(terms, size * 2);
+			}
+			// Keep the bindings sorted by id, which is insertion order more often than not.
+			int id = variable.getId();
+			int i = size;
+			while (i > 0 && ids[i - 1] > id)
+			{
+				ids[i] = ids[i - 1];
+				variables[i] = variables[i - 1];
+				terms[i] = terms[i - 1];
+				i--;
+			}
+			ids[i] = id;
+			variables[i] = variable;
+			terms[i] = term;
+			size++;
+		}
+
+		public Substitution build()
+		{
+			if (size == 0)
+			{
+				return new Substitution();
+			}
+			return new Substitution(null, Arrays.copyOf(ids, size), Arrays.copyOf(variables, size), Arrays.copyOf(terms, size));
+		}
+	}
 }
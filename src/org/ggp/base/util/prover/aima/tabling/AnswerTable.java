@@ -0,0 +1,112 @@
+package org.ggp.base.util.prover.aima.tabling;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.ggp.base.util.gdl.grammar.GdlSentence;
+
+
+/**
+ * An AnswerTable holds the answers found so far for one subgoal, up to
+ * variable renaming, as instances of that subgoal. Once a table is complete,
+ * it holds every answer and never changes again.
+ */
+public final class AnswerTable
+{
+	/** The subgoal as it was first asked, which the answers are instances of. */
+	private final GdlSentence goal;
+	private final List<GdlSentence> answers;
+	/** The cells of each answer, encoded with the resolvers' symbol table, in the same order. */
+	private final List<int[]> encodedAnswers;
+	private final Set<GdlSentence> answerSet;
+	private boolean complete;
+	/** Whether the answers are the same in every state of the game. */
+	boolean constant;
+
+	/** The position of this table on the evaluation stack, or -1 if it isn't on it. */
+	int stackIndex;
+	/** The lowest stack position of a table this one's answers depend on. */
+	int leader;
+	/** Whether this table was consumed while it was being evaluated. */
+	boolean recursive;
+	/** The incomplete tables whose completion waits on this one. */
+	final List<AnswerTable> followers;
+
+	AnswerTable(GdlSentence goal, boolean constant)
+	{
+		this.goal = goal;
+		this.answers = new ArrayList<GdlSentence>();
+		this.encodedAnswers = new ArrayList<int[]>();
+		this.answerSet = new HashSet<GdlSentence>();
+		this.complete = false;
+		this.constant = constant;
+		this.stackIndex = -1;
+		this.followers = new ArrayList<AnswerTable>();
+	}
+
+	public GdlSentence getGoal()
+	{
+		return goal;
+	}
+
+	/**
+	 * Returns the answers, in the order they were found. While the table is
+	 * incomplete, answers may be appended to the list as it's read.
+	 */
+	public List<GdlSentence> getAnswers()
+	{
+		return answers;
+	}
+
+	/**
+	 * Returns the answers as encoded by {@link org.ggp.base.util.gdl.encoding.TermArena#getCells(int)},
+	 * in the same order as {@link #getAnswers()}.
+	 */
+	public List<int[]> getEncodedAnswers()
+	{
+		return encodedAnswers;
+	}
+
+	public boolean isComplete()
+	{
+		return complete;
+	}
+
+	public boolean isConstant()
+	{
+		return constant;
+	}
+
+	public boolean hasAnswer(GdlSentence answer)
+	{
+		return answerSet.contains(answer);
+	}
+
+	/**
+	 * Adds an answer, along with its encoding, and returns whether it was new.
+	 */
+	boolean addAnswer(GdlSentence answer, int[] encoded)
+	{
+		if (answerSet.add(answer))
+		{
+			answers.add(answer);
+			encodedAnswers.add(encoded);
+			return true;
+		}
+		return false;
+	}
+
+	void markComplete()
+	{
+		complete = true;
+		followers.clear();
+	}
+
+	@Override
+	public String toString()
+	{
+		return goal + (complete ? " (complete): " : " (incomplete): ") + answers;
+	}
+}
@@ -0,0 +1,375 @@
+package org.ggp.base.util.prover.aima.tabling;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentMap;
+
+import org.ggp.base.util.gdl.GdlUtils;
+import org.ggp.base.util.gdl.encoding.Bindings;
+import org.ggp.base.util.gdl.encoding.SymbolTable;
+import org.ggp.base.util.gdl.encoding.TermArena;
+import org.ggp.base.util.gdl.grammar.GdlConstant;
+import org.ggp.base.util.gdl.grammar.GdlDistinct;
+import org.ggp.base.util.gdl.grammar.GdlLiteral;
+import org.ggp.base.util.gdl.grammar.GdlNot;
+import org.ggp.base.util.gdl.grammar.GdlOr;
+import org.ggp.base.util.gdl.grammar.GdlPool;
+import org.ggp.base.util.gdl.grammar.GdlRule;
+import org.ggp.base.util.gdl.grammar.GdlSentence;
+import org.ggp.base.util.gdl.grammar.GdlVariable;
+import org.ggp.base.util.prover.aima.knowledge.KnowledgeBase;
+import org.ggp.base.util.prover.aima.renamer.VariableRenamer;
+import org.ggp.base.util.prover.aima.substituter.Substituter;
+import org.ggp.base.util.prover.aima.substitution.Substitution;
+import org.ggp.base.util.prover.aima.unifier.Unifier;
+
+
+/**
+ * A TabledResolver answers one query by tabled resolution. Every subgoal is
+ * answered through an {@link AnswerTable} shared by every call to a variant
+ * of that subgoal in the query, so nothing is derived twice.
+ *
+ * When a subgoal calls a variant of itself, directly or through other
+ * subgoals, the inner call reads the answers found so far instead of being
+ * cut off. Readers keep reading as answers are appended, and the outermost
+ * subgoal of each such cycle (its leader) re-runs its rules until a pass
+ * adds no new answers anywhere, at which point it and every table that
+ * depended on it are complete. This is linear tabling: it reaches the same
+ * fixpoint as SLG resolution, but re-runs rules rather than suspending and
+ * resuming the calls that are waiting for answers.
+ *
+ * Answers are also kept encoded in a {@link TermArena}, with a symbol table
+ * shared by every resolver of the same prover, and subgoals are matched
+ * against them by unifying the encodings, rather than building a
+ * Substitution for every answer that's tried.
+ *
+ * Negation is only sound for stratified rules, which GDL requires.
+ *
+ * Tables which are the same in every state of the game are added to the
+ * given map of fixed tables once complete, so that later queries can reuse
+ * them. A TabledResolver is meant for a single query on a single thread,
+ * but the fixed tables may be shared by resolvers on many threads.
+ */
+public final class TabledResolver
+{
+	private final KnowledgeBase knowledgeBase;
+	private final KnowledgeBase context;
+	private final ConcurrentMap<GdlSentence, AnswerTable> fixedTables;
+	private final Map<GdlSentence, AnswerTable> tables;
+	private final List<AnswerTable> stack;
+	private final VariableRenamer renamer;
+	private final TermArena arena;
+	private final Bindings bindings;
+	/** The number of answers added to any table, to detect a fixpoint. */
+	private long answerCount;
+
+	/**
+	 * @param symbols The symbol table the answers of the fixed tables are
+	 * encoded with, which must be the same for every resolver sharing them.
+	 */
+	public TabledResolver(KnowledgeBase knowledgeBase, KnowledgeBase context, ConcurrentMap<GdlSentence, AnswerTable> fixedTables, SymbolTable symbols)
+	{
+		this.knowledgeBase = knowledgeBase;
+		this.context = context;
+		this.fixedTables = fixedTables;
+		this.tables = new HashMap<GdlSentence, AnswerTable>();
+		this.stack = new ArrayList<AnswerTable>();
+		this.renamer = new VariableRenamer();
+		this.arena = new TermArena(symbols);
+		this.bindings = new Bindings(arena);
+		this.answerCount = 0;
+	}
+
+	/**
+	 * Returns every instance of the query that follows from the rules and
+	 * the context.
+	 */
+	public Set<GdlSentence> ask(GdlSentence query)
+	{
+		AnswerTable table = solve(query);
+		Set<GdlSentence> results = new HashSet<GdlSentence>();
+		int mark = arena.mark();
+		int encodedQuery = arena.encode(query);
+		for (int[] answer : table.getEncodedAnswers())
+		{
+			GdlSentence result = match(encodedQuery, answer);
+			if (result != null)
+			{
+				results.add(result);
+			}
+		}
+		arena.release(mark);
+		return results;
+	}
+
+	/**
+	 * Returns an instance of the query that follows from the rules and the
+	 * context, or null if there is none. The query's table is still
+	 * completed, so that it can be reused, but no other answers are built.
+	 */
+	public GdlSentence askOne(GdlSentence query)
+	{
+		AnswerTable table = solve(query);
+		int mark = arena.mark();
+		int encodedQuery = arena.encode(query);
+		GdlSentence result = null;
+		for (int[] answer : table.getEncodedAnswers())
+		{
+			result = match(encodedQuery, answer);
+			if (result != null)
+			{
+				break;
+			}
+		}
+		arena.release(mark);
+		return result;
+	}
+
+	/**
+	 * Returns the instance of the encoded query that the encoded answer
+	 * matches, or null if it doesn't unify with the query.
+	 */
+	private GdlSentence match(int encodedQuery, int[] answer)
+	{
+		int mark = arena.mark();
+		int bindingMark = bindings.mark();
+		GdlSentence result = null;
+		if (bindings.unify(encodedQuery, arena.add(answer)))
+		{
+			result = arena.decodeSentence(arena.substitute(encodedQuery, bindings));
+			bindings.undo(bindingMark);
+		}
+		arena.release(mark);
+		return result;
+	}
+
+	/**
+	 * Returns the table for the given subgoal, evaluating it if necessary.
+	 * The table is only incomplete if the subgoal depends on a subgoal that
+	 * is still being evaluated.
+	 */
+	private AnswerTable solve(GdlSentence sentence)
+	{
+		GdlSentence variant = new VariableRenamer().rename(sentence);
+		AnswerTable table = fixedTables.get(variant);
+		if (table != null)
+		{
+			return table;
+		}
+		table = tables.get(variant);
+		if (table == null)
+		{
+			table = new AnswerTable(sentence, !isTrueOrDoesSentence(sentence));
+			tables.put(variant, table);
+		}
+		else if (table.isComplete())
+		{
+			return table;
+		}
+		else if (table.stackIndex != -1)
+		{
+			// A recursive call: read what's there, and make the caller wait on it.
+			table.recursive = true;
+			AnswerTable caller = stack.get(stack.size() - 1);
+			caller.leader = Math.min(caller.leader, table.stackIndex);
+			return table;
+		}
+		// Otherwise this is a new table, or one that was left incomplete by an
+		// earlier pass of a leader that is still running, and it's (re-)evaluated.
+		evaluate(table);
+		return table;
+	}
+
+	private void evaluate(AnswerTable table)
+	{
+		table.stackIndex = stack.size();
+		table.leader = table.stackIndex;
+		stack.add(table);
+
+		GdlSentence goal = table.getGoal();
+		List<GdlRule> candidates = new ArrayList<GdlRule>();
+		candidates.addAll(knowledgeBase.fetch(goal));
+		candidates.addAll(context.fetch(goal));
+		long answersBefore;
+		do
+		{
+			answersBefore = answerCount;
+			for (GdlRule rule : candidates)
+			{
+				GdlRule r = renamer.rename(rule);
+				Substitution theta = Unifier.unify(r.getHead(), goal);
+				if (theta != null)
+				{
+					resolve(r.getBody(), 0, theta, r.getHead(), table, table, null);
+				}
+			}
+		}
+		while (table.leader == table.stackIndex && table.recursive && answerCount != answersBefore);
+
+		stack.remove(stack.size() - 1);
+		table.stackIndex = -1;
+		if (table.leader == stack.size())
+		{
+			// This is the leader of its cycle, if any, and it's at a fixpoint.
+			boolean constant = table.constant;
+			for (AnswerTable follower : table.followers)
+			{
+				constant &= follower.constant;
+			}
+			for (AnswerTable follower : table.followers)
+			{
+				complete(follower, constant);
+			}
+			complete(table, constant);
+		}
+		else
+		{
+			AnswerTable caller = stack.get(stack.size() - 1);
+			caller.leader = Math.min(caller.leader, table.leader);
+			caller.followers.addAll(table.followers);
+			caller.followers.add(table);
+			table.followers.clear();
+		}
+	}
+
+	private void complete(AnswerTable table, boolean constant)
+	{
+		if (table.isComplete())
+		{
+			return;
+		}
+		table.constant = constant;
+		table.markComplete();
+		if (constant)
+		{
+			// Another thread may have completed the same variant first; either table will do.
+			fixedTables.putIfAbsent(new VariableRenamer().rename(table.getGoal()), table);
+		}
+	}
+
+	/**
+	 * Proves the literals of the body from the given position on, under the
+	 * given substitution. Each solution either adds an instance of the head
+	 * to the target table or, if there is no target, sets found[0].
+	 *
+	 * @param consumer The table being evaluated, which depends on whatever
+	 * tables the body reads.
+	 */
+	private void resolve(List<GdlLiteral> body, int position, Substitution theta, GdlSentence head, AnswerTable target, AnswerTable consumer, boolean[] found)
+	{
+		if (found != null && found[0])
+		{
+			return;
+		}
+		if (position == body.size())
+		{
+			if (target != null)
+			{
+				GdlSentence answer = Substituter.substitute(head, theta);
+				if (!target.hasAnswer(answer) && target.addAnswer(answer, encode(answer)))
+				{
+					answerCount++;
+				}
+			}
+			else
+			{
+				found[0] = true;
+			}
+			return;
+		}
+
+		GdlLiteral literal = Substituter.substitute(body.get(position), theta);
+		if (literal instanceof GdlDistinct)
+		{
+			GdlDistinct distinct = (GdlDistinct) literal;
+			if (!distinct.getArg1().equals(distinct.getArg2()))
+			{
+				resolve(body, position + 1, theta, head, target, consumer, found);
+			}
+		}
+		else if (literal instanceof GdlNot)
+		{
+			boolean[] notFound = new boolean[] {false};
+			resolve(Collections.singletonList(((GdlNot) literal).getBody()), 0, theta, null, null, consumer, notFound);
+			if (!notFound[0])
+			{
+				resolve(body, position + 1, theta, head, target, consumer, found);
+			}
+		}
+		else if (literal instanceof GdlOr)
+		{
+			GdlOr or = (GdlOr) literal;
+			for (int i = 0; i < or.arity(); i++)
+			{
+				List<GdlLiteral> branch = new ArrayList<GdlLiteral>(body.size() - position);
+				branch.add(or.get(i));
+				branch.addAll(body.subList(position + 1, body.size()));
+				resolve(branch, 0, theta, head, target, consumer, found);
+			}
+		}
+		else
+		{
+			GdlSentence sentence = (GdlSentence) literal;
+			AnswerTable table = solve(sentence);
+			consumer.constant &= table.constant;
+			// The subgoal is encoded, followed by each of its variables, so
+			// that the terms they're bound to can be read back.
+			int mark = arena.mark();
+			int encodedSentence = arena.encode(sentence);
+			List<GdlVariable> variables = GdlUtils.getVariables(sentence);
+			int[] variableOffsets = new int[variables.size()];
+			for (int j = 0; j < variableOffsets.length; j++)
+			{
+				variableOffsets[j] = arena.encode(variables.get(j));
+			}
+			// Answers appended while this loop runs are read too.
+			List<int[]> answers = table.getEncodedAnswers();
+			int bindingMark = bindings.mark();
+			for (int i = 0; i < answers.size(); i++)
+			{
+				int answerMark = arena.mark();
+				if (!bindings.unify(encodedSentence, arena.add(answers.get(i))))
+				{
+					arena.release(answerMark);
+					continue;
+				}
+				Substitution.Builder thetaPrime = new Substitution.Builder();
+				for (int j = 0; j < variableOffsets.length; j++)
+				{
+					thetaPrime.put(variables.get(j), arena.decodeTerm(bindings.dereference(variableOffsets[j])));
+				}
+				bindings.undo(bindingMark);
+				arena.release(answerMark);
+				resolve(body, position + 1, theta.compose(thetaPrime.build()), head, target, consumer, found);
+				if (found != null && found[0])
+				{
+					break;
+				}
+			}
+			arena.release(mark);
+		}
+	}
+
+	/**
+	 * Returns the cells of the given answer, encoded with this resolver's
+	 * symbol table.
+	 */
+	private int[] encode(GdlSentence answer)
+	{
+		int mark = arena.mark();
+		int[] encoded = arena.getCells(arena.encode(answer));
+		arena.release(mark);
+		return encoded;
+	}
+
+	private boolean isTrueOrDoesSentence(GdlSentence sentence)
+	{
+		GdlConstant name = sentence.getName();
+		return name == GdlPool.TRUE || name == GdlPool.DOES;
+	}
+}
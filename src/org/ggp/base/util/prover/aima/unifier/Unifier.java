@@ -12,16 +12,16 @@ public final class Unifier
 
     public static Substitution unify(GdlSentence x, GdlSentence y)
     {
-        Substitution theta = new Substitution();
+        Substitution.Builder theta = new Substitution.Builder();
         boolean isGood = unifyTerm(x.toTerm(), y.toTerm(), theta);
 
         if(isGood)
-            return theta;
+            return theta.build();
         else
             return null;
     }
 
-    private static boolean unifyTerm(GdlTerm x, GdlTerm y, Substitution theta)
+    private static boolean unifyTerm(GdlTerm x, GdlTerm y, Substitution.Builder theta)
     {
     	if(x.equals(y))
     		return true;
@@ -64,7 +64,7 @@ public final class Unifier
         return true;
     }
 
-    private static boolean unifyVariable(GdlVariable var, GdlTerm x, Substitution theta)
+    private static boolean unifyVariable(GdlVariable var, GdlTerm x, Substitution.Builder theta)
     {
         if (theta.contains(var))
         {
@@ -0,0 +1,124 @@
+package org.ggp.base.util.statemachine;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.ggp.base.util.gdl.grammar.GdlSentence;
+
+/**
+ * A BaseSentenceIndex assigns a dense index to each of the (true ...) sentences
+ * that can make up the state of a particular game. It's shared by all of the
+ * {@link BitSetMachineState}s for that game, and holds the per-sentence data
+ * those states need: the sentence itself, its hash code, and a random 64-bit
+ * Zobrist key.
+ * <p>
+ * Zobrist keys are the SplitMix64 sequence from a fixed seed, one for each
+ * position in the index, so indexes over the same sentences in the same order
+ * (such as those built from the same propnet) give every state the same hash,
+ * in every process. States from indexes in different orders can't be compared
+ * by their Zobrist hashes.
+ */
+public final class BaseSentenceIndex
+{
+	/** The seed of the sequence of Zobrist keys. */
+	private static final long ZOBRIST_SEED = 0x5DEECE66DL;
+	private static final long GOLDEN_GAMMA = 0x9E3779B97F4A7C15L;
+
+	private final GdlSentence[] sentences;
+	private final int[] sentenceHashes;
+	private final long[] zobristKeys;
+	private final Map<GdlSentence, Integer> indices;
+	private final int numWords;
+
+	public BaseSentenceIndex(GdlSentence[] sentences)
+	{
+		this.sentences = sentences.clone();
+		this.sentenceHashes = new int[sentences.length];
+		this.zobristKeys = new long[sentences.length];
+		this.indices = new HashMap<GdlSentence, Integer>();
+		for (int i = 0; i < sentences.length; i++) {
+			sentenceHashes[i] = sentences[i].hashCode();
+			zobristKeys[i] = mix(ZOBRIST_SEED + (i + 1) * GOLDEN_GAMMA);
+			indices.put(sentences[i], i);
+		}
+		this.numWords = (sentences.length + 63) / 64;
+	}
+
+	/**
+	 * Finalizer from the SplitMix64 generator, which turns each step of the
+	 * sequence into a well-mixed 64-bit key.
+	 */
+	private static long mix(long z)
+	{
+		z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+		z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+		return z ^ (z >>> 31);
+	}
+
+	/**
+	 * Returns the number of sentences in the index.
+	 */
+	public int size()
+	{
+		return sentences.length;
+	}
+
+	/**
+	 * Returns the number of longs needed to hold one bit per sentence.
+	 */
+	public int getNumWords()
+	{
+		return numWords;
+	}
+
+	public GdlSentence getSentence(int index)
+	{
+		return sentences[index];
+	}
+
+	/**
+	 * Returns the index of the given sentence, or -1 if it isn't indexed.
+	 */
+	public int getIndex(GdlSentence sentence)
+	{
+		Integer index = indices.get(sentence);
+		return (index == null) ? -1 : index;
+	}
+
+	int getSentenceHash(int index)
+	{
+		return sentenceHashes[index];
+	}
+
+	public long getZobristKey(int index)
+	{
+		return zobristKeys[index];
+	}
+
+	/**
+	 * Creates a state from the given bits, which must have getNumWords()
+	 * entries with no bits set past size(). The array is not copied, and
+	 * must not be modified afterwards.
+	 */
+	public BitSetMachineState createState(long[] bits)
+	{
+		return new BitSetMachineState(this, bits);
+	}
+
+	/**
+	 * Creates a state in which exactly the given sentences are true. Sentences
+	 * that aren't in the index are ignored.
+	 */
+	public BitSetMachineState createState(Collection<GdlSentence> contents)
+	{
+		long[] bits = new long[numWords];
+		for (GdlSentence sentence : contents) {
+			int index = getIndex(sentence);
+			if (index != -1) {
+				bits[index >>> 6] |= 1L << index;
+			}
+		}
+		return new BitSetMachineState(this, bits);
+	}
+}
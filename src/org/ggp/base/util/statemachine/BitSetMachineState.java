@@ -0,0 +1,138 @@
+package org.ggp.base.util.statemachine;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+
+import org.ggp.base.util.gdl.grammar.GdlSentence;
+
+/**
+ * A BitSetMachineState is a MachineState stored as one bit per base sentence,
+ * using a {@link BaseSentenceIndex} shared by every state of the same game.
+ * <p>
+ * Both the ordinary hash code and a 64-bit Zobrist hash are computed once, when
+ * the state is created, and comparing two states from the same index only
+ * compares their bits. The GDL sentences returned by {@link #getContents()} are
+ * only built the first time they're asked for.
+ * <p>
+ * The hash code is the same as the hash code of the set of sentences, so these
+ * states can be mixed freely with ordinary MachineStates in hash-based
+ * collections.
+ */
+public final class BitSetMachineState extends MachineState
+{
+    private final BaseSentenceIndex index;
+    private final long[] bits;
+    private final int hashCode;
+    private final long zobristHash;
+    private volatile Set<GdlSentence> contents;
+
+    BitSetMachineState(BaseSentenceIndex index, long[] bits)
+    {
+        this.index = index;
+        this.bits = bits;
+        int hash = 0;
+        long zobrist = 0L;
+        for (int w = 0; w < bits.length; w++) {
+            long word = bits[w];
+            while (word != 0) {
+                int i = (w << 6) + Long.numberOfTrailingZeros(word);
+                hash += index.getSentenceHash(i);
+                zobrist ^= index.getZobristKey(i);
+                word &= word - 1;
+            }
+        }
+        this.hashCode = hash;
+        this.zobristHash = zobrist;
+    }
+
+    private BitSetMachineState(BitSetMachineState other)
+    {
+        this.index = other.index;
+        this.bits = other.bits;
+        this.hashCode = other.hashCode;
+        this.zobristHash = other.zobristHash;
+        this.contents = other.contents;
+    }
+
+    public BaseSentenceIndex getIndex()
+    {
+        return index;
+    }
+
+    /**
+     * Returns the bits of this state, indexed by {@link BaseSentenceIndex}.
+     * The array is shared, and must not be modified.
+     */
+    public long[] getBits()
+    {
+        return bits;
+    }
+
+    /**
+     * Returns true iff the base sentence with the given index is true.
+     */
+    public boolean get(int i)
+    {
+        return (bits[i >>> 6] & (1L << i)) != 0;
+    }
+
+    /**
+     * Returns the 64-bit Zobrist hash of this state: the XOR of the Zobrist
+     * keys of its true sentences. This is much less collision-prone than
+     * {@link #hashCode()}, and is what transposition tables should use.
+     */
+    public long getZobristHash()
+    {
+        return zobristHash;
+    }
+
+    @Override
+    public Set<GdlSentence> getContents()
+    {
+        Set<GdlSentence> result = contents;
+        if (result == null) {
+            result = new HashSet<GdlSentence>();
+            for (int w = 0; w < bits.length; w++) {
+                long word = bits[w];
+                while (word != 0) {
+                    result.add(index.getSentence((w << 6) + Long.numberOfTrailingZeros(word)));
+                    word &= word - 1;
+                }
+            }
+            contents = result;
+        }
+        return result;
+    }
+
+    /**
+     * Since BitSetMachineStates are immutable, the clone shares its bits with
+     * the original rather than copying them.
+     */
+    @Override
+    public MachineState clone()
+    {
+        return new BitSetMachineState(this);
+    }
+
+    @Override
+    public int hashCode()
+    {
+        return hashCode;
+    }
+
+    @Override
+    public boolean equals(Object o)
+    {
+        if (o == this) {
+            return true;
+        }
+        if (o instanceof BitSetMachineState) {
+            BitSetMachineState state = (BitSetMachineState) o;
+            if (state.index == index) {
+                return state.hashCode == hashCode && Arrays.equals(state.bits, bits);
+            }
+        }
+        return super.equals(o);
+    }
+}
@@ -26,6 +26,8 @@ import org.ggp.base.util.statemachine.implementation.prover.ProverStateMachine;
 public class FailsafeStateMachine extends StateMachine
 {
     private StateMachine theBackingMachine = null;
+    /** The machine whose move indices we hand out, kept after we fall back from it. */
+    private StateMachine theIndexingMachine = null;
     private List<Gdl> gameDescription;
 
     public FailsafeStateMachine (StateMachine theInitialMachine) {
@@ -44,12 +46,16 @@ public class FailsafeStateMachine extends StateMachine
     public synchronized void initialize(List<Gdl> description) {
         this.gameDescription = description;
 
-        if(attemptLoadingInitialMachine())
+        if(attemptLoadingInitialMachine()) {
+            theIndexingMachine = theBackingMachine;
             return;
+        }
 
         GamerLogger.logError("StateMachine", "Failsafe Machine: failed to load initial state machine. Falling back...");
-        if(attemptLoadingProverMachine())
+        if(attemptLoadingProverMachine()) {
+            theIndexingMachine = theBackingMachine;
             return;
+        }
 
         GamerLogger.logError("StateMachine", "Failsafe Machine: catastrophic failure to load *any* state machine. Cannot recover.");
         GamerLogger.logError("StateMachine", "Failsafe Machine: cannot recover from current state. Shutting down.");
@@ -355,6 +361,33 @@ public class FailsafeStateMachine extends StateMachine
         return performDepthCharge(state, theDepth);
     }
 
+    @Override
+    public void performDepthCharges(MachineState state, int n, int[][] results, int[] depths) throws TransitionDefinitionException, MoveDefinitionException, GoalDefinitionException {
+        if(theBackingMachine == null)
+            return;
+
+        try {
+            theBackingMachine.performDepthCharges(state, n, results, depths);
+            return;
+        } catch (TransitionDefinitionException te) {
+        	throw te;
+        } catch (MoveDefinitionException me) {
+        	throw me;
+        } catch (GoalDefinitionException ge) {
+        	throw ge;
+        } catch(Exception e) {
+            failGracefully(e, null);
+        } catch(ThreadDeath d) {
+            throw d;
+        } catch(OutOfMemoryError e) {
+            throw e;
+        } catch(Error e) {
+            failGracefully(null, e);
+        }
+
+        performDepthCharges(state, n, results, depths);
+    }
+
     @Override
     public void getAverageDiscountedScoresFromRepeatedDepthCharges(MachineState state, double[] avgScores, double[] avgDepth, double discountFactor, int repetitions) throws TransitionDefinitionException, MoveDefinitionException, GoalDefinitionException {
         if(theBackingMachine == null)
@@ -403,6 +436,126 @@ public class FailsafeStateMachine extends StateMachine
         updateRoot(theState);
     }
 
+    // Move indices keep coming from the machine that first handed them out,
+    // even after falling back to the prover, since callers may hold on to
+    // them. Its indices are only lookups in tables built when it was
+    // initialized. Once we've fallen back, the indexed queries are answered
+    // by translating to and from the moves themselves.
+
+    @Override
+    public int getMoveIndex(int roleIndex, Move move) {
+        if(theIndexingMachine == null)
+            return -1;
+        return theIndexingMachine.getMoveIndex(roleIndex, move);
+    }
+
+    @Override
+    public Move getMoveFromIndex(int roleIndex, int moveIndex) {
+        if(theIndexingMachine == null)
+            return null;
+        return theIndexingMachine.getMoveFromIndex(roleIndex, moveIndex);
+    }
+
+    @Override
+    public int getMoveIndexRadix(int roleIndex) {
+        if(theIndexingMachine == null)
+            return 1;
+        return theIndexingMachine.getMoveIndexRadix(roleIndex);
+    }
+
+    @Override
+    public long getJointMoveIndex(int[] moveIndices) {
+        if(theIndexingMachine == null)
+            return 0;
+        return theIndexingMachine.getJointMoveIndex(moveIndices);
+    }
+
+    @Override
+    public int getMoveIndexFromJointMove(long jointMove, int roleIndex) {
+        if(theIndexingMachine == null)
+            return 0;
+        return theIndexingMachine.getMoveIndexFromJointMove(jointMove, roleIndex);
+    }
+
+    @Override
+    public List<Move> getJointMoveFromIndex(long jointMove) {
+        if(theIndexingMachine == null)
+            return null;
+        return theIndexingMachine.getJointMoveFromIndex(jointMove);
+    }
+
+    @Override
+    public int getLegalMoveIndices(MachineState state, int roleIndex, int[] buffer) throws MoveDefinitionException {
+        if(theBackingMachine == null)
+            return 0;
+        if(theBackingMachine != theIndexingMachine)
+            return super.getLegalMoveIndices(state, roleIndex, buffer);
+
+        try {
+            return theBackingMachine.getLegalMoveIndices(state, roleIndex, buffer);
+        } catch(MoveDefinitionException me) {
+            throw me;
+        } catch(Exception e) {
+            failGracefully(e, null);
+        } catch(OutOfMemoryError e) {
+            throw e;
+        } catch(ThreadDeath d) {
+            throw d;
+        } catch(Error e) {
+            failGracefully(null, e);
+        }
+
+        return getLegalMoveIndices(state, roleIndex, buffer);
+    }
+
+    @Override
+    public long getRandomJointMoveIndex(MachineState state) throws MoveDefinitionException {
+        if(theBackingMachine == null)
+            return 0;
+        if(theBackingMachine != theIndexingMachine)
+            return super.getRandomJointMoveIndex(state);
+
+        try {
+            return theBackingMachine.getRandomJointMoveIndex(state);
+        } catch(MoveDefinitionException me) {
+            throw me;
+        } catch(Exception e) {
+            failGracefully(e, null);
+        } catch(OutOfMemoryError e) {
+            throw e;
+        } catch(ThreadDeath d) {
+            throw d;
+        } catch(Error e) {
+            failGracefully(null, e);
+        }
+
+        return getRandomJointMoveIndex(state);
+    }
+
+    @Override
+    public MachineState getNextState(MachineState state, long jointMove) throws TransitionDefinitionException {
+        if(theBackingMachine == null)
+            return null;
+        if(theBackingMachine != theIndexingMachine)
+            return getNextState(state, getJointMoveFromIndex(jointMove));
+
+        try {
+            return theBackingMachine.getNextState(state, jointMove);
+        } catch(TransitionDefinitionException te) {
+            throw te;
+        } catch(Exception e) {
+            failGracefully(e, null);
+        } catch(ThreadDeath d) {
+            throw d;
+        } catch(OutOfMemoryError e) {
+            throw e;
+        } catch(Error e) {
+            failGracefully(null, e);
+        }
+
+        return getNextState(state, jointMove);
+    }
+
     public StateMachine getBackingMachine() {
         return theBackingMachine;
     }
@@ -347,7 +347,253 @@ public abstract class StateMachine
     public Move getRandomMove(MachineState state, Role role) throws MoveDefinitionException
     {
         List<Move> legals = getLegalMoves(state, role);
-        return legals.get(new Random().nextInt(legals.size()));
+        return legals.get(getRandom().nextInt(legals.size()));
+    }
+
+    private final Random random = new Random();
+
+    /**
+     * Returns the source of randomness used by the random move methods.
+     * Implementations that make random choices of their own should use it
+     * too, rather than creating a new Random for each choice.
+     */
+    protected Random getRandom()
+    {
+        return random;
+    }
+
+    // ============================================
+    //             Indexed moves
+    // ============================================
+    //   Each role's moves can also be referred to by small
+    // non-negative ints, and a joint move by a single long
+    // holding one such index per role in mixed radix. This
+    // lets callers enumerate legal moves into their own
+    // buffers and step through the game without building
+    // Move lists. Move indices are only meaningful for the
+    // state machine that handed them out.
+    //   When the move indices of the roles don't fit in a
+    // long together, joint moves are interned as a whole
+    // instead, and given negative indices, so that callers
+    // get the non-indexed behavior rather than an error.
+    //   The moves and joint moves handed out so far are
+    // guarded by a lock, so that the defaults are as safe to
+    // call from several threads at once as the machine is.
+
+    private final Object indexLock = new Object();
+    private List<List<Move>> indexedMoves = null;
+    private List<Map<Move, Integer>> moveIndices = null;
+    private List<List<Move>> internedJointMoves = null;
+    private Map<List<Move>, Long> jointMoveIndices = null;
+
+    /**
+     * Returns the index of the given move for the role with the given index,
+     * in the order of {@link #getRoles()}.
+     * <p>
+     * By default, moves are given indices in the order they're first seen,
+     * and an index is never reused for another move. Implementations that
+     * know every possible move up front should override this together with
+     * {@link #getMoveFromIndex(int, int)} and {@link #getMoveIndexRadix(int)},
+     * and may return -1 for moves that can never be legal.
+     */
+    public int getMoveIndex(int roleIndex, Move move)
+    {
+        int numRoles = getRoles().size();
+        synchronized (indexLock) {
+            if (indexedMoves == null) {
+                indexedMoves = new ArrayList<List<Move>>(numRoles);
+                moveIndices = new ArrayList<Map<Move, Integer>>(numRoles);
+                for (int r = 0; r < numRoles; r++) {
+                    indexedMoves.add(new ArrayList<Move>());
+                    moveIndices.add(new HashMap<Move, Integer>());
+                }
+            }
+            Integer index = moveIndices.get(roleIndex).get(move);
+            if (index == null) {
+                index = indexedMoves.get(roleIndex).size();
+                indexedMoves.get(roleIndex).add(move);
+                moveIndices.get(roleIndex).put(move, index);
+            }
+            return index;
+        }
+    }
+
+    /**
+     * Returns the move with the given index for the role with the given
+     * index, as handed out by {@link #getMoveIndex(int, Move)}.
+     */
+    public Move getMoveFromIndex(int roleIndex, int moveIndex)
+    {
+        synchronized (indexLock) {
+            return indexedMoves.get(roleIndex).get(moveIndex);
+        }
+    }
+
+    /**
+     * Returns a bound on the move indices of the role with the given index,
+     * which is the radix of that role's digit in a joint move index.
+     * <p>
+     * By default, the 63 usable bits of a long are split evenly between the
+     * roles, since the moves aren't known up front.
+     */
+    public int getMoveIndexRadix(int roleIndex)
+    {
+        return 1 << Math.min(30, 63 / getRoles().size());
+    }
+
+    /**
+     * Writes the indices of the moves that are legal for the role with the
+     * given index into the given buffer, and returns how many there are.
+     * If the buffer is too small, it's filled as far as it goes and the full
+     * count is still returned, so the caller can retry with a larger one.
+     * <p>
+     * By default this calls {@link #getLegalMoves(MachineState, Role)};
+     * implementations should override it to avoid building the list.
+     *
+     * @throws MoveDefinitionException if the role has no legal moves.
+     */
+    public int getLegalMoveIndices(MachineState state, int roleIndex, int[] buffer) throws MoveDefinitionException
+    {
+        List<Move> legals = getLegalMoves(state, getRoles().get(roleIndex));
+        int count = legals.size();
+        for (int i = 0; i < count && i < buffer.length; i++) {
+            buffer[i] = getMoveIndex(roleIndex, legals.get(i));
+        }
+        return count;
+    }
+
+    /**
+     * Returns the joint move index made up of the given move indices, one
+     * per role in the order of {@link #getRoles()}. If a move index is past
+     * its role's radix, or the indices don't fit in a long together, the
+     * joint move is interned instead and given a negative index.
+     *
+     * @throws IllegalArgumentException if a move index is negative.
+     */
+    public long getJointMoveIndex(int[] moveIndices)
+    {
+        long jointMove = 0;
+        for (int r = moveIndices.length - 1; r >= 0; r--) {
+            int radix = getMoveIndexRadix(r);
+            if (moveIndices[r] < 0) {
+                throw new IllegalArgumentException("Move index " + moveIndices[r] + " out of range for role " + r);
+            }
+            if (moveIndices[r] >= radix || jointMove > (Long.MAX_VALUE - moveIndices[r]) / radix) {
+                return internJointMove(moveIndices);
+            }
+            jointMove = jointMove * radix + moveIndices[r];
+        }
+        return jointMove;
+    }
+
+    /**
+     * Returns the negative index of the joint move made up of the given move
+     * indices, interning it if it hasn't been seen before.
+     */
+    private long internJointMove(int[] moveIndices)
+    {
+        List<Move> moves = new ArrayList<Move>(moveIndices.length);
+        for (int r = 0; r < moveIndices.length; r++) {
+            moves.add(getMoveFromIndex(r, moveIndices[r]));
+        }
+        synchronized (indexLock) {
+            if (internedJointMoves == null) {
+                internedJointMoves = new ArrayList<List<Move>>();
+                jointMoveIndices = new HashMap<List<Move>, Long>();
+            }
+            Long index = jointMoveIndices.get(moves);
+            if (index == null) {
+                internedJointMoves.add(moves);
+                index = -(long) internedJointMoves.size();
+                jointMoveIndices.put(moves, index);
+            }
+            return index;
+        }
+    }
+
+    /** Returns the moves of an interned joint move, given its negative index. */
+    private List<Move> getInternedJointMove(long jointMove)
+    {
+        synchronized (indexLock) {
+            return internedJointMoves.get((int) (-jointMove - 1));
+        }
+    }
+
+    /**
+     * Returns true if every combination of move indices below the roles'
+     * radixes packs into a non-negative joint move index, so that no joint
+     * move has to be interned.
+     */
+    protected boolean jointMoveIndicesFit()
+    {
+        long limit = Long.MAX_VALUE;
+        for (int r = 0; r < getRoles().size(); r++) {
+            limit /= getMoveIndexRadix(r);
+        }
+        return limit > 0;
+    }
+
+    /**
+     * Returns the index of the given role's move in the given joint move index.
+     */
+    public int getMoveIndexFromJointMove(long jointMove, int roleIndex)
+    {
+        if (jointMove < 0) {
+            return getMoveIndex(roleIndex, getInternedJointMove(jointMove).get(roleIndex));
+        }
+        for (int r = 0; r < roleIndex; r++) {
+            jointMove /= getMoveIndexRadix(r);
+        }
+        return (int) (jointMove % getMoveIndexRadix(roleIndex));
+    }
+
+    /**
+     * Returns the list of moves for the given joint move index.
+     */
+    public List<Move> getJointMoveFromIndex(long jointMove)
+    {
+        if (jointMove < 0) {
+            return new ArrayList<Move>(getInternedJointMove(jointMove));
+        }
+        int numRoles = getRoles().size();
+        List<Move> moves = new ArrayList<Move>(numRoles);
+        for (int r = 0; r < numRoles; r++) {
+            int radix = getMoveIndexRadix(r);
+            moves.add(getMoveFromIndex(r, (int) (jointMove % radix)));
+            jointMove /= radix;
+        }
+        return moves;
+    }
+
+    /**
+     * Returns the index of a random joint move from among all the possible
+     * joint moves in the given state. Each role's move is drawn on its own,
+     * so the joint moves are never enumerated.
+     */
+    public long getRandomJointMoveIndex(MachineState state) throws MoveDefinitionException
+    {
+        int numRoles = getRoles().size();
+        int[] moveIndices = new int[numRoles];
+        int[] buffer = new int[16];
+        for (int r = 0; r < numRoles; r++) {
+            int count = getLegalMoveIndices(state, r, buffer);
+            if (count > buffer.length) {
+                buffer = new int[count];
+                getLegalMoveIndices(state, r, buffer);
+            }
+            moveIndices[r] = buffer[getRandom().nextInt(count)];
+        }
+        return getJointMoveIndex(moveIndices);
+    }
+
+    /**
+     * Returns the next state of the game given the current state and a joint
+     * move index. By default this builds the joint move list and calls
+     * {@link #getNextState(MachineState, List)}.
+     */
+    public MachineState getNextState(MachineState state, long jointMove) throws TransitionDefinitionException
+    {
+        return getNextState(state, getJointMoveFromIndex(jointMove));
     }
 
     /**
@@ -399,19 +645,59 @@ public abstract class StateMachine
         return state;
     }
 
+    /**
+     * Performs the given number of depth charges from the given state, and
+     * records the goal values that every role got at the end of each one.
+     * This is equivalent to calling {@link #performDepthCharges(MachineState, int, int[][], int[])}
+     * without asking for the depths.
+     */
+    public final void performDepthCharges(MachineState state, int n, int[][] results) throws TransitionDefinitionException, MoveDefinitionException, GoalDefinitionException {
+        performDepthCharges(state, n, results, null);
+    }
+
+    /**
+     * Performs the given number of depth charges from the given state, and
+     * records the goal values that every role got at the end of each one.
+     * <p>
+     * By default this calls {@link #performDepthCharge(MachineState, int[])} and
+     * {@link #getGoal(MachineState, Role)} for each depth charge. Implementations
+     * that can run playouts without building a MachineState and a joint move
+     * on every step should override it; callers that run many playouts should
+     * prefer it over performDepthCharge.
+     *
+     * @param results an array with at least n rows, each with one entry per
+     * role. results[i][r] is set to the goal value of the r-th role, in the
+     * order of {@link #getRoles()}, at the end of the i-th depth charge.
+     * @param depths if not null, an array of at least n elements; depths[i]
+     * is set to the number of state changes made by the i-th depth charge.
+     */
+    public void performDepthCharges(MachineState state, int n, int[][] results, int[] depths) throws TransitionDefinitionException, MoveDefinitionException, GoalDefinitionException {
+        List<Role> roles = getRoles();
+        final int[] depth = new int[1];
+        for (int i = 0; i < n; i++) {
+            MachineState finalState = performDepthCharge(state.clone(), depth);
+            for (int r = 0; r < roles.size(); r++) {
+                results[i][r] = getGoal(finalState, roles.get(r));
+            }
+            if (depths != null) {
+                depths[i] = depth[0];
+            }
+        }
+    }
+
     public void getAverageDiscountedScoresFromRepeatedDepthCharges(final MachineState state, final double[] avgScores, final double[] avgDepth, final double discountFactor, final int repetitions) throws TransitionDefinitionException, MoveDefinitionException, GoalDefinitionException {
     	avgDepth[0] = 0;
     	for (int j = 0; j < avgScores.length; j++) {
     		avgScores[j] = 0;
     	}
-    	final int[] depth = new int[1];
+    	final int[][] results = new int[repetitions][getRoles().size()];
+    	final int[] depths = new int[repetitions];
+    	performDepthCharges(state, repetitions, results, depths);
     	for (int i = 0; i < repetitions; i++) {
-    		MachineState stateForCharge = state.clone();
-    		stateForCharge = performDepthCharge(stateForCharge, depth);
-    		avgDepth[0] += depth[0];
-    		final double accumulatedDiscountFactor = Math.pow(discountFactor, depth[0]);
+    		avgDepth[0] += depths[i];
+    		final double accumulatedDiscountFactor = Math.pow(discountFactor, depths[i]);
     		for (int j = 0; j < avgScores.length; j++) {
-    			avgScores[j] += getGoal(stateForCharge, getRoles().get(j)) * accumulatedDiscountFactor;
+    			avgScores[j] += results[i][j] * accumulatedDiscountFactor;
     		}
     	}
     	avgDepth[0] /= repetitions;
@@ -419,4 +705,4 @@ public abstract class StateMachine
     		avgScores[j] /= repetitions;
     	}
     }
-}
\ No newline at end of file
+}
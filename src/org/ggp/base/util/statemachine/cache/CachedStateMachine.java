@@ -110,6 +110,82 @@ public final class CachedStateMachine extends StateMachine
 		}
 	}
 
+	/**
+	 * Steps through the cache, so the next state is only computed once for
+	 * each joint move, however it's given.
+	 */
+	@Override
+	public MachineState getNextState(MachineState state, long jointMove) throws TransitionDefinitionException
+	{
+		return getNextState(state, getJointMoveFromIndex(jointMove));
+	}
+
+	@Override
+	public int getMoveIndex(int roleIndex, Move move)
+	{
+		return backingStateMachine.getMoveIndex(roleIndex, move);
+	}
+
+	@Override
+	public Move getMoveFromIndex(int roleIndex, int moveIndex)
+	{
+		return backingStateMachine.getMoveFromIndex(roleIndex, moveIndex);
+	}
+
+	@Override
+	public int getMoveIndexRadix(int roleIndex)
+	{
+		return backingStateMachine.getMoveIndexRadix(roleIndex);
+	}
+
+	@Override
+	public long getJointMoveIndex(int[] moveIndices)
+	{
+		return backingStateMachine.getJointMoveIndex(moveIndices);
+	}
+
+	@Override
+	public int getMoveIndexFromJointMove(long jointMove, int roleIndex)
+	{
+		return backingStateMachine.getMoveIndexFromJointMove(jointMove, roleIndex);
+	}
+
+	@Override
+	public List<Move> getJointMoveFromIndex(long jointMove)
+	{
+		return backingStateMachine.getJointMoveFromIndex(jointMove);
+	}
+
+	/**
+	 * Maps the cached legal moves to their indices, so the legal moves are
+	 * only computed once for each state, however they're asked for.
+	 */
+	@Override
+	public int getLegalMoveIndices(MachineState state, int roleIndex, int[] buffer) throws MoveDefinitionException
+	{
+		List<Move> legals = getLegalMoves(state, getRoles().get(roleIndex));
+		int count = legals.size();
+		for (int i = 0; i < count && i < buffer.length; i++) {
+			buffer[i] = getMoveIndex(roleIndex, legals.get(i));
+		}
+		return count;
+	}
+
+	/**
+	 * Draws each role's move from the cached legal moves.
+	 */
+	@Override
+	public long getRandomJointMoveIndex(MachineState state) throws MoveDefinitionException
+	{
+		List<Role> roles = getRoles();
+		int[] moveIndices = new int[roles.size()];
+		for (int r = 0; r < roles.size(); r++) {
+			List<Move> legals = getLegalMoves(state, roles.get(r));
+			moveIndices[r] = getMoveIndex(r, legals.get(getRandom().nextInt(legals.size())));
+		}
+		return getJointMoveIndex(moveIndices);
+	}
+
 	@Override
 	public void doPerMoveWork()
 	{
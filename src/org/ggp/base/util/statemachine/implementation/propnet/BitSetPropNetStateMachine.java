@@ -0,0 +1,456 @@
+package org.ggp.base.util.statemachine.implementation.propnet;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+
+import org.ggp.base.util.gdl.grammar.Gdl;
+import org.ggp.base.util.gdl.grammar.GdlSentence;
+import org.ggp.base.util.propnet.architecture.CompiledPropNet;
+import org.ggp.base.util.propnet.architecture.PropNet;
+import org.ggp.base.util.propnet.architecture.PropNetEvaluator;
+import org.ggp.base.util.propnet.factory.OptimizingPropNetFactory;
+import org.ggp.base.util.propnet.factory.PropNetCache;
+import org.ggp.base.util.statemachine.BaseSentenceIndex;
+import org.ggp.base.util.statemachine.BitSetMachineState;
+import org.ggp.base.util.statemachine.MachineState;
+import org.ggp.base.util.statemachine.Move;
+import org.ggp.base.util.statemachine.Role;
+import org.ggp.base.util.statemachine.StateMachine;
+import org.ggp.base.util.statemachine.exceptions.GoalDefinitionException;
+import org.ggp.base.util.statemachine.exceptions.MoveDefinitionException;
+import org.ggp.base.util.statemachine.exceptions.TransitionDefinitionException;
+
+
+/**
+ * The BitSetPropNetStateMachine is a propnet-based state machine that flattens
+ * the propnet built by the {@link OptimizingPropNetFactory} into a
+ * {@link CompiledPropNet}, and keeps the value of every component in a single
+ * long[] bitset.
+ *
+ * Each query marks the base propositions for its state and then computes the
+ * value of every other component in one forward sweep over the components in
+ * topological order. The values for the most recently marked state are kept
+ * around, so asking isTerminal, getGoal, getLegalMoves and getNextState about
+ * the same state only costs one sweep over the state-dependent components, plus
+ * one sweep over the move-dependent components for each joint move.
+ *
+ * States are returned as {@link BitSetMachineState}s whose bits line up with
+ * the base propositions of the compiled propnet, so marking one of them only
+ * copies its words into the value bitset.
+ *
+ * Depth charges run directly on the value bitset: the moves are chosen from
+ * the legal propositions and the next state is copied from the transitions
+ * into the base propositions, without building a MachineState or a joint
+ * move on the way.
+ *
+ * This state machine is not thread-safe: each thread should use its own
+ * instance.
+ */
+public class BitSetPropNetStateMachine extends StateMachine
+{
+	/** The flattened propnet. */
+	private CompiledPropNet net;
+	/** Computes the values of the gates of the flattened propnet. */
+	private PropNetEvaluator evaluator;
+	/** The index of the base propositions, shared by every state we return. */
+	private BaseSentenceIndex baseIndex;
+	/** The current value of every component, indexed by component id. */
+	private long[] values;
+	/** The state whose base propositions are currently marked, if any. */
+	private MachineState markedState;
+	private MachineState initialState;
+	private List<Role> roles;
+	/** Whether joint moves pack into a long, rather than being interned. */
+	private boolean jointMovesFit;
+
+	/** Where the propnet is looked for before it's built, or null to always build it. */
+	private final PropNetCache cache;
+
+	/**
+	 * Creates a state machine that uses the default {@link PropNetCache},
+	 * if there is one.
+	 */
+	public BitSetPropNetStateMachine()
+	{
+		this(PropNetCache.getDefault());
+	}
+
+	/**
+	 * @param cache Where to look for the propnet before building it, and
+	 * to keep it afterwards, or null to always build it.
+	 */
+	public BitSetPropNetStateMachine(PropNetCache cache)
+	{
+		this.cache = cache;
+	}
+
+	@Override
+	public void initialize(List<Gdl> description)
+	{
+		PropNet propNet;
+		try {
+			propNet = (cache == null) ? OptimizingPropNetFactory.create(description) : cache.getOrCreate(description);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new RuntimeException(e);
+		}
+		net = CompiledPropNet.compile(propNet);
+		evaluator = createEvaluator(net);
+		baseIndex = new BaseSentenceIndex(net.getBaseSentences());
+		roles = net.getRoles();
+		jointMovesFit = jointMoveIndicesFit();
+		values = net.createValues();
+		markedState = null;
+		initialState = computeInitialState();
+	}
+
+	/**
+	 * Creates the evaluator used to compute the values of the gates. By
+	 * default, this sweeps over the compiled propnet.
+	 */
+	protected PropNetEvaluator createEvaluator(CompiledPropNet net)
+	{
+		return PropNetEvaluator.interpret(net);
+	}
+
+	/**
+	 * Computes the initial state by setting only the INIT proposition and
+	 * reading the values of the transitions.
+	 */
+	private MachineState computeInitialState()
+	{
+		CompiledPropNet.clearRange(values, 0, net.getFirstFixed());
+		if (net.getInitId() != -1) {
+			CompiledPropNet.set(values, net.getInitId(), true);
+		}
+		evaluator.propagateState(values);
+		evaluator.propagateMoves(values);
+		MachineState state = getStateFromTransitions();
+		if (net.getInitId() != -1) {
+			CompiledPropNet.set(values, net.getInitId(), false);
+		}
+		markedState = null;
+		return state;
+	}
+
+	/**
+	 * Marks the base propositions for the given state and propagates their
+	 * values through every component that doesn't depend on the moves.
+	 * Does nothing if the state is already marked.
+	 */
+	private void markState(MachineState state)
+	{
+		if (state == markedState) {
+			return;
+		}
+		CompiledPropNet.clearRange(values, 0, net.getNumBases());
+		if (state instanceof BitSetMachineState && ((BitSetMachineState) state).getIndex() == baseIndex) {
+			// Base ids start at zero, so the state's words can be copied directly;
+			// only the last word is shared with the components that follow.
+			long[] bits = ((BitSetMachineState) state).getBits();
+			for (int w = 0; w < bits.length; w++) {
+				values[w] |= bits[w];
+			}
+		} else {
+			for (GdlSentence sentence : state.getContents()) {
+				Integer base = net.getBaseIndex(sentence);
+				if (base != null) {
+					CompiledPropNet.set(values, base, true);
+				}
+			}
+		}
+		evaluator.propagateState(values);
+		markedState = state;
+	}
+
+	private void markMoves(List<Move> moves)
+	{
+		CompiledPropNet.clearRange(values, net.getNumBases(), net.getFirstFixed());
+		for (int r = 0; r < moves.size(); r++) {
+			int input = net.getInputId(r, moves.get(r));
+			if (input != -1) {
+				CompiledPropNet.set(values, input, true);
+			}
+		}
+	}
+
+	/**
+	 * Returns the state whose base propositions are currently marked.
+	 */
+	private MachineState getStateFromBases()
+	{
+		long[] bits = new long[baseIndex.getNumWords()];
+		System.arraycopy(values, 0, bits, 0, bits.length);
+		int numBases = net.getNumBases();
+		if ((numBases & 63) != 0) {
+			bits[bits.length - 1] &= (1L << numBases) - 1;
+		}
+		return baseIndex.createState(bits);
+	}
+
+	private MachineState getStateFromTransitions()
+	{
+		int[] transitions = net.getBaseTransitions();
+		long[] bits = new long[baseIndex.getNumWords()];
+		for (int b = 0; b < transitions.length; b++) {
+			if (CompiledPropNet.get(values, transitions[b])) {
+				bits[b >>> 6] |= 1L << b;
+			}
+		}
+		return baseIndex.createState(bits);
+	}
+
+	/**
+	 * Computes whether the state is terminal, from the value of the terminal
+	 * proposition.
+	 */
+	@Override
+	public boolean isTerminal(MachineState state)
+	{
+		markState(state);
+		return net.getTerminalId() != -1 && CompiledPropNet.get(values, net.getTerminalId());
+	}
+
+	/**
+	 * Computes the goal for a role in the given state. Throws a
+	 * GoalDefinitionException if there isn't exactly one goal
+	 * proposition true for that role.
+	 */
+	@Override
+	public int getGoal(MachineState state, Role role) throws GoalDefinitionException
+	{
+		markState(state);
+		int goal = getMarkedGoal(getRoleIndices().get(role));
+		if (goal == -1) {
+			throw new GoalDefinitionException(state, role);
+		}
+		return goal;
+	}
+
+	/**
+	 * Returns the goal value of the given role in the marked state, or -1
+	 * if there isn't exactly one goal proposition true for that role.
+	 */
+	private int getMarkedGoal(int roleIndex)
+	{
+		int[] goalIds = net.getGoalIds()[roleIndex];
+		int[] goalValues = net.getGoalValues()[roleIndex];
+		int goal = -1;
+		for (int i = 0; i < goalIds.length; i++) {
+			if (CompiledPropNet.get(values, goalIds[i])) {
+				if (goal != -1) {
+					return -1;
+				}
+				goal = goalValues[i];
+			}
+		}
+		return goal;
+	}
+
+	@Override
+	public MachineState getInitialState()
+	{
+		return initialState;
+	}
+
+	@Override
+	public List<Move> getLegalMoves(MachineState state, Role role) throws MoveDefinitionException
+	{
+		markState(state);
+		int roleIndex = getRoleIndices().get(role);
+		int[] legalIds = net.getLegalIds()[roleIndex];
+		Move[] legalMoves = net.getLegalMoves()[roleIndex];
+		List<Move> moves = new ArrayList<Move>();
+		for (int i = 0; i < legalIds.length; i++) {
+			if (CompiledPropNet.get(values, legalIds[i])) {
+				moves.add(legalMoves[i]);
+			}
+		}
+		if (moves.isEmpty()) {
+			throw new MoveDefinitionException(state, role);
+		}
+		return moves;
+	}
+
+	@Override
+	public MachineState getNextState(MachineState state, List<Move> moves) throws TransitionDefinitionException
+	{
+		markState(state);
+		markMoves(moves);
+		evaluator.propagateMoves(values);
+		return getStateFromTransitions();
+	}
+
+	@Override
+	public MachineState getNextState(MachineState state, long jointMove) throws TransitionDefinitionException
+	{
+		if (jointMove < 0) {
+			return getNextState(state, getJointMoveFromIndex(jointMove));
+		}
+		markState(state);
+		CompiledPropNet.clearRange(values, net.getNumBases(), net.getFirstFixed());
+		int[][] legalInputIds = net.getLegalInputIds();
+		for (int r = 0; r < roles.size(); r++) {
+			int radix = getMoveIndexRadix(r);
+			int moveIndex = (int) (jointMove % radix);
+			// A role with no legal propositions selects no input.
+			int input = (moveIndex < legalInputIds[r].length) ? legalInputIds[r][moveIndex] : -1;
+			if (input != -1) {
+				CompiledPropNet.set(values, input, true);
+			}
+			jointMove /= radix;
+		}
+		evaluator.propagateMoves(values);
+		return getStateFromTransitions();
+	}
+
+	@Override
+	public int getMoveIndex(int roleIndex, Move move)
+	{
+		return net.getLegalIndex(roleIndex, move);
+	}
+
+	@Override
+	public Move getMoveFromIndex(int roleIndex, int moveIndex)
+	{
+		return net.getLegalMoves()[roleIndex][moveIndex];
+	}
+
+	/**
+	 * Move indices are positions in the legal propositions of the role, so
+	 * they're bounded by the number of legal propositions.
+	 */
+	@Override
+	public int getMoveIndexRadix(int roleIndex)
+	{
+		return Math.max(1, net.getLegalMoves()[roleIndex].length);
+	}
+
+	@Override
+	public int getLegalMoveIndices(MachineState state, int roleIndex, int[] buffer) throws MoveDefinitionException
+	{
+		markState(state);
+		int[] legalIds = net.getLegalIds()[roleIndex];
+		int count = 0;
+		for (int i = 0; i < legalIds.length; i++) {
+			if (CompiledPropNet.get(values, legalIds[i])) {
+				if (count < buffer.length) {
+					buffer[count] = i;
+				}
+				count++;
+			}
+		}
+		if (count == 0) {
+			throw new MoveDefinitionException(state, roles.get(roleIndex));
+		}
+		return count;
+	}
+
+	@Override
+	public long getRandomJointMoveIndex(MachineState state) throws MoveDefinitionException
+	{
+		if (!jointMovesFit) {
+			return super.getRandomJointMoveIndex(state);
+		}
+		markState(state);
+		int[][] legalIds = net.getLegalIds();
+		long jointMove = 0;
+		long multiplier = 1;
+		for (int r = 0; r < roles.size(); r++) {
+			int choice = chooseRandomLegal(legalIds[r]);
+			if (choice == -1) {
+				throw new MoveDefinitionException(state, roles.get(r));
+			}
+			jointMove += choice * multiplier;
+			multiplier *= getMoveIndexRadix(r);
+		}
+		return jointMove;
+	}
+
+	@Override
+	public void performDepthCharges(MachineState state, int n, int[][] results, int[] depths) throws TransitionDefinitionException, MoveDefinitionException, GoalDefinitionException
+	{
+		int numRoles = roles.size();
+		int numBases = net.getNumBases();
+		int firstFixed = net.getFirstFixed();
+		int terminalId = net.getTerminalId();
+		int[] transitions = net.getBaseTransitions();
+		int[][] legalIds = net.getLegalIds();
+		int[][] legalInputIds = net.getLegalInputIds();
+		for (int i = 0; i < n; i++) {
+			markState(state);
+			// The values are overwritten as the depth charge goes on.
+			markedState = null;
+			int depth = 0;
+			while (terminalId == -1 || !CompiledPropNet.get(values, terminalId)) {
+				CompiledPropNet.clearRange(values, numBases, firstFixed);
+				for (int r = 0; r < numRoles; r++) {
+					int choice = chooseRandomLegal(legalIds[r]);
+					if (choice == -1) {
+						throw new MoveDefinitionException(getStateFromBases(), roles.get(r));
+					}
+					int input = legalInputIds[r][choice];
+					if (input != -1) {
+						CompiledPropNet.set(values, input, true);
+					}
+				}
+				evaluator.propagateMoves(values);
+				// The transitions are gates, so clearing the bases leaves them alone.
+				CompiledPropNet.clearRange(values, 0, numBases);
+				for (int b = 0; b < transitions.length; b++) {
+					if (CompiledPropNet.get(values, transitions[b])) {
+						CompiledPropNet.set(values, b, true);
+					}
+				}
+				evaluator.propagateState(values);
+				depth++;
+			}
+			for (int r = 0; r < numRoles; r++) {
+				int goal = getMarkedGoal(r);
+				if (goal == -1) {
+					throw new GoalDefinitionException(getStateFromBases(), roles.get(r));
+				}
+				results[i][r] = goal;
+			}
+			if (depths != null) {
+				depths[i] = depth;
+			}
+		}
+	}
+
+	/**
+	 * Returns the position in legalIds of a legal proposition chosen
+	 * uniformly at random among the true ones, or -1 if none is true.
+	 */
+	private int chooseRandomLegal(int[] legalIds)
+	{
+		int count = 0;
+		for (int i = 0; i < legalIds.length; i++) {
+			if (CompiledPropNet.get(values, legalIds[i])) {
+				count++;
+			}
+		}
+		if (count == 0) {
+			return -1;
+		}
+		int k = getRandom().nextInt(count);
+		for (int i = 0; ; i++) {
+			if (CompiledPropNet.get(values, legalIds[i]) && k-- == 0) {
+				return i;
+			}
+		}
+	}
+
+	@Override
+	public MachineState getMachineStateFromSentenceList(Set<GdlSentence> sentenceList)
+	{
+		return baseIndex.createState(sentenceList);
+	}
+
+	@Override
+	public List<Role> getRoles()
+	{
+		return roles;
+	}
+}
@@ -0,0 +1,620 @@
+package org.ggp.base.util.statemachine.implementation.propnet;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+
+import org.ggp.base.util.gdl.grammar.Gdl;
+import org.ggp.base.util.gdl.grammar.GdlSentence;
+import org.ggp.base.util.propnet.architecture.CompiledPropNet;
+import org.ggp.base.util.propnet.architecture.PropNet;
+import org.ggp.base.util.propnet.factory.OptimizingPropNetFactory;
+import org.ggp.base.util.propnet.factory.PropNetCache;
+import org.ggp.base.util.statemachine.BaseSentenceIndex;
+import org.ggp.base.util.statemachine.BitSetMachineState;
+import org.ggp.base.util.statemachine.MachineState;
+import org.ggp.base.util.statemachine.Move;
+import org.ggp.base.util.statemachine.Role;
+import org.ggp.base.util.statemachine.StateMachine;
+import org.ggp.base.util.statemachine.exceptions.GoalDefinitionException;
+import org.ggp.base.util.statemachine.exceptions.MoveDefinitionException;
+import org.ggp.base.util.statemachine.exceptions.TransitionDefinitionException;
+
+
+/**
+ * The DifferentialPropNetStateMachine is a propnet-based state machine that
+ * propagates changes rather than re-evaluating the whole propnet.
+ *
+ * It keeps the values of every component from the last state and joint move
+ * it was asked about, along with the number of true inputs of every gate.
+ * When asked about a new state, only the base and input propositions whose
+ * values differ are flipped, and each flip is pushed through the outputs of
+ * that component, updating the true-input counters as it goes. A gate is only
+ * re-evaluated when one of its counters changed, and its outputs are only
+ * visited when its value actually changed. Gates are processed in topological
+ * order, so each one is evaluated at most once per update.
+ *
+ * In games where consecutive states differ in a handful of base propositions,
+ * which is typical of board games, this touches far fewer components than
+ * the full sweep done by the {@link BitSetPropNetStateMachine}. The average
+ * number of components touched per transition is tracked so that this can be
+ * checked for a given game.
+ *
+ * Depth charges choose their moves straight from the legal propositions and
+ * flip the inputs and base propositions in place, so they don't build a
+ * MachineState or a joint move on each step.
+ *
+ * This state machine is not thread-safe: each thread should use its own
+ * instance.
+ */
+public final class DifferentialPropNetStateMachine extends StateMachine
+{
+	/** The flattened propnet. */
+	private CompiledPropNet net;
+	/** The index of the base propositions, shared by every state we return. */
+	private BaseSentenceIndex baseIndex;
+	/** The current value of every component, indexed by component id. */
+	private long[] values;
+	/** The number of true inputs of every component, indexed by component id. */
+	private int[] trueInputs;
+	/** The state whose base propositions are currently marked, if any. */
+	private MachineState markedState;
+	private MachineState initialState;
+	private List<Role> roles;
+	/** Whether joint moves pack into a long, rather than being interned. */
+	private boolean jointMovesFit;
+	/** Scratch space for depth charges. */
+	private long[] chargeBits;
+	private int[] chargeInputs;
+
+	/** Pending gates, as a binary min-heap of component ids. */
+	private int[] heap;
+	private int heapSize;
+	/** Which components are currently in the heap. */
+	private long[] queued;
+
+	private long componentsTouched;
+	private long transitions;
+
+	/** Where the propnet is looked for before it's built, or null to always build it. */
+	private final PropNetCache cache;
+
+	/**
+	 * Creates a state machine that uses the default {@link PropNetCache},
+	 * if there is one.
+	 */
+	public DifferentialPropNetStateMachine()
+	{
+		this(PropNetCache.getDefault());
+	}
+
+	/**
+	 * @param cache Where to look for the propnet before building it, and
+	 * to keep it afterwards, or null to always build it.
+	 */
+	public DifferentialPropNetStateMachine(PropNetCache cache)
+	{
+		this.cache = cache;
+	}
+
+	@Override
+	public void initialize(List<Gdl> description)
+	{
+		PropNet propNet;
+		try {
+			propNet = (cache == null) ? OptimizingPropNetFactory.create(description) : cache.getOrCreate(description);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new RuntimeException(e);
+		}
+		net = CompiledPropNet.compile(propNet);
+		baseIndex = new BaseSentenceIndex(net.getBaseSentences());
+		roles = net.getRoles();
+		jointMovesFit = jointMoveIndicesFit();
+		chargeBits = new long[baseIndex.getNumWords()];
+		chargeInputs = new int[roles.size()];
+		heap = new int[net.getSize()];
+		heapSize = 0;
+		queued = new long[(net.getSize() + 63) / 64];
+		componentsTouched = 0;
+		transitions = 0;
+
+		// The initial state is computed with a full sweep, with INIT set.
+		values = net.createValues();
+		if (net.getInitId() != -1) {
+			CompiledPropNet.set(values, net.getInitId(), true);
+		}
+		net.sweep(values, net.getFirstGate(), net.getSize());
+		initialState = getStateFromTransitions();
+
+		// Then the counters are set up for the empty state, with INIT unset.
+		values = net.createValues();
+		net.sweep(values, net.getFirstGate(), net.getSize());
+		trueInputs = new int[net.getSize()];
+		int[] inputOffsets = net.getInputOffsets();
+		int[] inputIds = net.getInputIds();
+		for (int i = 0; i < net.getSize(); i++) {
+			for (int j = inputOffsets[i]; j < inputOffsets[i+1]; j++) {
+				if (CompiledPropNet.get(values, inputIds[j])) {
+					trueInputs[i]++;
+				}
+			}
+		}
+		markedState = null;
+	}
+
+	/**
+	 * Returns the average number of components whose values were flipped or
+	 * recomputed per call to getNextState, including the work of marking the
+	 * states passed to other queries in between.
+	 */
+	public double getAverageComponentsTouched()
+	{
+		return (transitions == 0) ? 0.0 : (double) componentsTouched / transitions;
+	}
+
+	/**
+	 * Returns the total number of components whose values were flipped or
+	 * recomputed so far, so that the cost of a particular update can be read
+	 * off as the difference before and after it.
+	 */
+	public long getComponentsTouched()
+	{
+		return componentsTouched;
+	}
+
+	/**
+	 * Returns the number of components in the propnet, for comparison with
+	 * {@link #getAverageComponentsTouched()}.
+	 */
+	public int getPropNetSize()
+	{
+		return net.getSize();
+	}
+
+	/**
+	 * Flips the base propositions that differ between the marked state and
+	 * the given one, and propagates the changes.
+	 */
+	private void markState(MachineState state)
+	{
+		if (state == markedState) {
+			return;
+		}
+		BitSetMachineState bitState;
+		if (state instanceof BitSetMachineState && ((BitSetMachineState) state).getIndex() == baseIndex) {
+			bitState = (BitSetMachineState) state;
+		} else {
+			bitState = baseIndex.createState(state.getContents());
+		}
+		markBits(bitState.getBits());
+		markedState = state;
+	}
+
+	/**
+	 * Flips the base propositions that differ from the given bits, and
+	 * propagates the changes.
+	 */
+	private void markBits(long[] bits)
+	{
+		int numBases = net.getNumBases();
+		for (int w = 0; w < bits.length; w++) {
+			long current = values[w];
+			if (w == bits.length - 1 && (numBases & 63) != 0) {
+				current &= (1L << numBases) - 1;
+			}
+			long changed = current ^ bits[w];
+			while (changed != 0) {
+				flip((w << 6) + Long.numberOfTrailingZeros(changed));
+				changed &= changed - 1;
+			}
+		}
+		propagate();
+	}
+
+	private void markMoves(List<Move> moves)
+	{
+		int[] selected = new int[moves.size()];
+		for (int r = 0; r < moves.size(); r++) {
+			selected[r] = net.getInputId(r, moves.get(r));
+		}
+		markInputs(selected);
+	}
+
+	/**
+	 * Sets exactly the given input propositions, ignoring any -1 entries,
+	 * and propagates the changes.
+	 */
+	private void markInputs(int[] selected)
+	{
+		int firstInput = net.getNumBases();
+		int firstFixed = net.getFirstFixed();
+		// Unset inputs that are no longer selected, then set the new ones.
+		for (int i = firstInput; i < firstFixed; i++) {
+			if (CompiledPropNet.get(values, i) && !contains(selected, i)) {
+				flip(i);
+			}
+		}
+		for (int input : selected) {
+			if (input != -1 && !CompiledPropNet.get(values, input)) {
+				flip(input);
+			}
+		}
+		propagate();
+	}
+
+	private static boolean contains(int[] array, int value)
+	{
+		for (int x : array) {
+			if (x == value) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Flips the value of the given component, updates the counters of its
+	 * outputs and queues them for re-evaluation.
+	 */
+	private void flip(int id)
+	{
+		boolean value = !CompiledPropNet.get(values, id);
+		CompiledPropNet.set(values, id, value);
+		componentsTouched++;
+		int delta = value ? 1 : -1;
+		int[] outputOffsets = net.getOutputOffsets();
+		int[] outputIds = net.getOutputIds();
+		for (int j = outputOffsets[id]; j < outputOffsets[id+1]; j++) {
+			int out = outputIds[j];
+			trueInputs[out] += delta;
+			if (!CompiledPropNet.get(queued, out)) {
+				CompiledPropNet.set(queued, out, true);
+				push(out);
+			}
+		}
+	}
+
+	/**
+	 * Re-evaluates the queued gates in topological order until nothing else
+	 * changes.
+	 */
+	private void propagate()
+	{
+		byte[] types = net.getTypes();
+		int[] inputOffsets = net.getInputOffsets();
+		while (heapSize > 0) {
+			int id = pop();
+			CompiledPropNet.set(queued, id, false);
+			componentsTouched++;
+			int count = trueInputs[id];
+			boolean value;
+			switch (types[id]) {
+			case CompiledPropNet.AND:
+				value = (count == inputOffsets[id+1] - inputOffsets[id]);
+				break;
+			case CompiledPropNet.NOT:
+				value = (count == 0);
+				break;
+			default:
+				value = (count > 0);
+				break;
+			}
+			if (value != CompiledPropNet.get(values, id)) {
+				flip(id);
+			}
+		}
+	}
+
+	private void push(int id)
+	{
+		int i = heapSize++;
+		while (i > 0) {
+			int parent = (i - 1) >>> 1;
+			if (heap[parent] <= id) {
+				break;
+			}
+			heap[i] = heap[parent];
+			i = parent;
+		}
+		heap[i] = id;
+	}
+
+	private int pop()
+	{
+		int result = heap[0];
+		int last = heap[--heapSize];
+		int i = 0;
+		while (true) {
+			int child = 2 * i + 1;
+			if (child >= heapSize) {
+				break;
+			}
+			if (child + 1 < heapSize && heap[child + 1] < heap[child]) {
+				child++;
+			}
+			if (heap[child] >= last) {
+				break;
+			}
+			heap[i] = heap[child];
+			i = child;
+		}
+		heap[i] = last;
+		return result;
+	}
+
+	private MachineState getStateFromTransitions()
+	{
+		long[] bits = new long[baseIndex.getNumWords()];
+		readTransitions(bits);
+		return baseIndex.createState(bits);
+	}
+
+	/**
+	 * Sets the given bits to the values of the transitions, which is the
+	 * next state in the layout of the base index.
+	 */
+	private void readTransitions(long[] bits)
+	{
+		int[] baseTransitions = net.getBaseTransitions();
+		for (int b = 0; b < baseTransitions.length; b++) {
+			if (CompiledPropNet.get(values, baseTransitions[b])) {
+				bits[b >>> 6] |= 1L << b;
+			}
+		}
+	}
+
+	/**
+	 * Returns the state whose base propositions are currently marked.
+	 */
+	private MachineState getStateFromBases()
+	{
+		long[] bits = new long[baseIndex.getNumWords()];
+		System.arraycopy(values, 0, bits, 0, bits.length);
+		int numBases = net.getNumBases();
+		if ((numBases & 63) != 0) {
+			bits[bits.length - 1] &= (1L << numBases) - 1;
+		}
+		return baseIndex.createState(bits);
+	}
+
+	/**
+	 * Computes whether the state is terminal, from the value of the terminal
+	 * proposition.
+	 */
+	@Override
+	public boolean isTerminal(MachineState state)
+	{
+		markState(state);
+		return net.getTerminalId() != -1 && CompiledPropNet.get(values, net.getTerminalId());
+	}
+
+	/**
+	 * Computes the goal for a role in the given state. Throws a
+	 * GoalDefinitionException if there isn't exactly one goal
+	 * proposition true for that role.
+	 */
+	@Override
+	public int getGoal(MachineState state, Role role) throws GoalDefinitionException
+	{
+		markState(state);
+		int goal = getMarkedGoal(getRoleIndices().get(role));
+		if (goal == -1) {
+			throw new GoalDefinitionException(state, role);
+		}
+		return goal;
+	}
+
+	/**
+	 * Returns the goal value of the given role in the marked state, or -1
+	 * if there isn't exactly one goal proposition true for that role.
+	 */
+	private int getMarkedGoal(int roleIndex)
+	{
+		int[] goalIds = net.getGoalIds()[roleIndex];
+		int[] goalValues = net.getGoalValues()[roleIndex];
+		int goal = -1;
+		for (int i = 0; i < goalIds.length; i++) {
+			if (CompiledPropNet.get(values, goalIds[i])) {
+				if (goal != -1) {
+					return -1;
+				}
+				goal = goalValues[i];
+			}
+		}
+		return goal;
+	}
+
+	@Override
+	public MachineState getInitialState()
+	{
+		return initialState;
+	}
+
+	@Override
+	public List<Move> getLegalMoves(MachineState state, Role role) throws MoveDefinitionException
+	{
+		markState(state);
+		int roleIndex = getRoleIndices().get(role);
+		int[] legalIds = net.getLegalIds()[roleIndex];
+		Move[] legalMoves = net.getLegalMoves()[roleIndex];
+		List<Move> moves = new ArrayList<Move>();
+		for (int i = 0; i < legalIds.length; i++) {
+			if (CompiledPropNet.get(values, legalIds[i])) {
+				moves.add(legalMoves[i]);
+			}
+		}
+		if (moves.isEmpty()) {
+			throw new MoveDefinitionException(state, role);
+		}
+		return moves;
+	}
+
+	@Override
+	public MachineState getNextState(MachineState state, List<Move> moves) throws TransitionDefinitionException
+	{
+		markState(state);
+		markMoves(moves);
+		transitions++;
+		return getStateFromTransitions();
+	}
+
+	@Override
+	public MachineState getNextState(MachineState state, long jointMove) throws TransitionDefinitionException
+	{
+		if (jointMove < 0) {
+			return getNextState(state, getJointMoveFromIndex(jointMove));
+		}
+		markState(state);
+		int[][] legalInputIds = net.getLegalInputIds();
+		for (int r = 0; r < roles.size(); r++) {
+			int radix = getMoveIndexRadix(r);
+			int moveIndex = (int) (jointMove % radix);
+			// A role with no legal propositions selects no input, as in markMoves.
+			chargeInputs[r] = (moveIndex < legalInputIds[r].length) ? legalInputIds[r][moveIndex] : -1;
+			jointMove /= radix;
+		}
+		markInputs(chargeInputs);
+		transitions++;
+		return getStateFromTransitions();
+	}
+
+	@Override
+	public int getMoveIndex(int roleIndex, Move move)
+	{
+		return net.getLegalIndex(roleIndex, move);
+	}
+
+	@Override
+	public Move getMoveFromIndex(int roleIndex, int moveIndex)
+	{
+		return net.getLegalMoves()[roleIndex][moveIndex];
+	}
+
+	/**
+	 * Move indices are positions in the legal propositions of the role, so
+	 * they're bounded by the number of legal propositions.
+	 */
+	@Override
+	public int getMoveIndexRadix(int roleIndex)
+	{
+		return Math.max(1, net.getLegalMoves()[roleIndex].length);
+	}
+
+	@Override
+	public int getLegalMoveIndices(MachineState state, int roleIndex, int[] buffer) throws MoveDefinitionException
+	{
+		markState(state);
+		int[] legalIds = net.getLegalIds()[roleIndex];
+		int count = 0;
+		for (int i = 0; i < legalIds.length; i++) {
+			if (CompiledPropNet.get(values, legalIds[i])) {
+				if (count < buffer.length) {
+					buffer[count] = i;
+				}
+				count++;
+			}
+		}
+		if (count == 0) {
+			throw new MoveDefinitionException(state, roles.get(roleIndex));
+		}
+		return count;
+	}
+
+	@Override
+	public long getRandomJointMoveIndex(MachineState state) throws MoveDefinitionException
+	{
+		if (!jointMovesFit) {
+			return super.getRandomJointMoveIndex(state);
+		}
+		markState(state);
+		int[][] legalIds = net.getLegalIds();
+		long jointMove = 0;
+		long multiplier = 1;
+		for (int r = 0; r < roles.size(); r++) {
+			int choice = chooseRandomLegal(legalIds[r]);
+			if (choice == -1) {
+				throw new MoveDefinitionException(state, roles.get(r));
+			}
+			jointMove += choice * multiplier;
+			multiplier *= getMoveIndexRadix(r);
+		}
+		return jointMove;
+	}
+
+	@Override
+	public void performDepthCharges(MachineState state, int n, int[][] results, int[] depths) throws TransitionDefinitionException, MoveDefinitionException, GoalDefinitionException
+	{
+		int numRoles = roles.size();
+		int terminalId = net.getTerminalId();
+		int[][] legalIds = net.getLegalIds();
+		int[][] legalInputIds = net.getLegalInputIds();
+		for (int i = 0; i < n; i++) {
+			markState(state);
+			// The values are changed as the depth charge goes on.
+			markedState = null;
+			int depth = 0;
+			while (terminalId == -1 || !CompiledPropNet.get(values, terminalId)) {
+				for (int r = 0; r < numRoles; r++) {
+					int choice = chooseRandomLegal(legalIds[r]);
+					if (choice == -1) {
+						throw new MoveDefinitionException(getStateFromBases(), roles.get(r));
+					}
+					chargeInputs[r] = legalInputIds[r][choice];
+				}
+				markInputs(chargeInputs);
+				transitions++;
+				Arrays.fill(chargeBits, 0L);
+				readTransitions(chargeBits);
+				markBits(chargeBits);
+				depth++;
+			}
+			for (int r = 0; r < numRoles; r++) {
+				int goal = getMarkedGoal(r);
+				if (goal == -1) {
+					throw new GoalDefinitionException(getStateFromBases(), roles.get(r));
+				}
+				results[i][r] = goal;
+			}
+			if (depths != null) {
+				depths[i] = depth;
+			}
+		}
+	}
+
+	/**
+	 * Returns the position in legalIds of a legal proposition chosen
+	 * uniformly at random among the true ones, or -1 if none is true.
+	 */
+	private int chooseRandomLegal(int[] legalIds)
+	{
+		int count = 0;
+		for (int i = 0; i < legalIds.length; i++) {
+			if (CompiledPropNet.get(values, legalIds[i])) {
+				count++;
+			}
+		}
+		if (count == 0) {
+			return -1;
+		}
+		int k = getRandom().nextInt(count);
+		for (int i = 0; ; i++) {
+			if (CompiledPropNet.get(values, legalIds[i]) && k-- == 0) {
+				return i;
+			}
+		}
+	}
+
+	@Override
+	public MachineState getMachineStateFromSentenceList(Set<GdlSentence> sentenceList)
+	{
+		return baseIndex.createState(sentenceList);
+	}
+
+	@Override
+	public List<Role> getRoles()
+	{
+		return roles;
+	}
+}
@@ -0,0 +1,43 @@
+package org.ggp.base.util.statemachine.implementation.propnet;
+
+import javassist.CannotCompileException;
+
+import org.ggp.base.util.propnet.architecture.CompiledPropNet;
+import org.ggp.base.util.propnet.architecture.PropNetEvaluator;
+import org.ggp.base.util.propnet.factory.JavassistPropNetCompiler;
+
+
+/**
+ * The JavassistPropNetStateMachine is a {@link BitSetPropNetStateMachine}
+ * whose gates are evaluated by bytecode generated for the specific game by
+ * the {@link JavassistPropNetCompiler}, rather than by sweeping over the
+ * compiled propnet.
+ *
+ * Generating the evaluator can fail for unusual propnets, and is the kind of
+ * thing that's best kept behind a {@link org.ggp.base.util.statemachine.FailsafeStateMachine}:
+ * failures are reported as runtime exceptions from initialize.
+ */
+public final class JavassistPropNetStateMachine extends BitSetPropNetStateMachine
+{
+	private final JavassistPropNetCompiler compiler;
+
+	public JavassistPropNetStateMachine()
+	{
+		this(new JavassistPropNetCompiler());
+	}
+
+	public JavassistPropNetStateMachine(JavassistPropNetCompiler compiler)
+	{
+		this.compiler = compiler;
+	}
+
+	@Override
+	protected PropNetEvaluator createEvaluator(CompiledPropNet net)
+	{
+		try {
+			return compiler.compile(net);
+		} catch (CannotCompileException e) {
+			throw new RuntimeException(e);
+		}
+	}
+}
@@ -1,5 +1,6 @@
 package org.ggp.base.util.statemachine.implementation.prover;
 
+import java.util.Collections;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
@@ -18,30 +19,99 @@ import org.ggp.base.util.statemachine.StateMachine;
 import org.ggp.base.util.statemachine.exceptions.GoalDefinitionException;
 import org.ggp.base.util.statemachine.exceptions.MoveDefinitionException;
 import org.ggp.base.util.statemachine.exceptions.TransitionDefinitionException;
+import org.ggp.base.util.statemachine.implementation.prover.cache.StateSliceCache;
 import org.ggp.base.util.statemachine.implementation.prover.query.ProverQueryBuilder;
 import org.ggp.base.util.statemachine.implementation.prover.result.ProverResultParser;
 
 
+/**
+ * A state machine that answers each query by resolution over the rules of
+ * the game. Once initialized, it may be queried by any number of threads at
+ * once, through Move lists or indexed moves: the prover's knowledge base and
+ * caches are safe to share, each query keeps its own working state, and the
+ * moves StateMachine has indexed are guarded by a lock.
+ */
 public class ProverStateMachine extends StateMachine
 {
 	private MachineState initialState;
 	private Prover prover;
 	private List<Role> roles;
+	private final boolean tabled;
+	private final boolean cacheViews;
+	/** The answers to legal, goal and terminal queries, or null if they aren't cached. */
+	private StateSliceCache viewCache;
 
 	/**
 	 * Initialize must be called before using the StateMachine
 	 */
 	public ProverStateMachine()
 	{
+		this(false);
+	}
 
+	/**
+	 * @param tabled Whether the prover should use tabled resolution, which
+	 * handles recursive relations without re-deriving them.
+	 */
+	public ProverStateMachine(boolean tabled)
+	{
+		this(tabled, false);
+	}
+
+	/**
+	 * @param tabled Whether the prover should use tabled resolution.
+	 * @param cacheViews Whether to cache the answers to legal, goal and
+	 * terminal queries across states, keyed on the sentences of each state
+	 * that they depend on (see {@link StateSliceCache}).
+	 */
+	public ProverStateMachine(boolean tabled, boolean cacheViews)
+	{
+		this.tabled = tabled;
+		this.cacheViews = cacheViews;
 	}
 
 	@Override
 	public void initialize(List<Gdl> description)
 	{
-		prover = new AimaProver(description);
+		prover = new AimaProver(description, tabled);
 		roles = Role.computeRoles(description);
 		initialState = computeInitialState();
+		viewCache = null;
+		if (cacheViews)
+		{
+			try
+			{
+				viewCache = new StateSliceCache(description);
+			}
+			catch (InterruptedException e)
+			{
+				Thread.currentThread().interrupt();
+			}
+			catch (RuntimeException e)
+			{
+				GamerLogger.logError("StateMachine", "Couldn't build the dependency graph, so answers won't be cached: " + e);
+			}
+		}
+	}
+
+	/**
+	 * Returns every answer to the given query about the given state, from
+	 * the cache if possible.
+	 */
+	private Set<GdlSentence> askView(GdlSentence query, MachineState state)
+	{
+		if (viewCache == null)
+		{
+			return prover.askAll(query, ProverQueryBuilder.getContext(state));
+		}
+		StateSliceCache.Key key = viewCache.getKey(query, state);
+		Set<GdlSentence> results = viewCache.get(key);
+		if (results == null)
+		{
+			results = Collections.unmodifiableSet(prover.askAll(query, ProverQueryBuilder.getContext(state)));
+			viewCache.put(key, results);
+		}
+		return results;
 	}
 
 	private MachineState computeInitialState()
@@ -53,7 +123,7 @@ public class ProverStateMachine extends StateMachine
 	@Override
 	public int getGoal(MachineState state, Role role) throws GoalDefinitionException
 	{
-		Set<GdlSentence> results = prover.askAll(ProverQueryBuilder.getGoalQuery(role), ProverQueryBuilder.getContext(state));
+		Set<GdlSentence> results = askView(ProverQueryBuilder.getGoalQuery(role), state);
 
 		if (results.size() != 1)
 		{
@@ -83,7 +153,7 @@ public class ProverStateMachine extends StateMachine
 	@Override
 	public List<Move> getLegalMoves(MachineState state, Role role) throws MoveDefinitionException
 	{
-		Set<GdlSentence> results = prover.askAll(ProverQueryBuilder.getLegalQuery(role), ProverQueryBuilder.getContext(state));
+		Set<GdlSentence> results = askView(ProverQueryBuilder.getLegalQuery(role), state);
 
 		if (results.size() == 0)
 		{
@@ -109,6 +179,15 @@ public class ProverStateMachine extends StateMachine
 		return new ProverResultParser().toState(results);
 	}
 
+	/**
+	 * Returns the cache of answers to legal, goal and terminal queries, or
+	 * null if they aren't cached.
+	 */
+	public StateSliceCache getViewCache()
+	{
+		return viewCache;
+	}
+
 	@Override
 	public List<Role> getRoles()
 	{
@@ -118,6 +197,10 @@ public class ProverStateMachine extends StateMachine
 	@Override
 	public boolean isTerminal(MachineState state)
 	{
+		if (viewCache != null)
+		{
+			return !askView(ProverQueryBuilder.getTerminalQuery(), state).isEmpty();
+		}
 		return prover.prove(ProverQueryBuilder.getTerminalQuery(), ProverQueryBuilder.getContext(state));
 	}
 }
\ No newline at end of file
@@ -0,0 +1,234 @@
+package org.ggp.base.util.statemachine.implementation.prover.cache;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.ggp.base.util.gdl.grammar.Gdl;
+import org.ggp.base.util.gdl.grammar.GdlConstant;
+import org.ggp.base.util.gdl.grammar.GdlSentence;
+import org.ggp.base.util.gdl.model.DependencyGraphs;
+import org.ggp.base.util.gdl.model.SentenceForm;
+import org.ggp.base.util.gdl.model.SentenceFormModel;
+import org.ggp.base.util.gdl.model.SentenceFormModelFactory;
+import org.ggp.base.util.gdl.model.SentenceForms;
+import org.ggp.base.util.gdl.model.SimpleSentenceForm;
+import org.ggp.base.util.gdl.transforms.DeORer;
+import org.ggp.base.util.gdl.transforms.GdlCleaner;
+import org.ggp.base.util.gdl.transforms.VariableConstrainer;
+import org.ggp.base.util.statemachine.MachineState;
+
+import com.google.common.base.Predicate;
+import com.google.common.collect.HashMultimap;
+import com.google.common.collect.SetMultimap;
+
+
+/**
+ * A StateSliceCache holds the answers to queries about states, such as the
+ * legal moves of a role, keyed on only the part of the state that the query
+ * can depend on.
+ *
+ * The part of a state that a relation depends on is its slice: the sentences
+ * in it whose forms are upstream of the relation in the dependency graph of
+ * the game. Two states with the same slice have the same answers, so a
+ * search that reaches states that differ only in sentences that a relation
+ * ignores, such as sibling states in a game where goals only depend on some
+ * of the board, only proves the relation once for all of them.
+ *
+ * The cache is safe to share between threads, and is cleared whenever it
+ * reaches its maximum size.
+ */
+public final class StateSliceCache
+{
+	private static final int DEFAULT_MAX_ENTRIES = 1 << 16;
+
+	/** The true forms upstream of each relation, by relation name. */
+	private final Map<GdlConstant, Set<SentenceForm>> relevantForms;
+	/** Every true form in the game; true sentences of any other form are always treated as relevant. */
+	private final Set<SentenceForm> trueForms;
+	private final ConcurrentMap<GdlSentence, SentenceForm> formsBySentence;
+	private final ConcurrentMap<Key, Set<GdlSentence>> answers;
+	private final int maxEntries;
+
+	private final AtomicLong hits = new AtomicLong();
+	private final AtomicLong misses = new AtomicLong();
+
+	public StateSliceCache(List<Gdl> description) throws InterruptedException
+	{
+		this(description, DEFAULT_MAX_ENTRIES);
+	}
+
+	/**
+	 * @param maxEntries The number of answers to hold before the cache is
+	 * cleared.
+	 */
+	public StateSliceCache(List<Gdl> description, int maxEntries) throws InterruptedException
+	{
+		description = GdlCleaner.run(description);
+		description = DeORer.run(description);
+		// Function-valued variables would hide dependencies on true sentences.
+		description = VariableConstrainer.replaceFunctionValuedVariables(description);
+		SentenceFormModel model = SentenceFormModelFactory.create(description);
+		SetMultimap<SentenceForm, SentenceForm> dependencyGraph = HashMultimap.create(model.getDependencyGraph());
+
+		this.trueForms = new HashSet<SentenceForm>();
+		for (SentenceForm form : model.getSentenceForms())
+		{
+			if (SentenceForms.TRUE_PRED.apply(form))
+			{
+				trueForms.add(form);
+			}
+		}
+		this.relevantForms = new HashMap<GdlConstant, Set<SentenceForm>>();
+		for (SentenceForm form : model.getSentenceForms())
+		{
+			final GdlConstant name = form.getName();
+			if (relevantForms.containsKey(name))
+			{
+				continue;
+			}
+			Set<SentenceForm> upstream = DependencyGraphs.getMatchingAndUpstream(model.getSentenceForms(), dependencyGraph,
+					new Predicate<SentenceForm>() {
+						@Override
+						public boolean apply(SentenceForm input) {
+							return input.getName() == name;
+						}
+					});
+			Set<SentenceForm> relevant = new HashSet<SentenceForm>();
+			for (SentenceForm upstreamForm : upstream)
+			{
+				if (SentenceForms.TRUE_PRED.apply(upstreamForm))
+				{
+					relevant.add(upstreamForm);
+				}
+			}
+			relevantForms.put(name, relevant);
+		}
+
+		this.formsBySentence = new ConcurrentHashMap<GdlSentence, SentenceForm>();
+		this.answers = new ConcurrentHashMap<Key, Set<GdlSentence>>();
+		this.maxEntries = maxEntries;
+	}
+
+	/**
+	 * Returns the key for the answers to the given query in the given state.
+	 */
+	public Key getKey(GdlSentence query, MachineState state)
+	{
+		Set<SentenceForm> relevant = relevantForms.get(query.getName());
+		Set<GdlSentence> slice = new HashSet<GdlSentence>();
+		for (GdlSentence sentence : state.getContents())
+		{
+			SentenceForm form = getForm(sentence);
+			if (relevant == null || relevant.contains(form) || !trueForms.contains(form))
+			{
+				slice.add(sentence);
+			}
+		}
+		return new Key(query, slice);
+	}
+
+	/**
+	 * Returns the cached answers for the given key, or null if there aren't
+	 * any.
+	 */
+	public Set<GdlSentence> get(Key key)
+	{
+		Set<GdlSentence> result = answers.get(key);
+		if (result == null)
+		{
+			misses.incrementAndGet();
+		}
+		else
+		{
+			hits.incrementAndGet();
+		}
+		return result;
+	}
+
+	public void put(Key key, Set<GdlSentence> results)
+	{
+		if (answers.size() >= maxEntries)
+		{
+			answers.clear();
+		}
+		answers.put(key, results);
+	}
+
+	private SentenceForm getForm(GdlSentence sentence)
+	{
+		SentenceForm form = formsBySentence.get(sentence);
+		if (form == null)
+		{
+			form = SimpleSentenceForm.create(sentence);
+			formsBySentence.put(sentence, form);
+		}
+		return form;
+	}
+
+	/**
+	 * Returns the true forms that answers about the relation with the given
+	 * name are keyed on, or null if the game has no such relation.
+	 */
+	public Set<SentenceForm> getRelevantForms(GdlConstant relationName)
+	{
+		return relevantForms.get(relationName);
+	}
+
+	public long getHits()
+	{
+		return hits.get();
+	}
+
+	public long getMisses()
+	{
+		return misses.get();
+	}
+
+	@Override
+	public String toString()
+	{
+		return "StateSliceCache[entries=" + answers.size() + ", hits=" + getHits() + ", misses=" + getMisses() + "]";
+	}
+
+	/** A query, along with the slice of a state that its answers depend on. */
+	public static final class Key
+	{
+		private final GdlSentence query;
+		private final Set<GdlSentence> slice;
+		private final int hashCode;
+
+		private Key(GdlSentence query, Set<GdlSentence> slice)
+		{
+			this.query = query;
+			this.slice = slice;
+			this.hashCode = 31 * query.hashCode() + slice.hashCode();
+		}
+
+		@Override
+		public int hashCode()
+		{
+			return hashCode;
+		}
+
+		@Override
+		public boolean equals(Object obj)
+		{
+			if (this == obj)
+			{
+				return true;
+			}
+			if (!(obj instanceof Key))
+			{
+				return false;
+			}
+			Key other = (Key) obj;
+			return hashCode == other.hashCode && query.equals(other.query) && slice.equals(other.slice);
+		}
+	}
+}
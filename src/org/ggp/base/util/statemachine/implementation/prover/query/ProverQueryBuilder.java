@@ -19,14 +19,15 @@ import org.ggp.base.util.statemachine.Role;
 public final class ProverQueryBuilder
 {
 
+	// The queries are pinned, since this class may first be loaded in a match's scope.
 	private final static GdlConstant DOES = GdlPool.getConstant("does");
 	private final static GdlConstant GOAL = GdlPool.getConstant("goal");
-	private final static GdlRelation INIT_QUERY = GdlPool.getRelation(GdlPool.getConstant("init"), new GdlTerm[] { GdlPool.getVariable("?x") });
+	private final static GdlRelation INIT_QUERY = GdlPool.pin(GdlPool.getRelation(GdlPool.getConstant("init"), new GdlTerm[] { GdlPool.getVariable("?x") }));
 	private final static GdlConstant LEGAL = GdlPool.getConstant("legal");
-	private final static GdlRelation NEXT_QUERY = GdlPool.getRelation(GdlPool.getConstant("next"), new GdlTerm[] { GdlPool.getVariable("?x") });
-	private final static GdlRelation ROLE_QUERY = GdlPool.getRelation(GdlPool.getConstant("role"), new GdlTerm[] { GdlPool.getVariable("?x") });
-	private final static GdlProposition TERMINAL_QUERY = GdlPool.getProposition(GdlPool.getConstant("terminal"));
-	private final static GdlVariable VARIABLE = GdlPool.getVariable("?x");
+	private final static GdlRelation NEXT_QUERY = GdlPool.pin(GdlPool.getRelation(GdlPool.getConstant("next"), new GdlTerm[] { GdlPool.getVariable("?x") }));
+	private final static GdlRelation ROLE_QUERY = GdlPool.pin(GdlPool.getRelation(GdlPool.getConstant("role"), new GdlTerm[] { GdlPool.getVariable("?x") }));
+	private final static GdlProposition TERMINAL_QUERY = GdlPool.pin(GdlPool.getProposition(GdlPool.getConstant("terminal")));
+	private final static GdlVariable VARIABLE = GdlPool.pin(GdlPool.getVariable("?x"));
 
 	public static Set<GdlSentence> getContext(MachineState state)
 	{
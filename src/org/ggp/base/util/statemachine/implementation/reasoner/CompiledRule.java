@@ -0,0 +1,424 @@
+package org.ggp.base.util.statemachine.implementation.reasoner;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.ggp.base.util.gdl.GdlUtils;
+import org.ggp.base.util.gdl.grammar.GdlConstant;
+import org.ggp.base.util.gdl.grammar.GdlDistinct;
+import org.ggp.base.util.gdl.grammar.GdlFunction;
+import org.ggp.base.util.gdl.grammar.GdlLiteral;
+import org.ggp.base.util.gdl.grammar.GdlNot;
+import org.ggp.base.util.gdl.grammar.GdlPool;
+import org.ggp.base.util.gdl.grammar.GdlRule;
+import org.ggp.base.util.gdl.grammar.GdlSentence;
+import org.ggp.base.util.gdl.grammar.GdlTerm;
+import org.ggp.base.util.gdl.grammar.GdlVariable;
+import org.ggp.base.util.gdl.model.SentenceDomainModel;
+import org.ggp.base.util.gdl.model.SentenceDomainModels;
+import org.ggp.base.util.gdl.model.SentenceDomainModels.VarDomainOpts;
+import org.ggp.base.util.gdl.model.SentenceForm;
+import org.ggp.base.util.gdl.model.SimpleSentenceForm;
+
+
+/**
+ * A CompiledRule evaluates one rule against a {@link FactStore}, by a
+ * nested-loop join whose order is chosen once, when the rule is compiled.
+ *
+ * The positive literals are joined greedily, each time picking the one with
+ * the most positions already fixed by constants or bound variables, and
+ * looking its candidates up by one of those positions. Negated literals and
+ * distincts are checked as soon as their variables are bound. Variables that
+ * no positive literal binds, which only unsafe rules have, range over their
+ * domains in the sentence domain model.
+ *
+ * For semi-naive evaluation, the rule also has a plan for each positive
+ * literal in its own stratum that starts by reading only the sentences of
+ * that literal's form found in the previous pass.
+ *
+ * The rule is evaluated against the tuples of the sentences it reads (see
+ * {@link GdlUtils#getTupleFromSentence}), which assumes that variables only
+ * stand for constants, as after
+ * {@link org.ggp.base.util.gdl.transforms.VariableConstrainer#replaceFunctionValuedVariables}.
+ */
+final class CompiledRule
+{
+	private static final int MATCH = 0;
+	private static final int ABSENT = 1;
+	private static final int DISTINCT = 2;
+	private static final int DOMAIN = 3;
+
+	private final SentenceForm headForm;
+	private final Pattern head;
+	private final int variableCount;
+	private final Step[] plan;
+	/** The forms of the positive literals with a plan of their own, in the same order. */
+	private final SentenceForm[] deltaForms;
+	private final Step[][] deltaPlans;
+
+	/**
+	 * @param stratum The forms evaluated together with the head of the rule.
+	 */
+	CompiledRule(GdlRule rule, SentenceDomainModel model, Set<SentenceForm> stratum)
+	{
+		Map<GdlVariable, Integer> variables = new HashMap<GdlVariable, Integer>();
+		for (GdlVariable variable : GdlUtils.getVariables(rule)) {
+			variables.put(variable, variables.size());
+		}
+		this.headForm = SimpleSentenceForm.create(rule.getHead());
+		this.head = new Pattern(rule.getHead(), variables);
+		this.variableCount = variables.size();
+
+		Map<GdlVariable, Set<GdlConstant>> domains = null;
+		if (!allBoundByPositiveLiterals(rule, variables)) {
+			domains = SentenceDomainModels.getVarDomains(rule, model, VarDomainOpts.INCLUDE_HEAD);
+		}
+		this.plan = plan(rule, variables, domains, null);
+		List<SentenceForm> forms = new ArrayList<SentenceForm>();
+		List<Step[]> plans = new ArrayList<Step[]>();
+		for (GdlLiteral literal : rule.getBody()) {
+			if (literal instanceof GdlSentence) {
+				SentenceForm form = SimpleSentenceForm.create((GdlSentence) literal);
+				if (stratum.contains(form)) {
+					forms.add(form);
+					plans.add(plan(rule, variables, domains, (GdlSentence) literal));
+				}
+			}
+		}
+		this.deltaForms = forms.toArray(new SentenceForm[forms.size()]);
+		this.deltaPlans = plans.toArray(new Step[plans.size()][]);
+	}
+
+	SentenceForm getHeadForm()
+	{
+		return headForm;
+	}
+
+	/**
+	 * Returns whether the rule depends on sentences of its own stratum.
+	 */
+	boolean isRecursive()
+	{
+		return deltaForms.length > 0;
+	}
+
+	/**
+	 * Adds the tuples of every instance of the head that follows from the
+	 * given facts to the results.
+	 */
+	void evaluate(FactStore facts, List<GdlConstant[]> results)
+	{
+		run(plan, 0, new GdlConstant[variableCount], facts, null, results);
+	}
+
+	/**
+	 * Adds the tuples of every instance of the head that follows from the
+	 * given facts and uses at least one of the given new tuples, which must
+	 * already be in the store, to the results.
+	 */
+	void evaluateNew(FactStore facts, Map<SentenceForm, List<GdlConstant[]>> newTuples, List<GdlConstant[]> results)
+	{
+		GdlConstant[] bindings = new GdlConstant[variableCount];
+		for (int i = 0; i < deltaForms.length; i++) {
+			List<GdlConstant[]> delta = newTuples.get(deltaForms[i]);
+			if (delta != null) {
+				run(deltaPlans[i], 0, bindings, facts, delta, results);
+			}
+		}
+	}
+
+	private void run(Step[] steps, int index, GdlConstant[] bindings, FactStore facts, List<GdlConstant[]> delta, List<GdlConstant[]> results)
+	{
+		if (index == steps.length) {
+			results.add(head.ground(bindings));
+			return;
+		}
+		Step step = steps[index];
+		switch (step.kind) {
+		case MATCH:
+			List<GdlConstant[]> candidates;
+			if (index == 0 && delta != null) {
+				candidates = delta;
+			} else if (step.indexPosition >= 0) {
+				GdlConstant key = step.pattern.valueAt(step.indexPosition, bindings);
+				candidates = facts.get(step.form).getTuples(step.indexPosition, key);
+			} else {
+				candidates = facts.get(step.form).getTuples();
+			}
+			// New results are only added once the rule is done, so this can't change under us.
+			for (int i = 0; i < candidates.size(); i++) {
+				if (step.pattern.match(candidates.get(i), bindings, step.binds)) {
+					run(steps, index + 1, bindings, facts, delta, results);
+				}
+			}
+			break;
+		case ABSENT:
+			if (!facts.get(step.form).contains(step.pattern.ground(bindings))) {
+				run(steps, index + 1, bindings, facts, delta, results);
+			}
+			break;
+		case DISTINCT:
+			if (ground(step.left, bindings, step.variables) != ground(step.right, bindings, step.variables)) {
+				run(steps, index + 1, bindings, facts, delta, results);
+			}
+			break;
+		case DOMAIN:
+			for (GdlConstant constant : step.domain) {
+				bindings[step.variable] = constant;
+				run(steps, index + 1, bindings, facts, delta, results);
+			}
+			break;
+		default:
+			throw new IllegalStateException();
+		}
+	}
+
+	private static GdlTerm ground(GdlTerm term, GdlConstant[] bindings, Map<GdlVariable, Integer> variables)
+	{
+		if (term instanceof GdlVariable) {
+			return bindings[variables.get(term)];
+		} else if (term instanceof GdlFunction) {
+			GdlFunction function = (GdlFunction) term;
+			List<GdlTerm> body = new ArrayList<GdlTerm>(function.arity());
+			for (GdlTerm argument : function.getBody()) {
+				body.add(ground(argument, bindings, variables));
+			}
+			return GdlPool.getFunction(function.getName(), body);
+		}
+		return term;
+	}
+
+	private static boolean allBoundByPositiveLiterals(GdlRule rule, Map<GdlVariable, Integer> variables)
+	{
+		Set<GdlVariable> bound = new HashSet<GdlVariable>();
+		for (GdlLiteral literal : rule.getBody()) {
+			if (literal instanceof GdlSentence) {
+				bound.addAll(GdlUtils.getVariables(literal));
+			}
+		}
+		return bound.containsAll(variables.keySet());
+	}
+
+	/**
+	 * Orders the literals of the body into a plan, starting with the given
+	 * literal if it isn't null.
+	 */
+	private static Step[] plan(GdlRule rule, Map<GdlVariable, Integer> variables, Map<GdlVariable, Set<GdlConstant>> domains, GdlSentence first)
+	{
+		List<GdlSentence> positives = new ArrayList<GdlSentence>();
+		List<GdlLiteral> checks = new ArrayList<GdlLiteral>();
+		for (GdlLiteral literal : rule.getBody()) {
+			if (literal instanceof GdlSentence) {
+				if (literal != first) {
+					positives.add((GdlSentence) literal);
+				}
+			} else if (literal instanceof GdlNot || literal instanceof GdlDistinct) {
+				checks.add(literal);
+			} else {
+				throw new IllegalArgumentException("Rules must not contain ORs: " + rule);
+			}
+		}
+
+		List<Step> steps = new ArrayList<Step>();
+		Set<GdlVariable> bound = new HashSet<GdlVariable>();
+		addReadyChecks(checks, variables, bound, steps);
+		if (first != null) {
+			steps.add(Step.match(first, variables, bound));
+			addReadyChecks(checks, variables, bound, steps);
+		}
+		while (!positives.isEmpty()) {
+			GdlSentence best = null;
+			int bestFixed = -1;
+			for (GdlSentence positive : positives) {
+				int fixed = countFixedPositions(positive, bound);
+				if (fixed > bestFixed) {
+					best = positive;
+					bestFixed = fixed;
+				}
+			}
+			positives.remove(best);
+			steps.add(Step.match(best, variables, bound));
+			addReadyChecks(checks, variables, bound, steps);
+		}
+
+		// Only unsafe rules get this far with unbound variables.
+		List<GdlVariable> unbound = new ArrayList<GdlVariable>(variables.keySet());
+		unbound.removeAll(bound);
+		for (GdlVariable variable : unbound) {
+			Set<GdlConstant> domain = domains.get(variable);
+			if (domain == null) {
+				domain = Collections.emptySet();
+			}
+			steps.add(Step.domain(variables.get(variable), domain));
+			bound.add(variable);
+			addReadyChecks(checks, variables, bound, steps);
+		}
+		return steps.toArray(new Step[steps.size()]);
+	}
+
+	private static void addReadyChecks(List<GdlLiteral> checks, Map<GdlVariable, Integer> variables, Set<GdlVariable> bound, List<Step> steps)
+	{
+		for (int i = 0; i < checks.size(); i++) {
+			GdlLiteral check = checks.get(i);
+			if (bound.containsAll(GdlUtils.getVariables(check))) {
+				if (check instanceof GdlNot) {
+					steps.add(Step.absent((GdlSentence) ((GdlNot) check).getBody(), variables));
+				} else {
+					steps.add(Step.distinct((GdlDistinct) check, variables));
+				}
+				checks.remove(i--);
+			}
+		}
+	}
+
+	private static int countFixedPositions(GdlSentence sentence, Set<GdlVariable> bound)
+	{
+		int count = 0;
+		for (GdlTerm term : GdlUtils.getTupleFromSentence(sentence)) {
+			if (!(term instanceof GdlVariable) || bound.contains(term)) {
+				count++;
+			}
+		}
+		return count;
+	}
+
+	/**
+	 * The tuple of a sentence in a rule: each position holds either a
+	 * constant or the index of a variable.
+	 */
+	private static final class Pattern
+	{
+		/** The constant at each position, or null where there's a variable. */
+		final GdlConstant[] constants;
+		/** The variable at each position, or -1 where there's a constant. */
+		final int[] variables;
+
+		Pattern(GdlSentence sentence, Map<GdlVariable, Integer> variableIndices)
+		{
+			List<GdlTerm> tuple = GdlUtils.getTupleFromSentence(sentence);
+			constants = new GdlConstant[tuple.size()];
+			variables = new int[tuple.size()];
+			for (int i = 0; i < tuple.size(); i++) {
+				GdlTerm term = tuple.get(i);
+				if (term instanceof GdlVariable) {
+					variables[i] = variableIndices.get(term);
+				} else {
+					constants[i] = (GdlConstant) term;
+					variables[i] = -1;
+				}
+			}
+		}
+
+		GdlConstant valueAt(int position, GdlConstant[] bindings)
+		{
+			return (constants[position] != null) ? constants[position] : bindings[variables[position]];
+		}
+
+		GdlConstant[] ground(GdlConstant[] bindings)
+		{
+			GdlConstant[] tuple = new GdlConstant[constants.length];
+			for (int i = 0; i < tuple.length; i++) {
+				tuple[i] = valueAt(i, bindings);
+			}
+			return tuple;
+		}
+
+		/**
+		 * Returns whether the tuple matches, binding the variables at the
+		 * given positions to its constants.
+		 */
+		boolean match(GdlConstant[] tuple, GdlConstant[] bindings, boolean[] binds)
+		{
+			for (int i = 0; i < tuple.length; i++) {
+				if (binds[i]) {
+					bindings[variables[i]] = tuple[i];
+				} else if (tuple[i] != valueAt(i, bindings)) {
+					return false;
+				}
+			}
+			return true;
+		}
+	}
+
+	private static final class Step
+	{
+		final int kind;
+		final SentenceForm form;
+		final Pattern pattern;
+		/** For a match, whether each position binds its variable rather than checking it. */
+		final boolean[] binds;
+		/** For a match, a fixed position to look candidates up by, or -1. */
+		final int indexPosition;
+		final GdlTerm left;
+		final GdlTerm right;
+		final Map<GdlVariable, Integer> variables;
+		final int variable;
+		final Set<GdlConstant> domain;
+
+		private Step(int kind, SentenceForm form, Pattern pattern, boolean[] binds, int indexPosition,
+				GdlTerm left, GdlTerm right, Map<GdlVariable, Integer> variables, int variable, Set<GdlConstant> domain)
+		{
+			this.kind = kind;
+			this.form = form;
+			this.pattern = pattern;
+			this.binds = binds;
+			this.indexPosition = indexPosition;
+			this.left = left;
+			this.right = right;
+			this.variables = variables;
+			this.variable = variable;
+			this.domain = domain;
+		}
+
+		/**
+		 * Creates a step that joins the given sentence, and adds the
+		 * variables it binds to the bound variables.
+		 */
+		static Step match(GdlSentence sentence, Map<GdlVariable, Integer> variables, Set<GdlVariable> bound)
+		{
+			Pattern pattern = new Pattern(sentence, variables);
+			List<GdlTerm> tuple = GdlUtils.getTupleFromSentence(sentence);
+			boolean[] binds = new boolean[tuple.size()];
+			// Look candidates up by a bound variable if there is one, since
+			// that varies from one lookup to the next, or else by a constant.
+			int indexPosition = -1;
+			for (int i = 0; i < tuple.size(); i++) {
+				GdlTerm term = tuple.get(i);
+				if (term instanceof GdlVariable && bound.contains(term)) {
+					indexPosition = i;
+					break;
+				} else if (!(term instanceof GdlVariable) && indexPosition == -1) {
+					indexPosition = i;
+				}
+			}
+			for (int i = 0; i < tuple.size(); i++) {
+				GdlTerm term = tuple.get(i);
+				if (term instanceof GdlVariable && !bound.contains(term)) {
+					binds[i] = true;
+					bound.add((GdlVariable) term);
+				}
+			}
+			return new Step(MATCH, SimpleSentenceForm.create(sentence), pattern, binds, indexPosition, null, null, null, -1, null);
+		}
+
+		static Step absent(GdlSentence sentence, Map<GdlVariable, Integer> variables)
+		{
+			return new Step(ABSENT, SimpleSentenceForm.create(sentence), new Pattern(sentence, variables), null, -1, null, null, null, -1, null);
+		}
+
+		static Step distinct(GdlDistinct distinct, Map<GdlVariable, Integer> variables)
+		{
+			return new Step(DISTINCT, null, null, null, -1, distinct.getArg1(), distinct.getArg2(), variables, -1, null);
+		}
+
+		static Step domain(int variable, Set<GdlConstant> domain)
+		{
+			return new Step(DOMAIN, null, null, null, -1, null, null, null, variable, domain);
+		}
+	}
+}
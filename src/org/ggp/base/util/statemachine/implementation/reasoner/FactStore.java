@@ -0,0 +1,148 @@
+package org.ggp.base.util.statemachine.implementation.reasoner;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.ggp.base.util.gdl.grammar.GdlConstant;
+import org.ggp.base.util.gdl.model.SentenceForm;
+
+
+/**
+ * A FactStore holds ground sentences as tuples of constants, grouped by
+ * sentence form (see {@link org.ggp.base.util.gdl.GdlUtils#getTupleFromGroundSentence}).
+ *
+ * Forms that a store doesn't hold are looked up in its parent. Each form is
+ * only ever added to one store in a chain, so the store for a state can sit
+ * on top of the store of constant sentences without copying it, and the
+ * store for a joint move on top of the store for its state.
+ */
+final class FactStore
+{
+	private static final Facts EMPTY = new Facts(0);
+
+	private final FactStore parent;
+	private final Map<SentenceForm, Facts> facts;
+
+	FactStore(FactStore parent)
+	{
+		this.parent = parent;
+		this.facts = new HashMap<SentenceForm, Facts>();
+	}
+
+	/**
+	 * Returns the facts of the given form from this store or its ancestors.
+	 * The result is empty if none of them hold the form, and must not be
+	 * modified.
+	 */
+	Facts get(SentenceForm form)
+	{
+		for (FactStore store = this; store != null; store = store.parent) {
+			Facts result = store.facts.get(form);
+			if (result != null) {
+				return result;
+			}
+		}
+		return EMPTY;
+	}
+
+	/**
+	 * Adds the given tuple of the given form to this store.
+	 *
+	 * @return Whether it wasn't already there.
+	 */
+	boolean add(SentenceForm form, GdlConstant[] tuple)
+	{
+		Facts formFacts = facts.get(form);
+		if (formFacts == null) {
+			formFacts = new Facts(form.getTupleSize());
+			facts.put(form, formFacts);
+		}
+		return formFacts.add(tuple);
+	}
+
+	/**
+	 * The tuples of one sentence form, in the order they were added. Each
+	 * position is indexed by its constants the first time it's looked up by
+	 * one, and the index is kept up to date from then on.
+	 */
+	static final class Facts
+	{
+		private final List<GdlConstant[]> tuples;
+		private final Set<List<GdlConstant>> tupleSet;
+		private final List<Map<GdlConstant, List<GdlConstant[]>>> indices;
+
+		Facts(int tupleSize)
+		{
+			this.tuples = new ArrayList<GdlConstant[]>();
+			this.tupleSet = new HashSet<List<GdlConstant>>();
+			this.indices = new ArrayList<Map<GdlConstant, List<GdlConstant[]>>>(tupleSize);
+			for (int i = 0; i < tupleSize; i++) {
+				indices.add(null);
+			}
+		}
+
+		boolean add(GdlConstant[] tuple)
+		{
+			if (!tupleSet.add(Arrays.asList(tuple))) {
+				return false;
+			}
+			tuples.add(tuple);
+			for (int i = 0; i < indices.size(); i++) {
+				Map<GdlConstant, List<GdlConstant[]>> index = indices.get(i);
+				if (index != null) {
+					addToIndex(index, tuple[i], tuple);
+				}
+			}
+			return true;
+		}
+
+		boolean contains(GdlConstant[] tuple)
+		{
+			return tupleSet.contains(Arrays.asList(tuple));
+		}
+
+		List<GdlConstant[]> getTuples()
+		{
+			return tuples;
+		}
+
+		/**
+		 * Returns the tuples with the given constant at the given position.
+		 */
+		List<GdlConstant[]> getTuples(int position, GdlConstant constant)
+		{
+			if (tuples.isEmpty()) {
+				return Collections.emptyList();
+			}
+			Map<GdlConstant, List<GdlConstant[]>> index = indices.get(position);
+			if (index == null) {
+				index = new HashMap<GdlConstant, List<GdlConstant[]>>();
+				for (GdlConstant[] tuple : tuples) {
+					addToIndex(index, tuple[position], tuple);
+				}
+				indices.set(position, index);
+			}
+			List<GdlConstant[]> result = index.get(constant);
+			if (result == null) {
+				return Collections.emptyList();
+			}
+			return result;
+		}
+
+		private static void addToIndex(Map<GdlConstant, List<GdlConstant[]>> index, GdlConstant key, GdlConstant[] tuple)
+		{
+			List<GdlConstant[]> list = index.get(key);
+			if (list == null) {
+				list = new ArrayList<GdlConstant[]>(2);
+				index.put(key, list);
+			}
+			list.add(tuple);
+		}
+	}
+}
@@ -0,0 +1,370 @@
+package org.ggp.base.util.statemachine.implementation.reasoner;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.ggp.base.util.gdl.GdlUtils;
+import org.ggp.base.util.gdl.grammar.Gdl;
+import org.ggp.base.util.gdl.grammar.GdlConstant;
+import org.ggp.base.util.gdl.grammar.GdlPool;
+import org.ggp.base.util.gdl.grammar.GdlRule;
+import org.ggp.base.util.gdl.grammar.GdlSentence;
+import org.ggp.base.util.gdl.grammar.GdlTerm;
+import org.ggp.base.util.gdl.model.DependencyGraphs;
+import org.ggp.base.util.gdl.model.SentenceDomainModel;
+import org.ggp.base.util.gdl.model.SentenceDomainModelFactory;
+import org.ggp.base.util.gdl.model.SentenceForm;
+import org.ggp.base.util.gdl.model.SentenceForms;
+import org.ggp.base.util.gdl.model.SimpleSentenceForm;
+import org.ggp.base.util.gdl.transforms.DeORer;
+import org.ggp.base.util.gdl.transforms.GdlCleaner;
+import org.ggp.base.util.gdl.transforms.VariableConstrainer;
+import org.ggp.base.util.reasoner.gdl.GdlChainingReasoner;
+import org.ggp.base.util.reasoner.gdl.GdlSentenceSet;
+import org.ggp.base.util.statemachine.MachineState;
+import org.ggp.base.util.statemachine.Move;
+import org.ggp.base.util.statemachine.Role;
+import org.ggp.base.util.statemachine.StateMachine;
+import org.ggp.base.util.statemachine.exceptions.GoalDefinitionException;
+import org.ggp.base.util.statemachine.exceptions.MoveDefinitionException;
+import org.ggp.base.util.statemachine.exceptions.TransitionDefinitionException;
+
+import com.google.common.base.Predicate;
+import com.google.common.base.Predicates;
+import com.google.common.collect.HashMultimap;
+import com.google.common.collect.Multimap;
+import com.google.common.collect.Multimaps;
+
+
+/**
+ * The ReasonerStateMachine computes everything that's true in a state bottom
+ * up, by forward chaining, rather than proving one query at a time like the
+ * {@link org.ggp.base.util.statemachine.implementation.prover.ProverStateMachine}.
+ *
+ * The sentence forms of the game are split into strata by a topological sort
+ * of their dependency graph, and each stratum is evaluated in order by
+ * semi-naive forward chaining: one pass over every rule, and then, if the
+ * stratum is recursive, passes that only look for results involving the
+ * sentences found in the previous pass, until nothing new is found.
+ *
+ * The constant sentence forms are evaluated once, when the state machine is
+ * initialized, by a {@link GdlChainingReasoner}. The rules of the other forms
+ * run for every state, so they're compiled into join plans instead (see
+ * {@link CompiledRule}). For each state, one evaluation of the forms that
+ * don't depend on the moves finds every legal, goal and terminal sentence at
+ * once, and is kept for the most recently used state. Each transition then
+ * only evaluates the forms downstream of does on top of it.
+ *
+ * Like the propnet state machines, this relies on the sentence domain model,
+ * so it can't handle games whose sentences have infinite domains.
+ *
+ * This state machine is not thread-safe: each thread should use its own
+ * instance.
+ */
+public final class ReasonerStateMachine extends StateMachine
+{
+	/** The facts of the constant sentence forms, which every state shares. */
+	private FactStore constants;
+	/** The strata of the forms that depend on the state but not on the moves. */
+	private List<List<CompiledRule>> stateStrata;
+	/** The strata of the forms that depend on the moves. */
+	private List<List<CompiledRule>> moveStrata;
+	private Map<GdlConstant, List<SentenceForm>> formsByName;
+	private MachineState initialState;
+	private List<Role> roles;
+
+	/** The state whose facts were computed most recently. */
+	private MachineState evaluatedState;
+	private FactStore evaluatedFacts;
+
+	@Override
+	public void initialize(List<Gdl> description)
+	{
+		description = GdlCleaner.run(description);
+		description = DeORer.run(description);
+		SentenceDomainModel model;
+		GdlSentenceSet constantSentences;
+		try {
+			description = VariableConstrainer.replaceFunctionValuedVariables(description);
+			model = SentenceDomainModelFactory.createWithCartesianDomains(description);
+			constantSentences = evaluateConstantForms(model);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new RuntimeException(e);
+		}
+		roles = Role.computeRoles(description);
+
+		constants = new FactStore(null);
+		for (Map.Entry<SentenceForm, GdlSentence> entry : constantSentences.getSentences().entries()) {
+			constants.add(entry.getKey(), toTuple(entry.getValue()));
+		}
+		formsByName = new HashMap<GdlConstant, List<SentenceForm>>();
+		for (SentenceForm form : model.getSentenceForms()) {
+			List<SentenceForm> forms = formsByName.get(form.getName());
+			if (forms == null) {
+				forms = new ArrayList<SentenceForm>();
+				formsByName.put(form.getName(), forms);
+			}
+			forms.add(form);
+		}
+
+		Set<SentenceForm> constantForms = model.getConstantSentenceForms();
+		Set<SentenceForm> moveForms = new HashSet<SentenceForm>(DependencyGraphs.getMatchingAndDownstream(model.getSentenceForms(),
+				HashMultimap.create(model.getDependencyGraph()), SentenceForms.DOES_PRED));
+		moveForms.removeAll(constantForms);
+		Set<SentenceForm> stateForms = new HashSet<SentenceForm>(model.getSentenceForms());
+		stateForms.removeAll(constantForms);
+		stateForms.removeAll(moveForms);
+		stateStrata = compile(model, stratify(model, stateForms));
+		moveStrata = compile(model, stratify(model, moveForms));
+
+		// The initial state is whatever init is in an empty state.
+		FactStore initFacts = new FactStore(constants);
+		evaluate(stateStrata, initFacts);
+		initialState = toState(getSentences(initFacts, GdlPool.INIT));
+		evaluatedState = null;
+		evaluatedFacts = null;
+	}
+
+	/**
+	 * Returns every sentence of a constant form, by forward chaining over
+	 * the strata of the constant forms.
+	 */
+	private static GdlSentenceSet evaluateConstantForms(SentenceDomainModel model) throws InterruptedException
+	{
+		GdlChainingReasoner reasoner = GdlChainingReasoner.create(model);
+		GdlSentenceSet sentences = reasoner.getConstantSentences();
+		for (Set<SentenceForm> stratum : stratify(model, model.getConstantSentenceForms())) {
+			GdlSentenceSet newSentences = GdlSentenceSet.create();
+			for (SentenceForm form : stratum) {
+				for (GdlRule rule : model.getRules(form)) {
+					GdlSentenceSet results = reasoner.getRuleResults(rule, model, sentences);
+					newSentences = reasoner.getUnion(newSentences, results);
+					sentences = reasoner.getUnion(sentences, results);
+				}
+			}
+			while (!newSentences.getSentences().isEmpty()) {
+				GdlSentenceSet newInThisPass = GdlSentenceSet.create();
+				for (SentenceForm form : stratum) {
+					for (GdlRule rule : model.getRules(form)) {
+						GdlSentenceSet results = reasoner.getRuleResultsForNewSentences(rule, model, sentences, newSentences);
+						for (Map.Entry<SentenceForm, GdlSentence> entry : results.getSentences().entries()) {
+							if (!sentences.containsSentence(entry.getKey(), entry.getValue())) {
+								newInThisPass.put(entry.getKey(), entry.getValue());
+							}
+						}
+					}
+				}
+				sentences = reasoner.getUnion(sentences, newInThisPass);
+				newSentences = newInThisPass;
+			}
+		}
+		return sentences;
+	}
+
+	/**
+	 * Returns the strata of the given forms, ordered so that each only
+	 * depends on itself and on the strata before it. The forms of true and
+	 * does aren't produced by rules, so they're left out.
+	 */
+	private static List<Set<SentenceForm>> stratify(SentenceDomainModel model, Set<SentenceForm> forms)
+	{
+		Set<SentenceForm> derivedForms = new HashSet<SentenceForm>();
+		for (SentenceForm form : forms) {
+			if (!SentenceForms.TRUE_PRED.apply(form) && !SentenceForms.DOES_PRED.apply(form)) {
+				derivedForms.add(form);
+			}
+		}
+		Predicate<SentenceForm> inForms = Predicates.in(derivedForms);
+		Multimap<SentenceForm, SentenceForm> subgraph = Multimaps.filterValues(Multimaps.filterKeys(model.getDependencyGraph(), inForms), inForms);
+		return DependencyGraphs.toposortSafe(derivedForms, HashMultimap.create(subgraph));
+	}
+
+	private static List<List<CompiledRule>> compile(SentenceDomainModel model, List<Set<SentenceForm>> strata)
+	{
+		List<List<CompiledRule>> result = new ArrayList<List<CompiledRule>>();
+		for (Set<SentenceForm> stratum : strata) {
+			List<CompiledRule> rules = new ArrayList<CompiledRule>();
+			for (SentenceForm form : stratum) {
+				for (GdlRule rule : model.getRules(form)) {
+					rules.add(new CompiledRule(rule, model, stratum));
+				}
+			}
+			result.add(rules);
+		}
+		return result;
+	}
+
+	/**
+	 * Adds every fact of the forms in the given strata that follows from the
+	 * given facts.
+	 */
+	private static void evaluate(List<List<CompiledRule>> strata, FactStore facts)
+	{
+		List<GdlConstant[]> results = new ArrayList<GdlConstant[]>();
+		for (List<CompiledRule> stratum : strata) {
+			// One pass over every rule, collecting what's new...
+			Map<SentenceForm, List<GdlConstant[]>> newTuples = new HashMap<SentenceForm, List<GdlConstant[]>>();
+			boolean recursive = false;
+			for (CompiledRule rule : stratum) {
+				rule.evaluate(facts, results);
+				addResults(rule.getHeadForm(), results, facts, newTuples);
+				recursive |= rule.isRecursive();
+			}
+			if (!recursive) {
+				continue;
+			}
+			// ...and then passes that only follow up on the new facts.
+			while (!newTuples.isEmpty()) {
+				Map<SentenceForm, List<GdlConstant[]>> newInThisPass = new HashMap<SentenceForm, List<GdlConstant[]>>();
+				for (CompiledRule rule : stratum) {
+					if (rule.isRecursive()) {
+						rule.evaluateNew(facts, newTuples, results);
+						addResults(rule.getHeadForm(), results, facts, newInThisPass);
+					}
+				}
+				newTuples = newInThisPass;
+			}
+		}
+	}
+
+	private static void addResults(SentenceForm form, List<GdlConstant[]> results, FactStore facts, Map<SentenceForm, List<GdlConstant[]>> newTuples)
+	{
+		for (GdlConstant[] tuple : results) {
+			if (facts.add(form, tuple)) {
+				List<GdlConstant[]> list = newTuples.get(form);
+				if (list == null) {
+					list = new ArrayList<GdlConstant[]>();
+					newTuples.put(form, list);
+				}
+				list.add(tuple);
+			}
+		}
+		results.clear();
+	}
+
+	/**
+	 * Returns the facts that follow from the given state and don't depend on
+	 * the moves, computing them if the state isn't the one used most recently.
+	 */
+	private FactStore evaluateState(MachineState state)
+	{
+		if (state != evaluatedState) {
+			FactStore facts = new FactStore(constants);
+			for (GdlSentence sentence : state.getContents()) {
+				facts.add(SimpleSentenceForm.create(sentence), toTuple(sentence));
+			}
+			evaluate(stateStrata, facts);
+			evaluatedFacts = facts;
+			evaluatedState = state;
+		}
+		return evaluatedFacts;
+	}
+
+	private static GdlConstant[] toTuple(GdlSentence sentence)
+	{
+		List<GdlConstant> tuple = GdlUtils.getTupleFromGroundSentence(sentence);
+		return tuple.toArray(new GdlConstant[tuple.size()]);
+	}
+
+	/**
+	 * Returns the sentences with the given relation name in the given store.
+	 */
+	private List<GdlSentence> getSentences(FactStore facts, GdlConstant name)
+	{
+		List<GdlSentence> result = new ArrayList<GdlSentence>();
+		List<SentenceForm> forms = formsByName.get(name);
+		if (forms != null) {
+			for (SentenceForm form : forms) {
+				for (GdlConstant[] tuple : facts.get(form).getTuples()) {
+					result.add(form.getSentenceFromTuple(Arrays.asList(tuple)));
+				}
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Turns the given init or next sentences into a state.
+	 */
+	private static MachineState toState(List<GdlSentence> sentences)
+	{
+		Set<GdlSentence> contents = new HashSet<GdlSentence>();
+		for (GdlSentence sentence : sentences) {
+			contents.add(GdlPool.getRelation(GdlPool.TRUE, new GdlTerm[] {sentence.get(0)}));
+		}
+		return new MachineState(contents);
+	}
+
+	@Override
+	public int getGoal(MachineState state, Role role) throws GoalDefinitionException
+	{
+		int goal = -1;
+		for (GdlSentence sentence : getSentences(evaluateState(state), GdlPool.GOAL)) {
+			if (sentence.get(0) == role.getName()) {
+				if (goal != -1) {
+					throw new GoalDefinitionException(state, role);
+				}
+				try {
+					goal = Integer.parseInt(((GdlConstant) sentence.get(1)).getValue());
+				} catch (RuntimeException e) {
+					throw new GoalDefinitionException(state, role);
+				}
+			}
+		}
+		if (goal == -1) {
+			throw new GoalDefinitionException(state, role);
+		}
+		return goal;
+	}
+
+	@Override
+	public boolean isTerminal(MachineState state)
+	{
+		return !getSentences(evaluateState(state), GdlPool.TERMINAL).isEmpty();
+	}
+
+	@Override
+	public List<Role> getRoles()
+	{
+		return roles;
+	}
+
+	@Override
+	public MachineState getInitialState()
+	{
+		return initialState;
+	}
+
+	@Override
+	public List<Move> getLegalMoves(MachineState state, Role role) throws MoveDefinitionException
+	{
+		List<Move> moves = new ArrayList<Move>();
+		for (GdlSentence sentence : getSentences(evaluateState(state), GdlPool.LEGAL)) {
+			if (sentence.get(0) == role.getName()) {
+				moves.add(new Move(sentence.get(1)));
+			}
+		}
+		if (moves.isEmpty()) {
+			throw new MoveDefinitionException(state, role);
+		}
+		return moves;
+	}
+
+	@Override
+	public MachineState getNextState(MachineState state, List<Move> moves) throws TransitionDefinitionException
+	{
+		FactStore facts = new FactStore(evaluateState(state));
+		for (int r = 0; r < roles.size(); r++) {
+			GdlSentence does = GdlPool.getRelation(GdlPool.DOES, new GdlTerm[] {roles.get(r).getName(), moves.get(r).getContents()});
+			facts.add(SimpleSentenceForm.create(does), toTuple(does));
+		}
+		evaluate(moveStrata, facts);
+		return toState(getSentences(facts, GdlPool.NEXT));
+	}
+}
@@ -1,6 +1,7 @@
 package org.ggp.base.util.statemachine.verifier;
 
 import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.List;
 
 import org.ggp.base.util.logging.GamerLogger;
@@ -105,4 +106,74 @@ public class StateMachineVerifier {
         GamerLogger.log("StateMachine", "Completed automatic consistency testing on " + theSubject.getClass().getName() + ", w/ " + nRound + " rounds: all tests pass!");
         return true;
     }
+
+    /**
+     * Checks that the indexed move methods of a state machine agree with its
+     * Move-based ones, over the states of random playouts until the given
+     * number of states have been checked.
+     */
+    public static boolean checkIndexedMoveConsistency(StateMachine theMachine, int nStates) {
+        GamerLogger.log("StateMachine", "Performing indexed move testing on " + theMachine.getClass().getName() + ".");
+        List<Role> theRoles = theMachine.getRoles();
+        int nChecked = 0;
+        try {
+            while(nChecked < nStates) {
+                MachineState theState = theMachine.getInitialState();
+                while(nChecked < nStates && !theMachine.isTerminal(theState)) {
+                    nChecked++;
+                    int[] theLastMoveIndices = new int[theRoles.size()];
+                    for(int r = 0; r < theRoles.size(); r++) {
+                        List<Move> theLegals = theMachine.getLegalMoves(theState, theRoles.get(r));
+                        // A buffer that's too small still gets the full count.
+                        int[] theBuffer = new int[1];
+                        int nLegals = theMachine.getLegalMoveIndices(theState, r, theBuffer);
+                        if(nLegals > 1) {
+                            theBuffer = new int[nLegals];
+                            theMachine.getLegalMoveIndices(theState, r, theBuffer);
+                        }
+                        List<Move> theIndexedLegals = new ArrayList<Move>();
+                        for(int i = 0; i < nLegals; i++) {
+                            Move theMove = theMachine.getMoveFromIndex(r, theBuffer[i]);
+                            if(theMachine.getMoveIndex(r, theMove) != theBuffer[i]) {
+                                GamerLogger.log("StateMachine", "Move " + theMove + " for " + theRoles.get(r) + " doesn't map back to its index " + theBuffer[i]);
+                                return false;
+                            }
+                            theIndexedLegals.add(theMove);
+                        }
+                        if(nLegals != theLegals.size() || !new HashSet<Move>(theLegals).equals(new HashSet<Move>(theIndexedLegals))) {
+                            GamerLogger.log("StateMachine", "Indexed legal moves " + theIndexedLegals + " differ from " + theLegals + " for " + theRoles.get(r) + " in state " + theState);
+                            return false;
+                        }
+                        theLastMoveIndices[r] = theBuffer[nLegals - 1];
+                    }
+
+                    // Pack a joint move by hand, and draw one at random.
+                    long[] theJointMoves = new long[] {theMachine.getJointMoveIndex(theLastMoveIndices), theMachine.getRandomJointMoveIndex(theState)};
+                    for(long theJointMoveIndex : theJointMoves) {
+                        List<Move> theJointMove = theMachine.getJointMoveFromIndex(theJointMoveIndex);
+                        for(int r = 0; r < theRoles.size(); r++) {
+                            if(!theMachine.getMoveFromIndex(r, theMachine.getMoveIndexFromJointMove(theJointMoveIndex, r)).equals(theJointMove.get(r))) {
+                                GamerLogger.log("StateMachine", "Joint move " + theJointMoveIndex + " gives a different move for " + theRoles.get(r) + " than " + theJointMove);
+                                return false;
+                            }
+                            if(!theMachine.getLegalMoves(theState, theRoles.get(r)).contains(theJointMove.get(r))) {
+                                GamerLogger.log("StateMachine", "Joint move " + theJointMove + " isn't legal for " + theRoles.get(r) + " in state " + theState);
+                                return false;
+                            }
+                        }
+                        if(!theMachine.getNextState(theState, theJointMoveIndex).equals(theMachine.getNextState(theState, theJointMove))) {
+                            GamerLogger.log("StateMachine", "Joint move " + theJointMove + " leads to a different state by its index from state " + theState);
+                            return false;
+                        }
+                    }
+                    theState = theMachine.getNextState(theState, theJointMoves[1]);
+                }
+            }
+        } catch(Exception e) {
+            GamerLogger.logStackTrace("StateMachine", e);
+            return false;
+        }
+        GamerLogger.log("StateMachine", "Completed indexed move testing on " + theMachine.getClass().getName() + ", w/ " + nChecked + " states: all tests pass!");
+        return true;
+    }
 }
\ No newline at end of file
@@ -1,84 +1,198 @@
 package org.ggp.base.util.symbol.factory;
 
+import java.io.IOException;
+import java.io.Reader;
 import java.util.ArrayList;
-import java.util.LinkedList;
 import java.util.List;
 
 import org.ggp.base.util.symbol.factory.exceptions.SymbolFormatException;
 import org.ggp.base.util.symbol.grammar.Symbol;
-import org.ggp.base.util.symbol.grammar.SymbolAtom;
 import org.ggp.base.util.symbol.grammar.SymbolList;
 import org.ggp.base.util.symbol.grammar.SymbolPool;
 
 
+/**
+ * SymbolFactory parses symbolic expressions in a single pass over their
+ * characters, building symbols through the SymbolPool as it goes. Tokens are
+ * parentheses and the atoms between them, separated by whitespace, and
+ * comments run from a semicolon to the end of the line. Only the first
+ * symbol is parsed, and anything after it is ignored.
+ */
 public final class SymbolFactory
 {
     public static Symbol create(String string) throws SymbolFormatException
+    {
+        return create((CharSequence) string);
+    }
+
+    /**
+     * Parses symbols from any sequence of characters, such as the content of
+     * a request as it lies in the buffer it was read into.
+     */
+    public static Symbol create(CharSequence chars) throws SymbolFormatException
     {
         try
         {
-            String preprocessed = preprocess(string);
-            List<String> tokens = lex(preprocessed);
-            return convert(new LinkedList<String>(tokens));
+            return new Parser(chars, null).parse();
+        }
+        catch (IOException e)
+        {
+            // Only readers throw these.
+            throw new AssertionError(e);
         }
-        catch (Exception e)
+        catch (RuntimeException e)
         {
-            throw new SymbolFormatException(string);
+            throw new SymbolFormatException((chars == null) ? null : chars.toString());
         }
     }
 
+    /**
+     * Parses symbols as they're read, without holding all of the characters
+     * at once. The reader is read only as far as the end of the first symbol,
+     * and the whitespace after it if it's an atom. When the characters aren't
+     * a valid expression, the exception holds only the last of them read.
+     */
+    public static Symbol create(Reader reader) throws IOException, SymbolFormatException
+    {
+        return new Parser(null, reader).parse();
+    }
+
     /* Private, implementation-specific methods below here */
 
-	private static Symbol convert(LinkedList<String> tokens)
+	/**
+	 * Reads characters from either a sequence or a reader, a buffer of the
+	 * reader's at a time. Whitespace is what the factory once collapsed with
+	 * \s, but any control characters at the start or end of the input are
+	 * skipped too, as they were once trimmed.
+	 */
+	private static final class Parser
 	{
-		if (tokens.getFirst().equals("("))
-		{
-			return convertList(tokens);
-		}
-		else
+		private static final int BUFFER_SIZE = 8192;
+
+		private final Reader reader;
+		private final char[] buffer;
+		private final CharSequence chars;
+		private int index = 0;
+		private int length;
+		private final StringBuilder token = new StringBuilder();
+
+		Parser(CharSequence chars, Reader reader)
 		{
-			return convertAtom(tokens);
+			this.chars = chars;
+			this.reader = reader;
+			if (reader == null) {
+				this.buffer = null;
+				this.length = chars.length();
+			} else {
+				this.buffer = new char[BUFFER_SIZE];
+				this.length = 0;
+			}
 		}
-	}
 
-	private static SymbolAtom convertAtom(LinkedList<String> tokens)
-	{
-		return SymbolPool.getAtom(tokens.removeFirst());
-	}
+		Symbol parse() throws IOException, SymbolFormatException
+		{
+			skipWhitespace(true);
+			int c = peek();
+			if (c == '(') {
+				index++;
+				return parseList();
+			} else if (c == ')') {
+				index++;
+				return SymbolPool.getAtom(")");
+			}
 
-	private static SymbolList convertList(LinkedList<String> tokens)
-	{
-		List<Symbol> contents = new ArrayList<Symbol>();
+			readAtom();
+			skipWhitespace(true);
+			if (peek() < 0) {
+				int end = token.length();
+				while (end > 0 && token.charAt(end - 1) <= ' ') {
+					end--;
+				}
+				token.setLength(end);
+			}
+			return SymbolPool.getAtom(token.toString());
+		}
 
-		tokens.removeFirst();
-		while (!tokens.getFirst().equals(")"))
+		private SymbolList parseList() throws IOException, SymbolFormatException
 		{
-			contents.add(convert(tokens));
+			List<Symbol> contents = new ArrayList<Symbol>();
+			while (true) {
+				skipWhitespace(false);
+				int c = peek();
+				if (c == '(') {
+					index++;
+					contents.add(parseList());
+				} else if (c == ')') {
+					index++;
+					return SymbolPool.getList(contents);
+				} else if (c < 0) {
+					throw new SymbolFormatException(getSource());
+				} else {
+					readAtom();
+					contents.add(SymbolPool.getAtom(token.toString()));
+				}
+			}
 		}
-		tokens.removeFirst();
-
-		return SymbolPool.getList(contents);
-	}
 
-	private static List<String> lex(String string)
-	{
-		List<String> tokens = new ArrayList<String>();
-		for (String token : string.split(" "))
+		/** Reads the characters of the next atom into the token. */
+		private void readAtom() throws IOException
 		{
-			tokens.add(token);
+			token.setLength(0);
+			int c;
+			while ((c = peek()) >= 0 && !isWhitespace(c) && c != '(' && c != ')' && c != ';') {
+				token.append((char) c);
+				index++;
+			}
 		}
 
-		return tokens;
-	}
+		/**
+		 * Skips whitespace and comments, along with any other control
+		 * characters when trimming.
+		 */
+		private void skipWhitespace(boolean trimming) throws IOException
+		{
+			int c;
+			while ((c = peek()) >= 0) {
+				if (c == ';') {
+					while ((c = peek()) >= 0 && c != '\n' && c != '\r') {
+						index++;
+					}
+				} else if (isWhitespace(c) || (trimming && c <= ' ')) {
+					index++;
+				} else {
+					return;
+				}
+			}
+		}
 
-	private static String preprocess(String string)
-	{
-		string = string.replaceAll("\\(", " ( ");
-		string = string.replaceAll("\\)", " ) ");
+		private static boolean isWhitespace(int c)
+		{
+			return c == ' ' || c == '\n' || c == '\r' || c == '\t' || c == '\f' || c == 0x0B;
+		}
 
-		string = string.replaceAll("\\s+", " ");
-		string = string.trim();
+		/** Returns the next character without reading past it, or -1 at the end. */
+		private int peek() throws IOException
+		{
+			if (index == length) {
+				if (reader == null) {
+					return -1;
+				}
+				int read;
+				do {
+					read = reader.read(buffer, 0, buffer.length);
+				} while (read == 0);
+				if (read < 0) {
+					return -1;
+				}
+				index = 0;
+				length = read;
+			}
+			return (reader == null) ? chars.charAt(index) : buffer[index];
+		}
 
-		return string;
+		private String getSource()
+		{
+			return (reader == null) ? chars.toString() : new String(buffer, 0, length);
+		}
 	}
-}
\ No newline at end of file
+}
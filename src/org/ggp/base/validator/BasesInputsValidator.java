@@ -31,8 +31,8 @@ public class BasesInputsValidator implements GameValidator {
 	private static final GdlConstant INPUT = GdlPool.getConstant("input");
 	private static final GdlConstant TRUE = GdlPool.getConstant("true");
 	private static final GdlConstant LEGAL = GdlPool.getConstant("legal");
-	private static final GdlVariable X = GdlPool.getVariable("?x");
-	private static final GdlVariable Y = GdlPool.getVariable("?y");
+	private static final GdlVariable X = GdlPool.pin(GdlPool.getVariable("?x"));
+	private static final GdlVariable Y = GdlPool.pin(GdlPool.getVariable("?y"));
 
 	private int millisecondsToTest;
 	public BasesInputsValidator(int millisecondsToTest) {